@@ -0,0 +1,233 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import net.gcdc.camdenm.CoopIts.*;
+
+/**
+ *
+ *
+ * <h1>CAM generator</h1>
+ *
+ * <p>Generates simple CAMs from the ego states streamed by the vehicle, following the generation
+ * rules of ETSI EN 302 637-2. A CAM is generated for an ego state when
+ *
+ * <ul>
+ *   <li>no CAM has been generated before,
+ *   <li>at least 100ms have passed since the last CAM and the heading has changed by more than 4
+ *       degrees, the position by more than 4 meters or the speed by more than 0.5 m/s since then,
+ *       or
+ *   <li>at least 1s has passed since the last CAM.
+ * </ul>
+ *
+ * <p>The fields that aren't part of the ego state, e.g., the station type, vehicle size and
+ * vehicle role, are taken from a template CAM. The vehicle can send a full simple CAM at any time
+ * to update the template, otherwise they are marked as unavailable. The low frequency container is
+ * included in the first CAM and then in the first CAM generated at least 500ms after the last CAM
+ * that included it.
+ *
+ * <p>The generator is meant to be fed by the ego states of a single vehicle. Its methods are
+ * synchronized so that it can be shared by the receive workers.
+ */
+final class CamGenerator {
+
+  /* Generation rules. The thresholds are in the units of the simple
+   * CAM, i.e., 0.1 degrees and 0.01 m/s. */
+  private static final long MIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MAX_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1000);
+  private static final long LOW_FREQUENCY_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+  private static final int HEADING_THRESHOLD = 40;
+  private static final double POSITION_THRESHOLD_METERS = 4;
+  private static final int SPEED_THRESHOLD = 50;
+
+  /* Meters per 1e-7 degree of latitude */
+  private static final double METERS_PER_UNIT = 6371000 * Math.PI / 180 / 1e7;
+
+  private static final byte LOW_FREQUENCY_CONTAINER = (byte) (1 << 7);
+
+  private final ByteBuffer template = ByteBuffer.allocate(SimpleCam.SIMPLE_CAM_LENGTH);
+
+  /* State of the last generated CAM */
+  private boolean generated = false;
+  private long lastCamNanos;
+  private long lastLowFrequencyNanos;
+  private int lastLatitude;
+  private int lastLongitude;
+  private int lastHeading;
+  private int lastSpeed;
+
+  private final LongAdder egoStates = new LongAdder();
+  private final LongAdder cams = new LongAdder();
+
+  /** CamGenerator constructor. The template CAM has all optional fields set to unavailable. */
+  CamGenerator() {
+    new SimpleCam(
+            0,
+            0,
+            LOW_FREQUENCY_CONTAINER,
+            StationType.passengerCar,
+            Latitude.unavailable,
+            Longitude.unavailable,
+            SemiAxisLength.unavailable,
+            SemiAxisLength.unavailable,
+            HeadingValue.unavailable,
+            AltitudeValue.unavailable,
+            HeadingValue.unavailable,
+            HeadingConfidence.unavailable,
+            SpeedValue.unavailable,
+            SpeedConfidence.unavailable,
+            VehicleLengthValue.unavailable,
+            VehicleWidth.unavailable,
+            LongitudinalAccelerationValue.unavailable,
+            AccelerationConfidence.unavailable,
+            YawRateValue.unavailable,
+            (int) YawRateConfidence.unavailable.value(),
+            (int) VehicleRole.default_.value())
+        .writeTo(template, 0);
+  }
+
+  /**
+   * Use a simple CAM from the vehicle as the template of the generated CAMs. The CAM should have
+   * been validated. The fields that are part of the ego state are overwritten when generating.
+   *
+   * @param cam View of the simple CAM.
+   */
+  synchronized void setTemplate(SimpleCamView cam) {
+    template.put(
+        SimpleCamView.CONTAINER_MASK, (byte) (cam.getContainerMask() | LOW_FREQUENCY_CONTAINER));
+    template.putInt(SimpleCamView.STATION_TYPE, cam.getStationType());
+    template.putInt(SimpleCamView.SEMI_MAJOR_CONFIDENCE, cam.getSemiMajorConfidence());
+    template.putInt(SimpleCamView.SEMI_MINOR_CONFIDENCE, cam.getSemiMinorConfidence());
+    template.putInt(SimpleCamView.SEMI_MAJOR_ORIENTATION, cam.getSemiMajorOrientation());
+    template.putInt(SimpleCamView.HEADING_CONFIDENCE, cam.getHeadingConfidence());
+    template.putInt(SimpleCamView.SPEED_CONFIDENCE, cam.getSpeedConfidence());
+    template.putInt(SimpleCamView.VEHICLE_LENGTH, cam.getVehicleLength());
+    template.putInt(SimpleCamView.VEHICLE_WIDTH, cam.getVehicleWidth());
+    template.putInt(
+        SimpleCamView.LONGITUDINAL_ACCELERATION_CONFIDENCE,
+        cam.getLongitudinalAccelerationConfidence());
+    template.putInt(SimpleCamView.YAW_RATE_CONFIDENCE, cam.getYawRateConfidence());
+    template.putInt(SimpleCamView.VEHICLE_ROLE, cam.getVehicleRole());
+  }
+
+  /**
+   * Feed an ego state to the generator, and write a simple CAM to a buffer if one should be
+   * generated for it.
+   *
+   * @param ego View of a validated ego state.
+   * @param nowNanos The current time, as given by System.nanoTime().
+   * @param out Buffer to write the simple CAM to, starting at index 0. Its position is not
+   *     modified. Must have room for SimpleCam.SIMPLE_CAM_LENGTH bytes.
+   * @return True if a CAM was written to the buffer.
+   */
+  synchronized boolean update(SimpleEgoStateView ego, long nowNanos, ByteBuffer out) {
+    egoStates.increment();
+    if (!shouldGenerate(ego, nowNanos)) {
+      return false;
+    }
+    boolean lowFrequency =
+        !generated || nowNanos - lastLowFrequencyNanos >= LOW_FREQUENCY_INTERVAL_NANOS;
+
+    for (int i = 0; i < SimpleCam.SIMPLE_CAM_LENGTH; i++) {
+      out.put(i, template.get(i));
+    }
+    out.putInt(SimpleMessageView.STATION_ID, ego.getStationId());
+    out.putInt(SimpleCamView.GENERATION_DELTA_TIME, ego.getGenerationDeltaTime());
+    byte containerMask = template.get(SimpleCamView.CONTAINER_MASK);
+    if (!lowFrequency) {
+      containerMask &= ~LOW_FREQUENCY_CONTAINER;
+    }
+    out.put(SimpleCamView.CONTAINER_MASK, containerMask);
+    out.putInt(SimpleCamView.LATITUDE, ego.getLatitude());
+    out.putInt(SimpleCamView.LONGITUDE, ego.getLongitude());
+    out.putInt(SimpleCamView.ALTITUDE, ego.getAltitude());
+    out.putInt(SimpleCamView.HEADING, ego.getHeading());
+    out.putInt(SimpleCamView.SPEED, ego.getSpeed());
+    out.putInt(SimpleCamView.LONGITUDINAL_ACCELERATION, ego.getLongitudinalAcceleration());
+    out.putInt(SimpleCamView.YAW_RATE, ego.getYawRate());
+
+    generated = true;
+    lastCamNanos = nowNanos;
+    if (lowFrequency) {
+      lastLowFrequencyNanos = nowNanos;
+    }
+    lastLatitude = ego.getLatitude();
+    lastLongitude = ego.getLongitude();
+    lastHeading = ego.getHeading();
+    lastSpeed = ego.getSpeed();
+    cams.increment();
+    return true;
+  }
+
+  /* Apply the generation rules to an ego state */
+  private boolean shouldGenerate(SimpleEgoStateView ego, long nowNanos) {
+    if (!generated) {
+      return true;
+    }
+    long elapsed = nowNanos - lastCamNanos;
+    if (elapsed >= MAX_INTERVAL_NANOS) {
+      return true;
+    }
+    if (elapsed < MIN_INTERVAL_NANOS) {
+      return false;
+    }
+    return headingChanged(ego.getHeading())
+        || positionChanged(ego.getLatitude(), ego.getLongitude())
+        || speedChanged(ego.getSpeed());
+  }
+
+  /* Headings wrap around at 360 degrees. A change to or from an
+   * unavailable heading doesn't count. */
+  private boolean headingChanged(int heading) {
+    if (heading == HeadingValue.unavailable || lastHeading == HeadingValue.unavailable) {
+      return false;
+    }
+    int change = Math.abs(heading - lastHeading);
+    return Math.min(change, 3600 - change) > HEADING_THRESHOLD;
+  }
+
+  /* Distance by the equirectangular approximation, which is accurate
+   * enough over a few meters. */
+  private boolean positionChanged(int latitude, int longitude) {
+    if (latitude == Latitude.unavailable
+        || longitude == Longitude.unavailable
+        || lastLatitude == Latitude.unavailable
+        || lastLongitude == Longitude.unavailable) {
+      return false;
+    }
+    double north = ((long) latitude - lastLatitude) * METERS_PER_UNIT;
+    double east =
+        ((long) longitude - lastLongitude)
+            * METERS_PER_UNIT
+            * Math.cos(Math.toRadians(latitude / 1e7));
+    return north * north + east * east > POSITION_THRESHOLD_METERS * POSITION_THRESHOLD_METERS;
+  }
+
+  private boolean speedChanged(int speed) {
+    if (speed == SpeedValue.unavailable || lastSpeed == SpeedValue.unavailable) {
+      return false;
+    }
+    return Math.abs(speed - lastSpeed) > SPEED_THRESHOLD;
+  }
+
+  /** Return a summary of the ego states received and CAMs generated, and reset the counts. */
+  String takeSummary() {
+    return "CAM generator: ego states=" + egoStates.sumThenReset() + " CAMs=" + cams.sumThenReset();
+  }
+}
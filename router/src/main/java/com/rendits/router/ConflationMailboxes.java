@@ -0,0 +1,202 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ *
+ * <h1>Conflation mailboxes</h1>
+ *
+ * <p>Latest-value mailboxes between decoding the messages received from other stations and
+ * delivering them to the vehicle. There is one mailbox per station and message type. A message
+ * put in a mailbox that already holds an undelivered message replaces it, so when the vehicle is
+ * slower than the link the messages it never had time to read are dropped here instead of in its
+ * socket buffer, and the message it gets next is the latest one.
+ *
+ * <p>Mailboxes are delivered in the order they were filled. A mailbox only exists while it holds
+ * a message: it is removed once its message is taken, so the stations and types share a fixed
+ * number of mailboxes. A message for which no mailbox is free is dropped.
+ *
+ * <p>Its methods are synchronized, as it is filled by the threads receiving from the link layer
+ * and emptied by the thread delivering to the vehicle.
+ */
+final class ConflationMailboxes {
+
+  /** Value returned by take() when no message arrived before the timeout. */
+  static final int NONE = -1;
+
+  private final byte[] messageIds;
+  private final IntIntMap[] slotOf;
+  private final int maxLength;
+
+  /* Message, its length, type and station of every mailbox */
+  private final byte[] messages;
+  private final int[] lengths;
+  private final int[] types;
+  private final int[] stationIds;
+
+  /* Free mailboxes, and the filled ones in the order they were
+   * filled */
+  private final int[] free;
+  private int numFree;
+  private final int[] queue;
+  private int head = 0;
+  private int numQueued = 0;
+
+  private final Metrics.Counter offered;
+  private final Metrics.Counter superseded;
+  private final Metrics.Counter delivered;
+  private final Metrics.Counter dropped;
+
+  /**
+   * ConflationMailboxes constructor.
+   *
+   * @param messageIds Message IDs of the types to conflate.
+   * @param maxMailboxes Maximum number of mailboxes, shared by all types.
+   * @param maxLength Maximum length in bytes of a message.
+   * @param metrics Registry to add the counters to.
+   */
+  ConflationMailboxes(byte[] messageIds, int maxMailboxes, int maxLength, Metrics metrics) {
+    if (maxMailboxes <= 0) {
+      throw new IllegalArgumentException("maxMailboxes must be positive");
+    }
+    this.offered =
+        metrics.counter("rx_mailbox_offered", "Messages put in the conflation mailboxes");
+    this.superseded =
+        metrics.counter("rx_mailbox_superseded", "Undelivered messages replaced by a newer one");
+    this.delivered =
+        metrics.counter("rx_mailbox_delivered", "Messages taken from the conflation mailboxes");
+    this.dropped =
+        metrics.counter("rx_mailbox_dropped", "Messages dropped for lack of a free mailbox");
+    this.messageIds = messageIds.clone();
+    this.slotOf = new IntIntMap[messageIds.length];
+    for (int type = 0; type < messageIds.length; type++) {
+      slotOf[type] = new IntIntMap(maxMailboxes);
+    }
+    this.maxLength = maxLength;
+    this.messages = new byte[maxMailboxes * maxLength];
+    this.lengths = new int[maxMailboxes];
+    this.types = new int[maxMailboxes];
+    this.stationIds = new int[maxMailboxes];
+    this.free = new int[maxMailboxes];
+    for (int slot = 0; slot < maxMailboxes; slot++) {
+      free[slot] = maxMailboxes - 1 - slot;
+    }
+    this.numFree = maxMailboxes;
+    this.queue = new int[maxMailboxes];
+  }
+
+  /**
+   * Put a simple message in the mailbox of its station and type, replacing the message it holds.
+   *
+   * @param buffer Buffer holding the simple message, starting with its message ID and station ID.
+   *     Its position is not modified.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Length of the message in bytes.
+   * @return False if the type of the message isn't conflated, in which case it should be delivered
+   *     as usual. True otherwise, even if the message was dropped.
+   */
+  synchronized boolean offer(ByteBuffer buffer, int offset, int length) {
+    int type = typeOf(buffer.get(offset));
+    if (type < 0 || length < 5 || length > maxLength) {
+      return false;
+    }
+    offered.increment();
+    int stationId = buffer.getInt(offset + 1);
+    int slot = slotOf[type].get(stationId);
+    if (slot != IntIntMap.MISSING) {
+      superseded.increment();
+    } else if (numFree == 0) {
+      dropped.increment();
+      return true;
+    } else {
+      slot = free[--numFree];
+      slotOf[type].put(stationId, slot);
+      types[slot] = type;
+      stationIds[slot] = stationId;
+      queue[(head + numQueued++) % queue.length] = slot;
+      notifyAll();
+    }
+    int base = slot * maxLength;
+    for (int i = 0; i < length; i++) {
+      messages[base + i] = buffer.get(offset + i);
+    }
+    lengths[slot] = length;
+    return true;
+  }
+
+  /**
+   * Take the message of the mailbox filled longest ago, waiting for one if they are all empty.
+   *
+   * @param out Buffer to write the message to. It is cleared first, and flipped after writing.
+   * @param timeoutNanos Maximum time to wait for a message.
+   * @return The message ID of the message taken, or NONE if there was none before the timeout.
+   * @exception InterruptedException if interrupted while waiting.
+   */
+  synchronized int take(ByteBuffer out, long timeoutNanos) throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    while (numQueued == 0) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return NONE;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    int slot = queue[head];
+    head = (head + 1) % queue.length;
+    numQueued--;
+    slotOf[types[slot]].remove(stationIds[slot]);
+    free[numFree++] = slot;
+    out.clear();
+    out.put(messages, slot * maxLength, lengths[slot]);
+    out.flip();
+    delivered.increment();
+    return messageIds[types[slot]];
+  }
+
+  /** Return the number of messages waiting to be taken. */
+  synchronized int size() {
+    return numQueued;
+  }
+
+  /** Return a summary of the mailboxes, with the counts of the last metrics interval. */
+  String takeSummary() {
+    return "Conflation: pending="
+        + size()
+        + " offered="
+        + offered.getLastInterval()
+        + " superseded="
+        + superseded.getLastInterval()
+        + " delivered="
+        + delivered.getLastInterval()
+        + " dropped="
+        + dropped.getLastInterval();
+  }
+
+  /* Return the index of the type with the given message ID, or -1 if
+   * it isn't conflated. */
+  private int typeOf(byte messageId) {
+    for (int type = 0; type < messageIds.length; type++) {
+      if (messageIds[type] == messageId) {
+        return type;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,172 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ *
+ *
+ * <h1>Counters file</h1>
+ *
+ * <p>Publishes the counters and gauges of a metrics registry to a memory-mapped file, so that
+ * other processes on the host, e.g., a diagnostics daemon or CountersReader, can read them
+ * without a socket or any parsing. The file should be put in a memory-backed file system such as
+ * /dev/shm, so that publishing never waits on the disk.
+ *
+ * <p>The layout is fixed once the file is created and all numbers are little-endian. Version 1
+ * consists of:
+ *
+ * <ul>
+ *   <li>A header of 64 bytes: the magic number 0x52544331 (int, offset 0), the layout version
+ *       (int, 4), the number of entries (int, 8), the length of a metadata record (int, 12), the
+ *       length of a value slot (int, 16), the process ID of the router (long, 24, -1 if
+ *       unknown), the time the file was created (long, 32) and the time the values were last
+ *       published (long, 40), both in milliseconds since the Unix epoch.
+ *   <li>A metadata record of 256 bytes per entry: the type, 1 for a counter and 2 for a gauge
+ *       (int, 0), the length of the name (int, 4), the name in UTF-8 (up to 64 bytes, 8), the
+ *       length of the description (int, 72) and the description in UTF-8 (up to 180 bytes, 76).
+ *   <li>A value slot of 64 bytes per entry, holding the value as a long in its first 8 bytes.
+ *       Every value has a cache line of its own.
+ * </ul>
+ *
+ * <p>The magic number is written last, so a reader that finds it can rely on the rest of the
+ * layout. Values are written with plain stores and read one at a time, so a reader sees every
+ * value as it was at some point but not all values from the same instant.
+ */
+final class CountersFile {
+
+  static final int MAGIC = 0x52544331;
+  static final int VERSION = 1;
+
+  static final int HEADER_LENGTH = 64;
+  static final int MAGIC_OFFSET = 0;
+  static final int VERSION_OFFSET = 4;
+  static final int ENTRIES_OFFSET = 8;
+  static final int METADATA_LENGTH_OFFSET = 12;
+  static final int VALUE_LENGTH_OFFSET = 16;
+  static final int PID_OFFSET = 24;
+  static final int START_TIME_OFFSET = 32;
+  static final int PUBLISH_TIME_OFFSET = 40;
+
+  static final int METADATA_LENGTH = 256;
+  static final int TYPE_OFFSET = 0;
+  static final int NAME_OFFSET = 4;
+  static final int MAX_NAME_LENGTH = 64;
+  static final int HELP_OFFSET = 72;
+  static final int MAX_HELP_LENGTH = 180;
+
+  static final int VALUE_LENGTH = 64;
+
+  static final int TYPE_COUNTER = 1;
+  static final int TYPE_GAUGE = 2;
+
+  private final MappedByteBuffer buffer;
+  private final List<Metrics.Counter> counters;
+  private final List<Metrics.Gauge> gauges;
+  private final int valuesOffset;
+
+  /**
+   * CountersFile constructor. Creates, or overwrites, the file and lays out the counters and
+   * gauges registered so far. Those registered later aren't published.
+   *
+   * @param file File to publish the values to.
+   * @param metrics Registry of the values.
+   * @exception IOException if the file can't be created or mapped.
+   */
+  CountersFile(File file, Metrics metrics) throws IOException {
+    counters = metrics.counters();
+    gauges = metrics.gauges();
+    int entries = counters.size() + gauges.size();
+    valuesOffset = HEADER_LENGTH + entries * METADATA_LENGTH;
+    int length = valuesOffset + entries * VALUE_LENGTH;
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(0);
+      raf.setLength(length);
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    buffer.putInt(VERSION_OFFSET, VERSION);
+    buffer.putInt(ENTRIES_OFFSET, entries);
+    buffer.putInt(METADATA_LENGTH_OFFSET, METADATA_LENGTH);
+    buffer.putInt(VALUE_LENGTH_OFFSET, VALUE_LENGTH);
+    buffer.putLong(PID_OFFSET, pid());
+    buffer.putLong(START_TIME_OFFSET, System.currentTimeMillis());
+    int entry = 0;
+    for (Metrics.Counter counter : counters) {
+      putMetadata(entry++, TYPE_COUNTER, counter.getName(), counter.getHelp());
+    }
+    for (Metrics.Gauge gauge : gauges) {
+      putMetadata(entry++, TYPE_GAUGE, gauge.getName(), gauge.getHelp());
+    }
+    update();
+    buffer.putInt(MAGIC_OFFSET, MAGIC);
+  }
+
+  /** Write the current values to the file. Must only be called by one thread at a time. */
+  void update() {
+    int offset = valuesOffset;
+    for (Metrics.Counter counter : counters) {
+      buffer.putLong(offset, counter.getTotal());
+      offset += VALUE_LENGTH;
+    }
+    for (Metrics.Gauge gauge : gauges) {
+      buffer.putLong(offset, gauge.getValue());
+      offset += VALUE_LENGTH;
+    }
+    buffer.putLong(PUBLISH_TIME_OFFSET, System.currentTimeMillis());
+  }
+
+  private void putMetadata(int entry, int type, String name, String help) {
+    int offset = HEADER_LENGTH + entry * METADATA_LENGTH;
+    buffer.putInt(offset + TYPE_OFFSET, type);
+    putString(offset + NAME_OFFSET, name, MAX_NAME_LENGTH);
+    putString(offset + HELP_OFFSET, help, MAX_HELP_LENGTH);
+  }
+
+  /* Write the length of a string followed by its bytes, truncated to
+   * at most maxLength bytes. */
+  private void putString(int offset, String string, int maxLength) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    int length = Math.min(bytes.length, maxLength);
+    buffer.putInt(offset, length);
+    for (int i = 0; i < length; i++) {
+      buffer.put(offset + 4 + i, bytes[i]);
+    }
+  }
+
+  /* Return the process ID from the name of the runtime, pid@host on
+   * the common JVMs, or -1. */
+  private static long pid() {
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int at = name.indexOf('@');
+    try {
+      return Long.parseLong(at > 0 ? name.substring(0, at) : name);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
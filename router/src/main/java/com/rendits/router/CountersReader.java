@@ -0,0 +1,181 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ *
+ * <h1>Counters reader</h1>
+ *
+ * <p>Attaches to the counters file of a running router, see CountersFile for the layout, and reads
+ * the values without disturbing the router. Run as a program it prints the values with the rates
+ * of the counters every second:
+ *
+ * <pre>
+ * java -cp rendits-router.jar com.rendits.router.CountersReader /dev/shm/router-counters [ms]
+ * </pre>
+ */
+public final class CountersReader {
+
+  /* The values are considered stale if they haven't been published in this long */
+  private static final long STALE_MILLIS = 5000;
+
+  private final MappedByteBuffer buffer;
+  private final int entries;
+  private final int metadataLength;
+  private final int valueLength;
+  private final int valuesOffset;
+
+  /**
+   * CountersReader constructor.
+   *
+   * @param file Counters file written by a router.
+   * @exception IOException if the file can't be mapped, or isn't a counters file of a known
+   *     version.
+   */
+  public CountersReader(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      if (raf.length() < CountersFile.HEADER_LENGTH) {
+        throw new IOException(file + " is not a counters file");
+      }
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt(CountersFile.MAGIC_OFFSET) != CountersFile.MAGIC) {
+      throw new IOException(file + " is not a counters file");
+    }
+    int version = buffer.getInt(CountersFile.VERSION_OFFSET);
+    if (version != CountersFile.VERSION) {
+      throw new IOException("unsupported version " + version + " of " + file);
+    }
+    entries = buffer.getInt(CountersFile.ENTRIES_OFFSET);
+    metadataLength = buffer.getInt(CountersFile.METADATA_LENGTH_OFFSET);
+    valueLength = buffer.getInt(CountersFile.VALUE_LENGTH_OFFSET);
+    valuesOffset = CountersFile.HEADER_LENGTH + entries * metadataLength;
+    if (valuesOffset + (long) entries * valueLength > buffer.capacity()) {
+      throw new IOException(file + " is truncated");
+    }
+  }
+
+  /** Return the number of counters and gauges in the file. */
+  public int size() {
+    return entries;
+  }
+
+  /** Return the name of an entry. */
+  public String getName(int entry) {
+    return getString(metadataOffset(entry) + CountersFile.NAME_OFFSET);
+  }
+
+  /** Return the description of an entry. */
+  public String getHelp(int entry) {
+    return getString(metadataOffset(entry) + CountersFile.HELP_OFFSET);
+  }
+
+  /** Return true if an entry is a gauge, and false if it is a counter. */
+  public boolean isGauge(int entry) {
+    return buffer.getInt(metadataOffset(entry) + CountersFile.TYPE_OFFSET)
+        == CountersFile.TYPE_GAUGE;
+  }
+
+  /** Return the value of an entry as last published. */
+  public long getValue(int entry) {
+    return buffer.getLong(valuesOffset + entry * valueLength);
+  }
+
+  /** Return the process ID of the router, or -1 if unknown. */
+  public long getPid() {
+    return buffer.getLong(CountersFile.PID_OFFSET);
+  }
+
+  /** Return the time the router created the file, in milliseconds since the Unix epoch. */
+  public long getStartTimeMillis() {
+    return buffer.getLong(CountersFile.START_TIME_OFFSET);
+  }
+
+  /** Return the time the values were last published, in milliseconds since the Unix epoch. */
+  public long getPublishTimeMillis() {
+    return buffer.getLong(CountersFile.PUBLISH_TIME_OFFSET);
+  }
+
+  private int metadataOffset(int entry) {
+    if (entry < 0 || entry >= entries) {
+      throw new IndexOutOfBoundsException("no entry " + entry);
+    }
+    return CountersFile.HEADER_LENGTH + entry * metadataLength;
+  }
+
+  private String getString(int offset) {
+    byte[] bytes = new byte[buffer.getInt(offset)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(offset + 4 + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Print the values in a counters file, and the rates of the counters, at a fixed interval until
+   * interrupted.
+   *
+   * @param args The counters file, and optionally the interval in milliseconds.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: CountersReader <counters file> [interval in ms]");
+      System.exit(1);
+    }
+    CountersReader reader = new CountersReader(new File(args[0]));
+    long intervalMillis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+    System.out.println("Router " + reader.getPid() + ", " + reader.size() + " counters and gauges");
+
+    long[] previous = new long[reader.size()];
+    for (int i = 0; i < previous.length; i++) {
+      previous[i] = reader.getValue(i);
+    }
+    long previousNanos = System.nanoTime();
+    while (true) {
+      TimeUnit.MILLISECONDS.sleep(intervalMillis);
+      long nowNanos = System.nanoTime();
+      double seconds = (nowNanos - previousNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+      previousNanos = nowNanos;
+
+      StringBuilder out = new StringBuilder();
+      if (System.currentTimeMillis() - reader.getPublishTimeMillis() > STALE_MILLIS) {
+        out.append("(not updated in the last ").append(STALE_MILLIS).append(" ms)\n");
+      }
+      for (int i = 0; i < previous.length; i++) {
+        long value = reader.getValue(i);
+        out.append(String.format(Locale.ROOT, "%-40s %14d", reader.getName(i), value));
+        if (!reader.isGauge(i)) {
+          out.append(String.format(Locale.ROOT, " %12.1f/s", (value - previous[i]) / seconds));
+        }
+        out.append('\n');
+        previous[i] = value;
+      }
+      System.out.println(out);
+    }
+  }
+}
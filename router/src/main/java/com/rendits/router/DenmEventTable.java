@@ -0,0 +1,173 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ *
+ * <h1>DENM event table</h1>
+ *
+ * <p>Keeps track of the events announced by the DENMs received from other stations, so that only
+ * DENMs that tell the vehicle something new are decoded and forwarded to it. Stations repeat the
+ * DENM of an event until it is no longer valid, and almost all of the DENMs received are such
+ * repetitions.
+ *
+ * <p>Events are keyed by actionID. For every event the table holds the reference time and
+ * termination of the last DENM forwarded, and a hash of its encoding. All of these are read
+ * without decoding the DENM. A DENM is forwarded if it
+ *
+ * <ul>
+ *   <li>is of an unknown event,
+ *   <li>is an update, i.e., has a later reference time,
+ *   <li>terminates the event, i.e., is the first cancellation or negation of it, or
+ *   <li>has the same reference time and termination but a different encoding.
+ * </ul>
+ *
+ * <p>DENMs with an earlier reference time than the last one forwarded are outdated and dropped,
+ * as are exact repetitions. Events are forgotten once their validity duration has passed.
+ */
+final class DenmEventTable {
+
+  /* Events are expired at most this often */
+  private static final long EXPIRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** An event, as announced by the last DENM forwarded. */
+  private static final class Event {
+    private long referenceTime;
+    private int termination;
+    private int hash;
+    private long expiresNanos;
+  }
+
+  private final int maxEvents;
+  private final Map<Long, Event> events = new HashMap<>();
+  private long lastExpiryNanos;
+
+  private final Metrics.Counter forwarded;
+  private final Metrics.Counter suppressed;
+
+  /**
+   * DenmEventTable constructor.
+   *
+   * @param maxEvents Maximum number of events to keep track of. DENMs of events that don't fit are
+   *     always forwarded.
+   * @param metrics Registry to add the counters to.
+   */
+  DenmEventTable(int maxEvents, Metrics metrics) {
+    this.forwarded =
+        metrics.counter(
+            "rx_denm_events_forwarded", "Received DENMs that are new or update an event");
+    this.suppressed =
+        metrics.counter("rx_denm_events_suppressed", "Received DENMs suppressed as repetitions");
+    this.maxEvents = maxEvents;
+  }
+
+  /**
+   * Return true, and count the DENM as suppressed, if a DENM has nothing new to tell the vehicle.
+   *
+   * @param actionId ActionID of the DENM, or -1 if it couldn't be read.
+   * @param referenceTime Reference time of the DENM.
+   * @param termination Index of the termination of the DENM, or -1 if it has none.
+   * @param hash Hash of the encoded DENM.
+   */
+  synchronized boolean isRedundant(long actionId, long referenceTime, int termination, int hash) {
+    Event event = events.get(actionId);
+    if (actionId < 0 || event == null) {
+      return false;
+    }
+    boolean redundant;
+    if (referenceTime != event.referenceTime) {
+      redundant = referenceTime < event.referenceTime;
+    } else if (event.termination >= 0 || termination >= 0) {
+      redundant = event.termination >= 0;
+    } else {
+      redundant = hash == event.hash;
+    }
+    if (redundant) {
+      suppressed.increment();
+    }
+    return redundant;
+  }
+
+  /**
+   * Remember the DENM that was forwarded for an event.
+   *
+   * @param actionId ActionID of the DENM, or -1 if it couldn't be read.
+   * @param referenceTime Reference time of the DENM.
+   * @param termination Index of the termination of the DENM, or -1 if it has none.
+   * @param hash Hash of the encoded DENM.
+   * @param validitySeconds Validity duration of the DENM in seconds.
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  synchronized void forwarded(
+      long actionId,
+      long referenceTime,
+      int termination,
+      int hash,
+      int validitySeconds,
+      long nowNanos) {
+    forwarded.increment();
+    if (nowNanos - lastExpiryNanos >= EXPIRY_INTERVAL_NANOS) {
+      expire(nowNanos);
+    }
+    if (actionId < 0) {
+      return;
+    }
+    Event event = events.get(actionId);
+    if (event == null) {
+      if (events.size() >= maxEvents) {
+        return;
+      }
+      event = new Event();
+      events.put(actionId, event);
+    }
+    event.referenceTime = referenceTime;
+    event.termination = termination;
+    event.hash = hash;
+    event.expiresNanos = nowNanos + TimeUnit.SECONDS.toNanos(validitySeconds);
+  }
+
+  /* Forget the events whose validity has passed */
+  private void expire(long nowNanos) {
+    lastExpiryNanos = nowNanos;
+    Iterator<Event> iterator = events.values().iterator();
+    while (iterator.hasNext()) {
+      if (nowNanos - iterator.next().expiresNanos > 0) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /** Return the number of events being tracked. */
+  synchronized int size() {
+    return events.size();
+  }
+
+  /** Return a summary of the DENMs forwarded and suppressed in the last metrics interval. */
+  String takeSummary() {
+    return "DENM events: tracked="
+        + size()
+        + " forwarded="
+        + forwarded.getLastInterval()
+        + " suppressed="
+        + suppressed.getLastInterval();
+  }
+}
@@ -0,0 +1,312 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.gcdc.camdenm.CoopIts;
+import net.gcdc.geonetworking.Destination.Geobroadcast;
+
+/**
+ *
+ *
+ * <h1>DENM repeater</h1>
+ *
+ * <p>Repeats DENMs on behalf of the vehicle. A DENM with a transmission interval is re-transmitted
+ * at that interval until its validity duration has passed, so that the vehicle only has to send
+ * it once. The already encoded DENM is cached and sent as is, i.e., it is not encoded again.
+ *
+ * <p>Every event is identified by its actionID, the originating station ID together with the
+ * sequence number of the DENM. The simple DENM doesn't carry a sequence number, so the router
+ * maps simple DENMs to events by station ID, cause code and sub cause code: a DENM with the cause
+ * of an active event is an update of that event and keeps its actionID. An update replaces the
+ * cached DENM and restarts the repetition. A DENM with a termination cancels the event after it
+ * has been sent, as does a negation of the event received from another station.
+ *
+ * <p>Repetitions are kept in a hashed timer wheel, so that scheduling, cancelling and expiring an
+ * event takes constant time no matter how many events are active. The wheel is advanced by a
+ * single thread calling advance(), which sends the due DENMs through a Sender.
+ */
+final class DenmRepeater {
+
+  /** Sends a DENM that is due to be repeated. */
+  interface Sender {
+
+    /**
+     * Send a repetition of a DENM.
+     *
+     * @param bytes The UPER encoded DENM.
+     * @param destination The destination the DENM was first sent to.
+     * @param nowNanos The current time, as given by System.nanoTime().
+     */
+    void send(byte[] bytes, Geobroadcast destination, long nowNanos);
+  }
+
+  /** Duration of a tick of the timer wheel, i.e., the resolution of the repetition intervals. */
+  static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /* Number of slots of the wheel, a power of 2. One turn of the wheel
+   * covers 5.12s, longer intervals take several turns. */
+  private static final int WHEEL_SIZE = 512;
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+  private static final int DEFAULT_VALIDITY_SECONDS = (int) CoopIts.defaultValidity.value;
+
+  /* Management mask bits of the simple DENM */
+  private static final int TERMINATION = 1 << 7;
+  private static final int VALIDITY_DURATION = 1 << 4;
+  private static final int TRANSMISSION_INTERVAL = 1 << 3;
+
+  /** An active event. Entries are linked into the slot of the tick they are due at. */
+  private static final class Entry {
+    private final long actionId;
+    private final long eventKey;
+    private final int sequenceNumber;
+    private final byte[] bytes;
+    private final Geobroadcast destination;
+    private final long intervalTicks;
+    private final long expiresNanos;
+    private long dueTick;
+    private Entry prev;
+    private Entry next;
+
+    private Entry(
+        long actionId,
+        long eventKey,
+        int sequenceNumber,
+        byte[] bytes,
+        Geobroadcast destination,
+        long intervalTicks,
+        long expiresNanos) {
+      this.actionId = actionId;
+      this.eventKey = eventKey;
+      this.sequenceNumber = sequenceNumber;
+      this.bytes = bytes;
+      this.destination = destination;
+      this.intervalTicks = intervalTicks;
+      this.expiresNanos = expiresNanos;
+    }
+  }
+
+  private final Sender sender;
+  private final long startNanos;
+  private final Entry[] wheel = new Entry[WHEEL_SIZE];
+  private final Map<Long, Entry> byActionId = new HashMap<>();
+  private final Map<Long, Entry> byEvent = new HashMap<>();
+
+  /* Last tick that has been processed */
+  private long currentTick = 0;
+
+  private final Metrics.Counter repeated;
+  private final Metrics.Counter expired;
+  private final Metrics.Counter cancelled;
+
+  /**
+   * DenmRepeater constructor.
+   *
+   * @param sender Sends the repetitions.
+   * @param startNanos Time the wheel starts turning at, as given by System.nanoTime().
+   * @param metrics Registry to add the counters to.
+   */
+  DenmRepeater(Sender sender, long startNanos, Metrics metrics) {
+    this.repeated = metrics.counter("tx_denm_repeated", "DENM repetitions transmitted");
+    this.expired =
+        metrics.counter("tx_denm_repeats_expired", "Repeated DENMs whose validity ran out");
+    this.cancelled =
+        metrics.counter("tx_denm_repeats_cancelled", "Repeated DENMs cancelled by the vehicle");
+    this.sender = sender;
+    this.startNanos = startNanos;
+  }
+
+  /**
+   * Return the actionID of an event, as the originating station ID in the upper 32 bits and the
+   * sequence number in the lower 16 bits.
+   *
+   * @param stationId Originating station ID.
+   * @param sequenceNumber Sequence number, as sent in the DENM.
+   */
+  static long actionId(int stationId, int sequenceNumber) {
+    return ((stationId & 0xffffffffL) << 16) | (sequenceNumber & 0xffff);
+  }
+
+  /* Events are told apart by station and cause */
+  private static long eventKey(SimpleDenmView denm) {
+    return ((denm.getStationId() & 0xffffffffL) << 16)
+        | ((denm.getCauseCode() & 0xff) << 8)
+        | (denm.getSubCauseCode() & 0xff);
+  }
+
+  /**
+   * Return the sequence number to encode a simple DENM with. That is the sequence number of the
+   * active event the DENM is an update of, or the next sequence number if it is a new event.
+   *
+   * @param denm View of a validated simple DENM.
+   */
+  synchronized int sequenceNumber(SimpleDenmView denm) {
+    Entry entry = byEvent.get(eventKey(denm));
+    return entry != null ? entry.sequenceNumber : SimpleDenm.nextSequenceNumber();
+  }
+
+  /**
+   * Start, update or cancel the repetition of an event after a DENM of it has been sent.
+   *
+   * @param denm View of the simple DENM that was sent.
+   * @param sequenceNumber Sequence number the DENM was encoded with.
+   * @param bytes The UPER encoded DENM. Must not be modified afterwards.
+   * @param destination The destination the DENM was sent to.
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  synchronized void update(
+      SimpleDenmView denm,
+      int sequenceNumber,
+      byte[] bytes,
+      Geobroadcast destination,
+      long nowNanos) {
+    long key = eventKey(denm);
+    Entry entry = byEvent.get(key);
+    if (entry != null) {
+      remove(entry);
+    }
+
+    byte managementMask = denm.getManagementMask();
+    if ((managementMask & TERMINATION) != 0) {
+      if (entry != null) {
+        cancelled.increment();
+      }
+      return;
+    }
+    if ((managementMask & TRANSMISSION_INTERVAL) == 0 || denm.getTransmissionInterval() <= 0) {
+      return;
+    }
+
+    long intervalNanos = TimeUnit.MILLISECONDS.toNanos(denm.getTransmissionInterval());
+    int validitySeconds =
+        (managementMask & VALIDITY_DURATION) != 0
+            ? denm.getValidityDuration()
+            : DEFAULT_VALIDITY_SECONDS;
+    entry =
+        new Entry(
+            actionId(denm.getStationId(), sequenceNumber % 65535),
+            key,
+            sequenceNumber,
+            bytes,
+            destination,
+            Math.max(1, intervalNanos / TICK_NANOS),
+            nowNanos + TimeUnit.SECONDS.toNanos(validitySeconds));
+    schedule(entry, Math.max(tickOf(nowNanos + intervalNanos), currentTick + 1));
+    byActionId.put(entry.actionId, entry);
+    byEvent.put(key, entry);
+  }
+
+  /**
+   * Stop repeating an event that another station has negated.
+   *
+   * @param actionId ActionID of the negated event. See actionId().
+   * @return True if the event was being repeated.
+   */
+  synchronized boolean negate(long actionId) {
+    Entry entry = byActionId.get(actionId);
+    if (entry == null) {
+      return false;
+    }
+    remove(entry);
+    cancelled.increment();
+    return true;
+  }
+
+  /**
+   * Turn the wheel up to the current time, sending the DENMs that are due and dropping the events
+   * whose validity has passed.
+   *
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  synchronized void advance(long nowNanos) {
+    long targetTick = tickOf(nowNanos);
+    while (currentTick < targetTick) {
+      currentTick++;
+      int slot = (int) (currentTick & WHEEL_MASK);
+      Entry entry = wheel[slot];
+      while (entry != null) {
+        Entry next = entry.next;
+        if (entry.dueTick <= currentTick) {
+          unlink(entry);
+          if (startNanos + currentTick * TICK_NANOS - entry.expiresNanos >= 0) {
+            byActionId.remove(entry.actionId);
+            byEvent.remove(entry.eventKey);
+            expired.increment();
+          } else {
+            sender.send(entry.bytes, entry.destination, nowNanos);
+            repeated.increment();
+            schedule(entry, currentTick + entry.intervalTicks);
+          }
+        }
+        entry = next;
+      }
+    }
+  }
+
+  /** Return the number of events being repeated. */
+  synchronized int active() {
+    return byActionId.size();
+  }
+
+  /** Return a summary of the repetitions, with the counts of the last metrics interval. */
+  String takeSummary() {
+    return "DENM repetition: active="
+        + active()
+        + " repeated="
+        + repeated.getLastInterval()
+        + " expired="
+        + expired.getLastInterval()
+        + " cancelled="
+        + cancelled.getLastInterval();
+  }
+
+  private long tickOf(long nanos) {
+    return (nanos - startNanos) / TICK_NANOS;
+  }
+
+  private void schedule(Entry entry, long dueTick) {
+    int slot = (int) (dueTick & WHEEL_MASK);
+    entry.dueTick = dueTick;
+    entry.prev = null;
+    entry.next = wheel[slot];
+    if (wheel[slot] != null) {
+      wheel[slot].prev = entry;
+    }
+    wheel[slot] = entry;
+  }
+
+  private void unlink(Entry entry) {
+    if (entry.prev != null) {
+      entry.prev.next = entry.next;
+    } else {
+      wheel[(int) (entry.dueTick & WHEEL_MASK)] = entry.next;
+    }
+    if (entry.next != null) {
+      entry.next.prev = entry.prev;
+    }
+    entry.prev = null;
+    entry.next = null;
+  }
+
+  private void remove(Entry entry) {
+    unlink(entry);
+    byActionId.remove(entry.actionId);
+    byEvent.remove(entry.eventKey);
+  }
+}
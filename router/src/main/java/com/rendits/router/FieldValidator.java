@@ -0,0 +1,158 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ *
+ * <h1>Field validator</h1>
+ *
+ * <p>Checks the value of one field of a simple message against the Range of its ASN.1 type, or
+ * against the values of its enumerated type. The enum members are resolved once, when the
+ * validator is created, into a primitive lookup table, so that checking a value doesn't touch
+ * reflection. The validators of a message are listed by the validators() method of its simple
+ * message class.
+ *
+ * <p>Failed checks are counted per field instead of logged per message, since a vehicle with a
+ * single broken sensor would otherwise log a warning for every message it sends. The counts are
+ * registered as counters in the metrics registry of the router, which logs them periodically.
+ */
+final class FieldValidator {
+  private final String message;
+  private final String field;
+  private final Range range;
+
+  /* Indexed by value - range.min. Null for integer types, which accept
+   * every value in the range. */
+  private final boolean[] members;
+
+  private final LongAdder failures = new LongAdder();
+
+  private FieldValidator(String message, String field, Range range, boolean[] members) {
+    this.message = message;
+    this.field = field;
+    this.range = range;
+    this.members = members;
+  }
+
+  /**
+   * Create a validator for a field of an ASN.1 integer type.
+   *
+   * @param message Name of the message the field belongs to, e.g., CAM.
+   * @param field Name of the field.
+   * @param range Range of the ASN.1 integer type of the field, e.g., Range.LATITUDE.
+   */
+  static FieldValidator ofRange(String message, String field, Range range) {
+    return new FieldValidator(message, field, range, null);
+  }
+
+  /**
+   * Create a validator for a field of an ASN.1 enumerated type. A value is valid if it is the
+   * value() of one of the constants.
+   *
+   * @param message Name of the message the field belongs to, e.g., CAM.
+   * @param field Name of the field.
+   * @param type ASN.1 enumerated type.
+   */
+  static FieldValidator ofEnum(String message, String field, Class<? extends Enum<?>> type) {
+    Enum<?>[] constants = type.getEnumConstants();
+    int[] values = new int[constants.length];
+    try {
+      Method value = type.getMethod("value");
+      for (int i = 0; i < constants.length; i++) {
+        values[i] = ((Number) value.invoke(constants[i])).intValue();
+      }
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException(type + " does not have a value() method", e);
+    }
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (int value : values) {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+    boolean[] members = new boolean[max - min + 1];
+    for (int value : values) {
+      members[value - min] = true;
+    }
+    return new FieldValidator(message, field, new Range(min, max), members);
+  }
+
+  /**
+   * Check a value of the field. A failed check is counted.
+   *
+   * @param value The value to check.
+   * @return True if the value is valid, and false otherwise.
+   */
+  boolean check(int value) {
+    if (accepts(value)) {
+      return true;
+    }
+    failures.increment();
+    return false;
+  }
+
+  /**
+   * Check a value of the field without counting a failed check. Used where the value has already
+   * been checked and counted once.
+   *
+   * @param value The value to check.
+   * @return True if the value is valid, and false otherwise.
+   */
+  boolean accepts(int value) {
+    return range.contains(value) && (members == null || members[(int) (value - range.min)]);
+  }
+
+  /** Return the name of the message the field belongs to. */
+  String getMessage() {
+    return message;
+  }
+
+  /** Return the name of the field. */
+  String getField() {
+    return field;
+  }
+
+  /** Return the number of failed checks of the field. */
+  long getFailures() {
+    return failures.sum();
+  }
+
+  /**
+   * Register the count of failed checks in a metrics registry, e.g., as tx_invalid_cam_station_id
+   * for the StationID of CAMs.
+   *
+   * @param metrics Registry to add the counter to.
+   * @return The counter.
+   */
+  Metrics.Counter register(Metrics metrics) {
+    String name =
+        "tx_invalid_"
+            + message.toLowerCase(Locale.ROOT)
+            + "_"
+            + field.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase(Locale.ROOT);
+    return metrics.counter(name, "Failed checks of " + message + " " + field, failures);
+  }
+
+  @Override
+  public String toString() {
+    return message + " " + field + " (" + range + ")";
+  }
+}
@@ -0,0 +1,147 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.Arrays;
+
+/**
+ *
+ *
+ * <h1>Int to int map</h1>
+ *
+ * <p>Hash map from int keys, e.g., station IDs, to non-negative int values, e.g., indices into
+ * arrays, that doesn't box its keys or allocate when entries are added or removed. Uses open
+ * addressing with linear probing, and backward shift deletion so that no tombstones are left
+ * behind. The map holds a fixed maximum number of entries.
+ *
+ * <p>Not thread safe.
+ */
+final class IntIntMap {
+
+  /** Value returned for keys that aren't in the map. */
+  static final int MISSING = -1;
+
+  private final int maxSize;
+  private final int mask;
+  private final int[] keys;
+  private final int[] values;
+  private int size = 0;
+
+  /**
+   * IntIntMap constructor.
+   *
+   * @param maxSize Maximum number of entries.
+   */
+  IntIntMap(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+
+    /* Keep the load factor at or below 0.5 */
+    int capacity = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+    this.maxSize = maxSize;
+    this.mask = capacity - 1;
+    this.keys = new int[capacity];
+    this.values = new int[capacity];
+    Arrays.fill(values, MISSING);
+  }
+
+  /** Return the value of a key, or MISSING if the key isn't in the map. */
+  int get(int key) {
+    for (int i = indexOf(key); values[i] != MISSING; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return values[i];
+      }
+    }
+    return MISSING;
+  }
+
+  /**
+   * Set the value of a key.
+   *
+   * @param key The key.
+   * @param value The value. Must not be negative.
+   * @exception IllegalStateException if the key is new and the map is full.
+   */
+  void put(int key, int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("values must not be negative");
+    }
+    int i = indexOf(key);
+    for (; values[i] != MISSING; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        values[i] = value;
+        return;
+      }
+    }
+    if (size == maxSize) {
+      throw new IllegalStateException("map is full");
+    }
+    keys[i] = key;
+    values[i] = value;
+    size++;
+  }
+
+  /**
+   * Remove a key.
+   *
+   * @return The value the key had, or MISSING if it wasn't in the map.
+   */
+  int remove(int key) {
+    int i = indexOf(key);
+    for (; values[i] != MISSING; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        break;
+      }
+    }
+    int removed = values[i];
+    if (removed == MISSING) {
+      return MISSING;
+    }
+
+    /* Shift back the entries after the removed one that would no longer
+     * be found, i.e., those whose home index isn't between the hole and
+     * their own index. */
+    int hole = i;
+    for (int j = (i + 1) & mask; values[j] != MISSING; j = (j + 1) & mask) {
+      int home = indexOf(keys[j]);
+      if (((j - home) & mask) >= ((j - hole) & mask)) {
+        keys[hole] = keys[j];
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    values[hole] = MISSING;
+    size--;
+    return removed;
+  }
+
+  /** Return the number of entries. */
+  int size() {
+    return size;
+  }
+
+  /** Return the maximum number of entries. */
+  int maxSize() {
+    return maxSize;
+  }
+
+  /* Spread the bits of the key, as station IDs are often sequential */
+  private int indexOf(int key) {
+    int h = key * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+}
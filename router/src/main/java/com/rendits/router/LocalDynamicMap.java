@@ -0,0 +1,636 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import net.gcdc.camdenm.CoopIts.HeadingValue;
+import net.gcdc.camdenm.CoopIts.Latitude;
+import net.gcdc.camdenm.CoopIts.Longitude;
+
+/**
+ *
+ *
+ * <h1>Local dynamic map</h1>
+ *
+ * <p>Keeps the latest simple CAM of every station within range, and the active DENMs, so that the
+ * vehicle can ask the router for the neighbours it cares about instead of tracking every station
+ * itself. The map answers queries sent to it over UDP, see query().
+ *
+ * <p>The stations are kept in fixed size arrays, indexed by a map from station ID to slot, and
+ * in a uniform grid of cells of a given size in meters. The grid is hashed into a fixed number of
+ * buckets, so that it takes the same memory wherever the stations are. A station whose CAM isn't
+ * updated within the station timeout is expired, and when the table is full the station that was
+ * updated longest ago is evicted to make room. DENMs are kept until their validity duration has
+ * passed or they are terminated, and when their table is full the DENM closest to expiring is
+ * evicted. Memory use is therefore fixed when the map is created.
+ *
+ * <h2>Query protocol</h2>
+ *
+ * <p>A query is a datagram of 30 bytes. All fields are big-endian integers in the units of the
+ * simple messages:
+ *
+ * <pre>
+ * Offset Field
+ *  0     Message ID (1 byte, always 12)
+ *  1     Query type (1 byte): 1 stations within the radius, 2 stations ahead within the radius,
+ *        3 DENMs within the radius
+ *  2     Request ID, copied to the response
+ *  6     Latitude of the center
+ * 10     Longitude of the center
+ * 14     Radius in meters, at most 100000
+ * 18     Heading, used by query type 2
+ * 22     Maximum number of records in the response
+ * 26     Reserved
+ * </pre>
+ *
+ * <p>The response is a single datagram holding an 8 byte header followed by the records, i.e.,
+ * simple CAMs or simple DENMs, nearest first:
+ *
+ * <pre>
+ * Offset Field
+ *  0     Message ID (1 byte, always 13)
+ *  1     Query type (1 byte)
+ *  2     Request ID
+ *  6     Number of records (2 bytes)
+ *  8     Records
+ * </pre>
+ *
+ * <p>The number of records is limited by the maximum asked for and by the size of the response
+ * buffer. The methods of the map are synchronized, as it is updated by the threads receiving
+ * from the link layer and queried by the query thread.
+ */
+final class LocalDynamicMap {
+
+  /** Message ID of queries. */
+  static final byte QUERY_MESSAGE_ID = 12;
+
+  /** Message ID of responses. */
+  static final byte RESPONSE_MESSAGE_ID = 13;
+
+  /** Length in bytes of a query. */
+  static final int QUERY_LENGTH = 30;
+
+  /** Length in bytes of the response header. */
+  static final int RESPONSE_HEADER_LENGTH = 8;
+
+  /* Query types */
+  static final byte STATIONS_WITHIN = 1;
+  static final byte STATIONS_AHEAD = 2;
+  static final byte DENMS_WITHIN = 3;
+
+  /** Largest radius of a query in meters. */
+  static final int MAX_RADIUS = 100000;
+
+  /* Meters per 1e-7 degree of latitude */
+  private static final double METERS_PER_UNIT = 6371000 * Math.PI / 180 / 1e7;
+
+  /* Number of buckets of the hashed grid, a power of 2. Queries
+   * covering more cells than this scan every station instead. */
+  private static final int GRID_BUCKETS = 4096;
+  private static final int NONE = -1;
+
+  /* Expired entries are removed at most this often */
+  private static final long EXPIRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /* Stations */
+  private final int maxStations;
+  private final long stationTimeoutNanos;
+  private final IntIntMap slotOf;
+  private final byte[] cams;
+  private final ByteBuffer camBuffer;
+  private final int[] stationIds;
+  private final int[] latitudes;
+  private final int[] longitudes;
+  private final long[] updatedNanos;
+
+  /* Grid. Stations are linked into the bucket of their cell. Free
+   * slots are linked through nextInBucket as well. */
+  private final int cellSize;
+  private final int[] cellRows;
+  private final int[] cellColumns;
+  private final int[] bucketOf;
+  private final int[] nextInBucket;
+  private final int[] prevInBucket;
+  private final int[] buckets = new int[GRID_BUCKETS];
+  private int freeSlots;
+
+  /* DENMs */
+  private final int maxDenms;
+  private final byte[] denms;
+  private final ByteBuffer denmBuffer;
+  private final long[] actionIds;
+  private final long[] denmExpiresNanos;
+  private int numDenms = 0;
+  private long lastExpiryNanos;
+
+  /* Scratch space for selecting the nearest records */
+  private final int[] nearest;
+  private final double[] nearestDistances;
+
+  private final Metrics.Counter queries;
+  private final Metrics.Counter expired;
+  private final Metrics.Counter evicted;
+
+  /**
+   * LocalDynamicMap constructor.
+   *
+   * @param maxStations Maximum number of stations.
+   * @param maxDenms Maximum number of DENMs.
+   * @param cellSize Size of the cells of the grid in meters.
+   * @param stationTimeoutMillis Time after which a station whose CAM hasn't been updated is
+   *     expired.
+   * @param metrics Registry to add the counters to.
+   */
+  LocalDynamicMap(
+      int maxStations, int maxDenms, int cellSize, long stationTimeoutMillis, Metrics metrics) {
+    if (maxStations <= 0 || maxDenms <= 0 || cellSize <= 0 || stationTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("the sizes and timeout of the LDM must be positive");
+    }
+    this.queries = metrics.counter("ldm_queries", "Queries of the local dynamic map");
+    this.expired =
+        metrics.counter("ldm_expired", "Stations and DENMs expired from the local dynamic map");
+    this.evicted =
+        metrics.counter("ldm_evicted", "Stations and DENMs evicted from a full local dynamic map");
+    this.maxStations = maxStations;
+    this.stationTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stationTimeoutMillis);
+    this.slotOf = new IntIntMap(maxStations);
+    this.cams = new byte[maxStations * SimpleCam.SIMPLE_CAM_LENGTH];
+    this.camBuffer = ByteBuffer.wrap(cams);
+    this.stationIds = new int[maxStations];
+    this.latitudes = new int[maxStations];
+    this.longitudes = new int[maxStations];
+    this.updatedNanos = new long[maxStations];
+
+    this.cellSize = cellSize;
+    this.cellRows = new int[maxStations];
+    this.cellColumns = new int[maxStations];
+    this.bucketOf = new int[maxStations];
+    this.nextInBucket = new int[maxStations];
+    this.prevInBucket = new int[maxStations];
+    Arrays.fill(buckets, NONE);
+    for (int slot = 0; slot < maxStations; slot++) {
+      nextInBucket[slot] = slot + 1 < maxStations ? slot + 1 : NONE;
+    }
+    freeSlots = 0;
+
+    this.maxDenms = maxDenms;
+    this.denms = new byte[maxDenms * SimpleDenm.SIMPLE_DENM_LENGTH];
+    this.denmBuffer = ByteBuffer.wrap(denms);
+    this.actionIds = new long[maxDenms];
+    this.denmExpiresNanos = new long[maxDenms];
+
+    int maxRecords = Math.max(maxStations, maxDenms);
+    this.nearest = new int[maxRecords];
+    this.nearestDistances = new double[maxRecords];
+  }
+
+  /**
+   * Store the simple CAM of a station, replacing the previous one.
+   *
+   * @param buffer Buffer holding the simple CAM. Its position is not modified.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Length of the message in bytes.
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  synchronized void updateStation(ByteBuffer buffer, int offset, int length, long nowNanos) {
+    if (length < SimpleCam.SIMPLE_CAM_LENGTH) {
+      return;
+    }
+    if (nowNanos - lastExpiryNanos >= EXPIRY_INTERVAL_NANOS) {
+      expire(nowNanos);
+    }
+    int stationId = buffer.getInt(offset + 1);
+    int slot = slotOf.get(stationId);
+    if (slot == IntIntMap.MISSING) {
+      slot = allocateStation(nowNanos);
+      stationIds[slot] = stationId;
+      slotOf.put(stationId, slot);
+    } else {
+      unlink(slot);
+    }
+    int base = slot * SimpleCam.SIMPLE_CAM_LENGTH;
+    for (int i = 0; i < SimpleCam.SIMPLE_CAM_LENGTH; i++) {
+      cams[base + i] = buffer.get(offset + i);
+    }
+    latitudes[slot] = buffer.getInt(offset + SimpleCamView.LATITUDE);
+    longitudes[slot] = buffer.getInt(offset + SimpleCamView.LONGITUDE);
+    updatedNanos[slot] = nowNanos;
+    link(slot);
+  }
+
+  /**
+   * Store a simple DENM, replacing an earlier DENM of the same event, or remove the event if the
+   * DENM terminates it.
+   *
+   * @param actionId ActionID of the DENM. See DenmRepeater.actionId().
+   * @param buffer Buffer holding the simple DENM. Its position is not modified.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param validitySeconds Validity duration of the DENM in seconds.
+   * @param terminated True if the DENM is a cancellation or negation of the event.
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  synchronized void updateDenm(
+      long actionId,
+      ByteBuffer buffer,
+      int offset,
+      int validitySeconds,
+      boolean terminated,
+      long nowNanos) {
+    int index = indexOfDenm(actionId);
+    if (terminated) {
+      if (index != NONE) {
+        removeDenm(index);
+      }
+      return;
+    }
+    if (index == NONE) {
+      if (numDenms == maxDenms) {
+        removeDenm(soonestExpiringDenm());
+        evicted.increment();
+      }
+      index = numDenms++;
+      actionIds[index] = actionId;
+    }
+    int base = index * SimpleDenm.SIMPLE_DENM_LENGTH;
+    for (int i = 0; i < SimpleDenm.SIMPLE_DENM_LENGTH; i++) {
+      denms[base + i] = buffer.get(offset + i);
+    }
+    denmExpiresNanos[index] = nowNanos + TimeUnit.SECONDS.toNanos(validitySeconds);
+  }
+
+  /**
+   * Remove the stations and DENMs that have expired. Done once a second when stations are updated.
+   *
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  synchronized void expire(long nowNanos) {
+    lastExpiryNanos = nowNanos;
+    for (int slot = 0; slot < maxStations; slot++) {
+      if (isStored(slot) && nowNanos - updatedNanos[slot] > stationTimeoutNanos) {
+        removeStation(slot);
+        expired.increment();
+      }
+    }
+    for (int i = numDenms - 1; i >= 0; i--) {
+      if (nowNanos - denmExpiresNanos[i] > 0) {
+        removeDenm(i);
+        expired.increment();
+      }
+    }
+  }
+
+  /**
+   * Answer a query.
+   *
+   * @param request Buffer holding the query between position 0 and its limit.
+   * @param response Buffer to write the response to, starting at index 0. The response is
+   *     limited to the capacity of the buffer.
+   * @param nowNanos The current time, as given by System.nanoTime().
+   * @return The length of the response, or -1 if the query is malformed.
+   */
+  synchronized int query(ByteBuffer request, ByteBuffer response, long nowNanos) {
+    if (request.limit() < QUERY_LENGTH || request.get(0) != QUERY_MESSAGE_ID) {
+      return -1;
+    }
+    byte type = request.get(1);
+    int latitude = request.getInt(6);
+    int longitude = request.getInt(10);
+    int radius = request.getInt(14);
+    int heading = request.getInt(18);
+    int maxRecords = request.getInt(22);
+    if (radius < 0
+        || radius > MAX_RADIUS
+        || maxRecords < 0
+        || !isPosition(latitude, longitude)) {
+      return -1;
+    }
+    queries.increment();
+
+    int found;
+    int recordLength;
+    ByteBuffer records;
+    switch (type) {
+      case STATIONS_WITHIN:
+      case STATIONS_AHEAD:
+        if (type == STATIONS_AHEAD && (heading < 0 || heading >= HeadingValue.unavailable)) {
+          return -1;
+        }
+        found =
+            findStations(
+                latitude, longitude, radius, type == STATIONS_AHEAD, heading, nowNanos);
+        recordLength = SimpleCam.SIMPLE_CAM_LENGTH;
+        records = camBuffer;
+        break;
+      case DENMS_WITHIN:
+        found = findDenms(latitude, longitude, radius, nowNanos);
+        recordLength = SimpleDenm.SIMPLE_DENM_LENGTH;
+        records = denmBuffer;
+        break;
+      default:
+        return -1;
+    }
+
+    int count =
+        Math.min(
+            Math.min(found, maxRecords),
+            (response.capacity() - RESPONSE_HEADER_LENGTH) / recordLength);
+    selectNearest(found, count);
+    response.clear();
+    response.put(RESPONSE_MESSAGE_ID);
+    response.put(type);
+    response.putInt(request.getInt(2));
+    response.putShort((short) count);
+    for (int i = 0; i < count; i++) {
+      int base = nearest[i] * recordLength;
+      for (int j = 0; j < recordLength; j++) {
+        response.put(records.get(base + j));
+      }
+    }
+    response.flip();
+    return response.limit();
+  }
+
+  /** Return the number of stations in the map. */
+  synchronized int numStations() {
+    return slotOf.size();
+  }
+
+  /** Return the number of DENMs in the map. */
+  synchronized int numDenms() {
+    return numDenms;
+  }
+
+  /** Return a summary of the map, with the counts of the last metrics interval. */
+  String takeSummary() {
+    return "LDM: stations="
+        + numStations()
+        + " DENMs="
+        + numDenms()
+        + " queries="
+        + queries.getLastInterval()
+        + " expired="
+        + expired.getLastInterval()
+        + " evicted="
+        + evicted.getLastInterval();
+  }
+
+  /* Collect the stations within a radius in nearest, and their
+   * distances in nearestDistances. Return the number found. */
+  private int findStations(
+      int latitude, int longitude, int radius, boolean ahead, int heading, long nowNanos) {
+    double latitudeSpan = radius / METERS_PER_UNIT;
+    double longitudeSpan = latitudeSpan / Math.max(cosLatitude(latitude), 1e-6);
+    long firstRow = cellOf(latitude - latitudeSpan);
+    long lastRow = cellOf(latitude + latitudeSpan);
+    long firstColumn = cellOf(longitude - longitudeSpan);
+    long lastColumn = cellOf(longitude + longitudeSpan);
+
+    /* Near the poles the longitude span is huge, so the number of rows
+     * and columns are compared before they're multiplied */
+    int found = 0;
+    long rows = lastRow - firstRow + 1;
+    long columns = lastColumn - firstColumn + 1;
+    if (rows > GRID_BUCKETS || columns > GRID_BUCKETS || rows * columns > GRID_BUCKETS) {
+      for (int slot = 0; slot < maxStations; slot++) {
+        if (isStored(slot)) {
+          found = consider(slot, found, latitude, longitude, radius, ahead, heading, nowNanos);
+        }
+      }
+      return found;
+    }
+
+    /* Buckets are shared by several cells, so only the stations of the
+     * cell being visited are considered */
+    for (long row = firstRow; row <= lastRow; row++) {
+      for (long column = firstColumn; column <= lastColumn; column++) {
+        int slot = buckets[bucketOf((int) row, (int) column)];
+        for (; slot != NONE; slot = nextInBucket[slot]) {
+          if (cellRows[slot] == row && cellColumns[slot] == column) {
+            found = consider(slot, found, latitude, longitude, radius, ahead, heading, nowNanos);
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /* Add a station to the result if it is within the radius, not
+   * expired and, if asked for, ahead */
+  private int consider(
+      int slot,
+      int found,
+      int latitude,
+      int longitude,
+      int radius,
+      boolean ahead,
+      int heading,
+      long nowNanos) {
+    if (nowNanos - updatedNanos[slot] > stationTimeoutNanos) {
+      return found;
+    }
+    double north = ((long) latitudes[slot] - latitude) * METERS_PER_UNIT;
+    double east = ((long) longitudes[slot] - longitude) * METERS_PER_UNIT * cosLatitude(latitude);
+    double distance = Math.sqrt(north * north + east * east);
+    if (distance > radius) {
+      return found;
+    }
+
+    /* Ahead means within 90 degrees of the heading, which is
+     * measured clockwise from north in 0.1 degrees */
+    if (ahead) {
+      double headingRadians = Math.toRadians(heading / 10.0);
+      if (north * Math.cos(headingRadians) + east * Math.sin(headingRadians) <= 0) {
+        return found;
+      }
+    }
+    nearest[found] = slot;
+    nearestDistances[found] = distance;
+    return found + 1;
+  }
+
+  /* Collect the DENMs within a radius, like findStations() */
+  private int findDenms(int latitude, int longitude, int radius, long nowNanos) {
+    int found = 0;
+    for (int i = 0; i < numDenms; i++) {
+      int base = i * SimpleDenm.SIMPLE_DENM_LENGTH;
+      int denmLatitude = denmBuffer.getInt(base + SimpleDenmView.LATITUDE);
+      int denmLongitude = denmBuffer.getInt(base + SimpleDenmView.LONGITUDE);
+      if (nowNanos - denmExpiresNanos[i] > 0 || !isPosition(denmLatitude, denmLongitude)) {
+        continue;
+      }
+      double north = ((long) denmLatitude - latitude) * METERS_PER_UNIT;
+      double east = ((long) denmLongitude - longitude) * METERS_PER_UNIT * cosLatitude(latitude);
+      double distance = Math.sqrt(north * north + east * east);
+      if (distance <= radius) {
+        nearest[found] = i;
+        nearestDistances[found] = distance;
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /* Move the count nearest of the records found to the start of
+   * nearest, nearest first. A partial selection sort, as count is
+   * small compared to the number of records. */
+  private void selectNearest(int found, int count) {
+    for (int i = 0; i < count; i++) {
+      int best = i;
+      for (int j = i + 1; j < found; j++) {
+        if (nearestDistances[j] < nearestDistances[best]) {
+          best = j;
+        }
+      }
+      int record = nearest[best];
+      double distance = nearestDistances[best];
+      nearest[best] = nearest[i];
+      nearestDistances[best] = nearestDistances[i];
+      nearest[i] = record;
+      nearestDistances[i] = distance;
+    }
+  }
+
+  /* Return a free station slot, evicting the station updated longest
+   * ago if there is none */
+  private int allocateStation(long nowNanos) {
+    if (freeSlots == NONE) {
+      int oldest = 0;
+      for (int slot = 1; slot < maxStations; slot++) {
+        if (updatedNanos[slot] - updatedNanos[oldest] < 0) {
+          oldest = slot;
+        }
+      }
+      boolean stale = nowNanos - updatedNanos[oldest] > stationTimeoutNanos;
+      removeStation(oldest);
+      if (stale) {
+        expired.increment();
+      } else {
+        evicted.increment();
+      }
+    }
+    int slot = freeSlots;
+    freeSlots = nextInBucket[slot];
+    return slot;
+  }
+
+  private void removeStation(int slot) {
+    unlink(slot);
+    slotOf.remove(stationIds[slot]);
+    bucketOf[slot] = NONE;
+    nextInBucket[slot] = freeSlots;
+    freeSlots = slot;
+  }
+
+  private boolean isStored(int slot) {
+    return slotOf.get(stationIds[slot]) == slot;
+  }
+
+  /* Link a station into the bucket of its cell, unless its position is
+   * unavailable */
+  private void link(int slot) {
+    if (!isPosition(latitudes[slot], longitudes[slot])) {
+      bucketOf[slot] = NONE;
+      return;
+    }
+    int row = (int) cellOf(latitudes[slot]);
+    int column = (int) cellOf(longitudes[slot]);
+    int bucket = bucketOf(row, column);
+    cellRows[slot] = row;
+    cellColumns[slot] = column;
+    bucketOf[slot] = bucket;
+    prevInBucket[slot] = NONE;
+    nextInBucket[slot] = buckets[bucket];
+    if (buckets[bucket] != NONE) {
+      prevInBucket[buckets[bucket]] = slot;
+    }
+    buckets[bucket] = slot;
+  }
+
+  private void unlink(int slot) {
+    int bucket = bucketOf[slot];
+    if (bucket == NONE) {
+      return;
+    }
+    if (prevInBucket[slot] != NONE) {
+      nextInBucket[prevInBucket[slot]] = nextInBucket[slot];
+    } else {
+      buckets[bucket] = nextInBucket[slot];
+    }
+    if (nextInBucket[slot] != NONE) {
+      prevInBucket[nextInBucket[slot]] = prevInBucket[slot];
+    }
+    bucketOf[slot] = NONE;
+  }
+
+  /* The grid is square in units of 1e-7 degrees, i.e., its cells
+   * narrow towards the poles, which keeps the cell of a station
+   * independent of where the query is made from. */
+  private long cellOf(double coordinate) {
+    return (long) Math.floor(coordinate * METERS_PER_UNIT / cellSize);
+  }
+
+  private static int bucketOf(int row, int column) {
+    int h = row * 0x9E3779B9 + column * 0x85EBCA6B;
+    return (h ^ (h >>> 16)) & (GRID_BUCKETS - 1);
+  }
+
+  private static double cosLatitude(int latitude) {
+    return Math.cos(Math.toRadians(latitude / 1e7));
+  }
+
+  private static boolean isPosition(int latitude, int longitude) {
+    return latitude > -900000000
+        && latitude < Latitude.unavailable
+        && longitude >= -1800000000
+        && longitude < Longitude.unavailable;
+  }
+
+  private int indexOfDenm(long actionId) {
+    for (int i = 0; i < numDenms; i++) {
+      if (actionIds[i] == actionId) {
+        return i;
+      }
+    }
+    return NONE;
+  }
+
+  private int soonestExpiringDenm() {
+    int soonest = 0;
+    for (int i = 1; i < numDenms; i++) {
+      if (denmExpiresNanos[i] - denmExpiresNanos[soonest] < 0) {
+        soonest = i;
+      }
+    }
+    return soonest;
+  }
+
+  /* Move the last DENM into the place of the removed one */
+  private void removeDenm(int index) {
+    int last = --numDenms;
+    if (index != last) {
+      System.arraycopy(
+          denms,
+          last * SimpleDenm.SIMPLE_DENM_LENGTH,
+          denms,
+          index * SimpleDenm.SIMPLE_DENM_LENGTH,
+          SimpleDenm.SIMPLE_DENM_LENGTH);
+      actionIds[index] = actionIds[last];
+      denmExpiresNanos[index] = denmExpiresNanos[last];
+    }
+  }
+}
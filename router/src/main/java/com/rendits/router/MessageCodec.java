@@ -0,0 +1,80 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import net.gcdc.asn1.uper.UperEncoder;
+import net.gcdc.camdenm.CoopIts.Cam;
+import net.gcdc.camdenm.CoopIts.Denm;
+import net.gcdc.camdenm.Iclcm.IgameCooperativeLaneChangeMessage;
+import net.gcdc.camdenm.UperCodecs;
+
+/**
+ * UPER encoding and decoding of proper messages. Messages are coded by the codecs generated at
+ * build time, see package-info.java. The few messages those don't support, e.g., DENMs containing
+ * strings, are coded by the reflective UperEncoder instead. Both produce the same bytes.
+ */
+final class MessageCodec {
+
+  private MessageCodec() {}
+
+  static byte[] encode(Cam cam) {
+    try {
+      return UperCodecs.encode(cam);
+    } catch (UnsupportedOperationException e) {
+      return UperEncoder.encode(cam);
+    }
+  }
+
+  static byte[] encode(Denm denm) {
+    try {
+      return UperCodecs.encode(denm);
+    } catch (UnsupportedOperationException e) {
+      return UperEncoder.encode(denm);
+    }
+  }
+
+  static byte[] encode(IgameCooperativeLaneChangeMessage iclcm) {
+    try {
+      return UperCodecs.encode(iclcm);
+    } catch (UnsupportedOperationException e) {
+      return UperEncoder.encode(iclcm);
+    }
+  }
+
+  static Cam decodeCam(byte[] payload) {
+    try {
+      return UperCodecs.decodeCam(payload);
+    } catch (UnsupportedOperationException e) {
+      return UperEncoder.decode(payload, Cam.class);
+    }
+  }
+
+  static Denm decodeDenm(byte[] payload) {
+    try {
+      return UperCodecs.decodeDenm(payload);
+    } catch (UnsupportedOperationException e) {
+      return UperEncoder.decode(payload, Denm.class);
+    }
+  }
+
+  static IgameCooperativeLaneChangeMessage decodeIclcm(byte[] payload) {
+    try {
+      return UperCodecs.decodeIgameCooperativeLaneChangeMessage(payload);
+    } catch (UnsupportedOperationException e) {
+      return UperEncoder.decode(payload, IgameCooperativeLaneChangeMessage.class);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ *
+ *
+ * <h1>Message handler</h1>
+ *
+ * <p>Service provider interface for adding message types to the router without changing it, e.g.,
+ * SPATEM, MAPEM or CPM. A handler parses the simple messages with one message ID from the vehicle
+ * into proper messages and transmits them, and/or decodes the proper messages received on one BTP
+ * port into simple messages and sends them to the vehicle.
+ *
+ * <p>Handlers are found with java.util.ServiceLoader, i.e., listed in a
+ * META-INF/services/com.rendits.router.MessageHandler file on the class path, and in the
+ * messageHandlers property, a comma separated list of class names. Both need a public no-argument
+ * constructor. A handler replaces the built-in handler of the same message ID or BTP port.
+ *
+ * <p>The router looks handlers up in tables indexed by message ID and port, so messages with an ID
+ * or port without a handler are dropped before they are parsed or decoded. A handler is called
+ * from several threads at once and must be thread safe.
+ */
+public interface MessageHandler {
+
+  /** Returned by simpleMessageId() and btpPort() when the handler doesn't handle that direction. */
+  int NONE = -1;
+
+  /** Return the ID, from 0 to 255, of the simple messages handled, or NONE. */
+  int simpleMessageId();
+
+  /** Return the BTP port, from 0 to 65535, of the proper messages handled, or NONE. */
+  int btpPort();
+
+  /**
+   * Called once when the router starts, before any message is handled.
+   *
+   * @param props The properties of the router.
+   * @param output Used by the handler to send messages.
+   * @exception IOException on error setting up the handler.
+   */
+  void start(Properties props, Output output) throws IOException;
+
+  /**
+   * Handle a simple message from the vehicle.
+   *
+   * @param buffer Buffer holding the simple message. Its position is not modified.
+   * @param offset Offset of the first byte of the message, its message ID, in the buffer.
+   * @param length Length of the message in bytes.
+   * @param arrivalNanos Time the message was received, as given by System.nanoTime().
+   */
+  void fromVehicle(ByteBuffer buffer, int offset, int length, long arrivalNanos);
+
+  /**
+   * Handle a proper message received from another station.
+   *
+   * @param payload The payload of the BTP packet.
+   * @param buffer Cleared buffer owned by the calling thread that the simple message may be
+   *     written to and sent from.
+   */
+  void fromRadio(byte[] payload, ByteBuffer buffer);
+
+  /** Ways for a handler to send messages. Thread safe. */
+  interface Output {
+
+    /**
+     * Queue a proper message for single hop broadcast in the lowest priority traffic class.
+     *
+     * @param payload The encoded message.
+     * @param btpPort BTP destination port of the message.
+     * @param arrivalNanos Time the simple message it was parsed from was received, as given by
+     *     System.nanoTime().
+     */
+    void sendToRadio(byte[] payload, int btpPort, long arrivalNanos);
+
+    /**
+     * Return the address of a port of the vehicle. Meant to be called once, from start().
+     *
+     * @param port UDP port of the vehicle.
+     */
+    InetSocketAddress vehicleAddress(int port);
+
+    /**
+     * Send a simple message to the vehicle.
+     *
+     * @param message Buffer holding the message between its position and limit.
+     * @param address Address returned by vehicleAddress().
+     * @exception IOException on error sending the message.
+     */
+    void sendToVehicle(ByteBuffer message, InetSocketAddress address) throws IOException;
+  }
+}
@@ -0,0 +1,271 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ *
+ *
+ * <h1>Metrics</h1>
+ *
+ * <p>Registry of the counters of the router, e.g., of messages sent and of every reason a message
+ * is dropped. A counter is a LongAdder, so threads incrementing the same counter don't contend for
+ * one cache line. Counters are never reset.
+ *
+ * <p>The registry also holds gauges, e.g., the depth of a queue, which are read when they are
+ * published instead of being updated by the threads they describe. Every tick keeps a snapshot of
+ * the gauges, for readers that must not take the locks some gauges need.
+ *
+ * <p>The statistics logger calls tick() once per interval, which computes the rate of every counter
+ * over the last interval and an exponentially weighted moving average of the rate over about a
+ * minute, so that a burst of drops stands out from the totals.
+ */
+final class Metrics {
+
+  /* Time constant of the moving average of the rates */
+  private static final double EWMA_WINDOW_SECONDS = 60;
+
+  private final List<Counter> counters = new ArrayList<>();
+  private final List<Gauge> gauges = new ArrayList<>();
+  private long lastTickNanos = System.nanoTime();
+
+  /** A monotonic counter. Incrementing it is thread safe and never allocates. */
+  static final class Counter {
+    private final String name;
+    private final String help;
+    private final LongAdder count;
+
+    /* Only written by tick() */
+    private long tickedTotal = 0;
+    private volatile long lastInterval = 0;
+    private volatile double rate = 0;
+    private volatile double ewma = 0;
+    private boolean ewmaStarted = false;
+
+    private Counter(String name, String help, LongAdder count) {
+      this.name = name;
+      this.help = help;
+      this.count = count;
+    }
+
+    void increment() {
+      count.increment();
+    }
+
+    void add(long n) {
+      count.add(n);
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /** Return a one line description of what is counted. */
+    String getHelp() {
+      return help;
+    }
+
+    /** Return the count so far. */
+    long getTotal() {
+      return count.sum();
+    }
+
+    /** Return the count in the last interval. */
+    long getLastInterval() {
+      return lastInterval;
+    }
+
+    /** Return the rate per second over the last interval. */
+    double getRate() {
+      return rate;
+    }
+
+    /** Return the moving average of the rate per second. */
+    double getEwma() {
+      return ewma;
+    }
+
+    private void tick(double intervalSeconds, double alpha) {
+      long total = count.sum();
+      lastInterval = total - tickedTotal;
+      tickedTotal = total;
+      rate = lastInterval / intervalSeconds;
+      if (ewmaStarted) {
+        ewma += alpha * (rate - ewma);
+      } else {
+        ewma = rate;
+        ewmaStarted = true;
+      }
+    }
+  }
+
+  /** A value that is read when it is published, e.g., the depth of a queue. */
+  static final class Gauge {
+    private final String name;
+    private final String help;
+    private final LongSupplier value;
+    private volatile long lastValue = 0;
+
+    private Gauge(String name, String help, LongSupplier value) {
+      this.name = name;
+      this.help = help;
+      this.value = value;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /** Return a one line description of what is measured. */
+    String getHelp() {
+      return help;
+    }
+
+    /** Return the current value. Must be safe to call from any thread. */
+    long getValue() {
+      return value.getAsLong();
+    }
+
+    /** Return the value as of the last tick. */
+    long getLastValue() {
+      return lastValue;
+    }
+  }
+
+  /**
+   * Create and register a counter.
+   *
+   * @param name Name of the counter, e.g., rx_decode_errors. Must be unique.
+   * @param help One line description of what is counted.
+   */
+  synchronized Counter counter(String name, String help) {
+    return counter(name, help, new LongAdder());
+  }
+
+  /**
+   * Register a counter of an adder owned elsewhere, e.g., by a static that every router in the
+   * process shares. The adder must never be reset.
+   *
+   * @param name Name of the counter. Must be unique.
+   * @param help One line description of what is counted.
+   * @param count The adder to count with.
+   */
+  synchronized Counter counter(String name, String help, LongAdder count) {
+    checkUnique(name);
+    Counter counter = new Counter(name, help, count);
+    counters.add(counter);
+    return counter;
+  }
+
+  /**
+   * Register a gauge.
+   *
+   * @param name Name of the gauge, e.g., ingress_ring_depth. Must be unique.
+   * @param help One line description of what is measured.
+   * @param value Reads the value of the gauge.
+   */
+  synchronized void gauge(String name, String help, LongSupplier value) {
+    checkUnique(name);
+    gauges.add(new Gauge(name, help, value));
+  }
+
+  /** Return the counters, in the order they were registered. */
+  synchronized List<Counter> counters() {
+    return Collections.unmodifiableList(new ArrayList<>(counters));
+  }
+
+  /** Return the gauges, in the order they were registered. */
+  synchronized List<Gauge> gauges() {
+    return Collections.unmodifiableList(new ArrayList<>(gauges));
+  }
+
+  private void checkUnique(String name) {
+    for (Counter counter : counters) {
+      if (counter.name.equals(name)) {
+        throw new IllegalArgumentException("there already is a counter named " + name);
+      }
+    }
+    for (Gauge gauge : gauges) {
+      if (gauge.name.equals(name)) {
+        throw new IllegalArgumentException("there already is a gauge named " + name);
+      }
+    }
+  }
+
+  /**
+   * Update the rates of the counters and the snapshot of the gauges. Called once per interval by
+   * one thread.
+   *
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  synchronized void tick(long nowNanos) {
+    double intervalSeconds = (nowNanos - lastTickNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    if (intervalSeconds <= 0) {
+      return;
+    }
+    lastTickNanos = nowNanos;
+    double alpha = 1 - Math.exp(-intervalSeconds / EWMA_WINDOW_SECONDS);
+    for (Counter counter : counters) {
+      counter.tick(intervalSeconds, alpha);
+    }
+    for (Gauge gauge : gauges) {
+      gauge.lastValue = gauge.getValue();
+    }
+  }
+
+  /** Return true if any counter counted anything in the last interval. */
+  synchronized boolean changedInLastInterval() {
+    for (Counter counter : counters) {
+      if (counter.lastInterval > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the counters that have counted anything as of the last tick, e.g., "tx_cam=1200
+   * (10.0/s, avg 9.8/s) rx_decode_errors=3 (0.0/s, avg 0.1/s)", or an empty string.
+   */
+  synchronized String getSummary() {
+    StringBuilder summary = new StringBuilder();
+    for (Counter counter : counters) {
+      if (counter.tickedTotal == 0) {
+        continue;
+      }
+      if (summary.length() > 0) {
+        summary.append(' ');
+      }
+      summary
+          .append(counter.name)
+          .append('=')
+          .append(counter.tickedTotal)
+          .append(" (")
+          .append(String.format(Locale.ROOT, "%.1f", counter.rate))
+          .append("/s, avg ")
+          .append(String.format(Locale.ROOT, "%.1f", counter.ewma))
+          .append("/s)");
+    }
+    return summary.toString();
+  }
+}
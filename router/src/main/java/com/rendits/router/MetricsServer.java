@@ -0,0 +1,247 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ *
+ *
+ * <h1>Metrics server</h1>
+ *
+ * <p>Serves the metrics of the router at /metrics in the Prometheus text exposition format, on a
+ * port bound to the loopback address. The counters and gauges of the metrics registry, the stage
+ * latencies of the pipelines and the GC, heap and allocation statistics of the JVM are exported.
+ *
+ * <p>A scrape only reads snapshots: the counters are sums of LongAdders, the gauges and the
+ * latency percentiles are as of the last tick of the statistics logger, so a scrape never takes a
+ * lock the message threads use. Requests are served by a single thread of the HTTP server.
+ */
+final class MetricsServer {
+  private static final String PREFIX = "rendits_router_";
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final HttpServer server;
+  private final List<Metrics.Counter> counters;
+  private final List<Metrics.Gauge> gauges;
+  private final PipelineStats[] pipelines;
+
+  /**
+   * MetricsServer constructor. The counters and gauges registered later aren't exported.
+   *
+   * @param port Port to listen on, 0 for any free port.
+   * @param metrics Registry of the counters and gauges.
+   * @param pipelines Latency statistics to export.
+   * @exception IOException if the port can't be bound.
+   */
+  MetricsServer(int port, Metrics metrics, PipelineStats... pipelines) throws IOException {
+    this.counters = metrics.counters();
+    this.gauges = metrics.gauges();
+    this.pipelines = pipelines;
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext(
+        "/metrics",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            try {
+              if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+              }
+              byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+              exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+              exchange.sendResponseHeaders(200, body.length);
+              try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+              }
+            } finally {
+              exchange.close();
+            }
+          }
+        });
+  }
+
+  /** Start serving requests on a thread of the HTTP server. */
+  void start() {
+    server.start();
+  }
+
+  /** Stop serving requests. */
+  void stop() {
+    server.stop(0);
+  }
+
+  /** Return the port the server listens on. */
+  int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /** Return the metrics in the Prometheus text format. */
+  String scrape() {
+    StringBuilder out = new StringBuilder(8192);
+    for (Metrics.Counter counter : counters) {
+      String name = PREFIX + counter.getName() + "_total";
+      header(out, name, counter.getHelp(), "counter");
+      out.append(name).append(' ').append(counter.getTotal()).append('\n');
+    }
+    for (Metrics.Gauge gauge : gauges) {
+      String name = PREFIX + gauge.getName();
+      header(out, name, gauge.getHelp(), "gauge");
+      out.append(name).append(' ').append(gauge.getLastValue()).append('\n');
+    }
+    writeLatencies(out);
+    writeJvm(out);
+    return out.toString();
+  }
+
+  /* The percentiles and maximum of every stage over the last interval of
+   * the statistics logger, and the count and sum over the run. */
+  private void writeLatencies(StringBuilder out) {
+    String name = PREFIX + "latency_seconds";
+    header(out, name, "Latency of a stage of the pipeline", "summary");
+    for (PipelineStats pipeline : pipelines) {
+      for (TrafficClass trafficClass : TrafficClass.values()) {
+        for (int stage = 0; stage < pipeline.numStages(); stage++) {
+          StageStats stats = pipeline.get(trafficClass, stage);
+          String labels = labels(pipeline, trafficClass, stats);
+          long[] snapshot = stats.getSnapshot();
+          for (int i = 0; i < StageStats.PERCENTILES.length; i++) {
+            out.append(name)
+                .append('{')
+                .append(labels)
+                .append(",quantile=\"")
+                .append(StageStats.PERCENTILES[i])
+                .append("\"} ")
+                .append(seconds(snapshot[i]))
+                .append('\n');
+          }
+          sample(out, name + "_sum", labels, seconds(stats.getTotalNanos()));
+          sample(out, name + "_count", labels, Long.toString(stats.getTotalCount()));
+        }
+      }
+    }
+
+    name = PREFIX + "latency_max_seconds";
+    header(out, name, "Longest latency of a stage in the last interval", "gauge");
+    for (PipelineStats pipeline : pipelines) {
+      for (TrafficClass trafficClass : TrafficClass.values()) {
+        for (int stage = 0; stage < pipeline.numStages(); stage++) {
+          StageStats stats = pipeline.get(trafficClass, stage);
+          long[] snapshot = stats.getSnapshot();
+          sample(
+              out,
+              name,
+              labels(pipeline, trafficClass, stats),
+              seconds(snapshot[StageStats.PERCENTILES.length]));
+        }
+      }
+    }
+  }
+
+  private void writeJvm(StringBuilder out) {
+    List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    header(out, "jvm_gc_collections_total", "Collections by a garbage collector", "counter");
+    for (GarbageCollectorMXBean collector : collectors) {
+      sample(
+          out,
+          "jvm_gc_collections_total",
+          "gc=\"" + escape(collector.getName()) + "\"",
+          Long.toString(Math.max(collector.getCollectionCount(), 0)));
+    }
+    header(
+        out,
+        "jvm_gc_collection_seconds_total",
+        "Time spent in collections by a garbage collector",
+        "counter");
+    for (GarbageCollectorMXBean collector : collectors) {
+      sample(
+          out,
+          "jvm_gc_collection_seconds_total",
+          "gc=\"" + escape(collector.getName()) + "\"",
+          seconds(Math.max(collector.getCollectionTime(), 0) * 1000000));
+    }
+
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    header(out, "jvm_memory_heap_used_bytes", "Used heap", "gauge");
+    out.append("jvm_memory_heap_used_bytes ").append(heap.getUsed()).append('\n');
+    header(out, "jvm_memory_heap_committed_bytes", "Committed heap", "gauge");
+    out.append("jvm_memory_heap_committed_bytes ").append(heap.getCommitted()).append('\n');
+
+    /* Thread allocation counters are an extension of HotSpot and
+     * OpenJ9. They only cover the threads still alive. */
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+      if (allocations.isThreadAllocatedMemorySupported()
+          && allocations.isThreadAllocatedMemoryEnabled()) {
+        long allocated = 0;
+        for (long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+          allocated += Math.max(bytes, 0);
+        }
+        header(out, "jvm_threads_allocated_bytes", "Bytes allocated by the live threads", "gauge");
+        out.append("jvm_threads_allocated_bytes ").append(allocated).append('\n');
+      }
+    }
+  }
+
+  private static String labels(
+      PipelineStats pipeline, TrafficClass trafficClass, StageStats stats) {
+    return "direction=\""
+        + pipeline.getName()
+        + "\",class=\""
+        + trafficClass.name().toLowerCase(Locale.ROOT)
+        + "\",stage=\""
+        + stats.getName()
+        + "\"";
+  }
+
+  private static void header(StringBuilder out, String name, String help, String type) {
+    out.append("# HELP ").append(name).append(' ').append(escapeHelp(help)).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, String value) {
+    out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  /* E.g., 0.000035210 for 35210ns */
+  private static String seconds(long nanos) {
+    return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+  }
+
+  private static String escape(String value) {
+    return escapeHelp(value).replace("\"", "\\\"");
+  }
+
+  private static String escapeHelp(String value) {
+    return value.replace("\\", "\\\\").replace("\n", "\\n");
+  }
+}
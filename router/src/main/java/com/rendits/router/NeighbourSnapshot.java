@@ -0,0 +1,206 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+
+/**
+ *
+ *
+ * <h1>Neighbour snapshot</h1>
+ *
+ * <p>Keeps the latest simple CAM of every neighbour, so that the CAMs received can be delivered
+ * to the vehicle in batches at a fixed rate instead of one datagram per CAM. Every batch holds the
+ * neighbours whose CAM has changed since the previous batch. A neighbour whose CAM is received
+ * several times between two batches is delivered once, with its latest CAM.
+ *
+ * <p>A batch is made of one or more snapshot datagrams, each holding as many records as fit:
+ *
+ * <pre>
+ * Offset Field
+ *  0     Message ID (1 byte, always 14)
+ *  1     Snapshot sequence number, incremented for every batch
+ *  5     Number of records in this datagram (2 bytes)
+ *  7     Records, each a 2 byte length followed by a simple CAM
+ * </pre>
+ *
+ * <p>The table of neighbours has a fixed size. When it is full, the neighbour updated longest ago
+ * is evicted. Its methods are synchronized, as it is updated by the threads receiving from the
+ * link layer and drained by the thread sending the snapshots.
+ */
+final class NeighbourSnapshot {
+
+  /** Message ID of snapshot datagrams. */
+  static final byte MESSAGE_ID = 14;
+
+  /** Length in bytes of the header of a snapshot datagram. */
+  static final int HEADER_LENGTH = 7;
+
+  /* Length in bytes of a record: its length and a simple CAM */
+  private static final int RECORD_LENGTH = 2 + SimpleCam.SIMPLE_CAM_LENGTH;
+
+  private final int maxNeighbours;
+  private final IntIntMap slotOf;
+  private final byte[] cams;
+  private final int[] stationIds;
+  private final long[] updatedNanos;
+  private final boolean[] changed;
+  private int numNeighbours = 0;
+
+  /* Sequence number of the current batch, and the slot to continue
+   * draining it from */
+  private int sequenceNumber = 0;
+  private int nextSlot = 0;
+
+  private final Metrics.Counter received;
+  private final Metrics.Counter superseded;
+  private final Metrics.Counter delivered;
+  private final Metrics.Counter datagrams;
+  private final Metrics.Counter evicted;
+
+  /**
+   * NeighbourSnapshot constructor.
+   *
+   * @param maxNeighbours Maximum number of neighbours.
+   * @param metrics Registry to add the counters to.
+   */
+  NeighbourSnapshot(int maxNeighbours, Metrics metrics) {
+    this.received = metrics.counter("rx_snapshot_received", "CAMs put in the neighbour snapshot");
+    this.superseded =
+        metrics.counter("rx_snapshot_superseded", "Undelivered CAMs replaced by a newer one");
+    this.delivered = metrics.counter("rx_snapshot_delivered", "CAMs delivered in snapshots");
+    this.datagrams =
+        metrics.counter("rx_snapshot_datagrams", "Snapshot datagrams sent to the vehicle");
+    this.evicted =
+        metrics.counter("rx_snapshot_evicted", "Neighbours evicted from a full snapshot");
+    this.maxNeighbours = maxNeighbours;
+    this.slotOf = new IntIntMap(maxNeighbours);
+    this.cams = new byte[maxNeighbours * SimpleCam.SIMPLE_CAM_LENGTH];
+    this.stationIds = new int[maxNeighbours];
+    this.updatedNanos = new long[maxNeighbours];
+    this.changed = new boolean[maxNeighbours];
+  }
+
+  /**
+   * Store the simple CAM of a neighbour, replacing the previous one.
+   *
+   * @param buffer Buffer holding the simple CAM. Its position is not modified.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Length of the message in bytes.
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  synchronized void update(ByteBuffer buffer, int offset, int length, long nowNanos) {
+    if (length < SimpleCam.SIMPLE_CAM_LENGTH) {
+      return;
+    }
+    received.increment();
+    int stationId = buffer.getInt(offset + 1);
+    int slot = slotOf.get(stationId);
+    if (slot == IntIntMap.MISSING) {
+      slot = allocate();
+      stationIds[slot] = stationId;
+      slotOf.put(stationId, slot);
+    } else if (changed[slot]) {
+      superseded.increment();
+    }
+    int base = slot * SimpleCam.SIMPLE_CAM_LENGTH;
+    for (int i = 0; i < SimpleCam.SIMPLE_CAM_LENGTH; i++) {
+      cams[base + i] = buffer.get(offset + i);
+    }
+    updatedNanos[slot] = nowNanos;
+    changed[slot] = true;
+  }
+
+  /**
+   * Write the next snapshot datagram of the current batch to a buffer. Call repeatedly until it
+   * returns 0 to drain the batch, then call endBatch().
+   *
+   * @param out Buffer to write the datagram to. It is cleared first, and flipped after writing.
+   *     Must have room for the header and at least one record.
+   * @return The number of records written, 0 if the batch is drained.
+   */
+  synchronized int drain(ByteBuffer out) {
+    out.clear();
+    int maxRecords = (out.capacity() - HEADER_LENGTH) / RECORD_LENGTH;
+    if (maxRecords <= 0) {
+      throw new IllegalArgumentException("the snapshot buffer is too small for a record");
+    }
+    out.put(MESSAGE_ID);
+    out.putInt(sequenceNumber);
+    out.putShort((short) 0);
+    int count = 0;
+    for (; nextSlot < numNeighbours && count < maxRecords; nextSlot++) {
+      if (changed[nextSlot]) {
+        changed[nextSlot] = false;
+        out.putShort((short) SimpleCam.SIMPLE_CAM_LENGTH);
+        out.put(cams, nextSlot * SimpleCam.SIMPLE_CAM_LENGTH, SimpleCam.SIMPLE_CAM_LENGTH);
+        count++;
+      }
+    }
+    out.putShort(5, (short) count);
+    out.flip();
+    if (count > 0) {
+      delivered.add(count);
+      datagrams.increment();
+    }
+    return count;
+  }
+
+  /** End the current batch. The next call to drain() starts the next one. */
+  synchronized void endBatch() {
+    sequenceNumber++;
+    nextSlot = 0;
+  }
+
+  /** Return the number of neighbours. */
+  synchronized int size() {
+    return numNeighbours;
+  }
+
+  /** Return a summary of the snapshots, with the counts of the last metrics interval. */
+  String takeSummary() {
+    return "Neighbour snapshot: neighbours="
+        + size()
+        + " received="
+        + received.getLastInterval()
+        + " superseded="
+        + superseded.getLastInterval()
+        + " delivered="
+        + delivered.getLastInterval()
+        + " datagrams="
+        + datagrams.getLastInterval()
+        + " evicted="
+        + evicted.getLastInterval();
+  }
+
+  /* Return a free slot. Slots are used in order, so that the used slots
+   * are always 0 to numNeighbours - 1. When the table is full, the slot
+   * of the neighbour updated longest ago is reused. */
+  private int allocate() {
+    if (numNeighbours < maxNeighbours) {
+      return numNeighbours++;
+    }
+    int oldest = 0;
+    for (int slot = 1; slot < numNeighbours; slot++) {
+      if (updatedNanos[slot] - updatedNanos[oldest] < 0) {
+        oldest = slot;
+      }
+    }
+    slotOf.remove(stationIds[oldest]);
+    evicted.increment();
+    return oldest;
+  }
+}
@@ -0,0 +1,91 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+
+/**
+ * Latency statistics of one direction of the router, from a message being received to it being
+ * sent on, broken down by traffic class and stage. Every stage of every class has its own
+ * StageStats.
+ */
+final class PipelineStats {
+  private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+  private final String name;
+  private final StageStats[][] stages;
+
+  /**
+   * PipelineStats constructor.
+   *
+   * @param name Name of the direction, used when logging.
+   * @param stageNames Names of the stages. A stage is given by its index in this array.
+   */
+  PipelineStats(String name, String... stageNames) {
+    this.name = name;
+    this.stages = new StageStats[CLASSES.length][stageNames.length];
+    for (TrafficClass trafficClass : CLASSES) {
+      for (int stage = 0; stage < stageNames.length; stage++) {
+        stages[trafficClass.ordinal()][stage] = new StageStats(stageNames[stage]);
+      }
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /** Return the statistics of one stage of a class. */
+  StageStats get(TrafficClass trafficClass, int stage) {
+    return stages[trafficClass.ordinal()][stage];
+  }
+
+  /** Return the number of stages. */
+  int numStages() {
+    return stages[0].length;
+  }
+
+  /**
+   * Record the latency of one message in one stage.
+   *
+   * @param trafficClass Traffic class of the message.
+   * @param stage Index of the stage.
+   * @param nanos Time spent in the stage in nanoseconds.
+   */
+  void record(TrafficClass trafficClass, int stage, long nanos) {
+    stages[trafficClass.ordinal()][stage].record(nanos);
+  }
+
+  /**
+   * Return a summary of the latencies recorded since the last call, e.g., "tx: CAM parse n=12
+   * p50=... | CAM encode n=12 p50=...", and start over. Only the stages with latencies recorded
+   * since the last call are included, and the summary is empty if there are none.
+   */
+  String takeSummary() {
+    StringBuilder summary = new StringBuilder();
+    for (TrafficClass trafficClass : CLASSES) {
+      for (StageStats stats : stages[trafficClass.ordinal()]) {
+        String stage = stats.takeSummary();
+        if (stats.getLastCount() == 0) {
+          continue;
+        }
+        summary.append(summary.length() == 0 ? name + ":" : " |");
+        summary.append(' ').append(trafficClass).append(' ').append(stage);
+      }
+    }
+    return summary.toString();
+  }
+}
@@ -0,0 +1,693 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import net.gcdc.camdenm.CoopIts.*;
+import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
+import net.gcdc.camdenm.Iclcm;
+import net.gcdc.camdenm.Iclcm.*;
+import net.gcdc.camdenm.UperCodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ *
+ * <h1>Proper message transcoder</h1>
+ *
+ * <p>Transcodes UPER encoded proper CAM/DENM/iCLCM messages straight into simple messages. The
+ * fields are read from the bit stream and written to the fixed layout of the simple message in one
+ * pass, without building the Cam and SimpleCam objects (or their DENM and iCLCM counterparts) in
+ * between. Containers the simple messages don't carry are skipped. Values and container masks
+ * follow the same rules as the SimpleCam(Cam), SimpleDenm(Denm) and SimpleIclcm(...)
+ * constructors, so the result is the same as calling asByteArray() on a simple message created
+ * from the decoded proper message.
+ *
+ * <p>Messages with extensions, which the generated codecs can't decode, are transcoded by way of
+ * the simple message classes instead.
+ *
+ * <p>Simple messages are written either to the output buffer of the transcoder, which is reused
+ * between messages, or to a buffer owned by the caller. A transcoder must only be used by one
+ * thread.
+ */
+final class ProperTranscoder {
+  private static final Logger logger = LoggerFactory.getLogger(Router.class);
+
+  /* Number of values of the enumerated types. Their values are the same
+   * as their ordinals. */
+  private static final int ALTITUDE_CONFIDENCE_COUNT = AltitudeConfidence.values().length;
+  private static final int DRIVE_DIRECTION_COUNT = DriveDirection.values().length;
+  private static final int VEHICLE_LENGTH_CONFIDENCE_COUNT =
+      VehicleLengthConfidenceIndication.values().length;
+  private static final int CURVATURE_CONFIDENCE_COUNT = CurvatureConfidence.values().length;
+  private static final int CURVATURE_CALCULATION_MODE_COUNT =
+      CurvatureCalculationMode.values().length;
+  private static final int YAW_RATE_CONFIDENCE_COUNT = YawRateConfidence.values().length;
+  private static final int VEHICLE_ROLE_COUNT = VehicleRole.values().length;
+  private static final int TERMINATION_COUNT = Termination.values().length;
+  private static final int RELEVANCE_DISTANCE_COUNT = RelevanceDistance.values().length;
+  private static final int RELEVANCE_TRAFFIC_DIRECTION_COUNT =
+      RelevanceTrafficDirection.values().length;
+  private static final int POSITIONING_SOLUTION_TYPE_COUNT =
+      PositioningSolutionType.values().length;
+
+  private static final int EXTERIOR_LIGHTS_BITS = 8;
+
+  /* Values of absent fields, as used by the simple messages */
+  private static final int DEFAULT_VEHICLE_ROLE = (int) VehicleRole.default_.value();
+  /* Bit positions in a UPER encoded DENM of fields that can be read
+   * without decoding it. Everything before them has a fixed length: the
+   * 48 bit header, the presence bits of the DENM and management
+   * container, the actionID and the detection and reference times. */
+  private static final int DENM_TERMINATION_PRESENCE_POSITION = 52;
+  private static final int DENM_ACTION_ID_POSITION = 57;
+  private static final int DENM_REFERENCE_TIME_POSITION = 147;
+  private static final int DENM_TERMINATION_POSITION = 189;
+
+  private static final int DEFAULT_TERMINATION = (int) Termination.defaultValue().value();
+  private static final int DEFAULT_RELEVANCE_DISTANCE =
+      (int) RelevanceDistance.defaultValue().value();
+  private static final int DEFAULT_RELEVANCE_TRAFFIC_DIRECTION =
+      RelevanceTrafficDirection.defaultValue().value();
+  private static final int DEFAULT_VALIDITY_DURATION =
+      (int) net.gcdc.camdenm.CoopIts.defaultValidity.value;
+  private static final int DEFAULT_TRANSMISSION_INTERVAL =
+      TransmissionInterval.oneMilliSecond * 100;
+
+  private final byte[] simpleMessage = new byte[SimpleIclcm.SIMPLE_iCLCM_LENGTH];
+  private final ByteBuffer simpleMessageBuffer = ByteBuffer.wrap(simpleMessage);
+
+  /* Buffer the message being transcoded is written to */
+  private ByteBuffer out;
+
+  /* View used to read the simple DENMs written. Confined to the thread
+   * using the transcoder. */
+  private final SimpleDenmView denmView = new SimpleDenmView();
+
+  /**
+   * Return the buffer the simple messages are written to by transcodeCam(byte[]),
+   * transcodeDenm(byte[]) and transcodeIclcm(byte[]). It is overwritten by every call to them.
+   */
+  byte[] buffer() {
+    return simpleMessage;
+  }
+
+  /**
+   * Return the DENM view of this transcoder. The caller can wrap it around a simple DENM written by
+   * the transcoder to read its fields, without allocating a view of its own.
+   */
+  SimpleDenmView getDenmView() {
+    return denmView;
+  }
+
+  /**
+   * Transcode a UPER encoded proper CAM into a simple CAM.
+   *
+   * @param payload The payload of a BTP packet received on the CAM port.
+   * @return The length of the simple CAM written to the start of buffer().
+   * @exception IllegalArgumentException if the message is malformed.
+   * @exception UnsupportedOperationException if the message can't be decoded.
+   */
+  int transcodeCam(byte[] payload) {
+    simpleMessageBuffer.clear();
+    return transcodeCam(payload, simpleMessageBuffer, 0);
+  }
+
+  /**
+   * Transcode a UPER encoded proper CAM into a simple CAM written to a caller-owned buffer. The
+   * position of the buffer is left right after the message.
+   *
+   * @param payload The payload of a BTP packet received on the CAM port.
+   * @param buffer Buffer to write the simple CAM to.
+   * @param offset Offset in the buffer of the first byte of the simple CAM.
+   * @return The length of the simple CAM.
+   * @exception IllegalArgumentException if the message is malformed.
+   * @exception UnsupportedOperationException if the message can't be decoded.
+   * @exception BufferOverflowException if the simple CAM doesn't fit in the buffer.
+   */
+  int transcodeCam(byte[] payload, ByteBuffer buffer, int offset) {
+    out = buffer;
+    out.position(offset);
+    try {
+      UperBitReader in = new UperBitReader(payload);
+      writeCam(in);
+      checkFullyRead(in, "CAM");
+    } catch (UnsupportedOperationException e) {
+      new SimpleCam(MessageCodec.decodeCam(payload)).writeTo(out, offset);
+    }
+    return out.position() - offset;
+  }
+
+  /**
+   * Transcode a UPER encoded proper DENM into a simple DENM.
+   *
+   * @param payload The payload of a BTP packet received on the DENM port.
+   * @return The length of the simple DENM written to the start of buffer().
+   * @exception IllegalArgumentException if the message is malformed.
+   * @exception UnsupportedOperationException if the message can't be decoded.
+   */
+  int transcodeDenm(byte[] payload) {
+    simpleMessageBuffer.clear();
+    return transcodeDenm(payload, simpleMessageBuffer, 0);
+  }
+
+  /**
+   * Transcode a UPER encoded proper DENM into a simple DENM written to a caller-owned buffer. The
+   * position of the buffer is left right after the message.
+   *
+   * @param payload The payload of a BTP packet received on the DENM port.
+   * @param buffer Buffer to write the simple DENM to.
+   * @param offset Offset in the buffer of the first byte of the simple DENM.
+   * @return The length of the simple DENM.
+   * @exception IllegalArgumentException if the message is malformed.
+   * @exception UnsupportedOperationException if the message can't be decoded.
+   * @exception BufferOverflowException if the simple DENM doesn't fit in the buffer.
+   */
+  int transcodeDenm(byte[] payload, ByteBuffer buffer, int offset) {
+    out = buffer;
+    out.position(offset);
+    try {
+      UperBitReader in = new UperBitReader(payload);
+      writeDenm(in);
+      checkFullyRead(in, "DENM");
+    } catch (UnsupportedOperationException e) {
+      new SimpleDenm(MessageCodec.decodeDenm(payload)).writeTo(out, offset);
+    }
+    return out.position() - offset;
+  }
+
+  /**
+   * Transcode a UPER encoded proper iCLCM into a simple iCLCM.
+   *
+   * @param payload The payload of a BTP packet received on the iCLCM port.
+   * @return The length of the simple iCLCM written to the start of buffer().
+   * @exception IllegalArgumentException if the message is malformed.
+   * @exception UnsupportedOperationException if the message can't be decoded.
+   */
+  int transcodeIclcm(byte[] payload) {
+    simpleMessageBuffer.clear();
+    return transcodeIclcm(payload, simpleMessageBuffer, 0);
+  }
+
+  /**
+   * Transcode a UPER encoded proper iCLCM into a simple iCLCM written to a caller-owned buffer. The
+   * position of the buffer is left right after the message.
+   *
+   * @param payload The payload of a BTP packet received on the iCLCM port.
+   * @param buffer Buffer to write the simple iCLCM to.
+   * @param offset Offset in the buffer of the first byte of the simple iCLCM.
+   * @return The length of the simple iCLCM.
+   * @exception IllegalArgumentException if the message is malformed.
+   * @exception UnsupportedOperationException if the message can't be decoded.
+   * @exception BufferOverflowException if the simple iCLCM doesn't fit in the buffer.
+   */
+  int transcodeIclcm(byte[] payload, ByteBuffer buffer, int offset) {
+    out = buffer;
+    out.position(offset);
+    try {
+      UperBitReader in = new UperBitReader(payload);
+      writeIclcm(in);
+      checkFullyRead(in, "iCLCM");
+    } catch (UnsupportedOperationException e) {
+      new SimpleIclcm(MessageCodec.decodeIclcm(payload)).writeTo(out, offset);
+    }
+    return out.position() - offset;
+  }
+
+  /**
+   * Return the station ID in the header of a UPER encoded proper CAM/DENM/iCLCM without decoding
+   * it, or 0 if the message is too short. The station ID follows the 8 bit protocol version and
+   * message ID, so it is found at a fixed, byte aligned position.
+   *
+   * @param payload The payload of a BTP packet.
+   */
+  static int stationId(byte[] payload) {
+    if (payload.length < 6) {
+      return 0;
+    }
+    return ((payload[2] & 0xff) << 24)
+        | ((payload[3] & 0xff) << 16)
+        | ((payload[4] & 0xff) << 8)
+        | (payload[5] & 0xff);
+  }
+
+  /**
+   * Return the generation delta time of a UPER encoded proper CAM without decoding it, or -1 if the
+   * message is too short. The generation delta time is the first field after the 48 bit header,
+   * so it is found at a fixed position.
+   *
+   * @param payload The payload of a BTP packet received on the CAM port.
+   */
+  static int camGenerationDeltaTime(byte[] payload) {
+    if (payload.length < 8) {
+      return -1;
+    }
+    return ((payload[6] & 0xff) << 8) | (payload[7] & 0xff);
+  }
+
+  /**
+   * Return the actionID of a UPER encoded proper DENM without decoding it, or -1 if the message is
+   * too short. The actionID follows the header and the presence bits of the DENM and management
+   * container, so it is found at a fixed position.
+   *
+   * @param payload The payload of a BTP packet received on the DENM port.
+   * @return The actionID. See DenmRepeater.actionId().
+   */
+  static long denmActionId(byte[] payload) {
+    try {
+      UperBitReader in = new UperBitReader(payload);
+      skip(in, DENM_ACTION_ID_POSITION);
+      int stationId = (int) in.readBits(32);
+      int sequenceNumber = (int) read(in, Range.SEQUENCE_NUMBER);
+      return DenmRepeater.actionId(stationId, sequenceNumber);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Return the reference time of a UPER encoded proper DENM without decoding it, or -1 if the
+   * message is too short.
+   *
+   * @param payload The payload of a BTP packet received on the DENM port.
+   */
+  static long denmReferenceTime(byte[] payload) {
+    try {
+      UperBitReader in = new UperBitReader(payload);
+      skip(in, DENM_REFERENCE_TIME_POSITION);
+      return read(in, Range.TIMESTAMP_ITS);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Return the termination of a UPER encoded proper DENM without decoding it, as the index of a
+   * Termination value, or -1 if the DENM has no termination or is too short.
+   *
+   * @param payload The payload of a BTP packet received on the DENM port.
+   */
+  static int denmTermination(byte[] payload) {
+    try {
+      UperBitReader in = new UperBitReader(payload);
+      skip(in, DENM_TERMINATION_PRESENCE_POSITION);
+      if (!in.readBit()) {
+        return -1;
+      }
+      skip(in, DENM_TERMINATION_POSITION - DENM_TERMINATION_PRESENCE_POSITION - 1);
+      return (int) in.readBits(UperBitWriter.bitsFor(0, TERMINATION_COUNT - 1));
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  private void writeCam(UperBitReader in) {
+    int stationId = readHeader(in, MessageId.cam, 2001);
+    out.putInt(stationId);
+    copy(in, Range.GENERATION_DELTA_TIME);
+
+    /* CamParameters. Presence of the low frequency and special vehicle
+     * containers. */
+    checkExtension(in, "CamParameters");
+    boolean hasLowFrequencyContainer = in.readBit();
+    boolean hasSpecialVehicleContainer = in.readBit();
+    out.put((byte) (hasLowFrequencyContainer ? 1 << 7 : 0));
+
+    /* BasicContainer */
+    checkExtension(in, "BasicContainer");
+    copy(in, Range.STATION_TYPE);
+    copyReferencePosition(in);
+
+    /* HighFrequencyContainer. The simple CAM only has room for the
+     * basicVehicleContainerHighFrequency alternative. */
+    checkExtension(in, "HighFrequencyContainer");
+    if (in.readBits(1) != 0) {
+      logger.warn("CAM from station with ID {} has no basic vehicle container", stationId);
+      throw new IllegalArgumentException("CAM has no basic vehicle container");
+    }
+    boolean hasAccelerationControl = in.readBit();
+    boolean hasLanePosition = in.readBit();
+    boolean hasSteeringWheelAngle = in.readBit();
+    boolean hasLateralAcceleration = in.readBit();
+    boolean hasVerticalAcceleration = in.readBit();
+    boolean hasPerformanceClass = in.readBit();
+    boolean hasCenDsrcTollingZone = in.readBit();
+    copy(in, Range.HEADING_VALUE);
+    copy(in, Range.HEADING_CONFIDENCE);
+    copy(in, Range.SPEED_VALUE);
+    copy(in, Range.SPEED_CONFIDENCE);
+    readEnum(in, DRIVE_DIRECTION_COUNT, "DriveDirection");
+    copy(in, Range.VEHICLE_LENGTH_VALUE);
+    readEnum(in, VEHICLE_LENGTH_CONFIDENCE_COUNT, "VehicleLengthConfidenceIndication");
+    copy(in, Range.VEHICLE_WIDTH);
+    copy(in, Range.LONGITUDINAL_ACCELERATION_VALUE);
+    copy(in, Range.ACCELERATION_CONFIDENCE);
+    read(in, Range.CURVATURE_VALUE);
+    readEnum(in, CURVATURE_CONFIDENCE_COUNT, "CurvatureConfidence");
+    checkExtension(in, "CurvatureCalculationMode");
+    readEnum(in, CURVATURE_CALCULATION_MODE_COUNT, "CurvatureCalculationMode");
+    copy(in, Range.YAW_RATE_VALUE);
+    out.putInt(readEnum(in, YAW_RATE_CONFIDENCE_COUNT, "YawRateConfidence"));
+    if (hasAccelerationControl) {
+      UperCodecs.decodeAccelerationControl(in);
+    }
+    if (hasLanePosition) {
+      read(in, Range.LANE_POSITION);
+    }
+    if (hasSteeringWheelAngle) {
+      UperCodecs.decodeSteeringWheelAngle(in);
+    }
+    if (hasLateralAcceleration) {
+      UperCodecs.decodeLateralAcceleration(in);
+    }
+    if (hasVerticalAcceleration) {
+      UperCodecs.decodeVerticalAcceleration(in);
+    }
+    if (hasPerformanceClass) {
+      read(in, Range.PERFORMANCE_CLASS);
+    }
+    if (hasCenDsrcTollingZone) {
+      UperCodecs.decodeCenDsrcTollingZone(in);
+    }
+
+    /* LowFrequencyContainer, a choice with a single alternative */
+    int vehicleRole = DEFAULT_VEHICLE_ROLE;
+    if (hasLowFrequencyContainer) {
+      checkExtension(in, "LowFrequencyContainer");
+      vehicleRole = readEnum(in, VEHICLE_ROLE_COUNT, "VehicleRole");
+      in.readBits(EXTERIOR_LIGHTS_BITS);
+      UperCodecs.decodePathHistory(in);
+    }
+    out.putInt(vehicleRole);
+
+    if (hasSpecialVehicleContainer) {
+      UperCodecs.decodeSpecialVehicleContainer(in);
+    }
+  }
+
+  private void writeDenm(UperBitReader in) {
+    int stationId = readHeader(in, MessageId.denm, 2002);
+
+    /* DecentralizedEnvironmentalNotificationMessage. Presence of the
+     * situation, location and alacarte containers. The location container
+     * is skipped and left out of the container mask. */
+    boolean hasSituation = in.readBit();
+    boolean hasLocation = in.readBit();
+    boolean hasAlacarte = in.readBit();
+    byte containerMask = 0;
+    if (hasSituation) {
+      containerMask += (1 << 7);
+    }
+    if (hasAlacarte) {
+      containerMask += (1 << 5);
+    }
+
+    /* ManagementContainer. Presence of termination, relevanceDistance,
+     * relevanceTrafficDirection, validityDuration and transmissionInterval.
+     * The decoded container keeps its default validityDuration when none
+     * is sent, so SimpleDenm always marks it present. */
+    checkExtension(in, "ManagementContainer");
+    boolean hasTermination = in.readBit();
+    boolean hasRelevanceDistance = in.readBit();
+    boolean hasRelevanceTrafficDirection = in.readBit();
+    boolean hasValidityDuration = in.readBit();
+    boolean hasTransmissionInterval = in.readBit();
+    byte managementMask = 1 << 4;
+    if (hasTermination) {
+      managementMask += (1 << 7);
+    }
+    if (hasRelevanceDistance) {
+      managementMask += (1 << 6);
+    }
+    if (hasRelevanceTrafficDirection) {
+      managementMask += (1 << 5);
+    }
+    if (hasTransmissionInterval) {
+      managementMask += (1 << 3);
+    }
+    read(in, Range.STATION_ID);
+    read(in, Range.SEQUENCE_NUMBER);
+    long detectionTime = read(in, Range.TIMESTAMP_ITS);
+    long referenceTime = read(in, Range.TIMESTAMP_ITS);
+
+    /* Timestamps are sent as increments of 65536ms, with the remainder
+     * of the reference time as generationDeltaTime. See SimpleDenm. */
+    out.putInt(stationId);
+    out.putInt((int) referenceTime % 65536);
+    out.put(containerMask);
+    out.put(managementMask);
+    out.putInt((int) detectionTime / 65536);
+    out.putInt((int) referenceTime / 65536);
+    out.putInt(
+        hasTermination ? readEnum(in, TERMINATION_COUNT, "Termination") : DEFAULT_TERMINATION);
+    copyReferencePosition(in);
+    out.putInt(
+        hasRelevanceDistance
+            ? readEnum(in, RELEVANCE_DISTANCE_COUNT, "RelevanceDistance")
+            : DEFAULT_RELEVANCE_DISTANCE);
+    out.putInt(
+        hasRelevanceTrafficDirection
+            ? readEnum(in, RELEVANCE_TRAFFIC_DIRECTION_COUNT, "RelevanceTrafficDirection")
+            : DEFAULT_RELEVANCE_TRAFFIC_DIRECTION);
+    out.putInt(
+        hasValidityDuration ? (int) read(in, Range.VALIDITY_DURATION) : DEFAULT_VALIDITY_DURATION);
+    out.putInt(
+        hasTransmissionInterval
+            ? (int) read(in, Range.TRANSMISSION_INTERVAL)
+            : DEFAULT_TRANSMISSION_INTERVAL);
+    copy(in, Range.STATION_TYPE);
+
+    /* SituationContainer. Presence of linkedCause and eventHistory. */
+    if (hasSituation) {
+      checkExtension(in, "SituationContainer");
+      boolean hasLinkedCause = in.readBit();
+      boolean hasEventHistory = in.readBit();
+      out.put((byte) (hasLinkedCause ? 1 << 7 : 0));
+      copy(in, Range.INFORMATION_QUALITY);
+      copy(in, Range.CAUSE_CODE_TYPE);
+      copy(in, Range.SUB_CAUSE_CODE_TYPE);
+      if (hasLinkedCause) {
+        copy(in, Range.CAUSE_CODE_TYPE);
+        copy(in, Range.SUB_CAUSE_CODE_TYPE);
+      } else {
+        out.putInt(0);
+        out.putInt(0);
+      }
+      if (hasEventHistory) {
+        UperCodecs.decodeEventHistory(in);
+      }
+    } else {
+      out.put((byte) 0);
+      out.putInt(InformationQuality.unavailable);
+      out.putInt(0);
+      out.putInt(0);
+      out.putInt(0);
+      out.putInt(0);
+    }
+
+    if (hasLocation) {
+      UperCodecs.decodeLocationContainer(in);
+    }
+
+    /* AlacarteContainer. Presence of lanePosition, impactReduction,
+     * externalTemperature, roadWorks, positioningSolution and
+     * stationaryVehicle. Only three of them are carried by the simple
+     * DENM. */
+    int lanePosition = 0;
+    int temperature = 0;
+    int positioningSolutionType = 0;
+    byte alacarteMask = 0;
+    if (hasAlacarte) {
+      checkExtension(in, "AlacarteContainer");
+      boolean hasLanePosition = in.readBit();
+      boolean hasImpactReduction = in.readBit();
+      boolean hasExternalTemperature = in.readBit();
+      boolean hasRoadWorks = in.readBit();
+      boolean hasPositioningSolution = in.readBit();
+      boolean hasStationaryVehicle = in.readBit();
+      if (hasLanePosition) {
+        alacarteMask += (1 << 7);
+        lanePosition = (int) read(in, Range.LANE_POSITION);
+      }
+      if (hasImpactReduction) {
+        UperCodecs.decodeImpactReductionContainer(in);
+      }
+      if (hasExternalTemperature) {
+        alacarteMask += (1 << 5);
+        temperature = (int) read(in, Range.TEMPERATURE);
+      }
+      if (hasRoadWorks) {
+        UperCodecs.decodeRoadWorksContainerExtended(in);
+      }
+      if (hasPositioningSolution) {
+        alacarteMask += (1 << 3);
+        checkExtension(in, "PositioningSolutionType");
+        positioningSolutionType =
+            readEnum(in, POSITIONING_SOLUTION_TYPE_COUNT, "PositioningSolutionType");
+      }
+      if (hasStationaryVehicle) {
+        UperCodecs.decodeStationaryVehicleContainer(in);
+      }
+    }
+    out.put(alacarteMask);
+    out.putInt(lanePosition);
+    out.putInt(temperature);
+    out.putInt(positioningSolutionType);
+  }
+
+  private void writeIclcm(UperBitReader in) {
+    int stationId = readHeader(in, Iclcm.MessageID_iCLCM, 2010);
+    out.putInt(stationId);
+    read(in, Range.GENERATION_DELTA_TIME);
+
+    /* IclmParameters. Presence of the low frequency container. */
+    boolean hasLowFrequencyContainer = in.readBit();
+    out.put((byte) (hasLowFrequencyContainer ? 1 << 7 : 0));
+
+    /* VehicleContainerHighFrequency */
+    copy(in, Range.REAR_AXLE_LOCATION);
+    copy(in, Range.CONTROLLER_TYPE);
+    copy(in, Range.RESPONSE_TIME_CONSTANT);
+    copy(in, Range.RESPONSE_TIME_DELAY);
+    copy(in, Range.TARGET_LONGITUDINAL_ACCELERATION);
+    copy(in, Range.TIME_HEADWAY);
+    copy(in, Range.CRUISE_SPEED);
+
+    /* VehicleContainerLowFrequency. Presence of participantsReady,
+     * startPlatoon and endOfScenario. */
+    int participantsReady = 0;
+    int startPlatoon = 0;
+    int endOfScenario = 0;
+    byte lowFrequencyMask = 0;
+    if (hasLowFrequencyContainer) {
+      boolean hasParticipantsReady = in.readBit();
+      boolean hasStartPlatoon = in.readBit();
+      boolean hasEndOfScenario = in.readBit();
+      if (hasParticipantsReady) {
+        lowFrequencyMask += (1 << 7);
+        participantsReady = (int) read(in, Range.PARTICIPANTS_READY);
+      }
+      if (hasStartPlatoon) {
+        lowFrequencyMask += (1 << 6);
+        startPlatoon = (int) read(in, Range.START_PLATOON);
+      }
+      if (hasEndOfScenario) {
+        lowFrequencyMask += (1 << 5);
+        endOfScenario = (int) read(in, Range.END_OF_SCENARIO);
+      }
+    }
+    out.put(lowFrequencyMask);
+    out.putInt(participantsReady);
+    out.putInt(startPlatoon);
+    out.putInt(endOfScenario);
+
+    /* MostImportantObjectContainer */
+    copy(in, Range.STATION_ID);
+    copy(in, Range.MIO_RANGE);
+    copy(in, Range.MIO_BEARING);
+    copy(in, Range.MIO_RANGE_RATE);
+
+    /* LaneObject */
+    copy(in, Range.LANE);
+
+    /* PairIdObject */
+    copy(in, Range.STATION_ID);
+    copy(in, Range.STATION_ID);
+    read(in, Range.ACKNOWLEDGE_FLAG);
+
+    /* MergeObject */
+    copy(in, Range.MERGE_REQUEST);
+    copy(in, Range.MERGE_SAFE_TO_MERGE);
+    copy(in, Range.MERGE_FLAG);
+    copy(in, Range.MERGE_FLAG_TAIL);
+    copy(in, Range.MERGE_FLAG_HEAD);
+
+    /* ScenarioObject */
+    copy(in, Range.PLATOON_ID);
+    copy(in, Range.DISTANCE_TRAVELLED_CZ);
+    copy(in, Range.INTENTION);
+    copy(in, Range.COUNTER);
+  }
+
+  /* Read an ItsPduHeader and write the message ID of the simple message.
+   * Returns the station ID. */
+  private int readHeader(UperBitReader in, int messageId, int btpPort) {
+    read(in, Range.PROTOCOL_VERSION);
+    byte receivedId = (byte) read(in, Range.MESSAGE_ID);
+    int stationId = (int) read(in, Range.STATION_ID);
+    if (receivedId != messageId) {
+      logger.warn("Malformed message on BTP port {} from station with ID {}", btpPort, stationId);
+      throw new IllegalArgumentException("Malformed message on BTP port " + btpPort);
+    }
+    out.put(receivedId);
+    return stationId;
+  }
+
+  /* Copy the position, PosConfidenceEllipse and Altitude of a
+   * ReferencePosition. The simple CAM and DENM share the layout of these
+   * fields. */
+  private void copyReferencePosition(UperBitReader in) {
+    copy(in, Range.LATITUDE);
+    copy(in, Range.LONGITUDE);
+    copy(in, Range.SEMI_AXIS_LENGTH);
+    copy(in, Range.SEMI_AXIS_LENGTH);
+    copy(in, Range.HEADING_VALUE);
+    copy(in, Range.ALTITUDE_VALUE);
+    readEnum(in, ALTITUDE_CONFIDENCE_COUNT, "AltitudeConfidence");
+  }
+
+  /* Copy an integer to the simple message. Like the simple message
+   * classes, the value is truncated to an int. */
+  private void copy(UperBitReader in, Range range) {
+    out.putInt((int) read(in, range));
+  }
+
+  private static long read(UperBitReader in, Range range) {
+    return in.readConstrainedInt(range.min, range.max);
+  }
+
+  /** Read the index of an enumerated value. Throws if it is not one of the values. */
+  private static int readEnum(UperBitReader in, int count, String name) {
+    int index = (int) in.readBits(UperBitWriter.bitsFor(0, count - 1));
+    if (index >= count) {
+      throw new IllegalArgumentException("Invalid value " + index + " of " + name);
+    }
+    return index;
+  }
+
+  /** Skip a number of bits. */
+  private static void skip(UperBitReader in, int bits) {
+    for (; bits > 32; bits -= 32) {
+      in.readBits(32);
+    }
+    in.readBits(bits);
+  }
+
+  private static void checkExtension(UperBitReader in, String name) {
+    if (in.readBit()) {
+      throw new UnsupportedOperationException("Extensions of " + name + " are not supported");
+    }
+  }
+
+  private static void checkFullyRead(UperBitReader in, String name) {
+    if (in.remaining() > 7) {
+      throw new IllegalArgumentException(
+          "Can't fully decode " + name + ", " + in.remaining() + " bits remaining");
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import net.gcdc.asn1.datatypes.IntRange;
+import net.gcdc.camdenm.CoopIts.*;
+import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
+import net.gcdc.camdenm.CoopIts.ItsPduHeader.ProtocolVersion;
+import net.gcdc.camdenm.Iclcm.*;
+
+/**
+ * Range of an ASN.1 integer type, read once from its IntRange annotation. The ranges of the types
+ * carried by the simple messages are kept here, and shared by the transcoders and the field
+ * validators.
+ */
+final class Range {
+  /* ItsPduHeader */
+  static final Range PROTOCOL_VERSION = new Range(ProtocolVersion.class);
+  static final Range MESSAGE_ID = new Range(MessageId.class);
+  static final Range STATION_ID = new Range(StationID.class);
+  static final Range GENERATION_DELTA_TIME = new Range(GenerationDeltaTime.class);
+
+  /* ReferencePosition */
+  static final Range STATION_TYPE = new Range(StationType.class);
+  static final Range LATITUDE = new Range(Latitude.class);
+  static final Range LONGITUDE = new Range(Longitude.class);
+  static final Range SEMI_AXIS_LENGTH = new Range(SemiAxisLength.class);
+  static final Range HEADING_VALUE = new Range(HeadingValue.class);
+  static final Range ALTITUDE_VALUE = new Range(AltitudeValue.class);
+
+  /* BasicVehicleContainerHighFrequency */
+  static final Range HEADING_CONFIDENCE = new Range(HeadingConfidence.class);
+  static final Range SPEED_VALUE = new Range(SpeedValue.class);
+  static final Range SPEED_CONFIDENCE = new Range(SpeedConfidence.class);
+  static final Range VEHICLE_LENGTH_VALUE = new Range(VehicleLengthValue.class);
+  static final Range VEHICLE_WIDTH = new Range(VehicleWidth.class);
+  static final Range LONGITUDINAL_ACCELERATION_VALUE =
+      new Range(LongitudinalAccelerationValue.class);
+  static final Range ACCELERATION_CONFIDENCE = new Range(AccelerationConfidence.class);
+  static final Range CURVATURE_VALUE = new Range(CurvatureValue.class);
+  static final Range YAW_RATE_VALUE = new Range(YawRateValue.class);
+  static final Range PERFORMANCE_CLASS = new Range(PerformanceClass.class);
+
+  /* SIZE(0..40) of the PathHistory, encoded like a constrained integer */
+  static final Range PATH_HISTORY_SIZE = new Range(0, 40);
+
+  /* ManagementContainer, SituationContainer and AlacarteContainer */
+  static final Range SEQUENCE_NUMBER = new Range(SequenceNumber.class);
+  static final Range TIMESTAMP_ITS = new Range(TimestampIts.class);
+  static final Range VALIDITY_DURATION = new Range(ValidityDuration.class);
+  static final Range TRANSMISSION_INTERVAL = new Range(TransmissionInterval.class);
+  static final Range INFORMATION_QUALITY = new Range(InformationQuality.class);
+  static final Range CAUSE_CODE_TYPE = new Range(CauseCodeType.class);
+  static final Range SUB_CAUSE_CODE_TYPE = new Range(SubCauseCodeType.class);
+  static final Range LANE_POSITION = new Range(LanePosition.class);
+  static final Range TEMPERATURE = new Range(Temperature.class);
+
+  /* iCLCM containers */
+  static final Range REAR_AXLE_LOCATION = new Range(VehicleRearAxleLocation.class);
+  static final Range CONTROLLER_TYPE = new Range(ControllerType.class);
+  static final Range RESPONSE_TIME_CONSTANT = new Range(VehicleResponseTimeConstant.class);
+  static final Range RESPONSE_TIME_DELAY = new Range(VehicleResponseTimeDelay.class);
+  static final Range TARGET_LONGITUDINAL_ACCELERATION =
+      new Range(TargetLongitudonalAcceleration.class);
+  static final Range TIME_HEADWAY = new Range(TimeHeadway.class);
+  static final Range CRUISE_SPEED = new Range(CruiseSpeed.class);
+  static final Range PARTICIPANTS_READY = new Range(ParticipantsReady.class);
+  static final Range START_PLATOON = new Range(StartPlatoon.class);
+  static final Range END_OF_SCENARIO = new Range(EndOfScenario.class);
+  static final Range MIO_RANGE = new Range(MioRange.class);
+  static final Range MIO_BEARING = new Range(MioBearing.class);
+  static final Range MIO_RANGE_RATE = new Range(MioRangeRate.class);
+  static final Range LANE = new Range(Lane.class);
+  static final Range ACKNOWLEDGE_FLAG = new Range(AcknowledgeFlag.class);
+  static final Range MERGE_REQUEST = new Range(MergeRequest.class);
+  static final Range MERGE_SAFE_TO_MERGE = new Range(MergeSafeToMerge.class);
+  static final Range MERGE_FLAG = new Range(MergeFlag.class);
+  static final Range MERGE_FLAG_TAIL = new Range(MergeFlagTail.class);
+  static final Range MERGE_FLAG_HEAD = new Range(MergeFlagHead.class);
+  static final Range PLATOON_ID = new Range(PlatoonID.class);
+  static final Range DISTANCE_TRAVELLED_CZ = new Range(DistanceTravelledCZ.class);
+  static final Range INTENTION = new Range(Intention.class);
+  static final Range COUNTER = new Range(Counter.class);
+
+  final long min;
+  final long max;
+
+  Range(Class<?> type) {
+    IntRange intRange = type.getAnnotation(IntRange.class);
+    this.min = intRange.minValue();
+    this.max = intRange.maxValue();
+  }
+
+  Range(long min, long max) {
+    this.min = min;
+    this.max = max;
+  }
+
+  boolean contains(int value) {
+    return value >= min && value <= max;
+  }
+
+  @Override
+  public String toString() {
+    return "minValue=" + min + ", maxValue=" + max;
+  }
+}
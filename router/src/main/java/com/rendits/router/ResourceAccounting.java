@@ -0,0 +1,273 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ *
+ *
+ * <h1>Resource accounting</h1>
+ *
+ * <p>Measures the memory allocated and the CPU time used by the router, through the thread
+ * counters of the ThreadMXBean. Every message can be measured on its own: the thread handling it
+ * reads its counters before and after, and the difference is added to the counters of the
+ * direction and type of the message in the metrics registry, e.g., tx_cam_allocated_bytes and
+ * tx_cam_cpu_nanos. Reading the counters takes around a microsecond, so this is turned on with a
+ * property.
+ *
+ * <p>The threads of the router also register under a role, e.g., receive, and the summary gives
+ * the allocation rate and CPU usage of every role over the last interval, next to the number and
+ * time of the garbage collections.
+ *
+ * <p>The allocation counters are an extension of HotSpot and OpenJ9. See isSupported().
+ */
+final class ResourceAccounting {
+  static final int TX = 0;
+  static final int RX = 1;
+  private static final String[] DIRECTIONS = {"tx", "rx"};
+  private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+  private final ThreadMXBean threads;
+  private final com.sun.management.ThreadMXBean allocations;
+  private final List<GarbageCollectorMXBean> collectors;
+
+  /* Per direction and class: messages measured, bytes and CPU time */
+  private final Metrics.Counter[][] messages;
+  private final Metrics.Counter[][] bytes;
+  private final Metrics.Counter[][] cpuNanos;
+
+  /* Registered threads and their counters as of the last summary */
+  private final List<String> roles = new ArrayList<>();
+  private final List<ThreadEntry> entries = new ArrayList<>();
+  private long lastSummaryNanos = System.nanoTime();
+  private long lastGcCount;
+  private long lastGcMillis;
+
+  private static final class ThreadEntry {
+    final int role;
+    final long id;
+    long bytes;
+    long cpuNanos;
+
+    ThreadEntry(int role, long id, long bytes, long cpuNanos) {
+      this.role = role;
+      this.id = id;
+      this.bytes = bytes;
+      this.cpuNanos = cpuNanos;
+    }
+  }
+
+  /**
+   * ResourceAccounting constructor. Turns on the thread counters of the JVM.
+   *
+   * @param metrics Registry to add the counters of the messages to.
+   * @exception UnsupportedOperationException if the JVM doesn't support the thread counters.
+   */
+  ResourceAccounting(Metrics metrics) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException(
+          "the JVM can't measure the memory and CPU time of a thread");
+    }
+    threads = ManagementFactory.getThreadMXBean();
+    allocations = (com.sun.management.ThreadMXBean) threads;
+    threads.setThreadCpuTimeEnabled(true);
+    allocations.setThreadAllocatedMemoryEnabled(true);
+    collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    messages = new Metrics.Counter[DIRECTIONS.length][CLASSES.length];
+    bytes = new Metrics.Counter[DIRECTIONS.length][CLASSES.length];
+    cpuNanos = new Metrics.Counter[DIRECTIONS.length][CLASSES.length];
+    for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+      for (TrafficClass trafficClass : CLASSES) {
+        int i = trafficClass.ordinal();
+        String prefix =
+            DIRECTIONS[direction] + "_" + trafficClass.name().toLowerCase(Locale.ROOT) + "_";
+        messages[direction][i] =
+            metrics.counter(prefix + "accounted", trafficClass + " messages measured");
+        bytes[direction][i] =
+            metrics.counter(prefix + "allocated_bytes", "Bytes allocated for " + trafficClass);
+        cpuNanos[direction][i] =
+            metrics.counter(prefix + "cpu_nanos", "CPU time used for " + trafficClass);
+      }
+    }
+    metrics.gauge(
+        "jvm_gc_collections",
+        "Garbage collections so far",
+        new LongSupplier() {
+          @Override
+          public long getAsLong() {
+            return gcCount();
+          }
+        });
+    metrics.gauge(
+        "jvm_gc_collection_millis",
+        "Time spent in garbage collections so far",
+        new LongSupplier() {
+          @Override
+          public long getAsLong() {
+            return gcMillis();
+          }
+        });
+    lastGcCount = gcCount();
+    lastGcMillis = gcMillis();
+  }
+
+  /** Return true if the JVM can measure the memory allocated and CPU time used by a thread. */
+  static boolean isSupported() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    return threads.isCurrentThreadCpuTimeSupported()
+        && threads.isThreadCpuTimeSupported()
+        && threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+  }
+
+  /**
+   * Register the calling thread under a role. Its usage is included in the summary from now on.
+   *
+   * @param role Role of the thread, e.g., receive.
+   */
+  synchronized void register(String role) {
+    int index = roles.indexOf(role);
+    if (index < 0) {
+      index = roles.size();
+      roles.add(role);
+    }
+    entries.add(new ThreadEntry(index, Thread.currentThread().getId(), threadBytes(), threadCpu()));
+  }
+
+  /** Return the bytes allocated by the calling thread so far. */
+  long threadBytes() {
+    return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** Return the CPU time used by the calling thread so far, in nanoseconds. */
+  long threadCpu() {
+    return threads.getCurrentThreadCpuTime();
+  }
+
+  /**
+   * Count one message handled by the calling thread.
+   *
+   * @param direction TX or RX.
+   * @param trafficClass Type of the message.
+   * @param startBytes threadBytes() before the message was handled.
+   * @param startCpu threadCpu() before the message was handled.
+   */
+  void record(int direction, TrafficClass trafficClass, long startBytes, long startCpu) {
+    int i = trafficClass.ordinal();
+    bytes[direction][i].add(threadBytes() - startBytes);
+    cpuNanos[direction][i].add(threadCpu() - startCpu);
+    messages[direction][i].increment();
+  }
+
+  /**
+   * Return the bytes and CPU time per message of every type in the last metrics interval, e.g., "tx
+   * per message: DENM - | ICLCM - | CAM 1208B 14.2us | CUSTOM -".
+   */
+  String getMessageSummary(int direction) {
+    StringBuilder summary = new StringBuilder(DIRECTIONS[direction]).append(" per message:");
+    for (TrafficClass trafficClass : CLASSES) {
+      int i = trafficClass.ordinal();
+      if (i > 0) {
+        summary.append(" |");
+      }
+      summary.append(' ').append(trafficClass).append(' ');
+      long n = messages[direction][i].getLastInterval();
+      if (n == 0) {
+        summary.append('-');
+        continue;
+      }
+      summary
+          .append(bytes[direction][i].getLastInterval() / n)
+          .append("B ")
+          .append(
+              String.format(
+                  Locale.ROOT, "%.1fus", cpuNanos[direction][i].getLastInterval() / 1000.0 / n));
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Return the allocation rate and CPU usage of the registered threads of every role, and the
+   * garbage collections, since the last call, e.g., "receive 2.1MB/s 4.0% cpu | send 0.8MB/s 1.5%
+   * cpu | GC 1 collections 12ms".
+   */
+  synchronized String takeThreadSummary() {
+    long now = System.nanoTime();
+    double seconds = Math.max(now - lastSummaryNanos, 1) / 1e9;
+    lastSummaryNanos = now;
+
+    long[] roleBytes = new long[roles.size()];
+    long[] roleCpu = new long[roles.size()];
+    for (ThreadEntry entry : entries) {
+      long threadBytes = allocations.getThreadAllocatedBytes(entry.id);
+      long threadCpu = threads.getThreadCpuTime(entry.id);
+      if (threadBytes < 0 || threadCpu < 0) {
+        continue; /* The thread has ended */
+      }
+      roleBytes[entry.role] += threadBytes - entry.bytes;
+      roleCpu[entry.role] += threadCpu - entry.cpuNanos;
+      entry.bytes = threadBytes;
+      entry.cpuNanos = threadCpu;
+    }
+
+    StringBuilder summary = new StringBuilder();
+    for (int role = 0; role < roles.size(); role++) {
+      summary.append(
+          String.format(
+              Locale.ROOT,
+              "%s %.1fMB/s %.1f%% cpu | ",
+              roles.get(role),
+              roleBytes[role] / seconds / 1e6,
+              roleCpu[role] / seconds / 1e7));
+    }
+    long gcCount = gcCount();
+    long gcMillis = gcMillis();
+    summary
+        .append("GC ")
+        .append(gcCount - lastGcCount)
+        .append(" collections ")
+        .append(gcMillis - lastGcMillis)
+        .append("ms");
+    lastGcCount = gcCount;
+    lastGcMillis = gcMillis;
+    return summary.toString();
+  }
+
+  private long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean collector : collectors) {
+      count += Math.max(collector.getCollectionCount(), 0);
+    }
+    return count;
+  }
+
+  private long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean collector : collectors) {
+      millis += Math.max(collector.getCollectionTime(), 0);
+    }
+    return millis;
+  }
+}
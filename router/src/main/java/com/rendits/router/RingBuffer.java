@@ -0,0 +1,194 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ *
+ *
+ * <h1>Ring buffer</h1>
+ *
+ * <p>Bounded single producer, multiple consumer ring buffer in the style of the LMAX Disruptor.
+ * The entries are allocated up front and reused, so passing a message from the producer to the
+ * consumers doesn't allocate anything and doesn't take a lock (unless the blocking wait strategy
+ * is used).
+ *
+ * <p>The producer claims the next sequence with tryNext(), fills in the entry returned by
+ * get(sequence) and makes it visible with publish(sequence). Every consumer sees every published
+ * sequence, in order, and reports how far it has come with Consumer.release(). A slot is only
+ * reused once all consumers have released it. Consumers that split the work between them do so
+ * by skipping the entries that belong to other consumers.
+ *
+ * <p>tryNext() never blocks. When the ring is full it returns -1 and the producer decides what to
+ * do with the message. The ring also records when every entry was published, so that consumers can
+ * measure how long entries waited in it.
+ *
+ * @param <E> Type of the entries.
+ */
+final class RingBuffer<E> {
+  private final Object[] entries;
+  private final long[] publishNanos;
+  private final int mask;
+  private final WaitStrategy waitStrategy;
+
+  /* Sequence most recently published by the producer */
+  private final AtomicLong cursor = new AtomicLong(-1);
+
+  /* Sequence most recently released by every consumer */
+  private final AtomicLong[] consumerSequences;
+
+  /* Only accessed by the producer */
+  private long nextSequence = 0;
+  private long cachedMinimumSequence = -1;
+
+  /**
+   * RingBuffer constructor.
+   *
+   * @param size Number of entries. Rounded up to the nearest power of 2.
+   * @param numConsumers Number of consumers. See consumer().
+   * @param factory Creates the entries of the ring.
+   * @param waitStrategy Strategy used by the consumers to wait for new entries.
+   */
+  RingBuffer(int size, int numConsumers, Supplier<E> factory, WaitStrategy waitStrategy) {
+    if (size <= 0 || size > (1 << 30)) {
+      throw new IllegalArgumentException("ring buffer size must be between 1 and 2^30.");
+    }
+    if (numConsumers <= 0) {
+      throw new IllegalArgumentException("the ring buffer must have at least 1 consumer.");
+    }
+    int capacity = Integer.highestOneBit(size);
+    if (capacity < size) {
+      capacity <<= 1;
+    }
+    this.entries = new Object[capacity];
+    this.publishNanos = new long[capacity];
+    this.mask = capacity - 1;
+    this.waitStrategy = waitStrategy;
+    for (int i = 0; i < capacity; i++) {
+      entries[i] = factory.get();
+    }
+    this.consumerSequences = new AtomicLong[numConsumers];
+    for (int i = 0; i < numConsumers; i++) {
+      consumerSequences[i] = new AtomicLong(-1);
+    }
+  }
+
+  /** Return the number of consumers of the ring. */
+  int numConsumers() {
+    return consumerSequences.length;
+  }
+
+  /** Return the number of entries in the ring. */
+  int capacity() {
+    return entries.length;
+  }
+
+  /**
+   * Return the entry of a sequence. The producer may only write to it between claiming and
+   * publishing the sequence, and consumers may only read from it between receiving and releasing
+   * it.
+   */
+  @SuppressWarnings("unchecked")
+  E get(long sequence) {
+    return (E) entries[(int) sequence & mask];
+  }
+
+  /**
+   * Claim the next sequence. Must only be called by the producer.
+   *
+   * @return The claimed sequence, or -1 if the ring is full.
+   */
+  long tryNext() {
+    long wrapPoint = nextSequence - entries.length;
+    if (wrapPoint > cachedMinimumSequence) {
+      cachedMinimumSequence = minimumConsumerSequence();
+      if (wrapPoint > cachedMinimumSequence) {
+        return -1;
+      }
+    }
+    return nextSequence++;
+  }
+
+  /**
+   * Make a claimed sequence visible to the consumers. Sequences must be published in the order
+   * they were claimed.
+   *
+   * @param sequence A sequence returned by tryNext().
+   */
+  void publish(long sequence) {
+    publishNanos[(int) sequence & mask] = System.nanoTime();
+    cursor.set(sequence);
+    waitStrategy.signalAll();
+  }
+
+  /** Return the time, as given by System.nanoTime(), that a sequence was published. */
+  long publishNanos(long sequence) {
+    return publishNanos[(int) sequence & mask];
+  }
+
+  /** Return the number of published entries that have not been released by every consumer. */
+  int depth() {
+    return (int) (cursor.get() - minimumConsumerSequence());
+  }
+
+  /**
+   * Return a consumer of the ring.
+   *
+   * @param ordinal Ordinal of the consumer, from 0 to the number of consumers - 1. Every ordinal
+   *     must only be used by one thread.
+   */
+  Consumer consumer(int ordinal) {
+    return new Consumer(consumerSequences[ordinal]);
+  }
+
+  private long minimumConsumerSequence() {
+    long minimum = Long.MAX_VALUE;
+    for (AtomicLong sequence : consumerSequences) {
+      minimum = Math.min(minimum, sequence.get());
+    }
+    return minimum;
+  }
+
+  /** A consumer of the ring. Not thread safe. */
+  final class Consumer {
+    private final AtomicLong sequence;
+
+    private Consumer(AtomicLong sequence) {
+      this.sequence = sequence;
+    }
+
+    /**
+     * Wait for the next sequence to be published.
+     *
+     * @return The sequence most recently published. The consumer may process every sequence up to
+     *     and including it.
+     * @exception InterruptedException if interrupted while waiting.
+     */
+    long waitForNext() throws InterruptedException {
+      return waitStrategy.waitFor(sequence.get() + 1, cursor);
+    }
+
+    /**
+     * Release every sequence up to and including the given one, allowing the producer to reuse
+     * their entries.
+     */
+    void release(long released) {
+      sequence.lazySet(released);
+    }
+  }
+}
@@ -15,6 +15,8 @@
 
 package com.rendits.router;
 
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.IllegalArgumentException;
@@ -22,19 +24,26 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.ServiceLoader;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import net.gcdc.asn1.uper.UperEncoder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import net.gcdc.camdenm.CoopIts.Cam;
-import net.gcdc.camdenm.CoopIts.Denm;
 import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
+import net.gcdc.camdenm.CoopIts.Termination;
 import net.gcdc.camdenm.Iclcm;
-import net.gcdc.camdenm.Iclcm.IgameCooperativeLaneChangeMessage;
 import net.gcdc.geonetworking.Address;
 import net.gcdc.geonetworking.Area;
 import net.gcdc.geonetworking.BtpPacket;
@@ -75,9 +84,171 @@ public class Router {
   private final DatagramSocket rcvSocket;
   private static final int MAX_UDP_LENGTH = 600;
 
+  /* Channel that the socket for incoming UDP messages belongs to. It
+   * is used for receiving when the NIO ingress mode is selected, and
+   * for sending simple messages to the vehicle from direct buffers.
+   */
+  private final DatagramChannel vehicleChannel;
+
+  /* Ring buffer between the thread receiving simple messages from
+   * the vehicle and the receive workers, which parse, encode and
+   * transmit them. Every worker sees every message, but only handles
+   * those of the stations assigned to it, which preserves the order of
+   * messages from every station. Receiving never waits for the
+   * workers: when the ring is full the message is dropped.
+   */
+  private final RingBuffer<ByteBuffer> ingressRing;
+
+  /* Counters of the messages passed in both directions, and of the
+   * messages dropped for every reason. Logged with their rates by the
+   * statistics logger.
+   */
+  private final Metrics metrics = new Metrics();
+  private final Metrics.Counter txCam = metrics.counter("tx_cam", "CAMs transmitted");
+  private final Metrics.Counter rxCam = metrics.counter("rx_cam", "CAMs sent to the vehicle");
+  private final Metrics.Counter txDenm = metrics.counter("tx_denm", "DENMs transmitted");
+  private final Metrics.Counter rxDenm = metrics.counter("rx_denm", "DENMs sent to the vehicle");
+  private final Metrics.Counter txIclcm = metrics.counter("tx_iclcm", "iCLCMs transmitted");
+  private final Metrics.Counter rxIclcm =
+      metrics.counter("rx_iclcm", "iCLCMs sent to the vehicle");
+  private final Metrics.Counter txCustom =
+      metrics.counter("tx_custom", "Custom messages transmitted");
+  private final Metrics.Counter rxCustom =
+      metrics.counter("rx_custom", "Custom messages sent to the vehicle");
+  private final Metrics.Counter ingressDropped =
+      metrics.counter("tx_ingress_dropped", "Messages from the vehicle dropped on a full ring");
+  private final Metrics.Counter txReceiveErrors =
+      metrics.counter("tx_receive_errors", "Errors receiving from the vehicle socket");
+  private final Metrics.Counter txEmpty =
+      metrics.counter("tx_empty", "Empty messages from the vehicle");
+  private final Metrics.Counter txUnknownId =
+      metrics.counter("tx_unknown_id", "Messages from the vehicle with an unknown message ID");
+  private final Metrics.Counter txTooShort =
+      metrics.counter("tx_too_short", "Messages from the vehicle shorter than their type");
+  private final Metrics.Counter txInvalid =
+      metrics.counter("tx_invalid", "Messages from the vehicle that failed validation");
+  private final Metrics.Counter txEncodeErrors =
+      metrics.counter("tx_encode_errors", "Messages that couldn't be encoded");
+  /* Failed checks of every validated field */
+  private final List<Metrics.Counter> invalidFields = new ArrayList<>();
+  private final Metrics.Counter txSocketErrors =
+      metrics.counter("tx_socket_errors", "Errors sending to the BTP socket");
+  private final Metrics.Counter rxDecodeErrors =
+      metrics.counter("rx_decode_errors", "Messages from other stations that couldn't be decoded");
+  private final Metrics.Counter rxTooLong =
+      metrics.counter("rx_too_long", "Custom messages too long to send to the vehicle");
+  private final Metrics.Counter rxSocketErrors =
+      metrics.counter("rx_socket_errors", "Errors sending to the vehicle socket");
+  private final Metrics.Counter handlerErrors =
+      metrics.counter("handler_errors", "Exceptions thrown by the message handlers");
+
+  /* Latency of the stages of the vehicle-to-radio pipeline */
+  private final StageStats queuedStats = new StageStats("queued");
+  private final StageStats encodeStats = new StageStats("encode");
+
+  /* Latency by traffic class of the vehicle-to-radio (tx) and the
+   * radio-to-vehicle (rx) direction. The tx total is from receiving the
+   * simple message to the BTP packet being sent, and the rx total from
+   * the BTP packet being received to the simple message being sent or
+   * dropped. Time spent in the transmit queues is logged by the
+   * transmit scheduler.
+   */
+  private static final int TX_PARSE = 0;
+  private static final int TX_ENCODE = 1;
+  private static final int TX_SOCKET = 2;
+  private static final int TX_TOTAL = 3;
+  private final PipelineStats txStats =
+      new PipelineStats("tx", "parse", "encode", "socket", "total");
+  private static final int RX_QUEUED = 0;
+  private static final int RX_DECODE = 1;
+  private static final int RX_SOCKET = 2;
+  private static final int RX_TOTAL = 3;
+  private final PipelineStats rxStats =
+      new PipelineStats("rx", "queued", "decode", "socket", "total");
+
   /* Incoming/outgoing BTP messages */
   private final BtpSocket btpSocket;
 
+  /* Packets received from the BTP socket are handed by the dispatch
+   * thread to the pool of send workers of their BTP port, so that a
+   * flood on one port doesn't delay the others. Within a pool a packet
+   * goes to the worker of its source station, through a ring buffer per
+   * worker, so that the messages of a station are decoded and delivered
+   * in the order they were received.
+   */
+  private final PortPool[] portPools;
+
+  /* Outgoing BTP messages are queued here by traffic class and sent
+   * by the transmit thread in order of priority.
+   */
+  private final TransmitScheduler transmitScheduler;
+
+  /* Filters dropping messages from the vehicle (tx) and to the vehicle
+   * (rx) that are too old to be worth encoding, decoding or sending.
+   */
+  private final StaleMessageFilter txStaleFilter;
+  private final StaleMessageFilter rxStaleFilter;
+
+  /* Generates the CAMs from the ego states of the vehicle when CAM
+   * generation is done by the router. Null when the vehicle sends its
+   * own CAMs.
+   */
+  private final CamGenerator camGenerator;
+
+  /* Repeats DENMs that have a transmission interval until their
+   * validity has passed. Null when repetition is turned off.
+   */
+  private final DenmRepeater denmRepeater;
+
+  /* Events of the DENMs received from other stations, used to only
+   * forward the DENMs that aren't repetitions to the vehicle. Null when
+   * every DENM is forwarded.
+   */
+  private final DenmEventTable denmEvents;
+
+  /* Latest CAM of every station and the active DENMs received from
+   * other stations, which the vehicle can query over UDP. Null when
+   * turned off or when portLdmQuery isn't set, as nothing could query
+   * it.
+   */
+  private final LocalDynamicMap ldm;
+  private final DatagramChannel ldmChannel;
+  private static final int MAX_LDM_RESPONSE_LENGTH = 8192;
+
+  /* Latest CAM of every neighbour, delivered to the vehicle in batches
+   * at snapshotRate per second. Null when every CAM is forwarded as it
+   * is received.
+   */
+  private final NeighbourSnapshot neighbourSnapshot;
+  private final long snapshotPeriodNanos;
+  private static final int MAX_SNAPSHOT_LENGTH = 8192;
+
+  /* Latest-value mailboxes of the CAMs and iCLCMs to deliver to the
+   * vehicle, emptied by the delivery thread at most deliveryRate
+   * messages per second. Null when messages are sent to the vehicle as
+   * they are decoded.
+   */
+  private final ConflationMailboxes mailboxes;
+  private final long deliveryPeriodNanos;
+
+  /* Memory-mapped file the counters and gauges are published to every
+   * countersInterval milliseconds, for monitoring from other processes.
+   * Null when countersFile isn't set.
+   */
+  private final CountersFile countersFile;
+  private final long countersPeriodNanos;
+
+  /* Memory and CPU time used per message and per thread role, measured
+   * when resourceAccounting is set. Null otherwise.
+   */
+  private final ResourceAccounting accounting;
+
+  /* HTTP server exporting the metrics in the Prometheus text format on
+   * metricsPort of the loopback address. Null when metricsPort isn't
+   * set.
+   */
+  private final MetricsServer metricsServer;
+
   /* BTP ports for CAM/DENM/iCLCM/CUSTOM */
   private static final short PORT_CAM = 2001;
   private static final short PORT_DENM = 2002;
@@ -87,6 +258,14 @@ public class Router {
   /* Custom message ID */
   private static final byte CUSTOM_MESSAGE_ID = 9;
 
+  /* Handlers of the simple messages from the vehicle by message ID, and
+   * of the proper messages from other stations by BTP port. Messages
+   * without a handler are dropped before they are parsed or decoded.
+   * See MessageHandler.
+   */
+  private final Handler[] simpleHandlers = new Handler[256];
+  private final Handler[] properHandlers = new Handler[65536];
+
   /* Message lifetime */
   private static final double CAM_LIFETIME_SECONDS = 0.9;
   private static final double iCLCM_LIFETIME_SECONDS = 0.9;
@@ -99,6 +278,14 @@ public class Router {
   private int vehicleCustomPort = 5000;
   private InetAddress vehicleAddress;
 
+  /* Addresses of the vehicle for CAM/DENM/iCLCM/CUSTOM. Created once
+   * so that sending a message doesn't allocate one.
+   */
+  private InetSocketAddress vehicleCamAddress;
+  private InetSocketAddress vehicleDenmAddress;
+  private InetSocketAddress vehicleIclcmAddress;
+  private InetSocketAddress vehicleCustomAddress;
+
   /* Thread pool for all workers handling incoming/outgoing messages */
   private ExecutorService executor;
 
@@ -150,9 +337,197 @@ public class Router {
     vehicleDenmPort = Integer.parseInt(props.getProperty("portSendDenm"));
     vehicleIclcmPort = Integer.parseInt(props.getProperty("portSendIclcm"));
     vehicleCustomPort = Integer.parseInt(props.getProperty("portSendCustom"));
+    vehicleCamAddress = new InetSocketAddress(vehicleAddress, vehicleCamPort);
+    vehicleDenmAddress = new InetSocketAddress(vehicleAddress, vehicleDenmPort);
+    vehicleIclcmAddress = new InetSocketAddress(vehicleAddress, vehicleIclcmPort);
+    vehicleCustomAddress = new InetSocketAddress(vehicleAddress, vehicleCustomPort);
 
     /* Open the receive socket */
     int portRcvFromVehicle = Integer.parseInt(props.getProperty("portRcvFromVehicle"));
+    String ingressMode = props.getProperty("ingressMode", "socket");
+    if (!ingressMode.equals("socket") && !ingressMode.equals("nio")) {
+      throw new IllegalArgumentException(
+          "ingressMode must be either socket or nio. check the properties file.");
+    }
+    int numReceiveThreads = Integer.parseInt(props.getProperty("receiveThreads", "1"));
+    if (numReceiveThreads <= 0) {
+      throw new IllegalArgumentException(
+          "there must be at least 1 receive thread. check the properties file.");
+    }
+
+    /* Count the failed checks of every validated field */
+    List<FieldValidator> validators = new ArrayList<>(SimpleCam.validators());
+    validators.addAll(SimpleDenm.validators());
+    validators.addAll(SimpleIclcm.validators());
+    for (FieldValidator validator : validators) {
+      invalidFields.add(validator.register(metrics));
+    }
+
+    txStaleFilter = new StaleMessageFilter("tx", props, metrics);
+    rxStaleFilter = new StaleMessageFilter("rx", props, metrics);
+    transmitScheduler = new TransmitScheduler(props, txStaleFilter, metrics);
+    for (final TrafficClass trafficClass : TrafficClass.values()) {
+      metrics.gauge(
+          "tx_queue_depth_" + trafficClass.name().toLowerCase(Locale.ROOT),
+          "Packets in the transmit queue of " + trafficClass + " messages",
+          new LongSupplier() {
+            @Override
+            public long getAsLong() {
+              return transmitScheduler.depth(trafficClass);
+            }
+          });
+    }
+
+    String camGeneration = props.getProperty("camGeneration", "vehicle");
+    if (camGeneration.equals("router")) {
+      camGenerator = new CamGenerator();
+    } else if (camGeneration.equals("vehicle")) {
+      camGenerator = null;
+    } else {
+      throw new IllegalArgumentException(
+          "camGeneration must be either vehicle or router. check the properties file.");
+    }
+    if (Boolean.parseBoolean(props.getProperty("denmRepetition", "false"))) {
+      denmRepeater =
+          new DenmRepeater(
+              new DenmRepeater.Sender() {
+                @Override
+                public void send(byte[] bytes, Geobroadcast destination, long nowNanos) {
+                  sendDenm(bytes, destination, nowNanos);
+                }
+              },
+              System.nanoTime(),
+              metrics);
+    } else {
+      denmRepeater = null;
+    }
+    int maxDenmEvents = Integer.parseInt(props.getProperty("denmEvents", "0"));
+    if (maxDenmEvents < 0) {
+      throw new IllegalArgumentException(
+          "denmEvents must not be negative. check the properties file.");
+    }
+    denmEvents = maxDenmEvents > 0 ? new DenmEventTable(maxDenmEvents, metrics) : null;
+
+    int ldmStations = Integer.parseInt(props.getProperty("ldmStations", "1024"));
+    if (ldmStations < 0) {
+      throw new IllegalArgumentException(
+          "ldmStations must not be negative. check the properties file.");
+    }
+    String portLdmQuery = props.getProperty("portLdmQuery");
+    if (ldmStations > 0 && portLdmQuery != null) {
+      ldm =
+          new LocalDynamicMap(
+              ldmStations,
+              Integer.parseInt(props.getProperty("ldmDenms", "256")),
+              Integer.parseInt(props.getProperty("ldmCellSize", "100")),
+              Long.parseLong(props.getProperty("ldmStationTimeout", "2000")),
+              metrics);
+      metrics.gauge(
+          "ldm_stations",
+          "Stations in the local dynamic map",
+          new LongSupplier() {
+            @Override
+            public long getAsLong() {
+              return ldm.numStations();
+            }
+          });
+    } else {
+      ldm = null;
+    }
+    String camOutput = props.getProperty("camOutput", "immediate");
+    if (camOutput.equals("snapshot")) {
+      int snapshotRate = Integer.parseInt(props.getProperty("snapshotRate", "10"));
+      int snapshotNeighbours = Integer.parseInt(props.getProperty("snapshotNeighbours", "1024"));
+      if (snapshotRate <= 0 || snapshotNeighbours <= 0) {
+        throw new IllegalArgumentException(
+            "snapshotRate and snapshotNeighbours must be positive. check the properties file.");
+      }
+      neighbourSnapshot = new NeighbourSnapshot(snapshotNeighbours, metrics);
+      snapshotPeriodNanos = TimeUnit.SECONDS.toNanos(1) / snapshotRate;
+    } else if (camOutput.equals("immediate")) {
+      neighbourSnapshot = null;
+      snapshotPeriodNanos = 0;
+    } else {
+      throw new IllegalArgumentException(
+          "camOutput must be either immediate or snapshot. check the properties file.");
+    }
+
+    if (Boolean.parseBoolean(props.getProperty("conflation", "false"))) {
+      int numMailboxes = Integer.parseInt(props.getProperty("conflationMailboxes", "1024"));
+      int deliveryRate = Integer.parseInt(props.getProperty("deliveryRate", "0"));
+      if (numMailboxes <= 0 || deliveryRate < 0) {
+        throw new IllegalArgumentException(
+            "conflationMailboxes must be positive and deliveryRate must not be negative."
+                + " check the properties file.");
+      }
+      mailboxes =
+          new ConflationMailboxes(
+              new byte[] {(byte) MessageId.cam, (byte) Iclcm.MessageID_iCLCM},
+              numMailboxes,
+              SimpleIclcm.SIMPLE_iCLCM_LENGTH,
+              metrics);
+      deliveryPeriodNanos = deliveryRate > 0 ? TimeUnit.SECONDS.toNanos(1) / deliveryRate : 0;
+      metrics.gauge(
+          "rx_mailboxes_pending",
+          "Messages waiting in the conflation mailboxes",
+          new LongSupplier() {
+            @Override
+            public long getAsLong() {
+              return mailboxes.size();
+            }
+          });
+    } else {
+      mailboxes = null;
+      deliveryPeriodNanos = 0;
+    }
+
+    int countersInterval = Integer.parseInt(props.getProperty("countersInterval", "100"));
+    if (countersInterval <= 0) {
+      throw new IllegalArgumentException(
+          "countersInterval must be positive. check the properties file.");
+    }
+    countersPeriodNanos = TimeUnit.MILLISECONDS.toNanos(countersInterval);
+
+    /* Parsed before any thread starts, as a malformed port would
+     * otherwise leave them running. -1 when the server is turned off. */
+    String metricsPortProperty = props.getProperty("metricsPort", "");
+    int metricsPort = -1;
+    if (!metricsPortProperty.isEmpty()) {
+      try {
+        metricsPort = Integer.parseInt(metricsPortProperty);
+      } catch (NumberFormatException e) {
+        metricsPort = -1;
+      }
+      if (metricsPort < 0 || metricsPort > 65535) {
+        throw new IllegalArgumentException(
+            "metricsPort must be a port number. check the properties file.");
+      }
+    }
+
+    if (Boolean.parseBoolean(props.getProperty("resourceAccounting", "false"))) {
+      if (!ResourceAccounting.isSupported()) {
+        throw new IllegalArgumentException(
+            "resourceAccounting isn't supported by this JVM. check the properties file.");
+      }
+      accounting = new ResourceAccounting(metrics);
+    } else {
+      accounting = null;
+    }
+
+    registerBuiltInHandlers();
+    try {
+      registerMessageHandlers(props);
+    } catch (IllegalArgumentException e) {
+      executor.shutdownNow();
+      throw e;
+    }
+
+    if (ldm != null) {
+      ldmChannel = DatagramChannel.open();
+      ldmChannel.bind(new InetSocketAddress(Integer.parseInt(portLdmQuery)));
+    } else {
+      ldmChannel = null;
+    }
 
     /* Create a new config */
     StationConfig config = new StationConfig();
@@ -165,8 +540,52 @@ public class Router {
     LinkLayer linkLayer =
         new LinkLayerUdpToEthernet(localPortForUdpLinkLayer, remoteAddressForUdpLinkLayer, true);
 
+    /* Create the ring buffer between the receive thread and the
+     * receive workers. Messages are received straight into its entries,
+     * which are direct buffers in the NIO ingress mode.
+     */
+    int ingressRingSize = Integer.parseInt(props.getProperty("ingressBuffers", "1024"));
+    WaitStrategy waitStrategy =
+        WaitStrategy.forName(props.getProperty("waitStrategy", "blocking"));
+    final boolean direct = ingressMode.equals("nio");
+    ingressRing =
+        new RingBuffer<>(
+            ingressRingSize,
+            numReceiveThreads,
+            new Supplier<ByteBuffer>() {
+              @Override
+              public ByteBuffer get() {
+                return direct
+                    ? ByteBuffer.allocateDirect(MAX_UDP_LENGTH)
+                    : ByteBuffer.allocate(MAX_UDP_LENGTH);
+              }
+            },
+            waitStrategy);
+    metrics.gauge(
+        "tx_ingress_depth",
+        "Messages from the vehicle waiting in the ingress ring",
+        new LongSupplier() {
+          @Override
+          public long getAsLong() {
+            return ingressRing.depth();
+          }
+        });
+
     /* Start the GeoNet station */
-    rcvSocket = new DatagramSocket(portRcvFromVehicle);
+
+    /* The socket is always opened as a channel, so that messages to
+     * the vehicle can be sent from direct buffers and keep coming from
+     * the port the vehicle sends to. In the socket ingress mode
+     * messages are received through the socket adaptor of the channel.
+     */
+    vehicleChannel = DatagramChannel.open();
+    vehicleChannel.bind(new InetSocketAddress(portRcvFromVehicle));
+    rcvSocket = vehicleChannel.socket();
+    String socketReceiveBuffer = props.getProperty("socketReceiveBuffer");
+    if (socketReceiveBuffer != null) {
+      vehicleChannel.setOption(
+          StandardSocketOptions.SO_RCVBUF, Integer.parseInt(socketReceiveBuffer));
+    }
     station = new GeonetStation(config, linkLayer, vehiclePositionProvider, senderMac);
     stationThread = new Thread(station);
     stationThread.start();
@@ -176,28 +595,83 @@ public class Router {
      */
     station.startBecon();
 
-    /* Start the BTP socket */
+    /* Start the BTP socket and the thread transmitting the messages
+     * queued in the transmit scheduler.
+     */
     btpSocket = BtpSocket.on(station);
-
-    /* Start the loops that handle sending and receiving messages */
-    int numReceiveThreads = Integer.parseInt(props.getProperty("receiveThreads", "1"));
-    if (numReceiveThreads != 1) {
-        this.close();
-        throw new IllegalArgumentException("there must be exactly 1 receive thread."
-                                           + " check the properties file.");
+    executor.submit(transmitter);
+    if (denmRepeater != null) {
+      executor.submit(repeater);
     }
+    if (ldmChannel != null) {
+      executor.submit(new LdmQueryServer());
+    }
+    if (neighbourSnapshot != null) {
+      executor.submit(snapshotSender);
+    }
+    if (mailboxes != null) {
+      executor.submit(deliverer);
+    }
+
+    /* Start the loops that handle sending and receiving messages. A
+     * single thread reads from the socket and publishes the messages to
+     * the ingress ring, from which the receive workers parse, encode
+     * and transmit them.
+     */
     for (int i = 0; i < numReceiveThreads; i++) {
-      executor.submit(receiveFromVehicle);
+      executor.submit(new ReceiveWorker(i));
+    }
+    if (ingressMode.equals("nio")) {
+      executor.submit(new ChannelReceiver());
+    } else {
+      executor.submit(new SocketReceiver());
     }
 
-    int numSendThreads = Integer.parseInt(props.getProperty("sendThreads", "1"));
-    if (numSendThreads <= 0) {
+    /* The CAM pool defaults to the number of send threads configured
+     * before there was a pool per port. */
+    String sendThreads = props.getProperty("sendThreads", "1");
+    try {
+      portPools =
+          new PortPool[] {
+            new PortPool("cam", PORT_CAM, TrafficClass.CAM, sendThreads, props),
+            new PortPool("denm", PORT_DENM, TrafficClass.DENM, "1", props),
+            new PortPool("iclcm", PORT_ICLCM, TrafficClass.ICLCM, "1", props),
+            new PortPool("custom", PORT_CUSTOM, TrafficClass.CUSTOM, "1", props)
+          };
+    } catch (IllegalArgumentException e) {
+      this.close();
+      throw e;
+    }
+    for (PortPool pool : portPools) {
+      for (SendWorker worker : pool.workers) {
+        executor.submit(worker);
+      }
+    }
+    executor.submit(new Dispatcher());
+
+    /* Publish the counters once every counter and gauge is registered */
+    String countersPath = props.getProperty("countersFile", "");
+    if (!countersPath.isEmpty()) {
+      try {
+        countersFile = new CountersFile(new File(countersPath), metrics);
+      } catch (IOException e) {
         this.close();
-        throw new IllegalArgumentException("there must be at least 1 send thread."
-                                           + " check the properties file.");
+        throw e;
+      }
+      executor.submit(countersPublisher);
+    } else {
+      countersFile = null;
     }
-    for (int i = 0; i < numSendThreads; i++) {
-      executor.submit(sendToVehicle);
+    if (metricsPort >= 0) {
+      try {
+        metricsServer = new MetricsServer(metricsPort, metrics, txStats, rxStats);
+      } catch (IOException e) {
+        this.close();
+        throw e;
+      }
+      metricsServer.start();
+    } else {
+      metricsServer = null;
     }
 
     /* Start thread that handles printing statistics to the log */
@@ -218,8 +692,18 @@ public class Router {
     stationThread.interrupt();
 
     /* Close the sockets */
+    if (metricsServer != null) {
+      metricsServer.stop();
+    }
     rcvSocket.close();
     btpSocket.close();
+    if (ldmChannel != null) {
+      try {
+        ldmChannel.close();
+      } catch (IOException e) {
+        logger.warn("Failed to close the LDM query channel", e);
+      }
+    }
 
     /* Shutdown the thread pool */
     executor.shutdown();
@@ -236,22 +720,12 @@ public class Router {
   }
 
   /**
-   * This class is used to keep track of statistics. It maintains counts of the how many messages
-   * have passed of each kind and provides methods to increment the counts. The statistics are
-   * written to log periodically.
+   * This class is used to write statistics to log periodically: the counters of the metrics
+   * registry with their rates, and the summaries of the other parts of the router.
    */
   private StatsLogger statsLogger;
 
   private class StatsLogger {
-    private AtomicInteger txCam = new AtomicInteger();
-    private AtomicInteger rxCam = new AtomicInteger();
-    private AtomicInteger txDenm = new AtomicInteger();
-    private AtomicInteger rxDenm = new AtomicInteger();
-    private AtomicInteger txIclcm = new AtomicInteger();
-    private AtomicInteger rxIclcm = new AtomicInteger();
-    private AtomicInteger txCustom = new AtomicInteger();
-    private AtomicInteger rxCustom = new AtomicInteger();
-
     /**
      * StatsLogger constructor.
      *
@@ -261,52 +735,16 @@ public class Router {
       executor.submit(logStats);
     }
 
-    /** Increment the count of transmitted CAM messages. */
-    public void incTxCam() {
-      this.txCam.incrementAndGet();
-    }
-
-    /** Increment the count of received CAM messages. */
-    public void incRxCam() {
-      this.rxCam.incrementAndGet();
-    }
-
-    /** Increment the count of transmitted DENM messages. */
-    public void incTxDenm() {
-      this.txDenm.incrementAndGet();
-    }
-
-    /** Increment the count of received DENM messages. */
-    public void incRxDenm() {
-      this.rxDenm.incrementAndGet();
-    }
-
-    /** Increment the count of transmitted ICLCM messages. */
-    public void incTxIclcm() {
-      this.txIclcm.incrementAndGet();
-    }
-
-    /** Increment the count of received ICLCM messages. */
-    public void incRxIclcm() {
-      this.rxIclcm.incrementAndGet();
-    }
-
-    /** Increment the count of transmitted custom messages. */
-    public void incTxCustom() {
-      this.txCustom.incrementAndGet();
-    }
-
-    /** Increment the count of received custom messages. */
-    public void incRxCustom() {
-      this.rxCustom.incrementAndGet();
-    }
-
     /** Dedicated thread for periodically logging statistics. */
     private Runnable logStats =
         new Runnable() {
           @Override
           public void run() {
 
+            if (accounting != null) {
+              accounting.register("stats");
+            }
+
             /* Chill out for a bit to let everything else start
              * before logging anything.
              */
@@ -342,269 +780,1336 @@ public class Router {
               }
 
               /* Log stats */
+              metrics.tick(System.nanoTime());
               logger.info(
                   "#CAM (Tx/Rx): {}/{} "
                       + "| #DENM (Tx/Rx): {}/{} "
                       + "| #iCLCM (Tx/Rx): {}/{} "
                       + "| #Custom (Tx/Rx): {}/{}",
-                  txCam,
-                  rxCam,
-                  txDenm,
-                  rxDenm,
-                  txIclcm,
-                  rxIclcm,
-                  txCustom,
-                  rxCustom);
+                  txCam.getTotal(),
+                  rxCam.getTotal(),
+                  txDenm.getTotal(),
+                  rxDenm.getTotal(),
+                  txIclcm.getTotal(),
+                  rxIclcm.getTotal(),
+                  txCustom.getTotal(),
+                  rxCustom.getTotal());
+
+              /* Log the fields that failed validation since the last
+               * time, instead of logging every invalid message. */
+              StringBuilder invalid = new StringBuilder();
+              for (Metrics.Counter counter : invalidFields) {
+                long failures = counter.getLastInterval();
+                if (failures > 0) {
+                  invalid.append(' ').append(counter.getName()).append('=').append(failures);
+                }
+              }
+              if (invalid.length() > 0) {
+                logger.warn("Invalid fields:{}", invalid);
+              }
+
+              /* The rest is only logged when there was traffic in the
+               * interval, so an idle router logs a single line. The
+               * summaries are taken either way, as that starts over. */
+              String queued = queuedStats.takeSummary();
+              String encoded = encodeStats.takeSummary();
+              long ingressDrops = ingressDropped.getLastInterval();
+              if (queuedStats.getLastCount() > 0 || ingressDrops > 0) {
+                logger.info(
+                    "Ingress ring: {}/{} | dropped: {} | {} | {}",
+                    ingressRing.depth(),
+                    ingressRing.capacity(),
+                    ingressDrops,
+                    queued,
+                    encoded);
+              }
+              StringBuilder pools = new StringBuilder();
+              for (PortPool pool : portPools) {
+                String summary = pool.takeSummary();
+                if (!summary.isEmpty()) {
+                  pools.append(pools.length() == 0 ? "" : " | ").append(summary);
+                }
+              }
+              if (pools.length() > 0) {
+                logger.info("Port pools: {}", pools);
+              }
+              if (metrics.changedInLastInterval()) {
+                logger.info("Counters: {}", metrics.getSummary());
+              }
+              if (accounting != null) {
+                logger.info(accounting.getMessageSummary(ResourceAccounting.TX));
+                logger.info(accounting.getMessageSummary(ResourceAccounting.RX));
+                logger.info("Threads: {}", accounting.takeThreadSummary());
+              }
+              for (PipelineStats stats : new PipelineStats[] {txStats, rxStats}) {
+                String summary = stats.takeSummary();
+                if (!summary.isEmpty()) {
+                  logger.info(summary);
+                }
+              }
+              String queues = transmitScheduler.takeSummary();
+              if (!queues.isEmpty()) {
+                logger.info("Transmit queues: {}", queues);
+              }
+              for (StaleMessageFilter filter :
+                  new StaleMessageFilter[] {txStaleFilter, rxStaleFilter}) {
+                String summary = filter.takeSummary();
+                if (!summary.isEmpty()) {
+                  logger.info(summary);
+                }
+              }
+              if (camGenerator != null) {
+                logger.info(camGenerator.takeSummary());
+              }
+              if (denmRepeater != null) {
+                logger.info(denmRepeater.takeSummary());
+              }
+              if (denmEvents != null) {
+                logger.info(denmEvents.takeSummary());
+              }
+              if (ldm != null) {
+                logger.info(ldm.takeSummary());
+              }
+              if (neighbourSnapshot != null) {
+                logger.info(neighbourSnapshot.takeSummary());
+              }
+              if (mailboxes != null) {
+                logger.info(mailboxes.takeSummary());
+              }
             }
           }
         };
   }
 
   /**
-   * Parse the byte[] representation of a simple message into a proper ITS-G5 message and transmit
-   * it.
-   *
-   * @param buffer byte[] representation of a simple message.
+   * Entry of the handler tables. The built-in handlers use the transcoders of the calling thread,
+   * the handlers of the MessageHandler SPI ignore them.
    */
-  private void properFromSimple(byte[] buffer) {
-    switch (buffer[0]) {
-      case MessageId.cam:
-        try {
-          SimpleCam simpleCam = new SimpleCam(buffer);
-          Cam cam = simpleCam.asCam();
-          send(cam);
-          statsLogger.incTxCam();
-
-          /* Use the data in the CAM to update the locally
-           * stored vehicle position. Used when receiving
-           * messages and generating adresses.
-           */
-          double latitude = (double) simpleCam.getLatitude();
-          latitude /= 1e7;
-
-          double longitude = (double) simpleCam.getLongitude();
-          longitude /= 1e7;
-
-          double speedMetersPerSecond = (double) simpleCam.speed;
-          speedMetersPerSecond *= 100;
-
-          double headingDegreesFromNorth = (double) simpleCam.heading;
-          headingDegreesFromNorth *= 10;
-
-          vehiclePositionProvider.update(
-              latitude, longitude, speedMetersPerSecond, headingDegreesFromNorth);
-        } catch (IllegalArgumentException e) {
-          logger.error("Irrecoverable error when creating CAM. Ignoring message.", e);
-        }
-        break;
-
-      case MessageId.denm:
-        try {
-          SimpleDenm simpleDenm = new SimpleDenm(buffer);
-          Denm denm = simpleDenm.asDenm();
-
-          /* Simple messages are sent to everyone within range. */
-          Position position = vehiclePositionProvider.getPosition();
-          int max_radius = 65535;
-          Area target = Area.circle(position, max_radius);
-          send(denm, Geobroadcast.geobroadcast(target));
-          statsLogger.incTxDenm();
-
-        } catch (IllegalArgumentException e) {
-          logger.error("Irrecoverable error when creating DENM. Ignoring message.", e);
-        }
-        break;
-
-      case Iclcm.MessageID_iCLCM:
-        try {
-          SimpleIclcm simpleIclcm = new SimpleIclcm(buffer);
-          IgameCooperativeLaneChangeMessage iclcm = simpleIclcm.asIclcm();
-          send(iclcm);
-          statsLogger.incTxIclcm();
-
-        } catch (IllegalArgumentException e) {
-          logger.error("Irrecoverable error when creating iCLCM. Ignoring message.", e);
-        }
-        break;
-
-      case CUSTOM_MESSAGE_ID:
-        statsLogger.incTxCustom();
-        send(buffer);
-        break;
-
-      default:
-        logger.warn("Received incorrectly formatted message. First byte: {}", buffer[0]);
-    }
+  private abstract static class Handler {
+    void fromVehicle(
+        ByteBuffer buffer,
+        int offset,
+        int length,
+        SimpleTranscoder transcoder,
+        long arrivalNanos) {}
+
+    void fromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {}
   }
 
-  /**
-   * Receive simple messages from the control system, parse them into the proper message
-   * (CAM/DENM/iCLCM/custom) and forward to the link layer.
-   */
-  private Runnable receiveFromVehicle =
-      new Runnable() {
-        private final byte[] buffer = new byte[MAX_UDP_LENGTH];
-        private final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+  /* Fill the handler tables with the handlers of CAM, DENM, iCLCM,
+   * custom messages and ego states. */
+  private void registerBuiltInHandlers() {
+    Handler cam =
+        new Handler() {
+          @Override
+          void fromVehicle(
+              ByteBuffer buffer,
+              int offset,
+              int length,
+              SimpleTranscoder transcoder,
+              long arrivalNanos) {
+            camFromVehicle(buffer, offset, length, transcoder, arrivalNanos);
+          }
 
-        @Override
-        public void run() {
-          logger.info("Receive thread starting...");
-          while (running) {
-            try {
-              rcvSocket.receive(packet);
-              byte[] receivedData =
-                  Arrays.copyOfRange(
-                      packet.getData(),
-                      packet.getOffset(),
-                      packet.getOffset() + packet.getLength());
-
-              if (receivedData.length != packet.getLength()) {
-                logger.warn(
-                    "The length of the received data did not match the packet length. Dropping packet.");
-                continue;
-              }
+          @Override
+          void fromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+            camFromRadio(payload, buffer, transcoder);
+          }
+        };
+    Handler denm =
+        new Handler() {
+          @Override
+          void fromVehicle(
+              ByteBuffer buffer,
+              int offset,
+              int length,
+              SimpleTranscoder transcoder,
+              long arrivalNanos) {
+            denmFromVehicle(buffer, offset, length, transcoder, arrivalNanos);
+          }
 
-              /* Parse data and send forward message */
-              properFromSimple(receivedData);
+          @Override
+          void fromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+            denmFromRadio(payload, buffer, transcoder);
+          }
+        };
+    Handler iclcm =
+        new Handler() {
+          @Override
+          void fromVehicle(
+              ByteBuffer buffer,
+              int offset,
+              int length,
+              SimpleTranscoder transcoder,
+              long arrivalNanos) {
+            iclcmFromVehicle(buffer, offset, length, transcoder, arrivalNanos);
+          }
 
-            } catch (IOException e) {
-              logger.error("Exception when receiving message from vehicle");
+          @Override
+          void fromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+            iclcmFromRadio(payload, buffer, transcoder);
+          }
+        };
+    Handler custom =
+        new Handler() {
+          @Override
+          void fromVehicle(
+              ByteBuffer buffer,
+              int offset,
+              int length,
+              SimpleTranscoder transcoder,
+              long arrivalNanos) {
+            customFromVehicle(buffer, offset, length, transcoder, arrivalNanos);
+          }
 
-              /* Sleep for a short time whenever an
-               * IO exception occurs.
-               */
-              try {
-                Thread.sleep(100);
-              } catch (InterruptedException ee) {
-                logger.warn("Interrupted during sleep");
-              }
-            }
+          @Override
+          void fromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+            customFromRadio(payload, buffer, transcoder);
           }
-          logger.info("Receive thread closing!");
-        }
-      };
+        };
+    Handler egoState =
+        new Handler() {
+          @Override
+          void fromVehicle(
+              ByteBuffer buffer,
+              int offset,
+              int length,
+              SimpleTranscoder transcoder,
+              long arrivalNanos) {
+            egoStateFromVehicle(buffer, offset, length, transcoder, arrivalNanos);
+          }
+        };
+    simpleHandlers[MessageId.cam] = cam;
+    simpleHandlers[MessageId.denm] = denm;
+    simpleHandlers[Iclcm.MessageID_iCLCM] = iclcm;
+    simpleHandlers[CUSTOM_MESSAGE_ID] = custom;
+    simpleHandlers[SimpleEgoStateView.MESSAGE_ID] = egoState;
+    properHandlers[PORT_CAM] = cam;
+    properHandlers[PORT_DENM] = denm;
+    properHandlers[PORT_ICLCM] = iclcm;
+    properHandlers[PORT_CUSTOM] = custom;
+  }
 
   /**
-   * Parse a proper ITS-G5 message into its simple message representation. The simple message is
-   * forwarded to the local control system.
+   * Start the handlers found with ServiceLoader and listed in the messageHandlers property, and put
+   * them in the handler tables.
    *
-   * @param payload The payload of a received BTP message. The payload should be an ASN.1 encoded
-   *     CAM/DENM/iCLCM message or a custom message.
-   * @param destinationPort Port to send the simple message to.
-   * @param packet The packet to use when sending the simple message.
-   * @param toVehicleSocket The socket to use when sending the simple message,
+   * @param props The properties of the router.
+   * @exception IOException on error starting a handler.
    */
-  private void simpleFromProper(
-      byte[] payload, int destinationPort, DatagramPacket packet, DatagramSocket toVehicleSocket) {
-    switch (destinationPort) {
-      case PORT_CAM:
+  private void registerMessageHandlers(Properties props) throws IOException {
+    List<MessageHandler> handlers = new ArrayList<>();
+    for (MessageHandler handler : ServiceLoader.load(MessageHandler.class)) {
+      handlers.add(handler);
+    }
+    String classNames = props.getProperty("messageHandlers", "").trim();
+    if (!classNames.isEmpty()) {
+      for (String className : classNames.split(",")) {
         try {
-          Cam cam = UperEncoder.decode(payload, Cam.class);
-          SimpleCam simpleCam = new SimpleCam(cam);
-          byte[] buffer = simpleCam.asByteArray();
-          packet.setData(buffer, 0, buffer.length);
-          packet.setPort(vehicleCamPort);
-
-          try {
-            toVehicleSocket.send(packet);
-            statsLogger.incRxCam();
-          } catch (IOException e) {
-            logger.warn("Failed to send CAM to vehicle", e);
-          }
-        } catch (NullPointerException
-            | IllegalArgumentException
-            | UnsupportedOperationException
-            | BufferOverflowException e) {
-          logger.warn("Couldn't decode CAM:", e);
+          handlers.add(
+              (MessageHandler) Class.forName(className.trim()).getConstructor().newInstance());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+          throw new IllegalArgumentException(
+              "can't create message handler " + className.trim() + ". check the properties file.",
+              e);
         }
-        break;
-
-      case PORT_DENM:
-        try {
-          Denm denm = UperEncoder.decode(payload, Denm.class);
-          SimpleDenm simpleDenm = new SimpleDenm(denm);
-          byte[] buffer = simpleDenm.asByteArray();
-          packet.setData(buffer, 0, buffer.length);
-          packet.setPort(vehicleDenmPort);
+      }
+    }
 
-          try {
-            toVehicleSocket.send(packet);
-            statsLogger.incRxDenm();
-          } catch (IOException e) {
-            logger.warn("Failed to send DENM to vehicle", e);
+    MessageHandler.Output output =
+        new MessageHandler.Output() {
+          @Override
+          public void sendToRadio(byte[] payload, int btpPort, long arrivalNanos) {
+            BtpPacket packet =
+                BtpPacket.singleHop(payload, (short) btpPort, CUSTOM_LIFETIME_SECONDS);
+            transmitScheduler.offer(TrafficClass.CUSTOM, packet, arrivalNanos);
           }
-        } catch (NullPointerException
-            | IllegalArgumentException
-            | UnsupportedOperationException
-            | BufferOverflowException e) {
-          logger.warn("Couldn't decode DENM:", e);
-        }
-        break;
 
-      case PORT_ICLCM:
-        try {
-          IgameCooperativeLaneChangeMessage iclcm =
-              UperEncoder.decode(payload, IgameCooperativeLaneChangeMessage.class);
-          SimpleIclcm simpleIclcm = new SimpleIclcm(iclcm);
-          byte[] buffer = simpleIclcm.asByteArray();
-          packet.setData(buffer, 0, buffer.length);
-          packet.setPort(vehicleIclcmPort);
+          @Override
+          public InetSocketAddress vehicleAddress(int port) {
+            return new InetSocketAddress(vehicleAddress, port);
+          }
 
-          try {
-            toVehicleSocket.send(packet);
-            statsLogger.incRxIclcm();
-          } catch (IOException e) {
-            logger.warn("Failed to send iCLCM to vehicle", e);
+          @Override
+          public void sendToVehicle(ByteBuffer message, InetSocketAddress address)
+              throws IOException {
+            vehicleChannel.send(message, address);
           }
-        } catch (NullPointerException
-            | IllegalArgumentException
-            | UnsupportedOperationException
-            | BufferOverflowException e) {
-          logger.warn("Couldn't decode iCLCM:", e);
-        }
-        break;
+        };
+    for (final MessageHandler handler : handlers) {
+      int messageId = handler.simpleMessageId();
+      int port = handler.btpPort();
+      if (messageId < MessageHandler.NONE
+          || messageId > 255
+          || port < MessageHandler.NONE
+          || port > 65535) {
+        throw new IllegalArgumentException(
+            "message handler "
+                + handler.getClass().getName()
+                + " has an invalid message ID or BTP port.");
+      }
+      handler.start(props, output);
+      Handler entry =
+          new Handler() {
+            @Override
+            void fromVehicle(
+                ByteBuffer buffer,
+                int offset,
+                int length,
+                SimpleTranscoder transcoder,
+                long arrivalNanos) {
+              /* An exception must not end the worker calling the
+               * handler, which would stall the ingress ring. */
+              try {
+                handler.fromVehicle(buffer, offset, length, arrivalNanos);
+              } catch (RuntimeException e) {
+                handlerErrors.increment();
+                logger.warn("Message handler {} failed:", handler.getClass().getName(), e);
+              }
+            }
 
-      case PORT_CUSTOM:
-        packet.setData(payload, 0, payload.length);
-        packet.setPort(vehicleCustomPort);
+            @Override
+            void fromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+              try {
+                handler.fromRadio(payload, buffer);
+              } catch (RuntimeException e) {
+                handlerErrors.increment();
+                logger.warn("Message handler {} failed:", handler.getClass().getName(), e);
+              }
+            }
+          };
+      if (messageId != MessageHandler.NONE) {
+        simpleHandlers[messageId] = entry;
+      }
+      if (port != MessageHandler.NONE) {
+        properHandlers[port] = entry;
+      }
+      logger.info(
+          "Message handler {}: message ID {}, BTP port {}",
+          handler.getClass().getName(),
+          messageId,
+          port);
+    }
+  }
 
-        try {
-          toVehicleSocket.send(packet);
-          statsLogger.incRxCustom();
-        } catch (IOException e) {
-          logger.warn("Failed to send custom message to vehicle", e);
-        }
-        break;
+  /**
+   * Parse a simple message held in a byte buffer into a proper ITS-G5 message and transmit it,
+   * using the handler of its message ID. The message is read through a view of the buffer, i.e.,
+   * it is not copied out of it first, and the proper message is written straight to its UPER
+   * encoding.
+   *
+   * @param buffer Buffer holding the simple message. Its position is not modified.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Length of the message in bytes.
+   * @param transcoder Transcoder owned by the calling thread.
+   * @param arrivalNanos Time the message was received, as given by System.nanoTime(). Messages
+   *     that have spent their age budget are dropped before they are encoded.
+   */
+  private void properFromSimple(
+      ByteBuffer buffer, int offset, int length, SimpleTranscoder transcoder, long arrivalNanos) {
+    if (length < 1) {
+      txEmpty.increment();
+      logger.warn("Received empty message. Ignoring message.");
+      return;
+    }
+    Handler handler = simpleHandlers[buffer.get(offset) & 0xff];
+    if (handler == null) {
+      txUnknownId.increment();
+      logger.warn("Received incorrectly formatted message. First byte: {}", buffer.get(offset));
+      return;
+    }
+    handler.fromVehicle(buffer, offset, length, transcoder, arrivalNanos);
+  }
 
+  /* Return the traffic class of a simple message. Ego states count as
+   * CAMs, and the types of the message handlers as custom messages. */
+  private static TrafficClass trafficClassOf(byte messageId) {
+    switch (messageId) {
+      case MessageId.cam:
+      case SimpleEgoStateView.MESSAGE_ID:
+        return TrafficClass.CAM;
+      case MessageId.denm:
+        return TrafficClass.DENM;
+      case Iclcm.MessageID_iCLCM:
+        return TrafficClass.ICLCM;
       default:
-        // fallthrough
+        return TrafficClass.CUSTOM;
     }
   }
 
-  /**
-   * Receive incoming proper CAM/DENM/iCLCM, parse them into simple messages and forward them to the
-   * local control system.
-   */
-  private Runnable sendToVehicle =
-      new Runnable() {
-        private final byte[] buffer = new byte[MAX_UDP_LENGTH];
-        private final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+  /* Count a simple message that failed validation */
+  private void countInvalid(int status) {
+    if (status == SimpleMessageView.TOO_SHORT) {
+      txTooShort.increment();
+    } else {
+      txInvalid.increment();
+    }
+  }
 
-        @Override
-        public void run() {
-          logger.info("Send thread starting...");
-          packet.setAddress(vehicleAddress);
+  /** Parse a simple CAM and transmit it, or use it as the template of the generated CAMs. */
+  private void camFromVehicle(
+      ByteBuffer buffer, int offset, int length, SimpleTranscoder transcoder, long arrivalNanos) {
+    SimpleCamView cam = transcoder.getCamView().wrap(buffer, offset, length);
+    long start = System.nanoTime();
+    int status = cam.validate();
+    txStats.record(TrafficClass.CAM, TX_PARSE, System.nanoTime() - start);
+    if (status != SimpleMessageView.VALID) {
+      countInvalid(status);
+      logger.error("{}. Ignoring message.", cam.describe(status));
+      return;
+    }
+
+    /* When the router generates the CAMs, CAMs from the vehicle
+     * only update the fields that aren't part of the ego state. */
+    if (camGenerator != null) {
+      camGenerator.setTemplate(cam);
+      return;
+    }
+    if (txStaleFilter.isStale(TrafficClass.CAM, arrivalNanos, System.nanoTime())
+        || txStaleFilter.isStaleGenerationTime(
+            TrafficClass.CAM, cam.getGenerationDeltaTime())) {
+      return;
+    }
+    try {
+      start = System.nanoTime();
+      byte[] camBytes = transcoder.transcode(cam);
+      txStats.record(TrafficClass.CAM, TX_ENCODE, System.nanoTime() - start);
+      sendCam(camBytes, arrivalNanos);
+      txCam.increment();
+      updatePosition(cam.getLatitude(), cam.getLongitude(), cam.getSpeed(), cam.getHeading());
+    } catch (IllegalArgumentException e) {
+      txEncodeErrors.increment();
+      logger.error("Irrecoverable error when creating CAM. Ignoring message.", e);
+    }
+  }
+
+  /**
+   * Update the position of the vehicle from an ego state and transmit the CAM it triggers, if any.
+   */
+  private void egoStateFromVehicle(
+      ByteBuffer buffer, int offset, int length, SimpleTranscoder transcoder, long arrivalNanos) {
+    SimpleEgoStateView ego = transcoder.getEgoStateView().wrap(buffer, offset, length);
+    int status = ego.validate();
+    if (status != SimpleMessageView.VALID) {
+      countInvalid(status);
+      logger.error("{}. Ignoring message.", ego.describe(status));
+      return;
+    }
+    updatePosition(ego.getLatitude(), ego.getLongitude(), ego.getSpeed(), ego.getHeading());
+    if (camGenerator == null) {
+      logger.warn("Received ego state while camGeneration=vehicle. Ignoring message.");
+      return;
+    }
+    if (txStaleFilter.isStale(TrafficClass.CAM, arrivalNanos, System.nanoTime())
+        || txStaleFilter.isStaleGenerationTime(
+            TrafficClass.CAM, ego.getGenerationDeltaTime())) {
+      return;
+    }
+    ByteBuffer generatedCam = transcoder.getGeneratedCamBuffer();
+    if (!camGenerator.update(ego, System.nanoTime(), generatedCam)) {
+      return;
+    }
+    try {
+      SimpleCamView generated =
+          transcoder.getCamView().wrap(generatedCam, 0, SimpleCam.SIMPLE_CAM_LENGTH);
+      long start = System.nanoTime();
+      byte[] camBytes = transcoder.transcode(generated);
+      txStats.record(TrafficClass.CAM, TX_ENCODE, System.nanoTime() - start);
+      sendCam(camBytes, arrivalNanos);
+      txCam.increment();
+    } catch (IllegalArgumentException e) {
+      txEncodeErrors.increment();
+      logger.error("Irrecoverable error when generating CAM. Ignoring message.", e);
+    }
+  }
+
+  /** Parse a simple DENM, transmit it and hand it to the DENM repeater. */
+  private void denmFromVehicle(
+      ByteBuffer buffer, int offset, int length, SimpleTranscoder transcoder, long arrivalNanos) {
+    SimpleDenmView denm = transcoder.getDenmView().wrap(buffer, offset, length);
+    long start = System.nanoTime();
+    int status = denm.validate();
+    txStats.record(TrafficClass.DENM, TX_PARSE, System.nanoTime() - start);
+    if (status != SimpleMessageView.VALID) {
+      countInvalid(status);
+      logger.error("{}. Ignoring message.", denm.describe(status));
+      return;
+    }
+    if (txStaleFilter.isStale(TrafficClass.DENM, arrivalNanos, System.nanoTime())) {
+      return;
+    }
+    try {
+      start = System.nanoTime();
+      if (denmRepeater == null) {
+        byte[] denmBytes = transcoder.transcode(denm, SimpleDenm.nextSequenceNumber());
+        txStats.record(TrafficClass.DENM, TX_ENCODE, System.nanoTime() - start);
+        sendDenm(denmBytes, denmDestination(), arrivalNanos);
+        txDenm.increment();
+        return;
+      }
+
+      /* Updates of an event keep its sequence number, and so its
+       * actionID. */
+      int sequenceNumber = denmRepeater.sequenceNumber(denm);
+      byte[] denmBytes = transcoder.transcode(denm, sequenceNumber);
+      txStats.record(TrafficClass.DENM, TX_ENCODE, System.nanoTime() - start);
+      Geobroadcast destination = denmDestination();
+      sendDenm(denmBytes, destination, arrivalNanos);
+      txDenm.increment();
+      denmRepeater.update(denm, sequenceNumber, denmBytes, destination, System.nanoTime());
+
+    } catch (IllegalArgumentException e) {
+      txEncodeErrors.increment();
+      logger.error("Irrecoverable error when creating DENM. Ignoring message.", e);
+    }
+  }
+
+  /** Parse a simple iCLCM and transmit it. */
+  private void iclcmFromVehicle(
+      ByteBuffer buffer, int offset, int length, SimpleTranscoder transcoder, long arrivalNanos) {
+    SimpleIclcmView iclcm = transcoder.getIclcmView().wrap(buffer, offset, length);
+    long start = System.nanoTime();
+    int status = iclcm.validate();
+    txStats.record(TrafficClass.ICLCM, TX_PARSE, System.nanoTime() - start);
+    if (status != SimpleMessageView.VALID) {
+      countInvalid(status);
+      logger.error("{}. Ignoring message.", iclcm.describe(status));
+      return;
+    }
+    if (txStaleFilter.isStale(TrafficClass.ICLCM, arrivalNanos, System.nanoTime())) {
+      return;
+    }
+    try {
+      start = System.nanoTime();
+      byte[] iclcmBytes = transcoder.transcode(iclcm);
+      txStats.record(TrafficClass.ICLCM, TX_ENCODE, System.nanoTime() - start);
+      sendIclcm(iclcmBytes, arrivalNanos);
+      txIclcm.increment();
+
+    } catch (IllegalArgumentException e) {
+      txEncodeErrors.increment();
+      logger.error("Irrecoverable error when creating iCLCM. Ignoring message.", e);
+    }
+  }
+
+  /** Transmit a custom message as is. */
+  private void customFromVehicle(
+      ByteBuffer buffer, int offset, int length, SimpleTranscoder transcoder, long arrivalNanos) {
+    if (txStaleFilter.isStale(TrafficClass.CUSTOM, arrivalNanos, System.nanoTime())) {
+      return;
+    }
+
+    /* Custom messages are passed through as is. The BTP packet
+     * needs its own array, so this is the only copy made. It is read
+     * through a duplicate, as the position of the buffer must not
+     * change. */
+    byte[] customMessage = new byte[length];
+    ByteBuffer message = buffer.duplicate();
+    message.position(offset);
+    message.get(customMessage);
+    txCustom.increment();
+    send(customMessage, arrivalNanos);
+  }
+
+  /** Return the destination of DENMs. Simple messages are sent to everyone within range. */
+  private Geobroadcast denmDestination() {
+    Position position = vehiclePositionProvider.getPosition();
+    int max_radius = 65535;
+    Area target = Area.circle(position, max_radius);
+    return Geobroadcast.geobroadcast(target);
+  }
+
+  /**
+   * Use the position of the vehicle, as sent in a CAM or ego state, to update the locally stored
+   * vehicle position. Used when receiving messages and generating adresses.
+   *
+   * @param latitude Latitude in 1e-7 degrees.
+   * @param longitude Longitude in 1e-7 degrees.
+   * @param speed Speed as sent in the simple message.
+   * @param heading Heading as sent in the simple message.
+   */
+  private void updatePosition(int latitude, int longitude, int speed, int heading) {
+    double latitudeDegrees = (double) latitude;
+    latitudeDegrees /= 1e7;
+
+    double longitudeDegrees = (double) longitude;
+    longitudeDegrees /= 1e7;
+
+    double speedMetersPerSecond = (double) speed;
+    speedMetersPerSecond *= 100;
+
+    double headingDegreesFromNorth = (double) heading;
+    headingDegreesFromNorth *= 10;
+
+    vehiclePositionProvider.update(
+        latitudeDegrees, longitudeDegrees, speedMetersPerSecond, headingDegreesFromNorth);
+  }
+
+  /**
+   * Receive simple messages from the control system and publish them to the ingress ring. The
+   * messages are parsed into proper messages (CAM/DENM/iCLCM/custom) and forwarded to the link
+   * layer by the receive workers, so that a slow encode never keeps the socket from being read.
+   */
+  private abstract class Receiver implements Runnable {
+
+    /**
+     * Receive one message into a buffer.
+     *
+     * @param buffer Cleared buffer to receive the message into. The message is left between
+     *     position 0 and the limit of the buffer.
+     * @exception IOException on error receiving from the socket.
+     */
+    abstract void receive(ByteBuffer buffer) throws IOException;
+
+    /** Return a buffer for messages that arrive while the ingress ring is full. */
+    abstract ByteBuffer overflowBuffer();
+
+    @Override
+    public void run() {
+      logger.info("Receive thread starting...");
+      if (accounting != null) {
+        accounting.register("receive");
+      }
+      ByteBuffer overflow = overflowBuffer();
+      long sequence = -1;
+      while (running) {
+        try {
+          if (sequence < 0) {
+            sequence = ingressRing.tryNext();
+          }
+          if (sequence >= 0) {
+            ByteBuffer buffer = ingressRing.get(sequence);
+            buffer.clear();
+            receive(buffer);
+          } else {
+
+            /* The ring is full. Read the message anyway so that the
+             * socket buffer doesn't overflow, and drop it unless a
+             * worker has released an entry in the meantime. */
+            overflow.clear();
+            receive(overflow);
+            sequence = ingressRing.tryNext();
+            if (sequence < 0) {
+              ingressDropped.increment();
+              continue;
+            }
+            ByteBuffer buffer = ingressRing.get(sequence);
+            buffer.clear();
+            buffer.put(overflow);
+            buffer.flip();
+          }
+          ingressRing.publish(sequence);
+          sequence = -1;
+        } catch (IOException e) {
+          if (!running) {
+            break;
+          }
+          txReceiveErrors.increment();
+          logger.error("Exception when receiving message from vehicle");
+
+          /* Sleep for a short time whenever an
+           * IO exception occurs.
+           */
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException ee) {
+            logger.warn("Interrupted during sleep");
+          }
+        }
+      }
+      logger.info("Receive thread closing!");
+    }
+  }
+
+  /** Receiver reading from the datagram socket. Used in the socket ingress mode. */
+  private class SocketReceiver extends Receiver {
+    private final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+
+    @Override
+    void receive(ByteBuffer buffer) throws IOException {
+      packet.setData(buffer.array(), 0, buffer.capacity());
+      rcvSocket.receive(packet);
+      buffer.limit(packet.getLength());
+    }
+
+    @Override
+    ByteBuffer overflowBuffer() {
+      return ByteBuffer.allocate(MAX_UDP_LENGTH);
+    }
+  }
+
+  /**
+   * Receiver reading from the datagram channel. Messages are received straight into direct buffers,
+   * so no per-message arrays are allocated. Used in the NIO ingress mode.
+   */
+  private class ChannelReceiver extends Receiver {
+    @Override
+    void receive(ByteBuffer buffer) throws IOException {
+      vehicleChannel.receive(buffer);
+      buffer.flip();
+    }
+
+    @Override
+    ByteBuffer overflowBuffer() {
+      return ByteBuffer.allocateDirect(MAX_UDP_LENGTH);
+    }
+  }
+
+  /**
+   * Return the receive worker that handles a simple message. CAM, DENM and iCLCM are assigned to a
+   * worker by the station ID of the sender, so that all messages from one station are parsed and
+   * transmitted in the order they were received. Custom messages, and anything too short to carry
+   * a station ID, all go to the first worker.
+   *
+   * @param buffer Buffer holding the message between position 0 and its limit.
+   * @param numWorkers Number of receive workers.
+   */
+  private static int workerOf(ByteBuffer buffer, int numWorkers) {
+    if (buffer.limit() >= 5 && buffer.get(0) != CUSTOM_MESSAGE_ID) {
+      int stationId = buffer.getInt(1);
+      return (stationId & Integer.MAX_VALUE) % numWorkers;
+    }
+    return 0;
+  }
+
+  /**
+   * Receive worker. Consumes the ingress ring, and parses, encodes and forwards to the link layer
+   * the simple messages assigned to it. There is one worker per receive thread.
+   */
+  private class ReceiveWorker implements Runnable {
+    private final int ordinal;
+    private final int numWorkers;
+    private final RingBuffer<ByteBuffer>.Consumer consumer;
+    private final SimpleTranscoder transcoder = new SimpleTranscoder();
+
+    /**
+     * ReceiveWorker constructor.
+     *
+     * @param ordinal Ordinal of the worker, from 0 to the number of receive threads - 1.
+     */
+    ReceiveWorker(int ordinal) {
+      this.ordinal = ordinal;
+      this.numWorkers = ingressRing.numConsumers();
+      this.consumer = ingressRing.consumer(ordinal);
+    }
+
+    @Override
+    public void run() {
+      logger.info("Receive worker starting...");
+      if (accounting != null) {
+        accounting.register("receive");
+      }
+      long next = 0;
+      try {
+        while (running) {
+          long available = consumer.waitForNext();
+          for (; next <= available; next++) {
+            ByteBuffer buffer = ingressRing.get(next);
+            if (workerOf(buffer, numWorkers) != ordinal) {
+              continue;
+            }
+            long start = System.nanoTime();
+            long arrivalNanos = ingressRing.publishNanos(next);
+            queuedStats.record(start - arrivalNanos);
+            long startBytes = accounting != null ? accounting.threadBytes() : 0;
+            long startCpu = accounting != null ? accounting.threadCpu() : 0;
+            properFromSimple(buffer, 0, buffer.limit(), transcoder, arrivalNanos);
+            encodeStats.record(System.nanoTime() - start);
+            if (accounting != null && buffer.limit() > 0) {
+              accounting.record(
+                  ResourceAccounting.TX, trafficClassOf(buffer.get(0)), startBytes, startCpu);
+            }
+          }
+          consumer.release(available);
+        }
+      } catch (InterruptedException e) {
+        logger.warn("Receive worker interrupted while waiting for a message");
+      }
+      logger.info("Receive worker closing!");
+    }
+  }
+
+  /**
+   * Parse a proper ITS-G5 message into its simple message representation, using the handler of the
+   * BTP port it was received on. The simple message is forwarded to the local control system.
+   *
+   * @param payload The payload of a received BTP message. The payload should be an ASN.1 encoded
+   *     CAM/DENM/iCLCM message or a custom message.
+   * @param destinationPort BTP port the message was received on.
+   * @param buffer Cleared buffer to write the simple message to and send it from.
+   * @param transcoder The transcoder of the calling thread.
+   */
+  private void simpleFromProper(
+      byte[] payload, int destinationPort, ByteBuffer buffer, ProperTranscoder transcoder) {
+    Handler handler = properHandlers[destinationPort & 0xffff];
+    if (handler != null) {
+      handler.fromRadio(payload, buffer, transcoder);
+    }
+  }
+
+  /**
+   * Decode a proper CAM and forward it to the vehicle, or to the neighbour snapshot or mailboxes.
+   */
+  private void camFromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+    if (rxStaleFilter.isStaleGenerationTime(
+        TrafficClass.CAM, ProperTranscoder.camGenerationDeltaTime(payload))) {
+      return;
+    }
+    try {
+      long start = System.nanoTime();
+      int length = transcoder.transcodeCam(payload, buffer, 0);
+      buffer.flip();
+      rxStats.record(TrafficClass.CAM, RX_DECODE, System.nanoTime() - start);
+      if (ldm != null) {
+        ldm.updateStation(buffer, 0, length, System.nanoTime());
+      }
+      if (neighbourSnapshot != null) {
+        neighbourSnapshot.update(buffer, 0, length, System.nanoTime());
+        rxCam.increment();
+        return;
+      }
+      if (mailboxes != null && mailboxes.offer(buffer, 0, length)) {
+        return;
+      }
+
+      try {
+        start = System.nanoTime();
+        vehicleChannel.send(buffer, vehicleCamAddress);
+        rxStats.record(TrafficClass.CAM, RX_SOCKET, System.nanoTime() - start);
+        rxCam.increment();
+      } catch (IOException e) {
+        rxSocketErrors.increment();
+        logger.warn("Failed to send CAM to vehicle", e);
+      }
+    } catch (NullPointerException
+        | IllegalArgumentException
+        | UnsupportedOperationException
+        | BufferOverflowException e) {
+      rxDecodeErrors.increment();
+      logger.warn("Couldn't decode CAM:", e);
+    }
+  }
+
+  /** Decode a proper DENM that isn't a repetition and forward it to the vehicle. */
+  private void denmFromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+
+    /* Stop repeating our events when other stations negate them */
+    long actionId = ProperTranscoder.denmActionId(payload);
+    int termination = ProperTranscoder.denmTermination(payload);
+    if (denmRepeater != null && termination == Termination.isNegation.ordinal()) {
+      denmRepeater.negate(actionId);
+    }
+
+    /* Repetitions are dropped before they are decoded */
+    long referenceTime = -1;
+    int hash = 0;
+    if (denmEvents != null) {
+      referenceTime = ProperTranscoder.denmReferenceTime(payload);
+      hash = Arrays.hashCode(payload);
+      if (denmEvents.isRedundant(actionId, referenceTime, termination, hash)) {
+        return;
+      }
+    }
+    try {
+      long start = System.nanoTime();
+      int length = transcoder.transcodeDenm(payload, buffer, 0);
+      buffer.flip();
+      rxStats.record(TrafficClass.DENM, RX_DECODE, System.nanoTime() - start);
+      SimpleDenmView denm = transcoder.getDenmView().wrap(buffer, 0, length);
+      long now = System.nanoTime();
+      if (denmEvents != null) {
+        denmEvents.forwarded(
+            actionId, referenceTime, termination, hash, denm.getValidityDuration(), now);
+      }
+      if (ldm != null && actionId >= 0) {
+        ldm.updateDenm(actionId, buffer, 0, denm.getValidityDuration(), termination >= 0, now);
+      }
+
+      try {
+        start = System.nanoTime();
+        vehicleChannel.send(buffer, vehicleDenmAddress);
+        rxStats.record(TrafficClass.DENM, RX_SOCKET, System.nanoTime() - start);
+        rxDenm.increment();
+      } catch (IOException e) {
+        rxSocketErrors.increment();
+        logger.warn("Failed to send DENM to vehicle", e);
+      }
+    } catch (NullPointerException
+        | IllegalArgumentException
+        | UnsupportedOperationException
+        | BufferOverflowException e) {
+      rxDecodeErrors.increment();
+      logger.warn("Couldn't decode DENM:", e);
+    }
+  }
+
+  /** Decode a proper iCLCM and forward it to the vehicle. */
+  private void iclcmFromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+    try {
+      long start = System.nanoTime();
+      int length = transcoder.transcodeIclcm(payload, buffer, 0);
+      buffer.flip();
+      rxStats.record(TrafficClass.ICLCM, RX_DECODE, System.nanoTime() - start);
+      if (mailboxes != null && mailboxes.offer(buffer, 0, length)) {
+        return;
+      }
+
+      try {
+        start = System.nanoTime();
+        vehicleChannel.send(buffer, vehicleIclcmAddress);
+        rxStats.record(TrafficClass.ICLCM, RX_SOCKET, System.nanoTime() - start);
+        rxIclcm.increment();
+      } catch (IOException e) {
+        rxSocketErrors.increment();
+        logger.warn("Failed to send iCLCM to vehicle", e);
+      }
+    } catch (NullPointerException
+        | IllegalArgumentException
+        | UnsupportedOperationException
+        | BufferOverflowException e) {
+      rxDecodeErrors.increment();
+      logger.warn("Couldn't decode iCLCM:", e);
+    }
+  }
+
+  /** Forward a custom message to the vehicle as is. */
+  private void customFromRadio(byte[] payload, ByteBuffer buffer, ProperTranscoder transcoder) {
+    if (payload.length > buffer.remaining()) {
+      rxTooLong.increment();
+      logger.warn("Custom message of {} bytes is too long, ignoring", payload.length);
+      return;
+    }
+    buffer.put(payload);
+    buffer.flip();
+
+    try {
+      long start = System.nanoTime();
+      vehicleChannel.send(buffer, vehicleCustomAddress);
+      rxStats.record(TrafficClass.CUSTOM, RX_SOCKET, System.nanoTime() - start);
+      rxCustom.increment();
+    } catch (IOException e) {
+      rxSocketErrors.increment();
+      logger.warn("Failed to send custom message to vehicle", e);
+    }
+  }
+
+  /**
+   * Send workers handling the packets received on one BTP port. Every pool has its own number of
+   * threads, dispatch ring size and policy for packets that arrive while the ring of their worker
+   * is full: drop them, or have the dispatch thread wait for room. Waiting means no packet of the
+   * port is lost, but a full pool then delays the others, so it's only suited to low-rate ports.
+   */
+  private class PortPool {
+    private final String name;
+    private final short port;
+    private final SendWorker[] workers;
+    private final boolean blockWhenFull;
+    private final TrafficClass trafficClass;
+    private final Metrics.Counter dropped;
+
+    /**
+     * PortPool constructor. Reads the properties nameThreads, nameQueue and nameDropPolicy.
+     *
+     * @param name Name of the pool, used as a prefix of its properties and when logging.
+     * @param port BTP port of the packets handled by the pool.
+     * @param trafficClass Traffic class the latencies of the packets are recorded under.
+     * @param defaultThreads Number of threads if nameThreads isn't set.
+     * @param props Properties of the router.
+     */
+    PortPool(
+        String name,
+        short port,
+        TrafficClass trafficClass,
+        String defaultThreads,
+        Properties props) {
+      this.name = name;
+      this.port = port;
+      this.trafficClass = trafficClass;
+      this.dropped =
+          metrics.counter(
+              "rx_" + name + "_dispatch_dropped", "Packets dropped by a full " + name + " pool");
+      int numThreads = Integer.parseInt(props.getProperty(name + "Threads", defaultThreads));
+      int queueLength =
+          Integer.parseInt(
+              props.getProperty(name + "Queue", props.getProperty("dispatchBuffers", "256")));
+      if (numThreads <= 0 || queueLength <= 0) {
+        throw new IllegalArgumentException(
+            name + "Threads and " + name + "Queue must be positive. check the properties file.");
+      }
+      String dropPolicy = props.getProperty(name + "DropPolicy", "drop");
+      if (!dropPolicy.equals("drop") && !dropPolicy.equals("block")) {
+        throw new IllegalArgumentException(
+            name + "DropPolicy must be either drop or block. check the properties file.");
+      }
+      this.blockWhenFull = dropPolicy.equals("block");
+      this.workers = new SendWorker[numThreads];
+      for (int i = 0; i < numThreads; i++) {
+        workers[i] =
+            new SendWorker(
+                this,
+                queueLength,
+                WaitStrategy.forName(props.getProperty("waitStrategy", "blocking")));
+      }
+      metrics.gauge(
+          "rx_" + name + "_dispatch_depth",
+          "Packets waiting for the " + name + " pool",
+          new LongSupplier() {
+            @Override
+            public long getAsLong() {
+              return depth();
+            }
+          });
+    }
+
+    /**
+     * Hand a packet to the worker of its source station. Must only be called by the dispatch
+     * thread.
+     *
+     * @exception InterruptedException if interrupted while waiting for room.
+     */
+    void dispatch(BtpPacket btpPacket) throws InterruptedException {
+      int worker = 0;
+      if (port != PORT_CUSTOM) {
+        int stationId = ProperTranscoder.stationId(btpPacket.payload());
+        worker = (stationId & Integer.MAX_VALUE) % workers.length;
+      }
+      RingBuffer<DispatchEntry> ring = workers[worker].ring;
+      long sequence = ring.tryNext();
+      while (sequence < 0 && blockWhenFull && running) {
+        TimeUnit.MICROSECONDS.sleep(10);
+        sequence = ring.tryNext();
+      }
+      if (sequence < 0) {
+        dropped.increment();
+        return;
+      }
+      ring.get(sequence).packet = btpPacket;
+      ring.publish(sequence);
+    }
+
+    /** Return the number of packets waiting in the rings of the workers. */
+    int depth() {
+      int depth = 0;
+      for (SendWorker worker : workers) {
+        depth += worker.ring.depth();
+      }
+      return depth;
+    }
+
+    /**
+     * Return a summary of the pool, with the packets dropped in the last metrics interval, e.g.,
+     * "2001 (cam) 3/256 dropped=0". Empty if no packets are waiting and none were dropped.
+     */
+    String takeSummary() {
+      int depth = depth();
+      long droppedPackets = dropped.getLastInterval();
+      if (depth == 0 && droppedPackets == 0) {
+        return "";
+      }
+      int capacity = 0;
+      for (SendWorker worker : workers) {
+        capacity += worker.ring.capacity();
+      }
+      return port + " (" + name + ") " + depth + "/" + capacity + " dropped=" + droppedPackets;
+    }
+  }
+
+  /** Entry of a dispatch ring. Holds a received BTP packet until its send worker is done. */
+  private static final class DispatchEntry {
+    BtpPacket packet;
+  }
+
+  /**
+   * Receive incoming proper CAM/DENM/iCLCM from the BTP socket and dispatch them to the pool of
+   * their port. A single thread receives. Packets for the ports of MessageHandler SPI handlers go
+   * to the custom pool, and packets for ports without a handler are dropped.
+   */
+  private class Dispatcher implements Runnable {
+
+    /* Return the pool of a BTP port, or null if it has no handler */
+    private PortPool poolOf(short port) {
+      if (properHandlers[port & 0xffff] == null) {
+        return null;
+      }
+      for (PortPool pool : portPools) {
+        if (pool.port == port) {
+          return pool;
+        }
+      }
+      return portPools[portPools.length - 1];
+    }
+
+    @Override
+    public void run() {
+      logger.info("Dispatch thread starting...");
+      if (accounting != null) {
+        accounting.register("send");
+      }
+      try {
+        while (running) {
+          BtpPacket btpPacket = btpSocket.receive();
+          PortPool pool = poolOf(btpPacket.destinationPort());
+          if (pool != null) {
+            pool.dispatch(btpPacket);
+          }
+        }
+      } catch (InterruptedException e) {
+        logger.warn("BTP socket interrupted during receive");
+      }
+      logger.info("Dispatch thread closing!");
+    }
+  }
+
+  /**
+   * Parse the proper CAM/DENM/iCLCM dispatched to this worker into simple messages and forward them
+   * to the local control system. A worker writes every simple message to the same direct buffer of
+   * its own and sends it straight from there, so forwarding a message doesn't allocate a new array
+   * or packet.
+   */
+  private class SendWorker implements Runnable {
+    private final PortPool pool;
+    private final ByteBuffer egressBuffer = ByteBuffer.allocateDirect(MAX_UDP_LENGTH);
+    private final ProperTranscoder transcoder = new ProperTranscoder();
+    private final RingBuffer<DispatchEntry> ring;
+
+    /**
+     * SendWorker constructor.
+     *
+     * @param pool The pool of the worker.
+     * @param numDispatchBuffers Number of entries in the dispatch ring of this worker.
+     * @param waitStrategy Strategy used by this worker to wait for packets.
+     */
+    SendWorker(PortPool pool, int numDispatchBuffers, WaitStrategy waitStrategy) {
+      this.pool = pool;
+      this.ring =
+          new RingBuffer<>(
+              numDispatchBuffers,
+              1,
+              new Supplier<DispatchEntry>() {
+                @Override
+                public DispatchEntry get() {
+                  return new DispatchEntry();
+                }
+              },
+              waitStrategy);
+    }
+
+    @Override
+    public void run() {
+      logger.info("Send thread starting...");
+      if (accounting != null) {
+        accounting.register("send");
+      }
+      RingBuffer<DispatchEntry>.Consumer consumer = ring.consumer(0);
+      long next = 0;
+      try {
+        while (running) {
+          long available = consumer.waitForNext();
+          for (; next <= available; next++) {
+            DispatchEntry entry = ring.get(next);
+            BtpPacket btpPacket = entry.packet;
+            entry.packet = null;
+            long receivedNanos = ring.publishNanos(next);
+            long now = System.nanoTime();
+            rxStats.record(pool.trafficClass, RX_QUEUED, now - receivedNanos);
+
+            /* Don't spend time decoding a message that waited in the
+             * ring for longer than its age budget. */
+            if (rxStaleFilter.isStale(pool.trafficClass, receivedNanos, now)) {
+              continue;
+            }
+            long startBytes = accounting != null ? accounting.threadBytes() : 0;
+            long startCpu = accounting != null ? accounting.threadCpu() : 0;
+            egressBuffer.clear();
+            simpleFromProper(
+                btpPacket.payload(), btpPacket.destinationPort(), egressBuffer, transcoder);
+            if (accounting != null) {
+              accounting.record(ResourceAccounting.RX, pool.trafficClass, startBytes, startCpu);
+            }
+            rxStats.record(pool.trafficClass, RX_TOTAL, System.nanoTime() - receivedNanos);
+          }
+          consumer.release(available);
+        }
+      } catch (InterruptedException e) {
+        logger.warn("Send worker interrupted while waiting for a packet");
+      }
+      logger.info("Send thread closing!");
+    }
+  }
+
+  /**
+   * Answers the queries of the vehicle about the local dynamic map. Every query gets a single
+   * datagram in response, sent back to the address the query came from.
+   */
+  private class LdmQueryServer implements Runnable {
+    private final ByteBuffer request = ByteBuffer.allocate(MAX_UDP_LENGTH);
+    private final ByteBuffer response = ByteBuffer.allocate(MAX_LDM_RESPONSE_LENGTH);
+
+    @Override
+    public void run() {
+      logger.info("LDM query server starting...");
+      while (running) {
+        try {
+          request.clear();
+          SocketAddress sender = ldmChannel.receive(request);
+          request.flip();
+          if (ldm.query(request, response, System.nanoTime()) < 0) {
+            logger.warn("Received malformed LDM query. Ignoring message.");
+            continue;
+          }
+          ldmChannel.send(response, sender);
+        } catch (IOException e) {
+          if (running) {
+            logger.warn("LDM query server failed", e);
+          }
+        }
+      }
+      logger.info("LDM query server closing!");
+    }
+  }
+
+  /* Sends the CAMs of the neighbours that have changed to the vehicle
+   * at a fixed rate, in as few datagrams as they fit in. */
+  private Runnable snapshotSender =
+      new Runnable() {
+        @Override
+        public void run() {
+          logger.info("Snapshot sender starting...");
+          ByteBuffer out = ByteBuffer.allocateDirect(MAX_SNAPSHOT_LENGTH);
+          long next = System.nanoTime();
+          try {
+            while (running) {
+
+              /* Skip the batches missed while falling behind */
+              next = Math.max(next + snapshotPeriodNanos, System.nanoTime());
+              TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+              while (neighbourSnapshot.drain(out) > 0) {
+                try {
+                  vehicleChannel.send(out, vehicleCamAddress);
+                } catch (IOException e) {
+                  rxSocketErrors.increment();
+                  logger.warn("Failed to send neighbour snapshot to vehicle", e);
+                }
+              }
+              neighbourSnapshot.endBatch();
+            }
+          } catch (InterruptedException e) {
+            logger.warn("Snapshot sender interrupted while sleeping");
+          }
+          logger.info("Snapshot sender closing!");
+        }
+      };
+
+  /* Publishes the counters and gauges to the counters file at a fixed
+   * rate. */
+  private Runnable countersPublisher =
+      new Runnable() {
+        @Override
+        public void run() {
+          logger.info("Counters publisher starting...");
           try {
             while (running) {
-              BtpPacket btpPacket = btpSocket.receive();
-              byte[] payload = btpPacket.payload();
-              int destinationPort = btpPacket.destinationPort();
-              simpleFromProper(payload, destinationPort, packet, rcvSocket);
+              countersFile.update();
+              TimeUnit.NANOSECONDS.sleep(countersPeriodNanos);
             }
           } catch (InterruptedException e) {
-            logger.warn("BTP socket interrupted during receive");
+            logger.warn("Counters publisher interrupted while sleeping");
           }
-          logger.info("Send thread closing!");
+          countersFile.update();
+          logger.info("Counters publisher closing!");
+        }
+      };
+
+  /* Delivers the messages in the conflation mailboxes to the vehicle,
+   * spaced by at least the delivery period. */
+  private Runnable deliverer =
+      new Runnable() {
+        @Override
+        public void run() {
+          logger.info("Delivery thread starting...");
+          ByteBuffer out = ByteBuffer.allocateDirect(MAX_UDP_LENGTH);
+          long next = System.nanoTime();
+          try {
+            while (running) {
+              int messageId = mailboxes.take(out, TimeUnit.MILLISECONDS.toNanos(100));
+              if (messageId == ConflationMailboxes.NONE) {
+                continue;
+              }
+              try {
+                if (messageId == MessageId.cam) {
+                  vehicleChannel.send(out, vehicleCamAddress);
+                  rxCam.increment();
+                } else {
+                  vehicleChannel.send(out, vehicleIclcmAddress);
+                  rxIclcm.increment();
+                }
+              } catch (IOException e) {
+                rxSocketErrors.increment();
+                logger.warn("Failed to deliver message to vehicle", e);
+              }
+              if (deliveryPeriodNanos > 0) {
+                next = Math.max(next + deliveryPeriodNanos, System.nanoTime());
+                TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+              }
+            }
+          } catch (InterruptedException e) {
+            logger.warn("Delivery thread interrupted while waiting");
+          }
+          logger.info("Delivery thread closing!");
+        }
+      };
+
+  /* Turns the wheel of the DENM repeater, sending the repetitions
+   * that are due. */
+  private Runnable repeater =
+      new Runnable() {
+        @Override
+        public void run() {
+          logger.info("DENM repeater starting...");
+          try {
+            while (running) {
+              denmRepeater.advance(System.nanoTime());
+              TimeUnit.NANOSECONDS.sleep(DenmRepeater.TICK_NANOS);
+            }
+          } catch (InterruptedException e) {
+            logger.warn("DENM repeater interrupted while sleeping");
+          }
+          logger.info("DENM repeater closing!");
+        }
+      };
+
+  /**
+   * Transmit the BTP packets queued in the transmit scheduler, highest priority first. A single
+   * thread transmits, so a packet is never sent while another is being sent.
+   */
+  private Runnable transmitter =
+      new Runnable() {
+        @Override
+        public void run() {
+          logger.info("Transmit thread starting...");
+          if (accounting != null) {
+            accounting.register("transmit");
+          }
+          try {
+            while (running) {
+              BtpPacket packet = transmitScheduler.take();
+              try {
+                long start = System.nanoTime();
+                btpSocket.send(packet);
+                long end = System.nanoTime();
+                TrafficClass trafficClass = transmitScheduler.takenClass();
+                txStats.record(trafficClass, TX_SOCKET, end - start);
+                txStats.record(
+                    trafficClass, TX_TOTAL, end - transmitScheduler.takenArrivalNanos());
+              } catch (IOException e) {
+                txSocketErrors.increment();
+                logger.warn("Failed to send BTP packet to port {}", packet.destinationPort(), e);
+              }
+            }
+          } catch (InterruptedException e) {
+            logger.warn("Transmit thread interrupted while waiting for a packet");
+          }
+          logger.info("Transmit thread closing!");
         }
       };
 
@@ -616,80 +2121,65 @@ public class Router {
   public void send(Cam cam) {
     byte[] bytes;
     try {
-      bytes = UperEncoder.encode(cam);
+      bytes = MessageCodec.encode(cam);
     } catch (IllegalArgumentException | UnsupportedOperationException e) {
+      txEncodeErrors.increment();
       logger.warn("Failed to encode CAM {}, ignoring", cam, e);
       return;
     }
+    sendCam(bytes, System.nanoTime());
+  }
+
+  /**
+   * Broadcast a UPER encoded CAM message.
+   *
+   * @param bytes The encoded CAM message.
+   * @param arrivalNanos Time the message was received, as given by System.nanoTime().
+   */
+  private void sendCam(byte[] bytes, long arrivalNanos) {
     BtpPacket packet = BtpPacket.singleHop(bytes, PORT_CAM, CAM_LIFETIME_SECONDS);
-    try {
-      btpSocket.send(packet);
-    } catch (IOException e) {
-      logger.warn("failed to send cam", e);
-    }
+    transmitScheduler.offer(TrafficClass.CAM, packet, arrivalNanos);
   }
 
   /**
-   * Broadcast a proper DENM message to the specified GeoBroadcast destination.
+   * Broadcast a UPER encoded DENM message to the specified GeoBroadcast destination.
    *
-   * @param denm A proper DENM message.
+   * @param bytes The encoded DENM message.
    * @param destination The geographical destination of the message.
+   * @param arrivalNanos Time the message was received, as given by System.nanoTime().
    */
-  private void send(Denm denm, Geobroadcast destination) {
-    byte[] bytes;
-    try {
-      bytes = UperEncoder.encode(denm);
-    } catch (IllegalArgumentException | UnsupportedOperationException e) {
-      logger.error("Failed to encode DENM {}, ignoring", denm, e);
-      return;
-    }
+  private void sendDenm(byte[] bytes, Geobroadcast destination, long arrivalNanos) {
     BtpPacket packet = BtpPacket.customDestination(bytes, PORT_DENM, destination);
-    try {
-      btpSocket.send(packet);
-    } catch (IOException e) {
-      logger.warn("failed to send denm", e);
-    }
+    transmitScheduler.offer(TrafficClass.DENM, packet, arrivalNanos);
   }
 
   /**
-   * Broadcast a proper iCLCM message.
+   * Broadcast a UPER encoded iCLCM message.
    *
-   * @param iclcm A proper iCLCM message.
+   * @param bytes The encoded iCLCM message.
+   * @param arrivalNanos Time the message was received, as given by System.nanoTime().
    */
-  private void send(IgameCooperativeLaneChangeMessage iclcm) {
-    byte[] bytes;
-    try {
-      bytes = UperEncoder.encode(iclcm);
-    } catch (IllegalArgumentException | UnsupportedOperationException e) {
-      logger.error("Failed to encode iCLCM {}, ignoring", iclcm, e);
-      return;
-    }
+  private void sendIclcm(byte[] bytes, long arrivalNanos) {
     BtpPacket packet = BtpPacket.singleHop(bytes, PORT_ICLCM, iCLCM_LIFETIME_SECONDS);
-    try {
-      btpSocket.send(packet);
-    } catch (IOException e) {
-      logger.warn("Failed to send iclcm", e);
-    }
+    transmitScheduler.offer(TrafficClass.ICLCM, packet, arrivalNanos);
   }
 
   /**
    * Broadcast a custom message.
    *
    * @param bytes The byte array to send.
+   * @param arrivalNanos Time the message was received, as given by System.nanoTime().
    */
-  private void send(byte[] buffer) {
+  private void send(byte[] buffer, long arrivalNanos) {
     BtpPacket packet = BtpPacket.singleHop(buffer, PORT_CUSTOM, CUSTOM_LIFETIME_SECONDS);
-    try {
-      btpSocket.send(packet);
-    } catch (IOException e) {
-      logger.warn("Failed to send custom message", e);
-    }
+    transmitScheduler.offer(TrafficClass.CUSTOM, packet, arrivalNanos);
   }
 
   /**
    * This class is used to provide the current position of the vehicle. The position is used by the
    * beaconing service, to generate GeoBroadcast addresses and to check if a received DENM message
-   * is addressed to us.
+   * is addressed to us. It is updated from the receive threads and read from the GeoNetworking
+   * station, so all access is synchronized.
    */
   public static class VehiclePositionProvider implements PositionProvider {
     private final Address address;
@@ -719,7 +2209,7 @@ public class Router {
      * @param speedMetersPerSecond Vehicle speed in m/s.
      * @param headingDegreesFromNorth Heading in degrees from north.
      */
-    public void update(
+    public synchronized void update(
         double latitude,
         double longitude,
         double speedMetersPerSecond,
@@ -735,7 +2225,7 @@ public class Router {
      *
      * @return The latest position of the vehicle.
      */
-    public Position getPosition() {
+    public synchronized Position getPosition() {
       return position;
     }
 
@@ -745,7 +2235,7 @@ public class Router {
      * @return The latest position of the vehicle.
      */
     @Override
-    public LongPositionVector getLatestPosition() {
+    public synchronized LongPositionVector getLatestPosition() {
 
       /* The position is considered confident for 200 ms after a
        * position update. */
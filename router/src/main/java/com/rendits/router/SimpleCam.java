@@ -18,7 +18,9 @@ package com.rendits.router;
 import java.lang.IllegalArgumentException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import net.gcdc.asn1.datatypes.IntRange;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import net.gcdc.camdenm.CoopIts.*;
 import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
 import net.gcdc.camdenm.CoopIts.ItsPduHeader.ProtocolVersion;
@@ -38,7 +40,78 @@ import org.slf4j.LoggerFactory;
  */
 public class SimpleCam {
   private static final Logger logger = LoggerFactory.getLogger(Router.class);
-  private static final int SIMPLE_CAM_LENGTH = 82;
+  static final int SIMPLE_CAM_LENGTH = 82;
+
+  /* Validators of the fields, see FieldValidator */
+  static final FieldValidator STATION_ID =
+      FieldValidator.ofRange("CAM", "StationID", Range.STATION_ID);
+  static final FieldValidator GENERATION_DELTA_TIME =
+      FieldValidator.ofRange("CAM", "GenerationDeltaTime", Range.GENERATION_DELTA_TIME);
+  static final FieldValidator STATION_TYPE =
+      FieldValidator.ofRange("CAM", "StationType", Range.STATION_TYPE);
+  static final FieldValidator LATITUDE = FieldValidator.ofRange("CAM", "Latitude", Range.LATITUDE);
+  static final FieldValidator LONGITUDE =
+      FieldValidator.ofRange("CAM", "Longitude", Range.LONGITUDE);
+  static final FieldValidator SEMI_MAJOR_CONFIDENCE =
+      FieldValidator.ofRange("CAM", "SemiMajorConfidence", Range.SEMI_AXIS_LENGTH);
+  static final FieldValidator SEMI_MINOR_CONFIDENCE =
+      FieldValidator.ofRange("CAM", "SemiMinorConfidence", Range.SEMI_AXIS_LENGTH);
+  static final FieldValidator SEMI_MAJOR_ORIENTATION =
+      FieldValidator.ofRange("CAM", "SemiMajorOrientation", Range.HEADING_VALUE);
+  static final FieldValidator ALTITUDE =
+      FieldValidator.ofRange("CAM", "Altitude", Range.ALTITUDE_VALUE);
+  static final FieldValidator HEADING =
+      FieldValidator.ofRange("CAM", "Heading", Range.HEADING_VALUE);
+  static final FieldValidator HEADING_CONFIDENCE =
+      FieldValidator.ofRange("CAM", "HeadingConfidence", Range.HEADING_CONFIDENCE);
+  static final FieldValidator SPEED = FieldValidator.ofRange("CAM", "Speed", Range.SPEED_VALUE);
+  static final FieldValidator SPEED_CONFIDENCE =
+      FieldValidator.ofRange("CAM", "SpeedConfidence", Range.SPEED_CONFIDENCE);
+  static final FieldValidator VEHICLE_LENGTH =
+      FieldValidator.ofRange("CAM", "VehicleLength", Range.VEHICLE_LENGTH_VALUE);
+  static final FieldValidator VEHICLE_WIDTH =
+      FieldValidator.ofRange("CAM", "VehicleWidth", Range.VEHICLE_WIDTH);
+  static final FieldValidator LONGITUDINAL_ACCELERATION =
+      FieldValidator.ofRange(
+          "CAM", "LongitudinalAcceleration", Range.LONGITUDINAL_ACCELERATION_VALUE);
+  static final FieldValidator LONGITUDINAL_ACCELERATION_CONFIDENCE =
+      FieldValidator.ofRange(
+          "CAM", "LongitudinalAccelerationConfidence", Range.ACCELERATION_CONFIDENCE);
+  static final FieldValidator YAW_RATE =
+      FieldValidator.ofRange("CAM", "YawRate", Range.YAW_RATE_VALUE);
+  static final FieldValidator YAW_RATE_CONFIDENCE =
+      FieldValidator.ofEnum("CAM", "YawRateConfidence", YawRateConfidence.class);
+  static final FieldValidator VEHICLE_ROLE =
+      FieldValidator.ofEnum("CAM", "VehicleRole", VehicleRole.class);
+
+  private static final List<FieldValidator> VALIDATORS =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              STATION_ID,
+              GENERATION_DELTA_TIME,
+              STATION_TYPE,
+              LATITUDE,
+              LONGITUDE,
+              SEMI_MAJOR_CONFIDENCE,
+              SEMI_MINOR_CONFIDENCE,
+              SEMI_MAJOR_ORIENTATION,
+              ALTITUDE,
+              HEADING,
+              HEADING_CONFIDENCE,
+              SPEED,
+              SPEED_CONFIDENCE,
+              VEHICLE_LENGTH,
+              VEHICLE_WIDTH,
+              LONGITUDINAL_ACCELERATION,
+              LONGITUDINAL_ACCELERATION_CONFIDENCE,
+              YAW_RATE,
+              YAW_RATE_CONFIDENCE,
+              VEHICLE_ROLE));
+
+  /** Return the validators of every field of the message. */
+  static List<FieldValidator> validators() {
+    return VALIDATORS;
+  }
 
   final byte messageId;
   final int stationId;
@@ -118,15 +191,26 @@ public class SimpleCam {
    * @param receivedData Byte buffer representation of the message.
    */
   public SimpleCam(byte[] receivedData) {
-    if (receivedData.length < SIMPLE_CAM_LENGTH) {
-      logger.error(
-          "Simple CAM is too short. Is: {} Should be: {}", receivedData.length, SIMPLE_CAM_LENGTH);
+    this(ByteBuffer.wrap(receivedData), 0, receivedData.length);
+  }
+
+  /**
+   * Create a simple CAM straight from a byte buffer, without copying the message out of it first.
+   * Reading starts at the given offset and moves the position of the buffer.
+   *
+   * @param buffer Buffer holding the message.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   */
+  public SimpleCam(ByteBuffer buffer, int offset, int length) {
+    if (length < SIMPLE_CAM_LENGTH) {
+      logger.error("Simple CAM is too short. Is: {} Should be: {}", length, SIMPLE_CAM_LENGTH);
       throw new IllegalArgumentException();
     }
 
     /* Assign values, checking if they are valid. Invalid values
     are replaced with default values if possible. */
-    ByteBuffer buffer = ByteBuffer.wrap(receivedData);
+    buffer.position(offset);
     this.messageId = buffer.get();
     if (messageId != MessageId.cam) {
       logger.error("MessageID is: {} Should be: {}", messageId, MessageId.cam);
@@ -134,150 +218,140 @@ public class SimpleCam {
     }
 
     this.stationId = buffer.getInt();
-    if (!checkInt(StationID.class, stationId, "StationID")) {
+    if (!STATION_ID.check(stationId)) {
       throw new IllegalArgumentException();
     }
 
     this.genDeltaTimeMillis = buffer.getInt();
-    if (!checkInt(GenerationDeltaTime.class, genDeltaTimeMillis, "GenerationDeltaTime")) {
+    if (!GENERATION_DELTA_TIME.check(genDeltaTimeMillis)) {
       throw new IllegalArgumentException();
     }
 
     this.containerMask = buffer.get();
     int stationType = buffer.getInt();
-    if (checkInt(StationType.class, stationType, "StationType")) {
+    if (STATION_TYPE.check(stationType)) {
       this.stationType = stationType;
     } else {
       this.stationType = StationType.unknown;
     }
 
     int latitude = buffer.getInt();
-    if (checkInt(Latitude.class, latitude, "Latitude")) {
+    if (LATITUDE.check(latitude)) {
       this.latitude = latitude;
     } else {
       this.latitude = Latitude.unavailable;
     }
 
     int longitude = buffer.getInt();
-    if (checkInt(Longitude.class, longitude, "Longitude")) {
+    if (LONGITUDE.check(longitude)) {
       this.longitude = longitude;
     } else {
       this.longitude = Longitude.unavailable;
     }
 
     int semiMajorAxisConfidence = buffer.getInt();
-    if (checkInt(SemiAxisLength.class, semiMajorAxisConfidence, "SemiMajorConfidence")) {
+    if (SEMI_MAJOR_CONFIDENCE.check(semiMajorAxisConfidence)) {
       this.semiMajorAxisConfidence = semiMajorAxisConfidence;
     } else {
       this.semiMajorAxisConfidence = SemiAxisLength.unavailable;
     }
 
     int semiMinorAxisConfidence = buffer.getInt();
-    if (checkInt(SemiAxisLength.class, semiMinorAxisConfidence, "SemiMinorConfidence")) {
+    if (SEMI_MINOR_CONFIDENCE.check(semiMinorAxisConfidence)) {
       this.semiMinorAxisConfidence = semiMinorAxisConfidence;
     } else {
       this.semiMinorAxisConfidence = SemiAxisLength.unavailable;
     }
 
     int semiMajorOrientation = buffer.getInt();
-    if (checkInt(HeadingValue.class, semiMajorOrientation, "SemiMajorOrientation")) {
+    if (SEMI_MAJOR_ORIENTATION.check(semiMajorOrientation)) {
       this.semiMajorOrientation = semiMajorOrientation;
     } else {
       this.semiMajorOrientation = HeadingValue.unavailable;
     }
 
     int altitude = buffer.getInt();
-    if (checkInt(AltitudeValue.class, altitude, "Altitude")) {
+    if (ALTITUDE.check(altitude)) {
       this.altitude = altitude;
     } else {
       this.altitude = AltitudeValue.unavailable;
     }
 
     int heading = buffer.getInt();
-    if (checkInt(HeadingValue.class, heading, "Heading")) {
+    if (HEADING.check(heading)) {
       this.heading = heading;
     } else {
       this.heading = HeadingValue.unavailable;
     }
 
     int headingConfidence = buffer.getInt();
-    if (checkInt(HeadingConfidence.class, headingConfidence, "HeadingConfidence")) {
+    if (HEADING_CONFIDENCE.check(headingConfidence)) {
       this.headingConfidence = headingConfidence;
     } else {
       this.headingConfidence = HeadingConfidence.unavailable;
     }
 
     int speed = buffer.getInt();
-    if (checkInt(SpeedValue.class, speed, "Speed")) {
+    if (SPEED.check(speed)) {
       this.speed = speed;
     } else {
       this.speed = SpeedValue.unavailable;
     }
 
     int speedConfidence = buffer.getInt();
-    if (checkInt(SpeedConfidence.class, speedConfidence, "SpeedConfidence")) {
+    if (SPEED_CONFIDENCE.check(speedConfidence)) {
       this.speedConfidence = speedConfidence;
     } else {
       this.speedConfidence = SpeedConfidence.unavailable;
     }
 
     int vehicleLength = buffer.getInt();
-    if (checkInt(VehicleLengthValue.class, vehicleLength, "VehicleLength")) {
+    if (VEHICLE_LENGTH.check(vehicleLength)) {
       this.vehicleLength = vehicleLength;
     } else {
       this.vehicleLength = VehicleLengthValue.unavailable;
     }
 
     int vehicleWidth = buffer.getInt();
-    if (checkInt(VehicleWidth.class, vehicleWidth, "VehicleWidth")) {
+    if (VEHICLE_WIDTH.check(vehicleWidth)) {
       this.vehicleWidth = vehicleWidth;
     } else {
       this.vehicleWidth = VehicleWidth.unavailable;
     }
 
     int longitudinalAcceleration = buffer.getInt();
-    if (checkInt(
-        LongitudinalAccelerationValue.class,
-        longitudinalAcceleration,
-        "LongitudinalAcceleration")) {
+    if (LONGITUDINAL_ACCELERATION.check(longitudinalAcceleration)) {
       this.longitudinalAcceleration = longitudinalAcceleration;
     } else {
       this.longitudinalAcceleration = LongitudinalAccelerationValue.unavailable;
     }
 
     int longitudinalAccelerationConfidence = buffer.getInt();
-    if (checkInt(
-        AccelerationConfidence.class,
-        longitudinalAccelerationConfidence,
-        "LongitudinalAccelerationConfidence")) {
+    if (LONGITUDINAL_ACCELERATION_CONFIDENCE.check(longitudinalAccelerationConfidence)) {
       this.longitudinalAccelerationConfidence = longitudinalAccelerationConfidence;
     } else {
       this.longitudinalAccelerationConfidence = AccelerationConfidence.unavailable;
     }
 
     int yawRate = buffer.getInt();
-    if (checkInt(YawRateValue.class, yawRate, "YawRate")) {
+    if (YAW_RATE.check(yawRate)) {
       this.yawRate = yawRate;
     } else {
       this.yawRate = YawRateValue.unavailable;
     }
 
     int yawRateConfidence = buffer.getInt();
-    /* TODO: Find a cleaner way to check enums. Also, this
-     * approach is not very informative.*/
-    if (YawRateConfidence.isMember(yawRateConfidence)) {
+    if (YAW_RATE_CONFIDENCE.check(yawRateConfidence)) {
       this.yawRateConfidence = yawRateConfidence;
     } else {
-      logger.warn("YawRateConfidence is not valid. Value={}", yawRateConfidence);
       this.yawRateConfidence = (int) YawRateConfidence.unavailable.value();
     }
 
     int vehicleRole = buffer.getInt();
     if (this.hasLowFrequencyContainer()) {
-      if (VehicleRole.isMember(vehicleRole)) {
+      if (VEHICLE_ROLE.check(vehicleRole)) {
         this.vehicleRole = vehicleRole;
       } else {
-        logger.warn("VehicleRole is not valid. Value={}", vehicleRole);
         this.vehicleRole = (int) VehicleRole.default_.value();
       }
     } else {
@@ -381,41 +455,6 @@ public class SimpleCam {
     this.containerMask = containerMask;
   }
 
-  /** Return the IntRange min and max value as a nice string. */
-  String getIntRangeString(IntRange intRange) {
-    String string = "minValue=" + intRange.minValue() + ", maxValue=" + intRange.maxValue();
-    return string;
-  }
-
-  /** Return true if given value is within the IntRange, and false otherwise. */
-  boolean compareIntRange(int value, IntRange intRange) {
-    return value <= intRange.maxValue() && value >= intRange.minValue();
-  }
-
-  /** Check if an integer is within its range of allowed values. Print a warning if it isn't. */
-  public boolean checkInt(Class<?> classOfT, int value, String name) {
-    IntRange intRange = (IntRange) classOfT.getAnnotation(IntRange.class);
-    if (intRange == null) {
-      logger.error("{} does not have an IntRange!", classOfT);
-      return false;
-    }
-    if (!compareIntRange(value, intRange)) {
-      logger.warn("{} is outside of range. Value={}, {}", name, value, getIntRangeString(intRange));
-      return false;
-    } else {
-      return true;
-    }
-  }
-
-  /*
-    public boolean checkEnum(Enum classOfT, int value, String name){
-    boolean valid = classOfT.isMember(value);
-    if(!valid) logger.error("{} is not valid. Value={}",
-    name, value);
-    return valid;
-    }
-  */
-
   public int getLatitude() {
     return this.latitude;
   }
@@ -489,93 +528,82 @@ public class SimpleCam {
       valid = false;
     }
 
-    if (!checkInt(StationID.class, stationId, "StationID")) {
+    if (!STATION_ID.check(stationId)) {
       valid = false;
     }
 
-    if (!checkInt(GenerationDeltaTime.class, genDeltaTimeMillis, "GenerationDeltaTime")) {
+    if (!GENERATION_DELTA_TIME.check(genDeltaTimeMillis)) {
       valid = false;
     }
 
-    if (!checkInt(StationType.class, stationType, "StationType")) {
+    if (!STATION_TYPE.check(stationType)) {
       valid = false;
     }
 
-    if (!checkInt(Latitude.class, latitude, "Latitude")) {
+    if (!LATITUDE.check(latitude)) {
       valid = false;
     }
 
-    if (!checkInt(Longitude.class, longitude, "Longitude")) {
+    if (!LONGITUDE.check(longitude)) {
       valid = false;
     }
 
-    if (!checkInt(SemiAxisLength.class, semiMajorAxisConfidence, "SemiMajorConfidence")) {
+    if (!SEMI_MAJOR_CONFIDENCE.check(semiMajorAxisConfidence)) {
       valid = false;
     }
 
-    if (!checkInt(SemiAxisLength.class, semiMinorAxisConfidence, "SemiMinorConfidence")) {
+    if (!SEMI_MINOR_CONFIDENCE.check(semiMinorAxisConfidence)) {
       valid = false;
     }
 
-    if (!checkInt(HeadingValue.class, semiMajorOrientation, "SemiMajorOrientation")) {
+    if (!SEMI_MAJOR_ORIENTATION.check(semiMajorOrientation)) {
       valid = false;
     }
 
-    if (!checkInt(AltitudeValue.class, altitude, "Altitude")) {
+    if (!ALTITUDE.check(altitude)) {
       valid = false;
     }
 
-    if (!checkInt(HeadingValue.class, heading, "Heading")) {
+    if (!HEADING.check(heading)) {
       valid = false;
     }
 
-    if (!checkInt(HeadingConfidence.class, headingConfidence, "HeadingConfidence")) {
+    if (!HEADING_CONFIDENCE.check(headingConfidence)) {
       valid = false;
     }
 
-    if (!checkInt(SpeedValue.class, speed, "Speed")) {
+    if (!SPEED.check(speed)) {
       valid = false;
     }
 
-    if (!checkInt(SpeedConfidence.class, speedConfidence, "SpeedConfidence")) {
+    if (!SPEED_CONFIDENCE.check(speedConfidence)) {
       valid = false;
     }
 
-    if (!checkInt(VehicleLengthValue.class, vehicleLength, "VehicleLength")) {
+    if (!VEHICLE_LENGTH.check(vehicleLength)) {
       valid = false;
     }
 
-    if (!checkInt(VehicleWidth.class, vehicleWidth, "VehicleWidth")) {
+    if (!VEHICLE_WIDTH.check(vehicleWidth)) {
       valid = false;
     }
 
-    if (!checkInt(
-        LongitudinalAccelerationValue.class,
-        longitudinalAcceleration,
-        "LongitudinalAcceleration")) {
+    if (!LONGITUDINAL_ACCELERATION.check(longitudinalAcceleration)) {
       valid = false;
     }
 
-    if (!checkInt(
-        AccelerationConfidence.class,
-        longitudinalAccelerationConfidence,
-        "LongitudinalAccelerationConfidence")) {
+    if (!LONGITUDINAL_ACCELERATION_CONFIDENCE.check(longitudinalAccelerationConfidence)) {
       valid = false;
     }
 
-    if (!checkInt(YawRateValue.class, yawRate, "YawRate")) {
+    if (!YAW_RATE.check(yawRate)) {
       valid = false;
     }
-
-    /* TODO: Find a cleaner way to check enums. Also, this
-     * approach is not very informative.*/
-    if (!YawRateConfidence.isMember(yawRateConfidence)) {
-      logger.error("YawRateConfidence is not valid. Value={}", yawRateConfidence);
+    if (!YAW_RATE_CONFIDENCE.check(yawRateConfidence)) {
       valid = false;
     }
 
-    if (this.hasLowFrequencyContainer() && !VehicleRole.isMember(vehicleRole)) {
-      logger.error("VehicleRole is not valid. Value={}", vehicleRole);
+    if (this.hasLowFrequencyContainer() && !VEHICLE_ROLE.check(vehicleRole)) {
       valid = false;
     }
 
@@ -593,30 +621,8 @@ public class SimpleCam {
    */
   public byte[] asByteArray() {
     byte[] packetBuffer = new byte[SIMPLE_CAM_LENGTH];
-    ByteBuffer buffer = ByteBuffer.wrap(packetBuffer);
     try {
-      buffer.put(messageId);
-      buffer.putInt(stationId);
-      buffer.putInt(genDeltaTimeMillis);
-      buffer.put(containerMask);
-      buffer.putInt(stationType);
-      buffer.putInt(latitude);
-      buffer.putInt(longitude);
-      buffer.putInt(semiMajorAxisConfidence);
-      buffer.putInt(semiMinorAxisConfidence);
-      buffer.putInt(semiMajorOrientation);
-      buffer.putInt(altitude);
-      buffer.putInt(heading);
-      buffer.putInt(headingConfidence);
-      buffer.putInt(speed);
-      buffer.putInt(speedConfidence);
-      buffer.putInt(vehicleLength);
-      buffer.putInt(vehicleWidth);
-      buffer.putInt(longitudinalAcceleration);
-      buffer.putInt(longitudinalAccelerationConfidence);
-      buffer.putInt(yawRate);
-      buffer.putInt(yawRateConfidence);
-      buffer.putInt(vehicleRole);
+      writeTo(ByteBuffer.wrap(packetBuffer), 0);
     } catch (BufferOverflowException e) {
       logger.error("Error converting simple CAM to byte array.", e);
       /* Return an empty byte array as the vehicle control
@@ -627,6 +633,43 @@ public class SimpleCam {
     return packetBuffer;
   }
 
+  /**
+   * Write the simple CAM into a caller-owned buffer, starting at the given offset. Nothing is
+   * allocated, so the same buffer can be reused for every message. The position of the buffer is
+   * left right after the message.
+   *
+   * @param buffer Buffer to write the message to.
+   * @param offset Offset in the buffer of the first byte of the message.
+   * @return The number of bytes written.
+   * @exception BufferOverflowException if the message doesn't fit in the buffer.
+   */
+  public int writeTo(ByteBuffer buffer, int offset) {
+    buffer.position(offset);
+    buffer.put(messageId);
+    buffer.putInt(stationId);
+    buffer.putInt(genDeltaTimeMillis);
+    buffer.put(containerMask);
+    buffer.putInt(stationType);
+    buffer.putInt(latitude);
+    buffer.putInt(longitude);
+    buffer.putInt(semiMajorAxisConfidence);
+    buffer.putInt(semiMinorAxisConfidence);
+    buffer.putInt(semiMajorOrientation);
+    buffer.putInt(altitude);
+    buffer.putInt(heading);
+    buffer.putInt(headingConfidence);
+    buffer.putInt(speed);
+    buffer.putInt(speedConfidence);
+    buffer.putInt(vehicleLength);
+    buffer.putInt(vehicleWidth);
+    buffer.putInt(longitudinalAcceleration);
+    buffer.putInt(longitudinalAccelerationConfidence);
+    buffer.putInt(yawRate);
+    buffer.putInt(yawRateConfidence);
+    buffer.putInt(vehicleRole);
+    return SIMPLE_CAM_LENGTH;
+  }
+
   /**
    * Return the proper CAM representation of the message. Typically used when transmitting the
    * message to another ITS station.
@@ -0,0 +1,209 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+import net.gcdc.camdenm.CoopIts.*;
+import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
+
+/**
+ *
+ *
+ * <h1>Simple CAM view</h1>
+ *
+ * <p>Flyweight view over a simple CAM held in a byte buffer. See SimpleMessageView.
+ */
+public final class SimpleCamView extends SimpleMessageView {
+
+  /* Offsets of the fields in the simple CAM */
+  static final int GENERATION_DELTA_TIME = 5;
+  static final int CONTAINER_MASK = 9;
+  static final int STATION_TYPE = 10;
+  static final int LATITUDE = 14;
+  static final int LONGITUDE = 18;
+  static final int SEMI_MAJOR_CONFIDENCE = 22;
+  static final int SEMI_MINOR_CONFIDENCE = 26;
+  static final int SEMI_MAJOR_ORIENTATION = 30;
+  static final int ALTITUDE = 34;
+  static final int HEADING = 38;
+  static final int HEADING_CONFIDENCE = 42;
+  static final int SPEED = 46;
+  static final int SPEED_CONFIDENCE = 50;
+  static final int VEHICLE_LENGTH = 54;
+  static final int VEHICLE_WIDTH = 58;
+  static final int LONGITUDINAL_ACCELERATION = 62;
+  static final int LONGITUDINAL_ACCELERATION_CONFIDENCE = 66;
+  static final int YAW_RATE = 70;
+  static final int YAW_RATE_CONFIDENCE = 74;
+  static final int VEHICLE_ROLE = 78;
+
+  private static final int DEFAULT_YAW_RATE_CONFIDENCE =
+      (int) YawRateConfidence.unavailable.value();
+  private static final int DEFAULT_VEHICLE_ROLE = (int) VehicleRole.default_.value();
+
+  /** SimpleCamView constructor. The view must be wrapped around a message before it is used. */
+  public SimpleCamView() {
+    super("CAM", SimpleCam.SIMPLE_CAM_LENGTH, MessageId.cam);
+  }
+
+  /**
+   * Point the view at a simple CAM.
+   *
+   * @param buffer Buffer holding the message.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   * @return This view.
+   */
+  public SimpleCamView wrap(ByteBuffer buffer, int offset, int length) {
+    set(buffer, offset, length);
+    return this;
+  }
+
+  @Override
+  int validateFields() {
+    if (!required(SimpleCam.STATION_ID, getStationId())) {
+      return INVALID_FIELD;
+    }
+    if (!required(SimpleCam.GENERATION_DELTA_TIME, getGenerationDeltaTime())) {
+      return INVALID_FIELD;
+    }
+    optional(SimpleCam.STATION_TYPE, getInt(STATION_TYPE));
+    optional(SimpleCam.LATITUDE, getInt(LATITUDE));
+    optional(SimpleCam.LONGITUDE, getInt(LONGITUDE));
+    optional(SimpleCam.SEMI_MAJOR_CONFIDENCE, getInt(SEMI_MAJOR_CONFIDENCE));
+    optional(SimpleCam.SEMI_MINOR_CONFIDENCE, getInt(SEMI_MINOR_CONFIDENCE));
+    optional(SimpleCam.SEMI_MAJOR_ORIENTATION, getInt(SEMI_MAJOR_ORIENTATION));
+    optional(SimpleCam.ALTITUDE, getInt(ALTITUDE));
+    optional(SimpleCam.HEADING, getInt(HEADING));
+    optional(SimpleCam.HEADING_CONFIDENCE, getInt(HEADING_CONFIDENCE));
+    optional(SimpleCam.SPEED, getInt(SPEED));
+    optional(SimpleCam.SPEED_CONFIDENCE, getInt(SPEED_CONFIDENCE));
+    optional(SimpleCam.VEHICLE_LENGTH, getInt(VEHICLE_LENGTH));
+    optional(SimpleCam.VEHICLE_WIDTH, getInt(VEHICLE_WIDTH));
+    optional(SimpleCam.LONGITUDINAL_ACCELERATION, getInt(LONGITUDINAL_ACCELERATION));
+    optional(
+        SimpleCam.LONGITUDINAL_ACCELERATION_CONFIDENCE,
+        getInt(LONGITUDINAL_ACCELERATION_CONFIDENCE));
+    optional(SimpleCam.YAW_RATE, getInt(YAW_RATE));
+    optional(SimpleCam.YAW_RATE_CONFIDENCE, getInt(YAW_RATE_CONFIDENCE));
+    if (hasLowFrequencyContainer()) {
+      optional(SimpleCam.VEHICLE_ROLE, getInt(VEHICLE_ROLE));
+    }
+    return VALID;
+  }
+
+  public int getGenerationDeltaTime() {
+    return getInt(GENERATION_DELTA_TIME);
+  }
+
+  public byte getContainerMask() {
+    return getByte(CONTAINER_MASK);
+  }
+
+  /** Return true if the simple CAM has a low frequency container. */
+  public boolean hasLowFrequencyContainer() {
+    return (getContainerMask() & (1 << 7)) != 0;
+  }
+
+  public int getStationType() {
+    return orDefault(SimpleCam.STATION_TYPE, getInt(STATION_TYPE), StationType.unknown);
+  }
+
+  public int getLatitude() {
+    return orDefault(SimpleCam.LATITUDE, getInt(LATITUDE), Latitude.unavailable);
+  }
+
+  public int getLongitude() {
+    return orDefault(SimpleCam.LONGITUDE, getInt(LONGITUDE), Longitude.unavailable);
+  }
+
+  public int getSemiMajorConfidence() {
+    return orDefault(
+        SimpleCam.SEMI_MAJOR_CONFIDENCE, getInt(SEMI_MAJOR_CONFIDENCE), SemiAxisLength.unavailable);
+  }
+
+  public int getSemiMinorConfidence() {
+    return orDefault(
+        SimpleCam.SEMI_MINOR_CONFIDENCE, getInt(SEMI_MINOR_CONFIDENCE), SemiAxisLength.unavailable);
+  }
+
+  public int getSemiMajorOrientation() {
+    return orDefault(
+        SimpleCam.SEMI_MAJOR_ORIENTATION, getInt(SEMI_MAJOR_ORIENTATION), HeadingValue.unavailable);
+  }
+
+  public int getAltitude() {
+    return orDefault(SimpleCam.ALTITUDE, getInt(ALTITUDE), AltitudeValue.unavailable);
+  }
+
+  public int getHeading() {
+    return orDefault(SimpleCam.HEADING, getInt(HEADING), HeadingValue.unavailable);
+  }
+
+  public int getHeadingConfidence() {
+    return orDefault(
+        SimpleCam.HEADING_CONFIDENCE, getInt(HEADING_CONFIDENCE), HeadingConfidence.unavailable);
+  }
+
+  public int getSpeed() {
+    return orDefault(SimpleCam.SPEED, getInt(SPEED), SpeedValue.unavailable);
+  }
+
+  public int getSpeedConfidence() {
+    return orDefault(
+        SimpleCam.SPEED_CONFIDENCE, getInt(SPEED_CONFIDENCE), SpeedConfidence.unavailable);
+  }
+
+  public int getVehicleLength() {
+    return orDefault(
+        SimpleCam.VEHICLE_LENGTH, getInt(VEHICLE_LENGTH), VehicleLengthValue.unavailable);
+  }
+
+  public int getVehicleWidth() {
+    return orDefault(SimpleCam.VEHICLE_WIDTH, getInt(VEHICLE_WIDTH), VehicleWidth.unavailable);
+  }
+
+  public int getLongitudinalAcceleration() {
+    return orDefault(
+        SimpleCam.LONGITUDINAL_ACCELERATION,
+        getInt(LONGITUDINAL_ACCELERATION),
+        LongitudinalAccelerationValue.unavailable);
+  }
+
+  public int getLongitudinalAccelerationConfidence() {
+    return orDefault(
+        SimpleCam.LONGITUDINAL_ACCELERATION_CONFIDENCE,
+        getInt(LONGITUDINAL_ACCELERATION_CONFIDENCE),
+        AccelerationConfidence.unavailable);
+  }
+
+  public int getYawRate() {
+    return orDefault(SimpleCam.YAW_RATE, getInt(YAW_RATE), YawRateValue.unavailable);
+  }
+
+  public int getYawRateConfidence() {
+    return orDefault(
+        SimpleCam.YAW_RATE_CONFIDENCE, getInt(YAW_RATE_CONFIDENCE), DEFAULT_YAW_RATE_CONFIDENCE);
+  }
+
+  /** Return the vehicle role, or the default role if there is no low frequency container. */
+  public int getVehicleRole() {
+    if (!hasLowFrequencyContainer()) {
+      return DEFAULT_VEHICLE_ROLE;
+    }
+    return orDefault(SimpleCam.VEHICLE_ROLE, getInt(VEHICLE_ROLE), DEFAULT_VEHICLE_ROLE);
+  }
+}
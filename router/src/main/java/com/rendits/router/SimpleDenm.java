@@ -16,8 +16,10 @@
 package com.rendits.router;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
-import net.gcdc.asn1.datatypes.IntRange;
 import net.gcdc.camdenm.CoopIts.*;
 import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
 import net.gcdc.camdenm.CoopIts.ItsPduHeader.ProtocolVersion;
@@ -37,7 +39,89 @@ import org.slf4j.LoggerFactory;
  */
 public class SimpleDenm {
   private static final Logger logger = LoggerFactory.getLogger(Router.class);
-  private static final int SIMPLE_DENM_LENGTH = 101;
+  static final int SIMPLE_DENM_LENGTH = 101;
+
+  /* Validators of the fields, see FieldValidator */
+  static final FieldValidator STATION_ID =
+      FieldValidator.ofRange("DENM", "StationID", Range.STATION_ID);
+  static final FieldValidator GENERATION_DELTA_TIME =
+      FieldValidator.ofRange("DENM", "GenerationDeltaTime", Range.GENERATION_DELTA_TIME);
+  static final FieldValidator DETECTION_TIME =
+      FieldValidator.ofRange("DENM", "DetectionTime", Range.TIMESTAMP_ITS);
+  static final FieldValidator REFERENCE_TIME =
+      FieldValidator.ofRange("DENM", "ReferenceTime", Range.TIMESTAMP_ITS);
+  static final FieldValidator TERMINATION =
+      FieldValidator.ofEnum("DENM", "Termination", Termination.class);
+  static final FieldValidator LATITUDE = FieldValidator.ofRange("DENM", "Latitude", Range.LATITUDE);
+  static final FieldValidator LONGITUDE =
+      FieldValidator.ofRange("DENM", "Longitude", Range.LONGITUDE);
+  static final FieldValidator SEMI_MAJOR_CONFIDENCE =
+      FieldValidator.ofRange("DENM", "SemiMajorConfidence", Range.SEMI_AXIS_LENGTH);
+  static final FieldValidator SEMI_MINOR_CONFIDENCE =
+      FieldValidator.ofRange("DENM", "SemiMinorConfidence", Range.SEMI_AXIS_LENGTH);
+  static final FieldValidator SEMI_MAJOR_ORIENTATION =
+      FieldValidator.ofRange("DENM", "SemiMajorOrientation", Range.HEADING_VALUE);
+  static final FieldValidator ALTITUDE =
+      FieldValidator.ofRange("DENM", "Altitude", Range.ALTITUDE_VALUE);
+  static final FieldValidator RELEVANCE_DISTANCE =
+      FieldValidator.ofEnum("DENM", "RelevanceDistance", RelevanceDistance.class);
+  static final FieldValidator RELEVANCE_TRAFFIC_DIRECTION =
+      FieldValidator.ofEnum("DENM", "RelevanceTrafficDirection", RelevanceTrafficDirection.class);
+  static final FieldValidator VALIDITY_DURATION =
+      FieldValidator.ofRange("DENM", "ValidityDuration", Range.VALIDITY_DURATION);
+  static final FieldValidator TRANSMISSION_INTERVAL =
+      FieldValidator.ofRange("DENM", "TransmissionInterval", Range.TRANSMISSION_INTERVAL);
+  static final FieldValidator STATION_TYPE =
+      FieldValidator.ofRange("DENM", "StationType", Range.STATION_TYPE);
+  static final FieldValidator INFORMATION_QUALITY =
+      FieldValidator.ofRange("DENM", "InformationQuality", Range.INFORMATION_QUALITY);
+  static final FieldValidator CAUSE_CODE =
+      FieldValidator.ofRange("DENM", "CauseCode", Range.CAUSE_CODE_TYPE);
+  static final FieldValidator SUB_CAUSE_CODE =
+      FieldValidator.ofRange("DENM", "SubCauseCode", Range.SUB_CAUSE_CODE_TYPE);
+  static final FieldValidator LINKED_CAUSE_CODE =
+      FieldValidator.ofRange("DENM", "LinkedCauseCode", Range.CAUSE_CODE_TYPE);
+  static final FieldValidator LINKED_SUB_CAUSE_CODE =
+      FieldValidator.ofRange("DENM", "LinkedSubCauseCode", Range.SUB_CAUSE_CODE_TYPE);
+  static final FieldValidator LANE_POSITION =
+      FieldValidator.ofRange("DENM", "LanePosition", Range.LANE_POSITION);
+  static final FieldValidator TEMPERATURE =
+      FieldValidator.ofRange("DENM", "Temperature", Range.TEMPERATURE);
+  static final FieldValidator POSITIONING_SOLUTION_TYPE =
+      FieldValidator.ofEnum("DENM", "PositioningSolutionType", PositioningSolutionType.class);
+
+  private static final List<FieldValidator> VALIDATORS =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              STATION_ID,
+              GENERATION_DELTA_TIME,
+              DETECTION_TIME,
+              REFERENCE_TIME,
+              TERMINATION,
+              LATITUDE,
+              LONGITUDE,
+              SEMI_MAJOR_CONFIDENCE,
+              SEMI_MINOR_CONFIDENCE,
+              SEMI_MAJOR_ORIENTATION,
+              ALTITUDE,
+              RELEVANCE_DISTANCE,
+              RELEVANCE_TRAFFIC_DIRECTION,
+              VALIDITY_DURATION,
+              TRANSMISSION_INTERVAL,
+              STATION_TYPE,
+              INFORMATION_QUALITY,
+              CAUSE_CODE,
+              SUB_CAUSE_CODE,
+              LINKED_CAUSE_CODE,
+              LINKED_SUB_CAUSE_CODE,
+              LANE_POSITION,
+              TEMPERATURE,
+              POSITIONING_SOLUTION_TYPE));
+
+  /** Return the validators of every field of the message. */
+  static List<FieldValidator> validators() {
+    return VALIDATORS;
+  }
 
   /* The sequence number of the DENM */
   private static AtomicInteger denmSequenceCounter = new AtomicInteger();
@@ -104,7 +188,7 @@ public class SimpleDenm {
       int temperature,
       int positioningSolutionType) {
 
-    this.denmSequenceNumber = denmSequenceCounter.getAndIncrement();
+    this.denmSequenceNumber = nextSequenceNumber();
     this.messageId = MessageId.denm;
     this.stationId = stationId;
     this.generationDeltaTime = generationDeltaTime;
@@ -143,19 +227,28 @@ public class SimpleDenm {
    * @param receivedData Byte buffer representation of the message.
    */
   public SimpleDenm(byte[] receivedData) {
-    if (receivedData.length < SIMPLE_DENM_LENGTH) {
-      logger.error(
-          "Simple DENM is too short. Is: {} Should be: {}",
-          receivedData.length,
-          SIMPLE_DENM_LENGTH);
+    this(ByteBuffer.wrap(receivedData), 0, receivedData.length);
+  }
+
+  /**
+   * Create a simple DENM straight from a byte buffer, without copying the message out of it first.
+   * Reading starts at the given offset and moves the position of the buffer.
+   *
+   * @param buffer Buffer holding the message.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   */
+  public SimpleDenm(ByteBuffer buffer, int offset, int length) {
+    if (length < SIMPLE_DENM_LENGTH) {
+      logger.error("Simple DENM is too short. Is: {} Should be: {}", length, SIMPLE_DENM_LENGTH);
       throw new IllegalArgumentException();
     }
 
-    this.denmSequenceNumber = denmSequenceCounter.getAndIncrement();
+    this.denmSequenceNumber = nextSequenceNumber();
 
     /* Assign values, checking if they are valid. Invalid values
     are replaced with default values if possible. */
-    ByteBuffer buffer = ByteBuffer.wrap(receivedData);
+    buffer.position(offset);
     messageId = buffer.get();
     if (messageId != MessageId.denm) {
       logger.error("Simple DENM has incorrect id. Id: {} Should be: {}", messageId, MessageId.denm);
@@ -163,12 +256,12 @@ public class SimpleDenm {
     }
 
     stationId = buffer.getInt();
-    if (!checkInt(StationID.class, stationId, "StationID")) {
+    if (!STATION_ID.check(stationId)) {
       throw new IllegalArgumentException();
     }
 
     generationDeltaTime = buffer.getInt();
-    if (!checkInt(GenerationDeltaTime.class, generationDeltaTime, "GenerationDeltaTime")) {
+    if (!GENERATION_DELTA_TIME.check(generationDeltaTime)) {
       throw new IllegalArgumentException();
     }
 
@@ -184,97 +277,92 @@ public class SimpleDenm {
      * We get the true timestamps by multiplying with 65536 and
      * adding the generationDeltaTime.
      */
-    if (!checkInt(
-        TimestampIts.class, detectionTime * 65536 + generationDeltaTime, "DetectionTime")) {
+    if (!DETECTION_TIME.check(detectionTime * 65536 + generationDeltaTime)) {
       throw new IllegalArgumentException();
     }
-    if (!checkInt(
-        TimestampIts.class, referenceTime * 65536 + generationDeltaTime, "ReferenceTime")) {
+    if (!REFERENCE_TIME.check(referenceTime * 65536 + generationDeltaTime)) {
       throw new IllegalArgumentException();
     }
 
     int termination = buffer.getInt();
-    if (Termination.isMember(termination)) {
+    if (TERMINATION.check(termination)) {
       this.termination = termination;
     } else {
-      logger.warn("Termination is not valid. Value={}", termination);
       this.termination = (int) Termination.defaultValue().value();
     }
 
     int latitude = buffer.getInt();
-    if (checkInt(Latitude.class, latitude, "Latitude")) {
+    if (LATITUDE.check(latitude)) {
       this.latitude = latitude;
     } else {
       this.latitude = Latitude.unavailable;
     }
 
     int longitude = buffer.getInt();
-    if (checkInt(Longitude.class, longitude, "Longitude")) {
+    if (LONGITUDE.check(longitude)) {
       this.longitude = longitude;
     } else {
       this.longitude = Longitude.unavailable;
     }
 
     int semiMajorConfidence = buffer.getInt();
-    if (checkInt(SemiAxisLength.class, semiMajorConfidence, "SemiMajorConfidence")) {
+    if (SEMI_MAJOR_CONFIDENCE.check(semiMajorConfidence)) {
       this.semiMajorConfidence = semiMajorConfidence;
     } else {
       this.semiMajorConfidence = SemiAxisLength.unavailable;
     }
 
     int semiMinorConfidence = buffer.getInt();
-    if (checkInt(SemiAxisLength.class, semiMinorConfidence, "SemiMinorConfidence")) {
+    if (SEMI_MINOR_CONFIDENCE.check(semiMinorConfidence)) {
       this.semiMinorConfidence = semiMinorConfidence;
     } else {
       this.semiMinorConfidence = SemiAxisLength.unavailable;
     }
 
     int semiMajorOrientation = buffer.getInt();
-    if (checkInt(HeadingValue.class, semiMajorOrientation, "SemiMajorOrientation")) {
+    if (SEMI_MAJOR_ORIENTATION.check(semiMajorOrientation)) {
       this.semiMajorOrientation = semiMajorOrientation;
     } else {
       this.semiMajorOrientation = HeadingValue.unavailable;
     }
 
     int altitude = buffer.getInt();
-    if (checkInt(AltitudeValue.class, altitude, "Altitude")) {
+    if (ALTITUDE.check(altitude)) {
       this.altitude = altitude;
     } else {
       this.altitude = AltitudeValue.unavailable;
     }
 
     int relevanceDistance = buffer.getInt();
-    if (RelevanceDistance.isMember(relevanceDistance)) {
+    if (RELEVANCE_DISTANCE.check(relevanceDistance)) {
       this.relevanceDistance = relevanceDistance;
     } else {
-      logger.warn("RelevanceDistance is not valid. Value={}", relevanceDistance);
       this.relevanceDistance = (int) RelevanceDistance.defaultValue().value();
     }
 
     int relevanceTrafficDirection = buffer.getInt();
-    if (RelevanceTrafficDirection.isMember(relevanceTrafficDirection)) {
+    if (RELEVANCE_TRAFFIC_DIRECTION.check(relevanceTrafficDirection)) {
       this.relevanceTrafficDirection = relevanceTrafficDirection;
     } else {
-      logger.error("RelevanceTrafficDirection is not valid. Value={}", relevanceTrafficDirection);
       this.relevanceTrafficDirection = RelevanceTrafficDirection.defaultValue().value();
     }
 
     int validityDuration = buffer.getInt();
-    if (checkInt(ValidityDuration.class, validityDuration, "ValidityDuration")) {
+    if (VALIDITY_DURATION.check(validityDuration)) {
       this.validityDuration = validityDuration;
     } else {
       this.validityDuration = (int) net.gcdc.camdenm.CoopIts.defaultValidity.value;
     }
 
     int transmissionInterval = buffer.getInt();
-    if (checkInt(TransmissionInterval.class, transmissionInterval, "TransmissionInterval")) {
+    if (TRANSMISSION_INTERVAL.check(transmissionInterval)) {
       this.transmissionInterval = transmissionInterval;
     } else {
       this.transmissionInterval = TransmissionInterval.oneMilliSecond * 100;
     }
 
     int stationType = buffer.getInt();
-    if (checkInt(StationType.class, stationType, "StationType")) {
+    if (STATION_TYPE.check(stationType)) {
       this.stationType = stationType;
     } else {
       this.stationType = StationType.unknown;
@@ -282,49 +370,47 @@ public class SimpleDenm {
 
     this.situationMask = buffer.get();
     int informationQuality = buffer.getInt();
-    if (checkInt(InformationQuality.class, informationQuality, "InformationQuality")) {
+    if (INFORMATION_QUALITY.check(informationQuality)) {
       this.informationQuality = informationQuality;
     } else {
       this.informationQuality = InformationQuality.unavailable;
     }
 
     this.causeCode = buffer.getInt();
-    if (!checkInt(CauseCodeType.class, causeCode, "CauseCode")) {
+    if (!CAUSE_CODE.check(causeCode)) {
       throw new IllegalArgumentException();
     }
 
     this.subCauseCode = buffer.getInt();
-    if (!checkInt(SubCauseCodeType.class, subCauseCode, "SubCauseCode")) {
+    if (!SUB_CAUSE_CODE.check(subCauseCode)) {
       throw new IllegalArgumentException();
     }
 
     this.linkedCauseCode = buffer.getInt();
-    if (!checkInt(CauseCodeType.class, linkedCauseCode, "LinkedCauseCode")) {
+    if (!LINKED_CAUSE_CODE.check(linkedCauseCode)) {
       throw new IllegalArgumentException();
     }
 
     this.linkedSubCauseCode = buffer.getInt();
-    if (!checkInt(SubCauseCodeType.class, linkedSubCauseCode, "LinkedSubCauseCode")) {
+    if (!LINKED_SUB_CAUSE_CODE.check(linkedSubCauseCode)) {
       throw new IllegalArgumentException();
     }
 
     this.alacarteMask = buffer.get();
     this.lanePosition = buffer.getInt();
-    if (!checkInt(LanePosition.class, lanePosition, "LanePosition")) {
+    if (!LANE_POSITION.check(lanePosition)) {
       throw new IllegalArgumentException();
     }
 
     int temperature = buffer.getInt();
-    if (checkInt(Temperature.class, temperature, "Temperature")) {
+    if (TEMPERATURE.check(temperature)) {
       this.temperature = temperature;
     } else {
       this.temperature = 0;
     }
 
     this.positioningSolutionType = buffer.getInt();
-    if (!PositioningSolutionType.isMember(positioningSolutionType)) {
-      logger.warn(
-          "PositioningSolutionType is not valid. Value={ } else { }", positioningSolutionType);
+    if (!POSITIONING_SOLUTION_TYPE.check(positioningSolutionType)) {
       throw new IllegalArgumentException();
     }
   }
@@ -516,30 +602,9 @@ public class SimpleDenm {
     this.containerMask = containerMask;
   }
 
-  /** Return the IntRange min and max value as a nice string. */
-  String getIntRangeString(IntRange intRange) {
-    String string = "minValue=" + intRange.minValue() + ", maxValue=" + intRange.maxValue();
-    return string;
-  }
-
-  /** Return true if given value is within the IntRange, and false otherwise. */
-  boolean compareIntRange(int value, IntRange intRange) {
-    return value <= intRange.maxValue() && value >= intRange.minValue();
-  }
-
-  /** Check if an integer is within its range of allowed values. Print a warning if it isn't. */
-  public boolean checkInt(Class<?> classOfT, int value, String name) {
-    IntRange intRange = (IntRange) classOfT.getAnnotation(IntRange.class);
-    if (intRange == null) {
-      logger.error("{} does not have an IntRange!", classOfT);
-      return false;
-    }
-    if (!compareIntRange(value, intRange)) {
-      logger.warn("{} is outside of range. Value={}, {}", name, value, getIntRangeString(intRange));
-      return false;
-    } else {
-      return true;
-    }
+  /** Return the sequence number of the next DENM and advance the counter. */
+  static int nextSequenceNumber() {
+    return denmSequenceCounter.getAndIncrement();
   }
 
   /** Object hash. */
@@ -605,11 +670,11 @@ public class SimpleDenm {
   boolean isValid() {
     boolean valid = true;
 
-    if (!checkInt(StationID.class, stationId, "StationID")) {
+    if (!STATION_ID.check(stationId)) {
       valid = false;
     }
 
-    if (!checkInt(GenerationDeltaTime.class, generationDeltaTime, "GenerationDeltaTime")) {
+    if (!GENERATION_DELTA_TIME.check(generationDeltaTime)) {
       valid = false;
     }
 
@@ -619,95 +684,89 @@ public class SimpleDenm {
      * We get the true timestamps by multiplying with 65536 and
      * adding the generationDeltaTime.
      */
-    if (!checkInt(
-        TimestampIts.class, detectionTime * 65536 + generationDeltaTime, "DetectionTime")) {
+    if (!DETECTION_TIME.check(detectionTime * 65536 + generationDeltaTime)) {
       valid = false;
     }
 
-    if (!checkInt(
-        TimestampIts.class, referenceTime * 65536 + generationDeltaTime, "ReferenceTime")) {
+    if (!REFERENCE_TIME.check(referenceTime * 65536 + generationDeltaTime)) {
       valid = false;
     }
 
-    if (!Termination.isMember(termination)) {
-      logger.error("Termination is not valid. Value={}", termination);
+    if (!TERMINATION.check(termination)) {
       valid = false;
     }
-    if (!checkInt(Latitude.class, latitude, "Latitude")) {
+    if (!LATITUDE.check(latitude)) {
       valid = false;
     }
 
-    if (!checkInt(Longitude.class, longitude, "Longitude")) {
+    if (!LONGITUDE.check(longitude)) {
       valid = false;
     }
 
-    if (!checkInt(SemiAxisLength.class, semiMajorConfidence, "SemiMajorConfidence")) {
+    if (!SEMI_MAJOR_CONFIDENCE.check(semiMajorConfidence)) {
       valid = false;
     }
 
-    if (!checkInt(SemiAxisLength.class, semiMinorConfidence, "SemiMinorConfidence")) {
+    if (!SEMI_MINOR_CONFIDENCE.check(semiMinorConfidence)) {
       valid = false;
     }
 
-    if (!checkInt(HeadingValue.class, semiMajorOrientation, "SemiMajorOrientation")) {
+    if (!SEMI_MAJOR_ORIENTATION.check(semiMajorOrientation)) {
       valid = false;
     }
 
-    if (!checkInt(AltitudeValue.class, altitude, "Altitude")) {
+    if (!ALTITUDE.check(altitude)) {
       valid = false;
     }
 
-    if (!RelevanceDistance.isMember(relevanceDistance)) {
-      logger.error("RelevanceDistance is not valid. Value={}", relevanceDistance);
+    if (!RELEVANCE_DISTANCE.check(relevanceDistance)) {
       valid = false;
     }
 
-    if (!RelevanceTrafficDirection.isMember(relevanceTrafficDirection)) {
-      logger.error("RelevanceTrafficDirection is not valid. Value={}", relevanceTrafficDirection);
+    if (!RELEVANCE_TRAFFIC_DIRECTION.check(relevanceTrafficDirection)) {
       valid = false;
     }
 
-    if (!checkInt(ValidityDuration.class, validityDuration, "ValidityDuration")) {
+    if (!VALIDITY_DURATION.check(validityDuration)) {
       valid = false;
     }
 
-    if (!checkInt(TransmissionInterval.class, transmissionInterval, "TransmissionInterval")) {
+    if (!TRANSMISSION_INTERVAL.check(transmissionInterval)) {
       valid = false;
     }
 
-    if (!checkInt(StationType.class, stationType, "StationType")) {
+    if (!STATION_TYPE.check(stationType)) {
       valid = false;
     }
 
-    if (!checkInt(InformationQuality.class, informationQuality, "InformationQuality")) {
+    if (!INFORMATION_QUALITY.check(informationQuality)) {
       valid = false;
     }
 
-    if (!checkInt(CauseCodeType.class, causeCode, "CauseCode")) {
+    if (!CAUSE_CODE.check(causeCode)) {
       valid = false;
     }
 
-    if (!checkInt(SubCauseCodeType.class, subCauseCode, "SubCauseCode")) {
+    if (!SUB_CAUSE_CODE.check(subCauseCode)) {
       valid = false;
     }
 
-    if (!checkInt(CauseCodeType.class, linkedCauseCode, "LinkedCauseCode")) {
+    if (!LINKED_CAUSE_CODE.check(linkedCauseCode)) {
       valid = false;
     }
-    if (!checkInt(SubCauseCodeType.class, linkedSubCauseCode, "LinkedSubCauseCode")) {
+    if (!LINKED_SUB_CAUSE_CODE.check(linkedSubCauseCode)) {
       valid = false;
     }
 
-    if (!checkInt(LanePosition.class, lanePosition, "LanePosition")) {
+    if (!LANE_POSITION.check(lanePosition)) {
       valid = false;
     }
 
-    if (!checkInt(Temperature.class, temperature, "Temperature")) {
+    if (!TEMPERATURE.check(temperature)) {
       valid = false;
     }
 
-    if (!PositioningSolutionType.isMember(positioningSolutionType)) {
-      logger.error("PositioningSolutionType is not valid. Value={}", positioningSolutionType);
+    if (!POSITIONING_SOLUTION_TYPE.check(positioningSolutionType)) {
       valid = false;
     }
 
@@ -720,7 +779,22 @@ public class SimpleDenm {
    */
   public byte[] asByteArray() {
     byte[] packetBuffer = new byte[SIMPLE_DENM_LENGTH];
-    ByteBuffer buffer = ByteBuffer.wrap(packetBuffer);
+    writeTo(ByteBuffer.wrap(packetBuffer), 0);
+    return packetBuffer;
+  }
+
+  /**
+   * Write the simple DENM into a caller-owned buffer, starting at the given offset. Nothing is
+   * allocated, so the same buffer can be reused for every message. The position of the buffer is
+   * left right after the message.
+   *
+   * @param buffer Buffer to write the message to.
+   * @param offset Offset in the buffer of the first byte of the message.
+   * @return The number of bytes written.
+   * @exception java.nio.BufferOverflowException if the message doesn't fit in the buffer.
+   */
+  public int writeTo(ByteBuffer buffer, int offset) {
+    buffer.position(offset);
     buffer.put(messageId);
     buffer.putInt(stationId);
     buffer.putInt(generationDeltaTime);
@@ -750,7 +824,7 @@ public class SimpleDenm {
     buffer.putInt(lanePosition);
     buffer.putInt(temperature);
     buffer.putInt(positioningSolutionType);
-    return packetBuffer;
+    return SIMPLE_DENM_LENGTH;
   }
 
   /**
@@ -0,0 +1,259 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+import net.gcdc.camdenm.CoopIts.*;
+import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
+
+/**
+ *
+ *
+ * <h1>Simple DENM view</h1>
+ *
+ * <p>Flyweight view over a simple DENM held in a byte buffer. See SimpleMessageView. Unlike the
+ * SimpleDenm constructors, wrapping a message doesn't take a DENM sequence number.
+ */
+public final class SimpleDenmView extends SimpleMessageView {
+
+  /* Offsets of the fields in the simple DENM */
+  static final int GENERATION_DELTA_TIME = 5;
+  static final int CONTAINER_MASK = 9;
+  static final int MANAGEMENT_MASK = 10;
+  static final int DETECTION_TIME = 11;
+  static final int REFERENCE_TIME = 15;
+  static final int TERMINATION = 19;
+  static final int LATITUDE = 23;
+  static final int LONGITUDE = 27;
+  static final int SEMI_MAJOR_CONFIDENCE = 31;
+  static final int SEMI_MINOR_CONFIDENCE = 35;
+  static final int SEMI_MAJOR_ORIENTATION = 39;
+  static final int ALTITUDE = 43;
+  static final int RELEVANCE_DISTANCE = 47;
+  static final int RELEVANCE_TRAFFIC_DIRECTION = 51;
+  static final int VALIDITY_DURATION = 55;
+  static final int TRANSMISSION_INTERVAL = 59;
+  static final int STATION_TYPE = 63;
+  static final int SITUATION_MASK = 67;
+  static final int INFORMATION_QUALITY = 68;
+  static final int CAUSE_CODE = 72;
+  static final int SUB_CAUSE_CODE = 76;
+  static final int LINKED_CAUSE_CODE = 80;
+  static final int LINKED_SUB_CAUSE_CODE = 84;
+  static final int ALACARTE_MASK = 88;
+  static final int LANE_POSITION = 89;
+  static final int TEMPERATURE = 93;
+  static final int POSITIONING_SOLUTION_TYPE = 97;
+
+  private static final int DEFAULT_TERMINATION = (int) Termination.defaultValue().value();
+  private static final int DEFAULT_RELEVANCE_DISTANCE =
+      (int) RelevanceDistance.defaultValue().value();
+  private static final int DEFAULT_RELEVANCE_TRAFFIC_DIRECTION =
+      RelevanceTrafficDirection.defaultValue().value();
+  private static final int DEFAULT_VALIDITY_DURATION =
+      (int) net.gcdc.camdenm.CoopIts.defaultValidity.value;
+  private static final int DEFAULT_TRANSMISSION_INTERVAL =
+      TransmissionInterval.oneMilliSecond * 100;
+
+  /** SimpleDenmView constructor. The view must be wrapped around a message before it is used. */
+  public SimpleDenmView() {
+    super("DENM", SimpleDenm.SIMPLE_DENM_LENGTH, MessageId.denm);
+  }
+
+  /**
+   * Point the view at a simple DENM.
+   *
+   * @param buffer Buffer holding the message.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   * @return This view.
+   */
+  public SimpleDenmView wrap(ByteBuffer buffer, int offset, int length) {
+    set(buffer, offset, length);
+    return this;
+  }
+
+  @Override
+  int validateFields() {
+    int generationDeltaTime = getGenerationDeltaTime();
+    if (!required(SimpleDenm.STATION_ID, getStationId())
+        || !required(SimpleDenm.GENERATION_DELTA_TIME, generationDeltaTime)) {
+      return INVALID_FIELD;
+    }
+
+    /* The timestamps are sent as increments of 65536ms. See SimpleDenm. */
+    if (!required(SimpleDenm.DETECTION_TIME, getDetectionTime() * 65536 + generationDeltaTime)
+        || !required(
+            SimpleDenm.REFERENCE_TIME, getReferenceTime() * 65536 + generationDeltaTime)) {
+      return INVALID_FIELD;
+    }
+    optional(SimpleDenm.TERMINATION, getInt(TERMINATION));
+    optional(SimpleDenm.LATITUDE, getInt(LATITUDE));
+    optional(SimpleDenm.LONGITUDE, getInt(LONGITUDE));
+    optional(SimpleDenm.SEMI_MAJOR_CONFIDENCE, getInt(SEMI_MAJOR_CONFIDENCE));
+    optional(SimpleDenm.SEMI_MINOR_CONFIDENCE, getInt(SEMI_MINOR_CONFIDENCE));
+    optional(SimpleDenm.SEMI_MAJOR_ORIENTATION, getInt(SEMI_MAJOR_ORIENTATION));
+    optional(SimpleDenm.ALTITUDE, getInt(ALTITUDE));
+    optional(SimpleDenm.RELEVANCE_DISTANCE, getInt(RELEVANCE_DISTANCE));
+    optional(SimpleDenm.RELEVANCE_TRAFFIC_DIRECTION, getInt(RELEVANCE_TRAFFIC_DIRECTION));
+    optional(SimpleDenm.VALIDITY_DURATION, getInt(VALIDITY_DURATION));
+    optional(SimpleDenm.TRANSMISSION_INTERVAL, getInt(TRANSMISSION_INTERVAL));
+    optional(SimpleDenm.STATION_TYPE, getInt(STATION_TYPE));
+    optional(SimpleDenm.INFORMATION_QUALITY, getInt(INFORMATION_QUALITY));
+    if (!required(SimpleDenm.CAUSE_CODE, getCauseCode())
+        || !required(SimpleDenm.SUB_CAUSE_CODE, getSubCauseCode())
+        || !required(SimpleDenm.LINKED_CAUSE_CODE, getLinkedCauseCode())
+        || !required(SimpleDenm.LINKED_SUB_CAUSE_CODE, getLinkedSubCauseCode())
+        || !required(SimpleDenm.LANE_POSITION, getLanePosition())) {
+      return INVALID_FIELD;
+    }
+    optional(SimpleDenm.TEMPERATURE, getInt(TEMPERATURE));
+    if (!required(SimpleDenm.POSITIONING_SOLUTION_TYPE, getPositioningSolutionType())) {
+      return INVALID_FIELD;
+    }
+    return VALID;
+  }
+
+  public int getGenerationDeltaTime() {
+    return getInt(GENERATION_DELTA_TIME);
+  }
+
+  public byte getContainerMask() {
+    return getByte(CONTAINER_MASK);
+  }
+
+  public byte getManagementMask() {
+    return getByte(MANAGEMENT_MASK);
+  }
+
+  /** Return the detection time as a number of increments of 65536ms. */
+  public int getDetectionTime() {
+    return getInt(DETECTION_TIME);
+  }
+
+  /** Return the reference time as a number of increments of 65536ms. */
+  public int getReferenceTime() {
+    return getInt(REFERENCE_TIME);
+  }
+
+  public int getTermination() {
+    return orDefault(SimpleDenm.TERMINATION, getInt(TERMINATION), DEFAULT_TERMINATION);
+  }
+
+  public int getLatitude() {
+    return orDefault(SimpleDenm.LATITUDE, getInt(LATITUDE), Latitude.unavailable);
+  }
+
+  public int getLongitude() {
+    return orDefault(SimpleDenm.LONGITUDE, getInt(LONGITUDE), Longitude.unavailable);
+  }
+
+  public int getSemiMajorConfidence() {
+    return orDefault(
+        SimpleDenm.SEMI_MAJOR_CONFIDENCE,
+        getInt(SEMI_MAJOR_CONFIDENCE),
+        SemiAxisLength.unavailable);
+  }
+
+  public int getSemiMinorConfidence() {
+    return orDefault(
+        SimpleDenm.SEMI_MINOR_CONFIDENCE,
+        getInt(SEMI_MINOR_CONFIDENCE),
+        SemiAxisLength.unavailable);
+  }
+
+  public int getSemiMajorOrientation() {
+    return orDefault(
+        SimpleDenm.SEMI_MAJOR_ORIENTATION,
+        getInt(SEMI_MAJOR_ORIENTATION),
+        HeadingValue.unavailable);
+  }
+
+  public int getAltitude() {
+    return orDefault(SimpleDenm.ALTITUDE, getInt(ALTITUDE), AltitudeValue.unavailable);
+  }
+
+  public int getRelevanceDistance() {
+    return orDefault(
+        SimpleDenm.RELEVANCE_DISTANCE, getInt(RELEVANCE_DISTANCE), DEFAULT_RELEVANCE_DISTANCE);
+  }
+
+  public int getRelevanceTrafficDirection() {
+    return orDefault(
+        SimpleDenm.RELEVANCE_TRAFFIC_DIRECTION,
+        getInt(RELEVANCE_TRAFFIC_DIRECTION),
+        DEFAULT_RELEVANCE_TRAFFIC_DIRECTION);
+  }
+
+  public int getValidityDuration() {
+    return orDefault(
+        SimpleDenm.VALIDITY_DURATION, getInt(VALIDITY_DURATION), DEFAULT_VALIDITY_DURATION);
+  }
+
+  public int getTransmissionInterval() {
+    return orDefault(
+        SimpleDenm.TRANSMISSION_INTERVAL,
+        getInt(TRANSMISSION_INTERVAL),
+        DEFAULT_TRANSMISSION_INTERVAL);
+  }
+
+  public int getStationType() {
+    return orDefault(SimpleDenm.STATION_TYPE, getInt(STATION_TYPE), StationType.unknown);
+  }
+
+  public byte getSituationMask() {
+    return getByte(SITUATION_MASK);
+  }
+
+  public int getInformationQuality() {
+    return orDefault(
+        SimpleDenm.INFORMATION_QUALITY,
+        getInt(INFORMATION_QUALITY),
+        InformationQuality.unavailable);
+  }
+
+  public int getCauseCode() {
+    return getInt(CAUSE_CODE);
+  }
+
+  public int getSubCauseCode() {
+    return getInt(SUB_CAUSE_CODE);
+  }
+
+  public int getLinkedCauseCode() {
+    return getInt(LINKED_CAUSE_CODE);
+  }
+
+  public int getLinkedSubCauseCode() {
+    return getInt(LINKED_SUB_CAUSE_CODE);
+  }
+
+  public byte getAlacarteMask() {
+    return getByte(ALACARTE_MASK);
+  }
+
+  public int getLanePosition() {
+    return getInt(LANE_POSITION);
+  }
+
+  public int getTemperature() {
+    return orDefault(SimpleDenm.TEMPERATURE, getInt(TEMPERATURE), 0);
+  }
+
+  public int getPositioningSolutionType() {
+    return getInt(POSITIONING_SOLUTION_TYPE);
+  }
+}
@@ -0,0 +1,139 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+import net.gcdc.camdenm.CoopIts.*;
+
+/**
+ *
+ *
+ * <h1>Simple ego state view</h1>
+ *
+ * <p>Flyweight view over a simple ego state record held in a byte buffer. See SimpleMessageView.
+ *
+ * <p>The ego state is a compact record of the dynamic state of the vehicle that the control system
+ * can stream at a high rate instead of sending full simple CAMs. The router then generates CAMs
+ * from it, see CamGenerator. Every field is a 32 bit big-endian integer, encoded the same way as
+ * the field of the same name in the simple CAM:
+ *
+ * <pre>
+ * Offset Field
+ *  0     Message ID (1 byte, always 11)
+ *  1     Station ID
+ *  5     Generation delta time
+ *  9     Latitude
+ * 13     Longitude
+ * 17     Altitude
+ * 21     Heading
+ * 25     Speed
+ * 29     Longitudinal acceleration
+ * 33     Yaw rate
+ * </pre>
+ */
+public final class SimpleEgoStateView extends SimpleMessageView {
+
+  /** Message ID of the simple ego state. */
+  public static final byte MESSAGE_ID = 11;
+
+  /** Length in bytes of the simple ego state. */
+  public static final int SIMPLE_EGO_STATE_LENGTH = 37;
+
+  /* Offsets of the fields in the simple ego state */
+  private static final int GENERATION_DELTA_TIME = 5;
+  private static final int LATITUDE = 9;
+  private static final int LONGITUDE = 13;
+  private static final int ALTITUDE = 17;
+  private static final int HEADING = 21;
+  private static final int SPEED = 25;
+  private static final int LONGITUDINAL_ACCELERATION = 29;
+  private static final int YAW_RATE = 33;
+
+  /**
+   * SimpleEgoStateView constructor. The view must be wrapped around a message before it is used.
+   */
+  public SimpleEgoStateView() {
+    super("ego state", SIMPLE_EGO_STATE_LENGTH, MESSAGE_ID);
+  }
+
+  /**
+   * Point the view at a simple ego state.
+   *
+   * @param buffer Buffer holding the message.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   * @return This view.
+   */
+  public SimpleEgoStateView wrap(ByteBuffer buffer, int offset, int length) {
+    set(buffer, offset, length);
+    return this;
+  }
+
+  /* The fields are checked against the validators of the simple CAM,
+   * as they end up in one. */
+  @Override
+  int validateFields() {
+    if (!required(SimpleCam.STATION_ID, getStationId())) {
+      return INVALID_FIELD;
+    }
+    if (!required(SimpleCam.GENERATION_DELTA_TIME, getGenerationDeltaTime())) {
+      return INVALID_FIELD;
+    }
+    optional(SimpleCam.LATITUDE, getInt(LATITUDE));
+    optional(SimpleCam.LONGITUDE, getInt(LONGITUDE));
+    optional(SimpleCam.ALTITUDE, getInt(ALTITUDE));
+    optional(SimpleCam.HEADING, getInt(HEADING));
+    optional(SimpleCam.SPEED, getInt(SPEED));
+    optional(SimpleCam.LONGITUDINAL_ACCELERATION, getInt(LONGITUDINAL_ACCELERATION));
+    optional(SimpleCam.YAW_RATE, getInt(YAW_RATE));
+    return VALID;
+  }
+
+  public int getGenerationDeltaTime() {
+    return getInt(GENERATION_DELTA_TIME);
+  }
+
+  public int getLatitude() {
+    return orDefault(SimpleCam.LATITUDE, getInt(LATITUDE), Latitude.unavailable);
+  }
+
+  public int getLongitude() {
+    return orDefault(SimpleCam.LONGITUDE, getInt(LONGITUDE), Longitude.unavailable);
+  }
+
+  public int getAltitude() {
+    return orDefault(SimpleCam.ALTITUDE, getInt(ALTITUDE), AltitudeValue.unavailable);
+  }
+
+  public int getHeading() {
+    return orDefault(SimpleCam.HEADING, getInt(HEADING), HeadingValue.unavailable);
+  }
+
+  public int getSpeed() {
+    return orDefault(SimpleCam.SPEED, getInt(SPEED), SpeedValue.unavailable);
+  }
+
+  public int getLongitudinalAcceleration() {
+    return orDefault(
+        SimpleCam.LONGITUDINAL_ACCELERATION,
+        getInt(LONGITUDINAL_ACCELERATION),
+        LongitudinalAccelerationValue.unavailable);
+  }
+
+  public int getYawRate() {
+    return orDefault(SimpleCam.YAW_RATE, getInt(YAW_RATE), YawRateValue.unavailable);
+  }
+}
@@ -16,7 +16,9 @@
 package com.rendits.router;
 
 import java.nio.ByteBuffer;
-import net.gcdc.asn1.datatypes.IntRange;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import net.gcdc.camdenm.CoopIts.*;
 import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
 import net.gcdc.camdenm.CoopIts.ItsPduHeader.ProtocolVersion;
@@ -38,7 +40,97 @@ import org.slf4j.LoggerFactory;
  */
 public class SimpleIclcm {
   private static final Logger logger = LoggerFactory.getLogger(Router.class);
-  private static final int SIMPLE_iCLCM_LENGTH = 111;
+  static final int SIMPLE_iCLCM_LENGTH = 111;
+
+  /* Validators of the fields, see FieldValidator */
+  static final FieldValidator STATION_ID =
+      FieldValidator.ofRange("iCLCM", "StationID", Range.STATION_ID);
+  static final FieldValidator REAR_AXLE_LOCATION =
+      FieldValidator.ofRange("iCLCM", "RearAxleLocation", Range.REAR_AXLE_LOCATION);
+  static final FieldValidator CONTROLLER_TYPE =
+      FieldValidator.ofRange("iCLCM", "ControllerType", Range.CONTROLLER_TYPE);
+  static final FieldValidator RESPONSE_TIME_CONSTANT =
+      FieldValidator.ofRange("iCLCM", "ResponseTimeConstant", Range.RESPONSE_TIME_CONSTANT);
+  static final FieldValidator RESPONSE_TIME_DELAY =
+      FieldValidator.ofRange("iCLCM", "ResponseTimeDelay", Range.RESPONSE_TIME_DELAY);
+  static final FieldValidator TARGET_LONGITUDINAL_ACCELERATION =
+      FieldValidator.ofRange(
+          "iCLCM", "TargetLongitudinalAcceleration", Range.TARGET_LONGITUDINAL_ACCELERATION);
+  static final FieldValidator TIME_HEADWAY =
+      FieldValidator.ofRange("iCLCM", "TimeHeadway", Range.TIME_HEADWAY);
+  static final FieldValidator CRUISE_SPEED =
+      FieldValidator.ofRange("iCLCM", "CruiseSpeed", Range.CRUISE_SPEED);
+  static final FieldValidator PARTICIPANTS_READY =
+      FieldValidator.ofRange("iCLCM", "ParticipantsReady", Range.PARTICIPANTS_READY);
+  static final FieldValidator START_PLATOON =
+      FieldValidator.ofRange("iCLCM", "StartPlatoon", Range.START_PLATOON);
+  static final FieldValidator END_OF_SCENARIO =
+      FieldValidator.ofRange("iCLCM", "EndOfScenario", Range.END_OF_SCENARIO);
+  static final FieldValidator MIO_ID = FieldValidator.ofRange("iCLCM", "MioID", Range.STATION_ID);
+  static final FieldValidator MIO_RANGE =
+      FieldValidator.ofRange("iCLCM", "MioRange", Range.MIO_RANGE);
+  static final FieldValidator MIO_BEARING =
+      FieldValidator.ofRange("iCLCM", "MioBearing", Range.MIO_BEARING);
+  static final FieldValidator MIO_RANGE_RATE =
+      FieldValidator.ofRange("iCLCM", "MioRangeRate", Range.MIO_RANGE_RATE);
+  static final FieldValidator LANE = FieldValidator.ofRange("iCLCM", "Lane", Range.LANE);
+  static final FieldValidator FORWARD_ID =
+      FieldValidator.ofRange("iCLCM", "ForwardID", Range.STATION_ID);
+  static final FieldValidator BACKWARD_ID =
+      FieldValidator.ofRange("iCLCM", "BackwardID", Range.STATION_ID);
+  static final FieldValidator MERGE_REQUEST =
+      FieldValidator.ofRange("iCLCM", "MergeRequest", Range.MERGE_REQUEST);
+  static final FieldValidator MERGE_SAFE_TO_MERGE =
+      FieldValidator.ofRange("iCLCM", "MergeSafeToMerge", Range.MERGE_SAFE_TO_MERGE);
+  static final FieldValidator MERGE_FLAG =
+      FieldValidator.ofRange("iCLCM", "MergeFlag", Range.MERGE_FLAG);
+  static final FieldValidator MERGE_FLAG_TAIL =
+      FieldValidator.ofRange("iCLCM", "MergeFlagTail", Range.MERGE_FLAG_TAIL);
+  static final FieldValidator MERGE_FLAG_HEAD =
+      FieldValidator.ofRange("iCLCM", "MergeFlagHead", Range.MERGE_FLAG_HEAD);
+  static final FieldValidator PLATOON_ID =
+      FieldValidator.ofRange("iCLCM", "PlatoonID", Range.PLATOON_ID);
+  static final FieldValidator DISTANCE_TRAVELLED_CZ =
+      FieldValidator.ofRange("iCLCM", "DistanceTravelledCz", Range.DISTANCE_TRAVELLED_CZ);
+  static final FieldValidator INTENTION =
+      FieldValidator.ofRange("iCLCM", "Intention", Range.INTENTION);
+  static final FieldValidator COUNTER = FieldValidator.ofRange("iCLCM", "Counter", Range.COUNTER);
+
+  private static final List<FieldValidator> VALIDATORS =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              STATION_ID,
+              REAR_AXLE_LOCATION,
+              CONTROLLER_TYPE,
+              RESPONSE_TIME_CONSTANT,
+              RESPONSE_TIME_DELAY,
+              TARGET_LONGITUDINAL_ACCELERATION,
+              TIME_HEADWAY,
+              CRUISE_SPEED,
+              PARTICIPANTS_READY,
+              START_PLATOON,
+              END_OF_SCENARIO,
+              MIO_ID,
+              MIO_RANGE,
+              MIO_BEARING,
+              MIO_RANGE_RATE,
+              LANE,
+              FORWARD_ID,
+              BACKWARD_ID,
+              MERGE_REQUEST,
+              MERGE_SAFE_TO_MERGE,
+              MERGE_FLAG,
+              MERGE_FLAG_TAIL,
+              MERGE_FLAG_HEAD,
+              PLATOON_ID,
+              DISTANCE_TRAVELLED_CZ,
+              INTENTION,
+              COUNTER));
+
+  /** Return the validators of every field of the message. */
+  static List<FieldValidator> validators() {
+    return VALIDATORS;
+  }
 
   final byte messageId;
   final int stationId;
@@ -163,17 +255,26 @@ public class SimpleIclcm {
    * @param receivedData Byte buffer representation of the message.
    */
   public SimpleIclcm(byte[] receivedData) {
-    if (receivedData.length < SIMPLE_iCLCM_LENGTH) {
-      logger.error(
-          "Simple iCLCM is too short. Is: {} Should be: {}",
-          receivedData.length,
-          SIMPLE_iCLCM_LENGTH);
+    this(ByteBuffer.wrap(receivedData), 0, receivedData.length);
+  }
+
+  /**
+   * Create a simple iCLCM straight from a byte buffer, without copying the message out of it first.
+   * Reading starts at the given offset and moves the position of the buffer.
+   *
+   * @param buffer Buffer holding the message.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   */
+  public SimpleIclcm(ByteBuffer buffer, int offset, int length) {
+    if (length < SIMPLE_iCLCM_LENGTH) {
+      logger.error("Simple iCLCM is too short. Is: {} Should be: {}", length, SIMPLE_iCLCM_LENGTH);
       throw new IllegalArgumentException();
     }
 
     /* Assign values, checking if they are valid. Invalid values
     are replaced with default values if possible. */
-    ByteBuffer buffer = ByteBuffer.wrap(receivedData);
+    buffer.position(offset);
     this.messageId = buffer.get();
     if (messageId != Iclcm.MessageID_iCLCM) {
       logger.error("MessageID is: {} Should be: {}", messageId, Iclcm.MessageID_iCLCM);
@@ -181,7 +282,7 @@ public class SimpleIclcm {
     }
 
     this.stationId = buffer.getInt();
-    if (!checkInt(StationID.class, stationId, "StationID")) {
+    if (!STATION_ID.check(stationId)) {
       throw new IllegalArgumentException();
     }
 
@@ -189,46 +290,45 @@ public class SimpleIclcm {
 
     //HW Container
     this.rearAxleLocation = buffer.getInt();
-    if (!checkInt(VehicleRearAxleLocation.class, rearAxleLocation, "RearAxleLocation")) {
+    if (!REAR_AXLE_LOCATION.check(rearAxleLocation)) {
       throw new IllegalArgumentException();
     }
 
     this.controllerType = buffer.getInt();
-    if (!checkInt(ControllerType.class, controllerType, "ControllerType")) {
+    if (!CONTROLLER_TYPE.check(controllerType)) {
       throw new IllegalArgumentException();
     }
 
     int responseTimeConstant = buffer.getInt();
-    if (checkInt(VehicleResponseTimeConstant.class, responseTimeConstant, "ResponseTimeConstant")) {
+    if (RESPONSE_TIME_CONSTANT.check(responseTimeConstant)) {
       this.responseTimeConstant = responseTimeConstant;
     } else {
       this.responseTimeConstant = VehicleResponseTimeConstant.unavailable;
     }
 
     int responseTimeDelay = buffer.getInt();
-    if (checkInt(VehicleResponseTimeDelay.class, responseTimeDelay, "ResponseTimeDelay")) {
+    if (RESPONSE_TIME_DELAY.check(responseTimeDelay)) {
       this.responseTimeDelay = responseTimeDelay;
     } else {
       this.responseTimeDelay = VehicleResponseTimeDelay.unavailable;
     }
 
     int targetLongAcc = buffer.getInt();
-    if (checkInt(
-        TargetLongitudonalAcceleration.class, targetLongAcc, "TargetLongitudinalAcceleration")) {
+    if (TARGET_LONGITUDINAL_ACCELERATION.check(targetLongAcc)) {
       this.targetLongAcc = targetLongAcc;
     } else {
       this.targetLongAcc = TargetLongitudonalAcceleration.unavailable;
     }
 
     int timeHeadway = buffer.getInt();
-    if (checkInt(TimeHeadway.class, timeHeadway, "TimeHeadway")) {
+    if (TIME_HEADWAY.check(timeHeadway)) {
       this.timeHeadway = timeHeadway;
     } else {
       this.timeHeadway = TimeHeadway.unavailable;
     }
 
     int cruiseSpeed = buffer.getInt();
-    if (checkInt(CruiseSpeed.class, cruiseSpeed, "CruiseSpeed")) {
+    if (CRUISE_SPEED.check(cruiseSpeed)) {
       this.cruiseSpeed = cruiseSpeed;
     } else {
       this.cruiseSpeed = CruiseSpeed.unavailable;
@@ -241,19 +341,19 @@ public class SimpleIclcm {
     this.endOfScenario = buffer.getInt();
     if (this.hasLowFrequencyContainer()) {
       if (this.hasParticipantsReady()) {
-        if (!checkInt(ParticipantsReady.class, participantsReady, "ParticipantsReady")) {
+        if (!PARTICIPANTS_READY.check(participantsReady)) {
           throw new IllegalArgumentException();
         }
       }
 
       if (this.hasStartPlatoon()) {
-        if (!checkInt(StartPlatoon.class, startPlatoon, "StartPlatoon")) {
+        if (!START_PLATOON.check(startPlatoon)) {
           throw new IllegalArgumentException();
         }
       }
 
       if (this.hasEndOfScenario()) {
-        if (!checkInt(EndOfScenario.class, endOfScenario, "EndOfScenario")) {
+        if (!END_OF_SCENARIO.check(endOfScenario)) {
           throw new IllegalArgumentException();
         }
       }
@@ -261,26 +361,26 @@ public class SimpleIclcm {
 
     //MIO Container
     mioId = buffer.getInt();
-    if (!checkInt(StationID.class, mioId, "MioID")) {
+    if (!MIO_ID.check(mioId)) {
       throw new IllegalArgumentException();
     }
 
     int mioRange = buffer.getInt();
-    if (checkInt(MioRange.class, mioRange, "MioRange")) {
+    if (MIO_RANGE.check(mioRange)) {
       this.mioRange = mioRange;
     } else {
       this.mioRange = MioRange.unavailable;
     }
 
     int mioBearing = buffer.getInt();
-    if (checkInt(MioBearing.class, mioBearing, "MioBearing")) {
+    if (MIO_BEARING.check(mioBearing)) {
       this.mioBearing = mioBearing;
     } else {
       this.mioBearing = MioBearing.unavailable;
     }
 
     int mioRangeRate = buffer.getInt();
-    if (checkInt(MioRangeRate.class, mioRangeRate, "MioRangeRate")) {
+    if (MIO_RANGE_RATE.check(mioRangeRate)) {
       this.mioRangeRate = mioRangeRate;
     } else {
       this.mioRangeRate = MioRangeRate.unavailable;
@@ -288,7 +388,7 @@ public class SimpleIclcm {
 
     //Lane container
     int lane = buffer.getInt();
-    if (checkInt(Lane.class, lane, "Lane")) {
+    if (LANE.check(lane)) {
       this.lane = lane;
     } else {
       this.lane = Lane.unavailable;
@@ -296,61 +396,61 @@ public class SimpleIclcm {
 
     //Pair ID container
     this.forwardId = buffer.getInt();
-    if (!checkInt(StationID.class, forwardId, "ForwardID")) {
+    if (!FORWARD_ID.check(forwardId)) {
       throw new IllegalArgumentException();
     }
 
     this.backwardId = buffer.getInt();
-    if (!checkInt(StationID.class, backwardId, "BackwardID")) {
+    if (!BACKWARD_ID.check(backwardId)) {
       throw new IllegalArgumentException();
     }
 
     //Merge container
     this.mergeRequest = buffer.getInt();
-    if (!checkInt(MergeRequest.class, mergeRequest, "MergeRequest")) {
+    if (!MERGE_REQUEST.check(mergeRequest)) {
       throw new IllegalArgumentException();
     }
 
     this.mergeSafeToMerge = buffer.getInt();
-    if (!checkInt(MergeSafeToMerge.class, mergeSafeToMerge, "MergeSafeToMerge")) {
+    if (!MERGE_SAFE_TO_MERGE.check(mergeSafeToMerge)) {
       throw new IllegalArgumentException();
     }
 
     this.mergeFlag = buffer.getInt();
-    if (!checkInt(MergeFlag.class, mergeFlag, "MergeFlag")) {
+    if (!MERGE_FLAG.check(mergeFlag)) {
       throw new IllegalArgumentException();
     }
 
     this.mergeFlagTail = buffer.getInt();
-    if (!checkInt(MergeFlagTail.class, mergeFlagTail, "MergeFLagTail")) {
+    if (!MERGE_FLAG_TAIL.check(mergeFlagTail)) {
       throw new IllegalArgumentException();
     }
 
     this.mergeFlagHead = buffer.getInt();
-    if (!checkInt(MergeFlagHead.class, mergeFlagHead, "MergeFlagHead")) {
+    if (!MERGE_FLAG_HEAD.check(mergeFlagHead)) {
       throw new IllegalArgumentException();
     }
 
     //Intersection Container
     this.platoonId = buffer.getInt();
-    if (!checkInt(PlatoonID.class, platoonId, "PlatoonID")) {
+    if (!PLATOON_ID.check(platoonId)) {
       throw new IllegalArgumentException();
     }
 
     int distanceTravelledCz = buffer.getInt();
-    if (checkInt(DistanceTravelledCZ.class, distanceTravelledCz, "DistanceTravelledCz")) {
+    if (DISTANCE_TRAVELLED_CZ.check(distanceTravelledCz)) {
       this.distanceTravelledCz = distanceTravelledCz;
     } else {
       this.distanceTravelledCz = 0;
     }
 
     this.intention = buffer.getInt();
-    if (!checkInt(Intention.class, intention, "Intention")) {
+    if (!INTENTION.check(intention)) {
       throw new IllegalArgumentException();
     }
 
     int counter = buffer.getInt();
-    if (checkInt(Counter.class, counter, "Counter")) {
+    if (COUNTER.check(counter)) {
       this.counter = counter;
     } else {
       this.counter = 0;
@@ -486,32 +586,6 @@ public class SimpleIclcm {
     return (lowFrequencyMask & (1 << 5)) != 0;
   }
 
-  /** Return the IntRange min and max value as a nice string. */
-  String getIntRangeString(IntRange intRange) {
-    String string = "minValue=" + intRange.minValue() + ", maxValue=" + intRange.maxValue();
-    return string;
-  }
-
-  /** Return true if given value is within the IntRange, and false otherwise. */
-  boolean compareIntRange(int value, IntRange intRange) {
-    return value <= intRange.maxValue() && value >= intRange.minValue();
-  }
-
-  /** Check if an integer is within its range of allowed values. Print a warning if it isn't. */
-  public boolean checkInt(Class<?> classOfT, int value, String name) {
-    IntRange intRange = (IntRange) classOfT.getAnnotation(IntRange.class);
-    if (intRange == null) {
-      logger.error("{} does not have an IntRange!", classOfT);
-      return false;
-    }
-    if (!compareIntRange(value, intRange)) {
-      logger.warn("{} is outside of range. Value={}, {}", name, value, getIntRangeString(intRange));
-      return false;
-    } else {
-      return true;
-    }
-  }
-
   /** Object hash. */
   @Override
   public int hashCode() {
@@ -576,112 +650,110 @@ public class SimpleIclcm {
   boolean isValid() {
     boolean valid = true;
 
-    if (!checkInt(StationID.class, stationId, "StationID")) {
+    if (!STATION_ID.check(stationId)) {
       valid = false;
     }
 
-    if (!checkInt(VehicleRearAxleLocation.class, rearAxleLocation, "RearAxleLocation")) {
+    if (!REAR_AXLE_LOCATION.check(rearAxleLocation)) {
       valid = false;
     }
 
-    if (!checkInt(ControllerType.class, controllerType, "ControllerType")) {
+    if (!CONTROLLER_TYPE.check(controllerType)) {
       valid = false;
     }
 
-    if (!checkInt(
-        VehicleResponseTimeConstant.class, responseTimeConstant, "ResponseTimeConstant")) {
+    if (!RESPONSE_TIME_CONSTANT.check(responseTimeConstant)) {
       valid = false;
     }
 
-    if (!checkInt(VehicleResponseTimeDelay.class, responseTimeDelay, "ResponseTimeDelay")) {
+    if (!RESPONSE_TIME_DELAY.check(responseTimeDelay)) {
       valid = false;
     }
 
-    if (!checkInt(
-        TargetLongitudonalAcceleration.class, targetLongAcc, "TargetLongitudinalAcceleration")) {
+    if (!TARGET_LONGITUDINAL_ACCELERATION.check(targetLongAcc)) {
       valid = false;
     }
 
-    if (!checkInt(TimeHeadway.class, timeHeadway, "TimeHeadway")) {
+    if (!TIME_HEADWAY.check(timeHeadway)) {
       valid = false;
     }
 
-    if (!checkInt(CruiseSpeed.class, cruiseSpeed, "CruiseSpeed")) {
+    if (!CRUISE_SPEED.check(cruiseSpeed)) {
       valid = false;
     }
 
-    if (!checkInt(ParticipantsReady.class, participantsReady, "ParticipantsReady")) {
+    if (!PARTICIPANTS_READY.check(participantsReady)) {
       valid = false;
     }
 
-    if (!checkInt(StartPlatoon.class, startPlatoon, "StartPlatoon")) {
+    if (!START_PLATOON.check(startPlatoon)) {
       valid = false;
     }
 
-    if (!checkInt(EndOfScenario.class, endOfScenario, "EndOfScenario")) {
+    if (!END_OF_SCENARIO.check(endOfScenario)) {
       valid = false;
     }
-    if (!checkInt(StationID.class, mioId, "MioID")) {
+    if (!MIO_ID.check(mioId)) {
       valid = false;
     }
 
-    if (!checkInt(MioRange.class, mioRange, "MioRange")) {
+    if (!MIO_RANGE.check(mioRange)) {
       valid = false;
     }
 
-    if (!checkInt(MioBearing.class, mioBearing, "MioBearing")) {
+    if (!MIO_BEARING.check(mioBearing)) {
       valid = false;
     }
 
-    if (!checkInt(MioRangeRate.class, mioRangeRate, "MioRangeRate")) {
+    if (!MIO_RANGE_RATE.check(mioRangeRate)) {
       valid = false;
     }
 
-    if (!checkInt(Lane.class, lane, "Lane")) {
+    if (!LANE.check(lane)) {
       valid = false;
     }
 
-    if (!checkInt(StationID.class, forwardId, "ForwardID")) {
+    if (!FORWARD_ID.check(forwardId)) {
       valid = false;
     }
 
-    if (!checkInt(StationID.class, backwardId, "BackwardID")) {
+    if (!BACKWARD_ID.check(backwardId)) {
       valid = false;
     }
 
-    if (!checkInt(MergeRequest.class, mergeRequest, "MergeRequest")) {
+    if (!MERGE_REQUEST.check(mergeRequest)) {
       valid = false;
     }
 
-    if (!checkInt(MergeSafeToMerge.class, mergeSafeToMerge, "MergeSafeToMerge")) {
+    if (!MERGE_SAFE_TO_MERGE.check(mergeSafeToMerge)) {
       valid = false;
     }
 
-    if (!checkInt(MergeFlag.class, mergeFlag, "MergeFlag")) {
+    if (!MERGE_FLAG.check(mergeFlag)) {
       valid = false;
     }
 
-    if (!checkInt(MergeFlagTail.class, mergeFlagTail, "MergeFLagTail")) {
+    if (!MERGE_FLAG_TAIL.check(mergeFlagTail)) {
       valid = false;
     }
 
-    if (!checkInt(MergeFlagHead.class, mergeFlagHead, "MergeFlagHead")) {
+    if (!MERGE_FLAG_HEAD.check(mergeFlagHead)) {
       valid = false;
     }
 
-    if (!checkInt(PlatoonID.class, platoonId, "PlatoonID")) {
+    if (!PLATOON_ID.check(platoonId)) {
       valid = false;
     }
 
-    if (!checkInt(DistanceTravelledCZ.class, distanceTravelledCz, "DistanceTravelledCz")) {
+    if (!DISTANCE_TRAVELLED_CZ.check(distanceTravelledCz)) {
       valid = false;
     }
 
-    if (!checkInt(Intention.class, intention, "Intention")) {
+    if (!INTENTION.check(intention)) {
       valid = false;
     }
 
-    if (!checkInt(Counter.class, counter, "Counter")) {
+    if (!COUNTER.check(counter)) {
       valid = false;
     }
     return valid;
@@ -693,7 +765,22 @@ public class SimpleIclcm {
    */
   public byte[] asByteArray() {
     byte[] packetBuffer = new byte[SIMPLE_iCLCM_LENGTH];
-    ByteBuffer buffer = ByteBuffer.wrap(packetBuffer);
+    writeTo(ByteBuffer.wrap(packetBuffer), 0);
+    return packetBuffer;
+  }
+
+  /**
+   * Write the simple iCLCM into a caller-owned buffer, starting at the given offset. Nothing is
+   * allocated, so the same buffer can be reused for every message. The position of the buffer is
+   * left right after the message.
+   *
+   * @param buffer Buffer to write the message to.
+   * @param offset Offset in the buffer of the first byte of the message.
+   * @return The number of bytes written.
+   * @exception java.nio.BufferOverflowException if the message doesn't fit in the buffer.
+   */
+  public int writeTo(ByteBuffer buffer, int offset) {
+    buffer.position(offset);
     buffer.put(messageId);
     buffer.putInt(stationId);
     buffer.put(containerMask);
@@ -731,7 +818,7 @@ public class SimpleIclcm {
     buffer.putInt(distanceTravelledCz);
     buffer.putInt(intention);
     buffer.putInt(counter);
-    return packetBuffer;
+    return SIMPLE_iCLCM_LENGTH;
   }
 
   /**
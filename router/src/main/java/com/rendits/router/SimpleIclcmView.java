@@ -0,0 +1,270 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+import net.gcdc.camdenm.Iclcm;
+import net.gcdc.camdenm.Iclcm.*;
+
+/**
+ *
+ *
+ * <h1>Simple iCLCM view</h1>
+ *
+ * <p>Flyweight view over a simple iCLCM held in a byte buffer. See SimpleMessageView.
+ */
+public final class SimpleIclcmView extends SimpleMessageView {
+
+  /* Offsets of the fields in the simple iCLCM */
+  private static final int CONTAINER_MASK = 5;
+  private static final int REAR_AXLE_LOCATION = 6;
+  private static final int CONTROLLER_TYPE = 10;
+  private static final int RESPONSE_TIME_CONSTANT = 14;
+  private static final int RESPONSE_TIME_DELAY = 18;
+  private static final int TARGET_LONGITUDINAL_ACCELERATION = 22;
+  private static final int TIME_HEADWAY = 26;
+  private static final int CRUISE_SPEED = 30;
+  private static final int LOW_FREQUENCY_MASK = 34;
+  private static final int PARTICIPANTS_READY = 35;
+  private static final int START_PLATOON = 39;
+  private static final int END_OF_SCENARIO = 43;
+  private static final int MIO_ID = 47;
+  private static final int MIO_RANGE = 51;
+  private static final int MIO_BEARING = 55;
+  private static final int MIO_RANGE_RATE = 59;
+  private static final int LANE = 63;
+  private static final int FORWARD_ID = 67;
+  private static final int BACKWARD_ID = 71;
+  private static final int MERGE_REQUEST = 75;
+  private static final int MERGE_SAFE_TO_MERGE = 79;
+  private static final int MERGE_FLAG = 83;
+  private static final int MERGE_FLAG_TAIL = 87;
+  private static final int MERGE_FLAG_HEAD = 91;
+  private static final int PLATOON_ID = 95;
+  private static final int DISTANCE_TRAVELLED_CZ = 99;
+  private static final int INTENTION = 103;
+  private static final int COUNTER = 107;
+
+  /** SimpleIclcmView constructor. The view must be wrapped around a message before it is used. */
+  public SimpleIclcmView() {
+    super("iCLCM", SimpleIclcm.SIMPLE_iCLCM_LENGTH, Iclcm.MessageID_iCLCM);
+  }
+
+  /**
+   * Point the view at a simple iCLCM.
+   *
+   * @param buffer Buffer holding the message.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   * @return This view.
+   */
+  public SimpleIclcmView wrap(ByteBuffer buffer, int offset, int length) {
+    set(buffer, offset, length);
+    return this;
+  }
+
+  @Override
+  int validateFields() {
+    if (!required(SimpleIclcm.STATION_ID, getStationId())
+        || !required(SimpleIclcm.REAR_AXLE_LOCATION, getRearAxleLocation())
+        || !required(SimpleIclcm.CONTROLLER_TYPE, getControllerType())) {
+      return INVALID_FIELD;
+    }
+    optional(SimpleIclcm.RESPONSE_TIME_CONSTANT, getInt(RESPONSE_TIME_CONSTANT));
+    optional(SimpleIclcm.RESPONSE_TIME_DELAY, getInt(RESPONSE_TIME_DELAY));
+    optional(
+        SimpleIclcm.TARGET_LONGITUDINAL_ACCELERATION,
+        getInt(TARGET_LONGITUDINAL_ACCELERATION));
+    optional(SimpleIclcm.TIME_HEADWAY, getInt(TIME_HEADWAY));
+    optional(SimpleIclcm.CRUISE_SPEED, getInt(CRUISE_SPEED));
+    if (hasLowFrequencyContainer()) {
+      if (hasParticipantsReady()
+          && !required(SimpleIclcm.PARTICIPANTS_READY, getParticipantsReady())) {
+        return INVALID_FIELD;
+      }
+      if (hasStartPlatoon() && !required(SimpleIclcm.START_PLATOON, getStartPlatoon())) {
+        return INVALID_FIELD;
+      }
+      if (hasEndOfScenario() && !required(SimpleIclcm.END_OF_SCENARIO, getEndOfScenario())) {
+        return INVALID_FIELD;
+      }
+    }
+    if (!required(SimpleIclcm.MIO_ID, getMioId())) {
+      return INVALID_FIELD;
+    }
+    optional(SimpleIclcm.MIO_RANGE, getInt(MIO_RANGE));
+    optional(SimpleIclcm.MIO_BEARING, getInt(MIO_BEARING));
+    optional(SimpleIclcm.MIO_RANGE_RATE, getInt(MIO_RANGE_RATE));
+    optional(SimpleIclcm.LANE, getInt(LANE));
+    if (!required(SimpleIclcm.FORWARD_ID, getForwardId())
+        || !required(SimpleIclcm.BACKWARD_ID, getBackwardId())
+        || !required(SimpleIclcm.MERGE_REQUEST, getMergeRequest())
+        || !required(SimpleIclcm.MERGE_SAFE_TO_MERGE, getMergeSafeToMerge())
+        || !required(SimpleIclcm.MERGE_FLAG, getMergeFlag())
+        || !required(SimpleIclcm.MERGE_FLAG_TAIL, getMergeFlagTail())
+        || !required(SimpleIclcm.MERGE_FLAG_HEAD, getMergeFlagHead())
+        || !required(SimpleIclcm.PLATOON_ID, getPlatoonId())) {
+      return INVALID_FIELD;
+    }
+    optional(SimpleIclcm.DISTANCE_TRAVELLED_CZ, getInt(DISTANCE_TRAVELLED_CZ));
+    if (!required(SimpleIclcm.INTENTION, getIntention())) {
+      return INVALID_FIELD;
+    }
+    optional(SimpleIclcm.COUNTER, getInt(COUNTER));
+    return VALID;
+  }
+
+  public byte getContainerMask() {
+    return getByte(CONTAINER_MASK);
+  }
+
+  /** Return true if the simple iCLCM has a low frequency container. */
+  public boolean hasLowFrequencyContainer() {
+    return (getContainerMask() & (1 << 7)) != 0;
+  }
+
+  public int getRearAxleLocation() {
+    return getInt(REAR_AXLE_LOCATION);
+  }
+
+  public int getControllerType() {
+    return getInt(CONTROLLER_TYPE);
+  }
+
+  public int getResponseTimeConstant() {
+    return orDefault(
+        SimpleIclcm.RESPONSE_TIME_CONSTANT,
+        getInt(RESPONSE_TIME_CONSTANT),
+        VehicleResponseTimeConstant.unavailable);
+  }
+
+  public int getResponseTimeDelay() {
+    return orDefault(
+        SimpleIclcm.RESPONSE_TIME_DELAY,
+        getInt(RESPONSE_TIME_DELAY),
+        VehicleResponseTimeDelay.unavailable);
+  }
+
+  public int getTargetLongitudinalAcceleration() {
+    return orDefault(
+        SimpleIclcm.TARGET_LONGITUDINAL_ACCELERATION,
+        getInt(TARGET_LONGITUDINAL_ACCELERATION),
+        TargetLongitudonalAcceleration.unavailable);
+  }
+
+  public int getTimeHeadway() {
+    return orDefault(SimpleIclcm.TIME_HEADWAY, getInt(TIME_HEADWAY), TimeHeadway.unavailable);
+  }
+
+  public int getCruiseSpeed() {
+    return orDefault(SimpleIclcm.CRUISE_SPEED, getInt(CRUISE_SPEED), CruiseSpeed.unavailable);
+  }
+
+  public byte getLowFrequencyMask() {
+    return getByte(LOW_FREQUENCY_MASK);
+  }
+
+  /** Return true if the simple iCLCM has a participants ready flag. */
+  public boolean hasParticipantsReady() {
+    return (getLowFrequencyMask() & (1 << 7)) != 0;
+  }
+
+  /** Return true if the simple iCLCM has a start platoon flag. */
+  public boolean hasStartPlatoon() {
+    return (getLowFrequencyMask() & (1 << 6)) != 0;
+  }
+
+  /** Return true if the simple iCLCM has a end of scenario flag. */
+  public boolean hasEndOfScenario() {
+    return (getLowFrequencyMask() & (1 << 5)) != 0;
+  }
+
+  public int getParticipantsReady() {
+    return getInt(PARTICIPANTS_READY);
+  }
+
+  public int getStartPlatoon() {
+    return getInt(START_PLATOON);
+  }
+
+  public int getEndOfScenario() {
+    return getInt(END_OF_SCENARIO);
+  }
+
+  public int getMioId() {
+    return getInt(MIO_ID);
+  }
+
+  public int getMioRange() {
+    return orDefault(SimpleIclcm.MIO_RANGE, getInt(MIO_RANGE), MioRange.unavailable);
+  }
+
+  public int getMioBearing() {
+    return orDefault(SimpleIclcm.MIO_BEARING, getInt(MIO_BEARING), MioBearing.unavailable);
+  }
+
+  public int getMioRangeRate() {
+    return orDefault(SimpleIclcm.MIO_RANGE_RATE, getInt(MIO_RANGE_RATE), MioRangeRate.unavailable);
+  }
+
+  public int getLane() {
+    return orDefault(SimpleIclcm.LANE, getInt(LANE), Lane.unavailable);
+  }
+
+  public int getForwardId() {
+    return getInt(FORWARD_ID);
+  }
+
+  public int getBackwardId() {
+    return getInt(BACKWARD_ID);
+  }
+
+  public int getMergeRequest() {
+    return getInt(MERGE_REQUEST);
+  }
+
+  public int getMergeSafeToMerge() {
+    return getInt(MERGE_SAFE_TO_MERGE);
+  }
+
+  public int getMergeFlag() {
+    return getInt(MERGE_FLAG);
+  }
+
+  public int getMergeFlagTail() {
+    return getInt(MERGE_FLAG_TAIL);
+  }
+
+  public int getMergeFlagHead() {
+    return getInt(MERGE_FLAG_HEAD);
+  }
+
+  public int getPlatoonId() {
+    return getInt(PLATOON_ID);
+  }
+
+  public int getDistanceTravelledCz() {
+    return orDefault(SimpleIclcm.DISTANCE_TRAVELLED_CZ, getInt(DISTANCE_TRAVELLED_CZ), 0);
+  }
+
+  public int getIntention() {
+    return getInt(INTENTION);
+  }
+
+  public int getCounter() {
+    return orDefault(SimpleIclcm.COUNTER, getInt(COUNTER), 0);
+  }
+}
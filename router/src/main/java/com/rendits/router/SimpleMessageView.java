@@ -0,0 +1,193 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+
+/**
+ *
+ *
+ * <h1>Simple message view</h1>
+ *
+ * <p>Read-only flyweight over a simple message held in a byte buffer. A view is pointed at a
+ * message with wrap() and reads its fields straight from the buffer, so a single view can be
+ * reused for every message a thread handles without allocating anything. The position and limit
+ * of the buffer are never modified.
+ *
+ * <p>Nothing is checked when wrapping a message. validate() checks it on demand and returns a
+ * status code instead of throwing. The getters of fields that the simple message classes replace
+ * with a default value when invalid do the same, so that the getters of a valid message return what
+ * the getters of the corresponding simple message object would.
+ *
+ * <p>Views are not thread safe, and a view is only valid as long as the buffer holds the message.
+ */
+public abstract class SimpleMessageView {
+
+  /** The message is valid. */
+  public static final int VALID = 0;
+
+  /** The message is shorter than the simple message layout. */
+  public static final int TOO_SHORT = 1;
+
+  /** The first byte of the message is not the expected message ID. */
+  public static final int WRONG_MESSAGE_ID = 2;
+
+  /** A field without a default value is invalid. See getInvalidField(). */
+  public static final int INVALID_FIELD = 3;
+
+  /* Offset of the station ID, which follows the message ID in every
+   * simple message */
+  static final int STATION_ID = 1;
+
+  private final String messageName;
+  private final int messageLength;
+  private final int messageId;
+
+  ByteBuffer buffer;
+  int offset;
+  int length;
+  private FieldValidator invalidField;
+  private int invalidValue;
+
+  /**
+   * SimpleMessageView constructor.
+   *
+   * @param messageName Name of the message, e.g., CAM.
+   * @param messageLength Length in bytes of the simple message layout.
+   * @param messageId The message ID of the message.
+   */
+  SimpleMessageView(String messageName, int messageLength, int messageId) {
+    this.messageName = messageName;
+    this.messageLength = messageLength;
+    this.messageId = messageId;
+  }
+
+  /* Point the view at a message */
+  void set(ByteBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    this.invalidField = null;
+  }
+
+  /**
+   * Check the message. Invalid fields are counted by their FieldValidator, and checking stops at
+   * the first field that has no default value.
+   *
+   * @return VALID, or one of the status codes describing why the message is invalid.
+   */
+  public int validate() {
+    invalidField = null;
+    if (length < messageLength) {
+      return TOO_SHORT;
+    }
+    if (getMessageId() != messageId) {
+      return WRONG_MESSAGE_ID;
+    }
+    return validateFields();
+  }
+
+  /* Check the fields of a message of the right length and ID */
+  abstract int validateFields();
+
+  /**
+   * Return a description of a status code returned by validate(), for logging.
+   *
+   * @param status Status code returned by the last call to validate().
+   */
+  public String describe(int status) {
+    switch (status) {
+      case VALID:
+        return "Simple " + messageName + " is valid";
+      case TOO_SHORT:
+        return "Simple "
+            + messageName
+            + " is too short. Is: "
+            + length
+            + " Should be: "
+            + messageLength;
+      case WRONG_MESSAGE_ID:
+        return "Simple "
+            + messageName
+            + " has incorrect id. Id: "
+            + getMessageId()
+            + " Should be: "
+            + messageId;
+      case INVALID_FIELD:
+        return "Simple "
+            + messageName
+            + " has invalid "
+            + getInvalidField()
+            + ". Value="
+            + invalidValue;
+      default:
+        return "Unknown status " + status;
+    }
+  }
+
+  /**
+   * Return the name of the field that made the last call to validate() return INVALID_FIELD, or
+   * null if it didn't.
+   */
+  public String getInvalidField() {
+    return invalidField == null ? null : invalidField.getField();
+  }
+
+  /** Return the length of the wrapped message in bytes. */
+  public int getLength() {
+    return length;
+  }
+
+  /** Return the message ID. */
+  public byte getMessageId() {
+    return buffer.get(offset);
+  }
+
+  /** Return the station ID. All simple messages start with the message ID and station ID. */
+  public int getStationId() {
+    return buffer.getInt(offset + STATION_ID);
+  }
+
+  /* Read an int at a position relative to the start of the message */
+  int getInt(int position) {
+    return buffer.getInt(offset + position);
+  }
+
+  /* Read a byte at a position relative to the start of the message */
+  byte getByte(int position) {
+    return buffer.get(offset + position);
+  }
+
+  /* Check a field that has no default value, remembering it if invalid */
+  boolean required(FieldValidator field, int value) {
+    if (field.check(value)) {
+      return true;
+    }
+    invalidField = field;
+    invalidValue = value;
+    return false;
+  }
+
+  /* Check a field that has a default value. Only counts it if invalid. */
+  static void optional(FieldValidator field, int value) {
+    field.check(value);
+  }
+
+  /* Return the value if it is valid, without counting it if it isn't */
+  static int orDefault(FieldValidator field, int value, int fallback) {
+    return field.accepts(value) ? value : fallback;
+  }
+}
@@ -0,0 +1,446 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.nio.ByteBuffer;
+import net.gcdc.camdenm.CoopIts.*;
+import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
+import net.gcdc.camdenm.Iclcm;
+import net.gcdc.camdenm.Iclcm.*;
+
+/**
+ *
+ *
+ * <h1>Simple message transcoder</h1>
+ *
+ * <p>Transcodes simple CAM/DENM/iCLCM messages straight into UPER encoded proper messages. The
+ * fields are read through a view of the simple message and written to the bit stream in one pass,
+ * without building the SimpleCam and Cam objects (or their DENM and iCLCM counterparts) in between.
+ * Values are checked, and invalid values replaced, by the same rules the simple message classes
+ * apply. The result is the same as encoding the output of asCam(), asDenm() or asIclcm().
+ *
+ * <p>A transcoder reuses its bit writer and views between messages and must only be used by one
+ * thread.
+ */
+final class SimpleTranscoder {
+
+  /* Enumerated types. Their values are the same as their ordinals. */
+  private static final int ALTITUDE_CONFIDENCE_BITS = bitsFor(AltitudeConfidence.values());
+  private static final int DRIVE_DIRECTION_BITS = bitsFor(DriveDirection.values());
+  private static final int VEHICLE_LENGTH_CONFIDENCE_BITS =
+      bitsFor(VehicleLengthConfidenceIndication.values());
+  private static final int CURVATURE_CONFIDENCE_BITS = bitsFor(CurvatureConfidence.values());
+  private static final int CURVATURE_CALCULATION_MODE_BITS =
+      bitsFor(CurvatureCalculationMode.values());
+  private static final int YAW_RATE_CONFIDENCE_BITS = bitsFor(YawRateConfidence.values());
+  private static final int VEHICLE_ROLE_BITS = bitsFor(VehicleRole.values());
+  private static final int TERMINATION_BITS = bitsFor(Termination.values());
+  private static final int RELEVANCE_DISTANCE_BITS = bitsFor(RelevanceDistance.values());
+  private static final int RELEVANCE_TRAFFIC_DIRECTION_BITS =
+      bitsFor(RelevanceTrafficDirection.values());
+  private static final int POSITIONING_SOLUTION_TYPE_BITS =
+      bitsFor(PositioningSolutionType.values());
+
+  /* Values the simple messages don't carry. These are the values asCam(),
+   * asDenm() and asIclcm() fill in. */
+  private static final int ALTITUDE_CONFIDENCE = AltitudeConfidence.unavailable.ordinal();
+  private static final int DRIVE_DIRECTION = DriveDirection.values()[2].ordinal();
+  private static final int VEHICLE_LENGTH_CONFIDENCE =
+      VehicleLengthConfidenceIndication.unavailable.ordinal();
+  private static final long CURVATURE = new Curvature().getCurvatureValue().value;
+  private static final int CURVATURE_CONFIDENCE =
+      new Curvature().getCurvatureConfidence().ordinal();
+  private static final int CURVATURE_CALCULATION_MODE =
+      CurvatureCalculationMode.values()[2].ordinal();
+  private static final long ICLCM_GENERATION_DELTA_TIME = new GenerationDeltaTime().value;
+  private static final long ACKNOWLEDGE = new AcknowledgeFlag().value;
+
+  /* Number of optional fields of the containers that are sent empty */
+  private static final int EXTERIOR_LIGHTS_BITS = 8;
+  private static final int ROAD_WORKS_OPTIONALS = 9;
+  private static final int STATIONARY_VEHICLE_OPTIONALS = 6;
+
+  private final UperBitWriter out = new UperBitWriter();
+
+  /* Views used to read the messages. Confined to the thread using the
+   * transcoder, like the bit writer. */
+  private final SimpleCamView camView = new SimpleCamView();
+  private final SimpleDenmView denmView = new SimpleDenmView();
+  private final SimpleIclcmView iclcmView = new SimpleIclcmView();
+  private final SimpleEgoStateView egoStateView = new SimpleEgoStateView();
+
+  /* Simple CAMs generated by the router from ego states are written
+   * here before they are transcoded. */
+  private final ByteBuffer generatedCam = ByteBuffer.allocate(SimpleCam.SIMPLE_CAM_LENGTH);
+
+  /**
+   * Return the CAM view of this transcoder. The caller can wrap it around a message, validate it
+   * and read its fields before transcoding it, without allocating a view of its own.
+   */
+  SimpleCamView getCamView() {
+    return camView;
+  }
+
+  /** Return the DENM view of this transcoder. See getCamView(). */
+  SimpleDenmView getDenmView() {
+    return denmView;
+  }
+
+  /** Return the iCLCM view of this transcoder. See getCamView(). */
+  SimpleIclcmView getIclcmView() {
+    return iclcmView;
+  }
+
+  /** Return the ego state view of this transcoder. See getCamView(). */
+  SimpleEgoStateView getEgoStateView() {
+    return egoStateView;
+  }
+
+  /** Return a buffer, confined to the thread using the transcoder, to generate simple CAMs in. */
+  ByteBuffer getGeneratedCamBuffer() {
+    return generatedCam;
+  }
+
+  /**
+   * Transcode a simple CAM into a UPER encoded proper CAM. The position of the buffer is not
+   * modified.
+   *
+   * @param buffer Buffer holding the simple CAM.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   * @return The UPER encoded CAM.
+   * @exception IllegalArgumentException if the message is malformed or can't be encoded.
+   */
+  byte[] transcodeCam(ByteBuffer buffer, int offset, int length) {
+    return transcode(requireValid(camView.wrap(buffer, offset, length)));
+  }
+
+  /**
+   * Transcode the simple CAM a view is wrapped around.
+   *
+   * @param cam View of a simple CAM that validate() has found to be valid.
+   * @return The UPER encoded CAM.
+   */
+  byte[] transcode(SimpleCamView cam) {
+    boolean hasLowFrequencyContainer = cam.hasLowFrequencyContainer();
+
+    out.reset();
+    writeHeader(MessageId.cam, cam.getStationId());
+    out.writeConstrainedInt(
+        (long) cam.getGenerationDeltaTime() * GenerationDeltaTime.oneMilliSec,
+        Range.GENERATION_DELTA_TIME.min,
+        Range.GENERATION_DELTA_TIME.max);
+
+    /* CamParameters. Extension bit, then presence of the low frequency
+     * and special vehicle containers. */
+    out.writeBit(false);
+    out.writeBit(hasLowFrequencyContainer);
+    out.writeBit(false);
+
+    /* BasicContainer */
+    out.writeBit(false);
+    write(Range.STATION_TYPE, cam.getStationType());
+    write(Range.LATITUDE, cam.getLatitude());
+    write(Range.LONGITUDE, cam.getLongitude());
+    writePositionConfidenceAndAltitude(
+        cam.getSemiMajorConfidence(),
+        cam.getSemiMinorConfidence(),
+        cam.getSemiMajorOrientation(),
+        cam.getAltitude());
+
+    /* HighFrequencyContainer, a choice with basicVehicleContainerHighFrequency
+     * as first alternative. No optional fields are present. */
+    out.writeBit(false);
+    out.writeBits(0, 1);
+    out.writeBits(0, 7);
+    write(Range.HEADING_VALUE, cam.getHeading());
+    write(Range.HEADING_CONFIDENCE, cam.getHeadingConfidence());
+    write(Range.SPEED_VALUE, cam.getSpeed());
+    write(Range.SPEED_CONFIDENCE, cam.getSpeedConfidence());
+    out.writeBits(DRIVE_DIRECTION, DRIVE_DIRECTION_BITS);
+    write(Range.VEHICLE_LENGTH_VALUE, cam.getVehicleLength());
+    out.writeBits(VEHICLE_LENGTH_CONFIDENCE, VEHICLE_LENGTH_CONFIDENCE_BITS);
+    write(Range.VEHICLE_WIDTH, cam.getVehicleWidth());
+    write(Range.LONGITUDINAL_ACCELERATION_VALUE, cam.getLongitudinalAcceleration());
+    write(Range.ACCELERATION_CONFIDENCE, cam.getLongitudinalAccelerationConfidence());
+    write(Range.CURVATURE_VALUE, CURVATURE);
+    out.writeBits(CURVATURE_CONFIDENCE, CURVATURE_CONFIDENCE_BITS);
+    out.writeBit(false);
+    out.writeBits(CURVATURE_CALCULATION_MODE, CURVATURE_CALCULATION_MODE_BITS);
+    write(Range.YAW_RATE_VALUE, cam.getYawRate());
+    out.writeBits(cam.getYawRateConfidence(), YAW_RATE_CONFIDENCE_BITS);
+
+    /* LowFrequencyContainer, a choice with a single alternative. The
+     * exterior lights are all off and the path history is empty. */
+    if (hasLowFrequencyContainer) {
+      out.writeBit(false);
+      out.writeBits(cam.getVehicleRole(), VEHICLE_ROLE_BITS);
+      out.writeBits(0, EXTERIOR_LIGHTS_BITS);
+      write(Range.PATH_HISTORY_SIZE, 0);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Transcode a simple DENM into a UPER encoded proper DENM. The position of the buffer is not
+   * modified.
+   *
+   * @param buffer Buffer holding the simple DENM.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   * @param sequenceNumber Sequence number of the DENM, as returned by
+   *     SimpleDenm.nextSequenceNumber().
+   * @return The UPER encoded DENM.
+   * @exception IllegalArgumentException if the message is malformed or can't be encoded.
+   */
+  byte[] transcodeDenm(ByteBuffer buffer, int offset, int length, int sequenceNumber) {
+    return transcode(requireValid(denmView.wrap(buffer, offset, length)), sequenceNumber);
+  }
+
+  /**
+   * Transcode the simple DENM a view is wrapped around with a given sequence number, e.g., the next
+   * one of SimpleDenm or that of the event the DENM is an update of.
+   *
+   * @param denm View of a simple DENM that validate() has found to be valid.
+   * @param sequenceNumber Sequence number of the DENM, as returned by
+   *     SimpleDenm.nextSequenceNumber().
+   * @return The UPER encoded DENM.
+   * @exception IllegalArgumentException if the DENM has containers that can't be encoded.
+   */
+  byte[] transcode(SimpleDenmView denm, int sequenceNumber) {
+    byte containerMask = denm.getContainerMask();
+    byte managementMask = denm.getManagementMask();
+    int generationDeltaTime = denm.getGenerationDeltaTime();
+
+    out.reset();
+    writeHeader(MessageId.denm, denm.getStationId());
+
+    /* DecentralizedEnvironmentalNotificationMessage. Presence of the
+     * situation, location and alacarte containers. */
+    out.writeBit((containerMask & (1 << 7)) != 0);
+    out.writeBit((containerMask & (1 << 6)) != 0);
+    out.writeBit((containerMask & (1 << 5)) != 0);
+
+    /* ManagementContainer. Extension bit, then presence of termination,
+     * relevanceDistance, relevanceTrafficDirection, validityDuration and
+     * transmissionInterval. Timestamps are sent as increments of 65536ms,
+     * see SimpleDenm. */
+    out.writeBit(false);
+    for (int bit = 7; bit >= 3; bit--) {
+      out.writeBit((managementMask & (1 << bit)) != 0);
+    }
+    write(Range.STATION_ID, denm.getStationId());
+    write(Range.SEQUENCE_NUMBER, sequenceNumber % 65535);
+    write(Range.TIMESTAMP_ITS, (long) denm.getDetectionTime() * 65536 + generationDeltaTime);
+    write(Range.TIMESTAMP_ITS, (long) denm.getReferenceTime() * 65536 + generationDeltaTime);
+    if ((managementMask & (1 << 7)) != 0) {
+      out.writeBits(denm.getTermination(), TERMINATION_BITS);
+    }
+    write(Range.LATITUDE, denm.getLatitude());
+    write(Range.LONGITUDE, denm.getLongitude());
+    writePositionConfidenceAndAltitude(
+        denm.getSemiMajorConfidence(),
+        denm.getSemiMinorConfidence(),
+        denm.getSemiMajorOrientation(),
+        denm.getAltitude());
+    if ((managementMask & (1 << 6)) != 0) {
+      out.writeBits(denm.getRelevanceDistance(), RELEVANCE_DISTANCE_BITS);
+    }
+    if ((managementMask & (1 << 5)) != 0) {
+      out.writeBits(denm.getRelevanceTrafficDirection(), RELEVANCE_TRAFFIC_DIRECTION_BITS);
+    }
+    if ((managementMask & (1 << 4)) != 0) {
+      write(Range.VALIDITY_DURATION, denm.getValidityDuration());
+    }
+    if ((managementMask & (1 << 3)) != 0) {
+      write(Range.TRANSMISSION_INTERVAL, denm.getTransmissionInterval());
+    }
+    write(Range.STATION_TYPE, denm.getStationType());
+
+    /* SituationContainer. Extension bit, then presence of linkedCause and
+     * eventHistory. */
+    if ((containerMask & (1 << 7)) != 0) {
+      boolean hasLinkedCause = (denm.getSituationMask() & (1 << 7)) != 0;
+      out.writeBit(false);
+      out.writeBit(hasLinkedCause);
+      out.writeBit(false);
+      write(Range.INFORMATION_QUALITY, denm.getInformationQuality());
+      write(Range.CAUSE_CODE_TYPE, denm.getCauseCode());
+      write(Range.SUB_CAUSE_CODE_TYPE, denm.getSubCauseCode());
+      if (hasLinkedCause) {
+        write(Range.CAUSE_CODE_TYPE, denm.getLinkedCauseCode());
+        write(Range.SUB_CAUSE_CODE_TYPE, denm.getLinkedSubCauseCode());
+      }
+    }
+
+    /* LocationContainer. The simple DENM carries none of its mandatory
+     * fields. */
+    if ((containerMask & (1 << 6)) != 0) {
+      throw new IllegalArgumentException("Can't encode an empty LocationContainer");
+    }
+
+    /* AlacarteContainer. Extension bit, then presence of lanePosition,
+     * impactReduction, externalTemperature, roadWorks, positioningSolution
+     * and stationaryVehicle. */
+    if ((containerMask & (1 << 5)) != 0) {
+      byte alacarteMask = denm.getAlacarteMask();
+      out.writeBit(false);
+      for (int bit = 7; bit >= 2; bit--) {
+        out.writeBit((alacarteMask & (1 << bit)) != 0);
+      }
+      if ((alacarteMask & (1 << 7)) != 0) {
+        write(Range.LANE_POSITION, denm.getLanePosition());
+      }
+      if ((alacarteMask & (1 << 6)) != 0) {
+        throw new IllegalArgumentException("Can't encode an empty ImpactReductionContainer");
+      }
+      if ((alacarteMask & (1 << 5)) != 0) {
+        write(Range.TEMPERATURE, denm.getTemperature());
+      }
+      if ((alacarteMask & (1 << 4)) != 0) {
+        out.writeBits(0, ROAD_WORKS_OPTIONALS);
+      }
+      if ((alacarteMask & (1 << 3)) != 0) {
+        out.writeBit(false);
+        out.writeBits(denm.getPositioningSolutionType(), POSITIONING_SOLUTION_TYPE_BITS);
+      }
+      if ((alacarteMask & (1 << 2)) != 0) {
+        out.writeBits(0, STATIONARY_VEHICLE_OPTIONALS);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Transcode a simple iCLCM into a UPER encoded proper iCLCM. The position of the buffer is not
+   * modified.
+   *
+   * @param buffer Buffer holding the simple iCLCM.
+   * @param offset Offset of the first byte of the message in the buffer.
+   * @param length Number of bytes, counted from the offset, that belong to the message.
+   * @return The UPER encoded iCLCM.
+   * @exception IllegalArgumentException if the message is malformed or can't be encoded.
+   */
+  byte[] transcodeIclcm(ByteBuffer buffer, int offset, int length) {
+    return transcode(requireValid(iclcmView.wrap(buffer, offset, length)));
+  }
+
+  /**
+   * Transcode the simple iCLCM a view is wrapped around.
+   *
+   * @param iclcm View of a simple iCLCM that validate() has found to be valid.
+   * @return The UPER encoded iCLCM.
+   */
+  byte[] transcode(SimpleIclcmView iclcm) {
+    boolean hasLowFrequencyContainer = iclcm.hasLowFrequencyContainer();
+
+    out.reset();
+    writeHeader(Iclcm.MessageID_iCLCM, iclcm.getStationId());
+    write(Range.GENERATION_DELTA_TIME, ICLCM_GENERATION_DELTA_TIME);
+
+    /* IclmParameters. Presence of the low frequency container. */
+    out.writeBit(hasLowFrequencyContainer);
+
+    /* VehicleContainerHighFrequency */
+    write(Range.REAR_AXLE_LOCATION, iclcm.getRearAxleLocation());
+    write(Range.CONTROLLER_TYPE, iclcm.getControllerType());
+    write(Range.RESPONSE_TIME_CONSTANT, iclcm.getResponseTimeConstant());
+    write(Range.RESPONSE_TIME_DELAY, iclcm.getResponseTimeDelay());
+    write(Range.TARGET_LONGITUDINAL_ACCELERATION, iclcm.getTargetLongitudinalAcceleration());
+    write(Range.TIME_HEADWAY, iclcm.getTimeHeadway());
+    write(Range.CRUISE_SPEED, iclcm.getCruiseSpeed());
+
+    /* VehicleContainerLowFrequency. Presence of participantsReady,
+     * startPlatoon and endOfScenario. */
+    if (hasLowFrequencyContainer) {
+      out.writeBit(iclcm.hasParticipantsReady());
+      out.writeBit(iclcm.hasStartPlatoon());
+      out.writeBit(iclcm.hasEndOfScenario());
+      if (iclcm.hasParticipantsReady()) {
+        write(Range.PARTICIPANTS_READY, iclcm.getParticipantsReady());
+      }
+      if (iclcm.hasStartPlatoon()) {
+        write(Range.START_PLATOON, iclcm.getStartPlatoon());
+      }
+      if (iclcm.hasEndOfScenario()) {
+        write(Range.END_OF_SCENARIO, iclcm.getEndOfScenario());
+      }
+    }
+
+    /* MostImportantObjectContainer */
+    write(Range.STATION_ID, iclcm.getMioId());
+    write(Range.MIO_RANGE, iclcm.getMioRange());
+    write(Range.MIO_BEARING, iclcm.getMioBearing());
+    write(Range.MIO_RANGE_RATE, iclcm.getMioRangeRate());
+
+    /* LaneObject */
+    write(Range.LANE, iclcm.getLane());
+
+    /* PairIdObject */
+    write(Range.STATION_ID, iclcm.getForwardId());
+    write(Range.STATION_ID, iclcm.getBackwardId());
+    write(Range.ACKNOWLEDGE_FLAG, ACKNOWLEDGE);
+
+    /* MergeObject */
+    write(Range.MERGE_REQUEST, iclcm.getMergeRequest());
+    write(Range.MERGE_SAFE_TO_MERGE, iclcm.getMergeSafeToMerge());
+    write(Range.MERGE_FLAG, iclcm.getMergeFlag());
+    write(Range.MERGE_FLAG_TAIL, iclcm.getMergeFlagTail());
+    write(Range.MERGE_FLAG_HEAD, iclcm.getMergeFlagHead());
+
+    /* ScenarioObject */
+    write(Range.PLATOON_ID, iclcm.getPlatoonId());
+    write(Range.DISTANCE_TRAVELLED_CZ, iclcm.getDistanceTravelledCz());
+    write(Range.INTENTION, iclcm.getIntention());
+    write(Range.COUNTER, iclcm.getCounter());
+    return out.toByteArray();
+  }
+
+  /* Write an ItsPduHeader with protocol version 1 */
+  private void writeHeader(int messageId, int stationId) {
+    write(Range.PROTOCOL_VERSION, 1);
+    write(Range.MESSAGE_ID, messageId);
+    write(Range.STATION_ID, stationId);
+  }
+
+  /* Write the PosConfidenceEllipse and Altitude of a ReferencePosition.
+   * The simple CAM and DENM share these fields. */
+  private void writePositionConfidenceAndAltitude(
+      int semiMajorConfidence, int semiMinorConfidence, int semiMajorOrientation, int altitude) {
+    write(Range.SEMI_AXIS_LENGTH, semiMajorConfidence);
+    write(Range.SEMI_AXIS_LENGTH, semiMinorConfidence);
+    write(Range.HEADING_VALUE, semiMajorOrientation);
+    write(Range.ALTITUDE_VALUE, altitude);
+    out.writeBits(ALTITUDE_CONFIDENCE, ALTITUDE_CONFIDENCE_BITS);
+  }
+
+  private void write(Range range, long value) {
+    out.writeConstrainedInt(value, range.min, range.max);
+  }
+
+  /* Validate a view, throwing if the message is invalid */
+  private static <T extends SimpleMessageView> T requireValid(T view) {
+    int status = view.validate();
+    if (status != SimpleMessageView.VALID) {
+      throw new IllegalArgumentException(view.describe(status));
+    }
+    return view;
+  }
+
+  private static int bitsFor(Enum<?>[] values) {
+    return UperBitWriter.bitsFor(0, values.length - 1);
+  }
+}
@@ -0,0 +1,184 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency statistics of one stage of the message pipeline. Latencies are recorded by the threads
+ * running the stage and read periodically by the statistics logger, which resets them.
+ *
+ * <p>Latencies are counted in a histogram in the style of HdrHistogram: the buckets are linear
+ * within every power of 2 and there are 32 of them per power of 2, so a latency is known to within
+ * about 3%. Latencies up to 2^36ns, about 68s, are told apart, and longer ones are counted as
+ * 2^36ns. The buckets are allocated up front, and recording a latency is a few atomic updates and
+ * never allocates.
+ *
+ * <p>Every summary also leaves a snapshot of its percentiles, and the totals of the latencies so
+ * far, which can be read from any thread without touching the histogram.
+ */
+final class StageStats {
+
+  /* Values below 2^SUB_BUCKET_BITS have a bucket of their own. Above,
+   * every power of 2 is split into SUB_BUCKETS / 2 buckets. */
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+  private static final int MAX_EXPONENT = 36;
+  private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+  private static final int NUM_BUCKETS =
+      SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+  private final LongAdder sumNanos = new LongAdder();
+
+  /* Counts taken from the histogram by takeSummary() */
+  private final long[] taken = new long[NUM_BUCKETS];
+
+  /* Percentiles of the PERCENTILES and the maximum as of the last
+   * summary, and the count and sum of the latencies summarized so far */
+  static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+  private volatile long[] snapshot = new long[PERCENTILES.length + 1];
+  private volatile long totalCount = 0;
+  private volatile long totalNanos = 0;
+  private volatile long lastCount = 0;
+
+  /**
+   * StageStats constructor.
+   *
+   * @param name Name of the stage, used when logging.
+   */
+  StageStats(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Record the latency of one message.
+   *
+   * @param nanos Time spent in the stage in nanoseconds.
+   */
+  void record(long nanos) {
+    counts.incrementAndGet(bucketOf(nanos));
+    maxNanos.accumulate(nanos);
+    sumNanos.add(nanos);
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Return a summary of the latencies recorded since the last call, e.g., "parse n=12 p50=35.0us
+   * p99=118.0us p99.9=118.0us max=120.3us", and start over. The percentiles are the upper bounds of
+   * their buckets, and the maximum is exact.
+   */
+  synchronized String takeSummary() {
+    long n = 0;
+    for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+      taken[bucket] = counts.getAndSet(bucket, 0);
+      n += taken[bucket];
+    }
+    long max = maxNanos.getThenReset();
+    long[] percentiles = new long[PERCENTILES.length + 1];
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      percentiles[i] = percentile(n, PERCENTILES[i]);
+    }
+    percentiles[PERCENTILES.length] = max;
+    snapshot = percentiles;
+    totalNanos += sumNanos.sumThenReset();
+    totalCount += n;
+    lastCount = n;
+    return name
+        + " n="
+        + n
+        + " p50="
+        + micros(percentiles[0])
+        + " p99="
+        + micros(percentiles[1])
+        + " p99.9="
+        + micros(percentiles[2])
+        + " max="
+        + micros(max);
+  }
+
+  /**
+   * Return the percentiles of the PERCENTILES followed by the maximum, in nanoseconds, as of the
+   * last summary. The array must not be modified.
+   */
+  long[] getSnapshot() {
+    return snapshot;
+  }
+
+  /** Return the number of latencies summarized so far. */
+  long getTotalCount() {
+    return totalCount;
+  }
+
+  /** Return the number of latencies in the last summary. */
+  long getLastCount() {
+    return lastCount;
+  }
+
+  /** Return the sum of the latencies summarized so far, in nanoseconds. */
+  long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /* Return the upper bound of the bucket holding the given fraction of
+   * the taken counts, 0 if there are none. */
+  private long percentile(long n, double fraction) {
+    long rank = (long) Math.ceil(n * fraction);
+    long seen = 0;
+    for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+      seen += taken[bucket];
+      if (seen >= rank && seen > 0) {
+        return upperBound(bucket);
+      }
+    }
+    return 0;
+  }
+
+  /* Return the bucket of a latency */
+  static int bucketOf(long nanos) {
+    long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS + 1;
+    int subBucket = (int) (value >>> shift);
+    return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + subBucket - HALF_SUB_BUCKETS;
+  }
+
+  /* Return the largest latency counted in a bucket */
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+    long subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /* E.g., 35.2us for 35210ns */
+  private static String micros(long nanos) {
+    return nanos / 1000 + "." + nanos / 100 % 10 + "us";
+  }
+}
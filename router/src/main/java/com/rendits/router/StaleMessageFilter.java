@@ -0,0 +1,163 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ *
+ * <h1>Stale message filter</h1>
+ *
+ * <p>Decides whether a message is too old to be worth processing any further. Every message type
+ * has an age budget, set with the maxAge properties followed by the name of the type, e.g.,
+ * maxAgeCam=900, in milliseconds. A budget of 0 disables the check for that type. The age of a
+ * message is counted from when the router received it, so the check is meant to be made before
+ * the expensive steps, i.e., encoding, decoding and transmitting.
+ *
+ * <p>Messages can also be checked against their generation delta time, which is the ITS timestamp
+ * the message was generated at modulo 65536. This catches messages that were already old when
+ * they reached the router, but only works if the clocks of the stations are synchronized, e.g.,
+ * to GNSS time, and is therefore only done if checkGenerationTime is set to true.
+ *
+ * <p>Stale messages are counted per type, in counters of the metrics registry named after the
+ * filter, e.g., tx_stale_cam. Every direction has its own filter.
+ */
+final class StaleMessageFilter {
+
+  /* Milliseconds from the Unix epoch to the ITS epoch, 2004-01-01
+   * 00:00:00 UTC, and the leap seconds inserted since then. */
+  private static final long ITS_EPOCH_MILLIS = 1072915200000L;
+  private static final long ITS_LEAP_MILLIS = 5000;
+
+  /* The generation delta time wraps around every 65536ms. Messages that
+   * appear to be generated less than this far in the future are
+   * assumed to come from a station whose clock is slightly ahead. */
+  private static final int GENERATION_TIME_MODULUS = 65536;
+  private static final int MAX_CLOCK_SKEW_MILLIS = GENERATION_TIME_MODULUS / 2;
+
+  /* Default budgets in the order of the traffic classes. The budgets
+   * of CAM, iCLCM and custom messages match their BTP lifetimes. */
+  private static final TrafficClass[] CLASSES = TrafficClass.values();
+  private static final long[] DEFAULT_MAX_AGE_MILLIS = {1000, 900, 900, 900};
+
+  private final String name;
+  private final long[] maxAgeNanos = new long[CLASSES.length];
+  private final int[] maxAgeMillis = new int[CLASSES.length];
+  private final boolean checkGenerationTime;
+  private final Metrics.Counter[] stale = new Metrics.Counter[CLASSES.length];
+
+  /**
+   * StaleMessageFilter constructor.
+   *
+   * @param name Name of the filter, used when logging and as a prefix of its counters.
+   * @param props Properties to read the age budgets from.
+   * @param metrics Registry to add the counters of stale messages to.
+   */
+  StaleMessageFilter(String name, Properties props, Metrics metrics) {
+    this.name = name;
+    for (TrafficClass trafficClass : CLASSES) {
+      int i = trafficClass.ordinal();
+      String property = "maxAge" + TransmitScheduler.propertySuffix(trafficClass);
+      long maxAge =
+          Long.parseLong(props.getProperty(property, Long.toString(DEFAULT_MAX_AGE_MILLIS[i])));
+      if (maxAge < 0 || maxAge >= MAX_CLOCK_SKEW_MILLIS) {
+        throw new IllegalArgumentException(
+            property + " must be between 0 and " + MAX_CLOCK_SKEW_MILLIS + " milliseconds.");
+      }
+      maxAgeMillis[i] = (int) maxAge;
+      maxAgeNanos[i] = TimeUnit.MILLISECONDS.toNanos(maxAge);
+      String type = trafficClass.name().toLowerCase(Locale.ROOT);
+      stale[i] = metrics.counter(name + "_stale_" + type, "Stale " + type + " messages");
+    }
+    this.checkGenerationTime =
+        Boolean.parseBoolean(props.getProperty("checkGenerationTime", "false"));
+  }
+
+  /**
+   * Return true, and count the message as stale, if the age budget of a message has been spent.
+   *
+   * @param trafficClass Type of the message.
+   * @param arrivalNanos Time the router received the message, as given by System.nanoTime().
+   * @param nowNanos The current time, as given by System.nanoTime().
+   */
+  boolean isStale(TrafficClass trafficClass, long arrivalNanos, long nowNanos) {
+    int i = trafficClass.ordinal();
+    if (maxAgeNanos[i] == 0 || nowNanos - arrivalNanos <= maxAgeNanos[i]) {
+      return false;
+    }
+    stale[i].increment();
+    return true;
+  }
+
+  /**
+   * Return true, and count the message as stale, if checkGenerationTime is set and a message was
+   * generated longer ago than its age budget.
+   *
+   * @param trafficClass Type of the message.
+   * @param generationDeltaTime Generation delta time of the message in milliseconds. Negative if
+   *     unknown, in which case the message is never stale.
+   */
+  boolean isStaleGenerationTime(TrafficClass trafficClass, int generationDeltaTime) {
+    int i = trafficClass.ordinal();
+    if (!checkGenerationTime || maxAgeMillis[i] == 0 || generationDeltaTime < 0) {
+      return false;
+    }
+    int age =
+        Math.floorMod(generationDeltaTimeNow() - generationDeltaTime, GENERATION_TIME_MODULUS);
+    if (age <= maxAgeMillis[i] || age >= GENERATION_TIME_MODULUS - MAX_CLOCK_SKEW_MILLIS) {
+      return false;
+    }
+    stale[i].increment();
+    return true;
+  }
+
+  /** Return the current ITS timestamp modulo 65536, i.e., the current generation delta time. */
+  static int generationDeltaTimeNow() {
+    long timestampIts = System.currentTimeMillis() - ITS_EPOCH_MILLIS + ITS_LEAP_MILLIS;
+    return (int) (timestampIts % GENERATION_TIME_MODULUS);
+  }
+
+  /** Return the number of stale messages of a type counted so far. */
+  long getStale(TrafficClass trafficClass) {
+    return stale[trafficClass.ordinal()].getTotal();
+  }
+
+  /**
+   * Return the number of stale messages of every type in the last metrics interval, e.g., "tx
+   * stale: CAM=3". Types without stale messages are left out, and the summary is empty if there
+   * are none.
+   */
+  String takeSummary() {
+    StringBuilder summary = new StringBuilder();
+    for (TrafficClass trafficClass : CLASSES) {
+      long stale = this.stale[trafficClass.ordinal()].getLastInterval();
+      if (stale == 0) {
+        continue;
+      }
+      summary
+          .append(summary.length() == 0 ? name + " stale:" : "")
+          .append(' ')
+          .append(trafficClass)
+          .append('=')
+          .append(stale);
+    }
+    return summary.toString();
+  }
+}
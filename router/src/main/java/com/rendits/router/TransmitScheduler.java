@@ -0,0 +1,315 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import net.gcdc.geonetworking.BtpPacket;
+
+/**
+ *
+ *
+ * <h1>Transmit scheduler</h1>
+ *
+ * <p>Strict priority scheduler in front of the BTP socket. Every outgoing BTP packet is queued in
+ * the queue of its traffic class, and the transmitting thread always takes the oldest packet of the
+ * highest priority class that has one. DENM and iCLCM are thereby never queued behind CAM or custom
+ * messages, however many of those are waiting. A packet that is already being sent is not
+ * interrupted.
+ *
+ * <p>Every class has a bounded queue with a drop policy, which decides what happens when a packet
+ * is offered to a full queue. Drops, queue depths and the time packets spend queued are tracked per
+ * class. Packets that have spent their age budget by the time they would be transmitted are
+ * dropped by the stale message filter instead.
+ */
+final class TransmitScheduler {
+
+  /** Traffic classes, from the highest priority to the lowest. Modelled on the ETSI classes. */
+  enum TrafficClass {
+    /* Safety messages */
+    DENM(16, DropPolicy.NEWEST),
+    /* Platoon control */
+    ICLCM(16, DropPolicy.OLDEST),
+    /* Awareness */
+    CAM(16, DropPolicy.OLDEST),
+    /* Everything else */
+    CUSTOM(64, DropPolicy.NEWEST);
+
+    private final int defaultCapacity;
+    private final DropPolicy defaultDropPolicy;
+
+    TrafficClass(int defaultCapacity, DropPolicy defaultDropPolicy) {
+      this.defaultCapacity = defaultCapacity;
+      this.defaultDropPolicy = defaultDropPolicy;
+    }
+  }
+
+  /** What to do when a packet is offered to a full queue. */
+  enum DropPolicy {
+    /* Drop the offered packet */
+    NEWEST,
+    /* Drop the oldest queued packet to make room for the offered one.
+     * Used for messages that are superseded by the next one. */
+    OLDEST
+  }
+
+  private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final ClassQueue[] queues = new ClassQueue[CLASSES.length];
+  private final StaleMessageFilter staleFilter;
+
+  /* Class and arrival time of the packet last returned by take() */
+  private TrafficClass takenClass;
+  private long takenArrivalNanos;
+
+  /**
+   * TransmitScheduler constructor. The capacity and drop policy of every class can be set with the
+   * transmitQueue and transmitDrop properties followed by the name of the class, e.g.,
+   * transmitQueueCam=16 and transmitDropCam=oldest.
+   *
+   * @param props Properties to read the configuration from.
+   * @param staleFilter Filter deciding which packets are too old to transmit.
+   * @param metrics Registry to add the counters of dropped packets to.
+   */
+  TransmitScheduler(Properties props, StaleMessageFilter staleFilter, Metrics metrics) {
+    this.staleFilter = staleFilter;
+    for (TrafficClass trafficClass : CLASSES) {
+      String suffix = propertySuffix(trafficClass);
+      int capacity =
+          Integer.parseInt(
+              props.getProperty(
+                  "transmitQueue" + suffix, Integer.toString(trafficClass.defaultCapacity)));
+      if (capacity <= 0) {
+        throw new IllegalArgumentException(
+            "transmitQueue" + suffix + " must be at least 1. check the properties file.");
+      }
+      String dropPolicy =
+          props.getProperty(
+              "transmitDrop" + suffix,
+              trafficClass.defaultDropPolicy.name().toLowerCase(Locale.ROOT));
+      DropPolicy policy;
+      if (dropPolicy.equals("newest")) {
+        policy = DropPolicy.NEWEST;
+      } else if (dropPolicy.equals("oldest")) {
+        policy = DropPolicy.OLDEST;
+      } else {
+        throw new IllegalArgumentException(
+            "transmitDrop"
+                + suffix
+                + " must be either newest or oldest. check the properties file.");
+      }
+      Metrics.Counter dropped =
+          metrics.counter(
+              "tx_queue_dropped_" + trafficClass.name().toLowerCase(Locale.ROOT),
+              "Packets of " + trafficClass + " messages dropped by a full transmit queue");
+      queues[trafficClass.ordinal()] = new ClassQueue(trafficClass, capacity, policy, dropped);
+    }
+  }
+
+  /* E.g., Cam for TrafficClass.CAM */
+  static String propertySuffix(TrafficClass trafficClass) {
+    String name = trafficClass.name();
+    return name.charAt(0) + name.substring(1).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Queue a packet for transmission. Never blocks.
+   *
+   * @param trafficClass Traffic class of the packet.
+   * @param packet The packet to transmit.
+   * @param arrivalNanos Time the router received the message, as given by System.nanoTime().
+   * @return False if a packet was dropped, either the offered one or an older one of the same
+   *     class.
+   */
+  boolean offer(TrafficClass trafficClass, BtpPacket packet, long arrivalNanos) {
+    ClassQueue queue = queues[trafficClass.ordinal()];
+    boolean accepted;
+    lock.lock();
+    try {
+      accepted = queue.offer(packet, arrivalNanos);
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+    if (!accepted) {
+      queue.dropped.increment();
+    }
+    return accepted;
+  }
+
+  /**
+   * Take the next packet to transmit, waiting for one if all queues are empty. Stale packets are
+   * dropped on the way.
+   *
+   * @return The oldest packet of the highest priority class that has one.
+   * @exception InterruptedException if interrupted while waiting.
+   */
+  BtpPacket take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (true) {
+        BtpPacket packet = poll();
+        if (packet != null) {
+          return packet;
+        }
+        notEmpty.await();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /* Return the first packet that isn't stale, or null if there is none.
+   * Must be called with the lock held. */
+  private BtpPacket poll() {
+    for (ClassQueue queue : queues) {
+      while (queue.size > 0) {
+        long arrivalNanos = queue.arrivalNanos[queue.head];
+        BtpPacket packet = queue.poll();
+        if (!staleFilter.isStale(queue.trafficClass, arrivalNanos, System.nanoTime())) {
+          takenClass = queue.trafficClass;
+          takenArrivalNanos = arrivalNanos;
+          return packet;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Return the traffic class of the packet last returned by take(). Must only be called by the
+   * thread calling take().
+   */
+  TrafficClass takenClass() {
+    return takenClass;
+  }
+
+  /**
+   * Return the time the router received the packet last returned by take(), as given by
+   * System.nanoTime(). Must only be called by the thread calling take().
+   */
+  long takenArrivalNanos() {
+    return takenArrivalNanos;
+  }
+
+  /** Return the number of packets queued in a class. */
+  int depth(TrafficClass trafficClass) {
+    lock.lock();
+    try {
+      return queues[trafficClass.ordinal()].size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Return the number of packets of a class dropped so far. */
+  long getDropped(TrafficClass trafficClass) {
+    return queues[trafficClass.ordinal()].dropped.getTotal();
+  }
+
+  /**
+   * Return a summary of the queues, with the packets dropped in the last metrics interval and the
+   * time spent queued since the last call, e.g., "DENM 0/16 dropped=0 queued n=2 p50=15.0us
+   * p99=20.0us p99.9=20.0us max=19.8us | ...". Queues that were empty and idle are left out, and
+   * the summary is empty if every queue was.
+   */
+  String takeSummary() {
+    StringBuilder summary = new StringBuilder();
+    for (ClassQueue queue : queues) {
+      String queued = queue.queuedStats.takeSummary();
+      int depth = depth(queue.trafficClass);
+      long dropped = queue.dropped.getLastInterval();
+      if (depth == 0 && dropped == 0 && queue.queuedStats.getLastCount() == 0) {
+        continue;
+      }
+      if (summary.length() > 0) {
+        summary.append(" | ");
+      }
+      summary
+          .append(queue.trafficClass)
+          .append(' ')
+          .append(depth)
+          .append('/')
+          .append(queue.packets.length)
+          .append(" dropped=")
+          .append(dropped)
+          .append(' ')
+          .append(queued);
+    }
+    return summary.toString();
+  }
+
+  /* Bounded FIFO of one traffic class. The packets, and the times they
+   * were queued and received by the router, are kept in preallocated
+   * circular arrays. Only accessed with the lock held, except for the
+   * statistics. */
+  private static final class ClassQueue {
+    private final TrafficClass trafficClass;
+    private final DropPolicy dropPolicy;
+    private final BtpPacket[] packets;
+    private final long[] queuedNanos;
+    private final long[] arrivalNanos;
+    private final Metrics.Counter dropped;
+    private final StageStats queuedStats = new StageStats("queued");
+    private int head = 0;
+    private int size = 0;
+
+    ClassQueue(
+        TrafficClass trafficClass, int capacity, DropPolicy dropPolicy, Metrics.Counter dropped) {
+      this.trafficClass = trafficClass;
+      this.dropped = dropped;
+      this.dropPolicy = dropPolicy;
+      this.packets = new BtpPacket[capacity];
+      this.queuedNanos = new long[capacity];
+      this.arrivalNanos = new long[capacity];
+    }
+
+    /* Return false if a packet had to be dropped */
+    boolean offer(BtpPacket packet, long arrival) {
+      boolean accepted = true;
+      if (size == packets.length) {
+        if (dropPolicy == DropPolicy.NEWEST) {
+          return false;
+        }
+        removeHead();
+        accepted = false;
+      }
+      int tail = (head + size) % packets.length;
+      packets[tail] = packet;
+      queuedNanos[tail] = System.nanoTime();
+      arrivalNanos[tail] = arrival;
+      size++;
+      return accepted;
+    }
+
+    BtpPacket poll() {
+      queuedStats.record(System.nanoTime() - queuedNanos[head]);
+      return removeHead();
+    }
+
+    private BtpPacket removeHead() {
+      BtpPacket packet = packets[head];
+      packets[head] = null;
+      head = (head + 1) % packets.length;
+      size--;
+      return packet;
+    }
+  }
+}
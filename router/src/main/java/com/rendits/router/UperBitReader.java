@@ -0,0 +1,135 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+/**
+ * Reads the bits of an unaligned packed encoding rules (UPER) message, most significant bit first.
+ * Used by the generated UPER codecs. The counterpart of {@link UperBitWriter}.
+ */
+public final class UperBitReader {
+  private final byte[] data;
+  private final int startBit;
+  private final int endBit;
+  private int bitPosition;
+
+  /**
+   * UperBitReader constructor.
+   *
+   * @param data The encoded message.
+   */
+  public UperBitReader(byte[] data) {
+    this(data, 0, data.length);
+  }
+
+  /**
+   * UperBitReader constructor.
+   *
+   * @param data Array holding the encoded message.
+   * @param offset Offset of the first byte of the message in the array.
+   * @param length Length of the message in bytes.
+   */
+  public UperBitReader(byte[] data, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > data.length) {
+      throw new IllegalArgumentException(
+          "Offset " + offset + " and length " + length + " do not fit in " + data.length + " bytes");
+    }
+    this.data = data;
+    this.startBit = offset * 8;
+    this.endBit = (offset + length) * 8;
+    this.bitPosition = startBit;
+  }
+
+  /**
+   * Read a single bit.
+   *
+   * @return The bit.
+   * @exception IllegalArgumentException if there are no bits left.
+   */
+  public boolean readBit() {
+    checkRemaining(1);
+    boolean bit = (data[bitPosition >>> 3] & (0x80 >>> (bitPosition & 7))) != 0;
+    bitPosition++;
+    return bit;
+  }
+
+  /**
+   * Read a number of bits as an unsigned value, most significant bit first.
+   *
+   * @param count Number of bits to read, between 0 and 63.
+   * @return The value.
+   * @exception IllegalArgumentException if there are not enough bits left.
+   */
+  public long readBits(int count) {
+    checkRemaining(count);
+    long value = 0;
+    while (count > 0) {
+      int available = 8 - (bitPosition & 7);
+      int n = Math.min(available, count);
+      int chunk = (data[bitPosition >>> 3] >>> (available - n)) & ((1 << n) - 1);
+      value = (value << n) | chunk;
+      bitPosition += n;
+      count -= n;
+    }
+    return value;
+  }
+
+  /**
+   * Read a constrained whole number written by {@link UperBitWriter#writeConstrainedInt}. Like
+   * UperEncoder, only the lower bound is applied. Values above the upper bound are returned as is.
+   *
+   * @param min Lower bound.
+   * @param max Upper bound.
+   * @return The value.
+   */
+  public long readConstrainedInt(long min, long max) {
+    return min + readBits(UperBitWriter.bitsFor(min, max));
+  }
+
+  /**
+   * Read a constrained whole number with an extension marker, written by {@link
+   * UperBitWriter#writeExtensibleConstrainedInt}.
+   *
+   * @param min Lower bound of the root range.
+   * @param max Upper bound of the root range.
+   * @return The value.
+   * @exception UnsupportedOperationException if the value is outside the root range. Decoding such
+   *     values is not supported.
+   */
+  public long readExtensibleConstrainedInt(long min, long max) {
+    if (readBit()) {
+      throw new UnsupportedOperationException(
+          "Value outside the root range " + min + ".." + max + " is not supported");
+    }
+    return readConstrainedInt(min, max);
+  }
+
+  /** Return the number of bits read so far. */
+  public int position() {
+    return bitPosition - startBit;
+  }
+
+  /** Return the number of bits left to read. */
+  public int remaining() {
+    return endBit - bitPosition;
+  }
+
+  private void checkRemaining(int bits) {
+    if (bits > endBit - bitPosition) {
+      throw new IllegalArgumentException(
+          "Can't read " + bits + " bits, only " + (endBit - bitPosition) + " remaining");
+    }
+  }
+}
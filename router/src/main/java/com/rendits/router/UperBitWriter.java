@@ -0,0 +1,154 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.Arrays;
+
+/**
+ * Writes the bits of an unaligned packed encoding rules (UPER) message. Bits are written most
+ * significant bit first into a growable byte array, and the last byte is padded with zeros. This
+ * is the same layout UperEncoder produces. Used by the generated UPER codecs. A writer can be
+ * reused for any number of messages by calling {@link #reset()} between them.
+ */
+public final class UperBitWriter {
+  private byte[] buffer;
+  private int bitPosition;
+
+  /** UperBitWriter constructor. */
+  public UperBitWriter() {
+    this(128);
+  }
+
+  /**
+   * UperBitWriter constructor.
+   *
+   * @param initialCapacity Initial capacity in bytes. The writer grows as needed.
+   */
+  public UperBitWriter(int initialCapacity) {
+    this.buffer = new byte[Math.max(initialCapacity, 1)];
+  }
+
+  /** Discard everything written so far. */
+  public void reset() {
+    Arrays.fill(buffer, 0, byteLength(), (byte) 0);
+    bitPosition = 0;
+  }
+
+  /**
+   * Write a single bit.
+   *
+   * @param bit The bit to write.
+   */
+  public void writeBit(boolean bit) {
+    ensureCapacity(1);
+    if (bit) {
+      buffer[bitPosition >>> 3] |= (byte) (0x80 >>> (bitPosition & 7));
+    }
+    bitPosition++;
+  }
+
+  /**
+   * Write the lowest bits of a value, most significant bit first.
+   *
+   * @param value The value to write.
+   * @param count Number of bits to write, between 0 and 64.
+   */
+  public void writeBits(long value, int count) {
+    ensureCapacity(count);
+    while (count > 0) {
+      int free = 8 - (bitPosition & 7);
+      int n = Math.min(free, count);
+      int chunk = (int) (value >>> (count - n)) & ((1 << n) - 1);
+      buffer[bitPosition >>> 3] |= (byte) (chunk << (free - n));
+      bitPosition += n;
+      count -= n;
+    }
+  }
+
+  /**
+   * Write a constrained whole number, i.e., an integer with a lower and an upper bound. The value
+   * is written as its offset from the lower bound, using as few bits as the range allows.
+   *
+   * @param value The value to write.
+   * @param min Lower bound.
+   * @param max Upper bound.
+   * @exception IllegalArgumentException if the value is out of range.
+   */
+  public void writeConstrainedInt(long value, long min, long max) {
+    if (value < min || value > max) {
+      throw new IllegalArgumentException(
+          "Value " + value + " is outside the range " + min + ".." + max);
+    }
+    writeBits(value - min, bitsFor(min, max));
+  }
+
+  /**
+   * Write a constrained whole number with an extension marker. This is a constrained whole number
+   * preceded by a bit telling whether the value is outside the root range.
+   *
+   * @param value The value to write.
+   * @param min Lower bound of the root range.
+   * @param max Upper bound of the root range.
+   * @exception UnsupportedOperationException if the value is outside the root range. Encoding such
+   *     values is not supported.
+   */
+  public void writeExtensibleConstrainedInt(long value, long min, long max) {
+    boolean outsideRange = value < min || value > max;
+    writeBit(outsideRange);
+    if (outsideRange) {
+      throw new UnsupportedOperationException(
+          "Value " + value + " is outside the root range " + min + ".." + max);
+    }
+    writeBits(value - min, bitsFor(min, max));
+  }
+
+  /** Return the number of bits written so far. */
+  public int bitLength() {
+    return bitPosition;
+  }
+
+  /** Return the number of bytes written so far, counting a partially written last byte. */
+  public int byteLength() {
+    return (bitPosition + 7) >>> 3;
+  }
+
+  /**
+   * Return a copy of the bytes written so far.
+   *
+   * @return The encoded message.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, byteLength());
+  }
+
+  /**
+   * Return the number of bits needed to write any value in a range.
+   *
+   * @param min Lower bound of the range.
+   * @param max Upper bound of the range.
+   * @return Number of bits.
+   */
+  static int bitsFor(long min, long max) {
+    return 64 - Long.numberOfLeadingZeros(max - min);
+  }
+
+  private void ensureCapacity(int bits) {
+    int bytesNeeded = (bitPosition + bits + 7) >>> 3;
+    if (bytesNeeded > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(bytesNeeded, buffer.length * 2));
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.router;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Strategy used by the consumers of a RingBuffer to wait for the producer to publish new entries.
+ * The strategies trade latency for CPU usage:
+ *
+ * <ul>
+ *   <li>blocking: park on a lock until the producer signals. Uses no CPU while idle.
+ *   <li>sleeping: spin, yield and then sleep for short periods. Doesn't need the producer to
+ *       signal.
+ *   <li>yielding: spin and then yield the CPU. Low latency, but keeps a core busy while idle.
+ *   <li>busySpin: spin without ever giving up the CPU. Lowest latency. Only use it if every
+ *       consumer thread has a core of its own.
+ * </ul>
+ */
+abstract class WaitStrategy {
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /**
+   * Create a wait strategy from its name.
+   *
+   * @param name One of blocking, sleeping, yielding or busySpin.
+   * @return A new wait strategy.
+   * @exception IllegalArgumentException if there is no strategy by that name.
+   */
+  static WaitStrategy forName(String name) {
+    switch (name) {
+      case "blocking":
+        return new Blocking();
+      case "sleeping":
+        return new Sleeping();
+      case "yielding":
+        return new Yielding();
+      case "busySpin":
+        return new BusySpin();
+      default:
+        throw new IllegalArgumentException(
+            "waitStrategy must be one of blocking, sleeping, yielding or busySpin.");
+    }
+  }
+
+  /**
+   * Wait until the producer has published the given sequence.
+   *
+   * @param sequence Sequence to wait for.
+   * @param cursor Sequence most recently published by the producer.
+   * @return The sequence most recently published, which is at least the one waited for.
+   * @exception InterruptedException if interrupted while waiting.
+   */
+  abstract long waitFor(long sequence, AtomicLong cursor) throws InterruptedException;
+
+  /** Called by the producer after publishing. Wakes up consumers blocked in waitFor(). */
+  void signalAll() {}
+
+  /* Throw if the waiting thread was interrupted. Used by the strategies
+   * that never block, so that consumers can still be shut down. */
+  private static void checkInterrupted() throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  private static final class Blocking extends WaitStrategy {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+
+    @Override
+    long waitFor(long sequence, AtomicLong cursor) throws InterruptedException {
+      long available = cursor.get();
+      if (available >= sequence) {
+        return available;
+      }
+      lock.lockInterruptibly();
+      try {
+        while ((available = cursor.get()) < sequence) {
+          published.await();
+        }
+      } finally {
+        lock.unlock();
+      }
+      return available;
+    }
+
+    @Override
+    void signalAll() {
+      lock.lock();
+      try {
+        published.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private static final class Sleeping extends WaitStrategy {
+    @Override
+    long waitFor(long sequence, AtomicLong cursor) throws InterruptedException {
+      long available;
+      int tries = 0;
+      while ((available = cursor.get()) < sequence) {
+        checkInterrupted();
+        if (tries < SPIN_TRIES) {
+          tries++;
+        } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+          tries++;
+          Thread.yield();
+        } else {
+          LockSupport.parkNanos(SLEEP_NANOS);
+        }
+      }
+      return available;
+    }
+  }
+
+  private static final class Yielding extends WaitStrategy {
+    @Override
+    long waitFor(long sequence, AtomicLong cursor) throws InterruptedException {
+      long available;
+      int tries = 0;
+      while ((available = cursor.get()) < sequence) {
+        checkInterrupted();
+        if (tries < SPIN_TRIES) {
+          tries++;
+        } else {
+          Thread.yield();
+        }
+      }
+      return available;
+    }
+  }
+
+  private static final class BusySpin extends WaitStrategy {
+    @Override
+    long waitFor(long sequence, AtomicLong cursor) throws InterruptedException {
+      long available;
+      while ((available = cursor.get()) < sequence) {
+        checkInterrupted();
+      }
+      return available;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * Rendits vehicle router. The UPER codecs for the messages the router handles are generated at
+ * compile time into net.gcdc.camdenm.UperCodecs, see {@link com.rendits.codegen.GenerateUperCodec}.
+ * The codecs of the containers the simple messages don't carry are used by ProperTranscoder to
+ * skip over them.
+ */
+@GenerateUperCodec({
+  Cam.class,
+  Denm.class,
+  IgameCooperativeLaneChangeMessage.class,
+  AccelerationControl.class,
+  SteeringWheelAngle.class,
+  LateralAcceleration.class,
+  VerticalAcceleration.class,
+  CenDsrcTollingZone.class,
+  PathHistory.class,
+  SpecialVehicleContainer.class,
+  EventHistory.class,
+  LocationContainer.class,
+  ImpactReductionContainer.class,
+  RoadWorksContainerExtended.class,
+  StationaryVehicleContainer.class
+})
+package com.rendits.router;
+
+import com.rendits.codegen.GenerateUperCodec;
+import net.gcdc.camdenm.CoopIts.AccelerationControl;
+import net.gcdc.camdenm.CoopIts.Cam;
+import net.gcdc.camdenm.CoopIts.CenDsrcTollingZone;
+import net.gcdc.camdenm.CoopIts.Denm;
+import net.gcdc.camdenm.CoopIts.EventHistory;
+import net.gcdc.camdenm.CoopIts.ImpactReductionContainer;
+import net.gcdc.camdenm.CoopIts.LateralAcceleration;
+import net.gcdc.camdenm.CoopIts.LocationContainer;
+import net.gcdc.camdenm.CoopIts.PathHistory;
+import net.gcdc.camdenm.CoopIts.RoadWorksContainerExtended;
+import net.gcdc.camdenm.CoopIts.SpecialVehicleContainer;
+import net.gcdc.camdenm.CoopIts.StationaryVehicleContainer;
+import net.gcdc.camdenm.CoopIts.SteeringWheelAngle;
+import net.gcdc.camdenm.CoopIts.VerticalAcceleration;
+import net.gcdc.camdenm.Iclcm.IgameCooperativeLaneChangeMessage;
@@ -0,0 +1,126 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class CamGeneratorTest {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /* About 4.5 meters of latitude, in 1e-7 degrees */
+  private static final int FIVE_METERS = 450;
+
+  private final ByteBuffer egoBuffer =
+      ByteBuffer.allocate(SimpleEgoStateView.SIMPLE_EGO_STATE_LENGTH);
+  private final SimpleEgoStateView ego = new SimpleEgoStateView();
+  private final ByteBuffer out = ByteBuffer.allocate(SimpleCam.SIMPLE_CAM_LENGTH);
+  private final SimpleCamView cam = new SimpleCamView();
+
+  @Test
+  public void testTriggers() {
+    CamGenerator generator = new CamGenerator();
+    long start = System.nanoTime();
+    assertTrue(generator.update(ego(0, 0, 900), start, out));
+
+    /* Nothing has changed */
+    assertFalse(generator.update(ego(0, 0, 900), start + 500 * MILLIS, out));
+
+    /* Heading */
+    assertFalse(generator.update(ego(0, 40, 900), start + 550 * MILLIS, out));
+    assertTrue(generator.update(ego(0, 41, 900), start + 600 * MILLIS, out));
+
+    /* Heading wraps around */
+    assertTrue(generator.update(ego(0, 3599, 900), start + 700 * MILLIS, out));
+    assertFalse(generator.update(ego(0, 39, 900), start + 800 * MILLIS, out));
+
+    /* Speed */
+    assertFalse(generator.update(ego(0, 39, 950), start + 900 * MILLIS, out));
+    assertTrue(generator.update(ego(0, 39, 951), start + 1000 * MILLIS, out));
+
+    /* Position */
+    assertTrue(generator.update(ego(FIVE_METERS, 39, 951), start + 1100 * MILLIS, out));
+
+    /* Maximum interval */
+    assertFalse(generator.update(ego(FIVE_METERS, 39, 951), start + 2099 * MILLIS, out));
+    assertTrue(generator.update(ego(FIVE_METERS, 39, 951), start + 2100 * MILLIS, out));
+  }
+
+  @Test
+  public void testMinimumInterval() {
+    CamGenerator generator = new CamGenerator();
+    long start = System.nanoTime();
+    assertTrue(generator.update(ego(0, 0, 900), start, out));
+    assertFalse(generator.update(ego(FIVE_METERS, 900, 2000), start + 99 * MILLIS, out));
+    assertTrue(generator.update(ego(FIVE_METERS, 900, 2000), start + 100 * MILLIS, out));
+  }
+
+  @Test
+  public void testLowFrequencyContainer() {
+    CamGenerator generator = new CamGenerator();
+    long start = System.nanoTime();
+    assertTrue(generator.update(ego(0, 0, 900), start, out));
+    assertTrue(generated().hasLowFrequencyContainer());
+    assertTrue(generator.update(ego(0, 100, 900), start + 100 * MILLIS, out));
+    assertFalse(generated().hasLowFrequencyContainer());
+    assertTrue(generator.update(ego(0, 200, 900), start + 500 * MILLIS, out));
+    assertTrue(generated().hasLowFrequencyContainer());
+    assertTrue(generator.update(ego(0, 300, 900), start + 900 * MILLIS, out));
+    assertFalse(generated().hasLowFrequencyContainer());
+  }
+
+  @Test
+  public void testTemplate() {
+    SimpleCam sample = SampleMessages.getSampleCam();
+    byte[] sampleBytes = sample.asByteArray();
+    CamGenerator generator = new CamGenerator();
+    generator.setTemplate(cam.wrap(ByteBuffer.wrap(sampleBytes), 0, sampleBytes.length));
+    assertTrue(generator.update(ego(FIVE_METERS, 1234, 987), System.nanoTime(), out));
+
+    SimpleCamView generated = generated();
+    assertEquals(ego.getStationId(), generated.getStationId());
+    assertEquals(ego.getGenerationDeltaTime(), generated.getGenerationDeltaTime());
+    assertEquals(ego.getLatitude(), generated.getLatitude());
+    assertEquals(ego.getLongitude(), generated.getLongitude());
+    assertEquals(1234, generated.getHeading());
+    assertEquals(987, generated.getSpeed());
+    assertEquals(ego.getYawRate(), generated.getYawRate());
+    assertEquals(sample.stationType, generated.getStationType());
+    assertEquals(sample.vehicleLength, generated.getVehicleLength());
+    assertEquals(sample.vehicleWidth, generated.getVehicleWidth());
+    assertEquals(sample.headingConfidence, generated.getHeadingConfidence());
+    assertEquals(sample.vehicleRole, generated.getVehicleRole());
+
+    /* The generated CAM can be transcoded like any other */
+    assertEquals(
+        SimpleCam.SIMPLE_CAM_LENGTH,
+        new ProperTranscoder().transcodeCam(new SimpleTranscoder().transcode(generated)));
+  }
+
+  /* Write an ego state of a vehicle at latitude 57.7 degrees and
+   * return a view of it */
+  private SimpleEgoStateView ego(int latitudeOffset, int heading, int speed) {
+    egoBuffer.putInt(1, 1234);
+    egoBuffer.put(0, SimpleEgoStateView.MESSAGE_ID);
+    egoBuffer.putInt(5, 4321);
+    egoBuffer.putInt(9, 577000000 + latitudeOffset);
+    egoBuffer.putInt(13, 119700000);
+    egoBuffer.putInt(17, 1500);
+    egoBuffer.putInt(21, heading);
+    egoBuffer.putInt(25, speed);
+    egoBuffer.putInt(29, 10);
+    egoBuffer.putInt(33, -20);
+    ego.wrap(egoBuffer, 0, SimpleEgoStateView.SIMPLE_EGO_STATE_LENGTH);
+    assertEquals(SimpleMessageView.VALID, ego.validate());
+    return ego;
+  }
+
+  private SimpleCamView generated() {
+    SimpleCamView view = cam.wrap(out, 0, SimpleCam.SIMPLE_CAM_LENGTH);
+    assertEquals(SimpleMessageView.VALID, view.validate());
+    return view;
+  }
+}
@@ -0,0 +1,102 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class ConflationMailboxesTest {
+  private static final byte CAM = 2;
+  private static final byte ICLCM = 10;
+
+  private final ByteBuffer out = ByteBuffer.allocate(SimpleIclcm.SIMPLE_iCLCM_LENGTH);
+  private final Metrics metrics = new Metrics();
+
+  @Test
+  public void testLatestValueWins() throws InterruptedException {
+    ConflationMailboxes mailboxes = mailboxes(16);
+    assertTrue(offer(mailboxes, CAM, 1, 10));
+    assertTrue(offer(mailboxes, CAM, 2, 20));
+    assertTrue(offer(mailboxes, CAM, 1, 11));
+    assertTrue(offer(mailboxes, ICLCM, 1, 30));
+    assertEquals(3, mailboxes.size());
+
+    /* In the order the mailboxes were filled, with the latest message */
+    assertTake(mailboxes, CAM, 1, 11);
+    assertTake(mailboxes, CAM, 2, 20);
+    assertTake(mailboxes, ICLCM, 1, 30);
+    assertEquals(ConflationMailboxes.NONE, mailboxes.take(out, 0));
+
+    /* A mailbox is filled again once taken */
+    assertTrue(offer(mailboxes, CAM, 1, 12));
+    assertTake(mailboxes, CAM, 1, 12);
+    metrics.tick(System.nanoTime());
+    String summary = mailboxes.takeSummary();
+    assertTrue(summary, summary.contains("superseded=1 delivered=4 dropped=0"));
+  }
+
+  @Test
+  public void testFull() throws InterruptedException {
+    ConflationMailboxes mailboxes = mailboxes(2);
+    assertTrue(offer(mailboxes, CAM, 1, 10));
+    assertTrue(offer(mailboxes, CAM, 2, 20));
+    assertTrue(offer(mailboxes, CAM, 3, 30));
+    assertTrue(offer(mailboxes, CAM, 2, 21));
+    assertEquals(2, mailboxes.size());
+    assertTake(mailboxes, CAM, 1, 10);
+    assertTrue(offer(mailboxes, CAM, 3, 31));
+    assertTake(mailboxes, CAM, 2, 21);
+    assertTake(mailboxes, CAM, 3, 31);
+    metrics.tick(System.nanoTime());
+    String summary = mailboxes.takeSummary();
+    assertTrue(summary, summary.contains("dropped=1"));
+  }
+
+  @Test
+  public void testNotConflated() {
+    ConflationMailboxes mailboxes = mailboxes(2);
+    assertFalse(offer(mailboxes, (byte) 1, 1, 10));
+    assertEquals(0, mailboxes.size());
+  }
+
+  @Test
+  public void testWaitsForMessage() throws InterruptedException {
+    final ConflationMailboxes mailboxes = mailboxes(2);
+    Thread producer =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                offer(mailboxes, CAM, 7, 70);
+              }
+            });
+    producer.start();
+    assertTake(mailboxes, CAM, 7, 70);
+    producer.join();
+  }
+
+  private void assertTake(ConflationMailboxes mailboxes, byte messageId, int stationId, int value)
+      throws InterruptedException {
+    assertEquals(messageId, mailboxes.take(out, 1000000000L));
+    assertEquals(messageId == CAM ? SimpleCam.SIMPLE_CAM_LENGTH : 20, out.remaining());
+    assertEquals(stationId, out.getInt(1));
+    assertEquals(value, out.getInt(5));
+  }
+
+  private ConflationMailboxes mailboxes(int maxMailboxes) {
+    return new ConflationMailboxes(
+        new byte[] {CAM, ICLCM}, maxMailboxes, SimpleIclcm.SIMPLE_iCLCM_LENGTH, metrics);
+  }
+
+  private static boolean offer(
+      ConflationMailboxes mailboxes, byte messageId, int stationId, int value) {
+    int length = messageId == CAM ? SimpleCam.SIMPLE_CAM_LENGTH : 20;
+    ByteBuffer message = ByteBuffer.allocate(length);
+    message.put(0, messageId);
+    message.putInt(1, stationId);
+    message.putInt(5, value);
+    return mailboxes.offer(message, 0, length);
+  }
+}
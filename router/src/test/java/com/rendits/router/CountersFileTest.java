@@ -0,0 +1,64 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.junit.Test;
+
+public class CountersFileTest {
+
+  @Test
+  public void testPublish() throws IOException {
+    Metrics metrics = new Metrics();
+    Metrics.Counter sent = metrics.counter("tx_cam", "CAMs transmitted");
+    final AtomicLong depth = new AtomicLong(3);
+    metrics.gauge(
+        "tx_ingress_depth",
+        "Messages waiting",
+        new LongSupplier() {
+          @Override
+          public long getAsLong() {
+            return depth.get();
+          }
+        });
+    sent.add(5);
+
+    File file = File.createTempFile("counters", null);
+    file.deleteOnExit();
+    CountersFile countersFile = new CountersFile(file, metrics);
+    CountersReader reader = new CountersReader(file);
+    assertEquals(2, reader.size());
+    assertEquals("tx_cam", reader.getName(0));
+    assertEquals("CAMs transmitted", reader.getHelp(0));
+    assertFalse(reader.isGauge(0));
+    assertEquals(5, reader.getValue(0));
+    assertEquals("tx_ingress_depth", reader.getName(1));
+    assertTrue(reader.isGauge(1));
+    assertEquals(3, reader.getValue(1));
+    assertTrue(reader.getPublishTimeMillis() >= reader.getStartTimeMillis());
+
+    /* The reader sees the values as they are published */
+    sent.increment();
+    depth.set(0);
+    assertEquals(5, reader.getValue(0));
+    countersFile.update();
+    assertEquals(6, reader.getValue(0));
+    assertEquals(0, reader.getValue(1));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotCountersFile() throws IOException {
+    File file = File.createTempFile("counters", null);
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[CountersFile.HEADER_LENGTH]);
+    }
+    new CountersReader(file);
+  }
+}
@@ -0,0 +1,135 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import net.gcdc.camdenm.CoopIts.Termination;
+import org.junit.Test;
+
+public class DenmEventTableTest {
+  private static final int SEQUENCE_NUMBER = 17;
+
+  /* Offsets in the simple DENM */
+  private static final int GENERATION_DELTA_TIME = 5;
+  private static final int MANAGEMENT_MASK = 10;
+  private static final int REFERENCE_TIME = 15;
+  private static final int TERMINATION = 19;
+  private static final int LATITUDE = 23;
+
+  private final SimpleTranscoder transcoder = new SimpleTranscoder();
+  private final DenmEventTable table = new DenmEventTable(16, new Metrics());
+  private final long now = System.nanoTime();
+
+  @Test
+  public void testHeader() {
+    byte[] denm = denm(3, 500, -1, 0);
+    assertEquals(
+        DenmRepeater.actionId(SampleMessages.getSampleDenm().stationId, SEQUENCE_NUMBER),
+        ProperTranscoder.denmActionId(denm));
+    assertEquals(3 * 65536 + 500, ProperTranscoder.denmReferenceTime(denm));
+    assertEquals(-1, ProperTranscoder.denmTermination(denm));
+    assertEquals(
+        Termination.isCancellation.ordinal(),
+        ProperTranscoder.denmTermination(denm(3, 500, Termination.isCancellation.ordinal(), 0)));
+
+    byte[] tooShort = Arrays.copyOf(denm, 10);
+    assertEquals(-1, ProperTranscoder.denmActionId(tooShort));
+    assertEquals(-1, ProperTranscoder.denmReferenceTime(tooShort));
+    assertEquals(-1, ProperTranscoder.denmTermination(tooShort));
+  }
+
+  @Test
+  public void testRepetitions() {
+    assertFalse(isRedundant(denm(3, 500, -1, 0)));
+    forward(denm(3, 500, -1, 0), 10);
+
+    /* Repetition */
+    assertTrue(isRedundant(denm(3, 500, -1, 0)));
+
+    /* Same reference time, different content */
+    assertFalse(isRedundant(denm(3, 500, -1, 5)));
+
+    /* Update and outdated update */
+    assertFalse(isRedundant(denm(3, 600, -1, 0)));
+    forward(denm(3, 600, -1, 0), 10);
+    assertTrue(isRedundant(denm(3, 500, -1, 0)));
+
+    /* Cancellation, then its repetitions */
+    int cancellation = Termination.isCancellation.ordinal();
+    assertFalse(isRedundant(denm(3, 600, cancellation, 0)));
+    forward(denm(3, 600, cancellation, 0), 10);
+    assertTrue(isRedundant(denm(3, 600, cancellation, 0)));
+    assertTrue(isRedundant(denm(3, 600, -1, 0)));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  public void testExpiry() {
+    forward(denm(3, 500, -1, 0), 1);
+    assertTrue(isRedundant(denm(3, 500, -1, 0)));
+
+    /* Events are expired when a DENM is forwarded */
+    byte[] other = denm(4, 500, -1, 0);
+    table.forwarded(
+        ProperTranscoder.denmActionId(other) + 1,
+        ProperTranscoder.denmReferenceTime(other),
+        -1,
+        Arrays.hashCode(other),
+        1,
+        now + TimeUnit.MILLISECONDS.toNanos(1001));
+    assertEquals(1, table.size());
+    assertFalse(isRedundant(denm(3, 500, -1, 0)));
+  }
+
+  @Test
+  public void testFull() {
+    DenmEventTable small = new DenmEventTable(1, new Metrics());
+    small.forwarded(1, 0, -1, 0, 10, now);
+    small.forwarded(2, 0, -1, 0, 10, now);
+    assertEquals(1, small.size());
+    assertTrue(small.isRedundant(1, 0, -1, 0));
+    assertFalse(small.isRedundant(2, 0, -1, 0));
+  }
+
+  private boolean isRedundant(byte[] denm) {
+    return table.isRedundant(
+        ProperTranscoder.denmActionId(denm),
+        ProperTranscoder.denmReferenceTime(denm),
+        ProperTranscoder.denmTermination(denm),
+        Arrays.hashCode(denm));
+  }
+
+  private void forward(byte[] denm, int validitySeconds) {
+    table.forwarded(
+        ProperTranscoder.denmActionId(denm),
+        ProperTranscoder.denmReferenceTime(denm),
+        ProperTranscoder.denmTermination(denm),
+        Arrays.hashCode(denm),
+        validitySeconds,
+        now);
+  }
+
+  /* Encode the sample DENM with the given reference time, termination
+   * (-1 for none) and latitude */
+  private byte[] denm(int referenceTime, int generationDeltaTime, int termination, int latitude) {
+    byte[] simple = SampleMessages.getSampleDenm().asByteArray();
+    ByteBuffer buffer = ByteBuffer.wrap(simple);
+    buffer.putInt(GENERATION_DELTA_TIME, generationDeltaTime);
+    buffer.putInt(REFERENCE_TIME, referenceTime);
+    byte managementMask = buffer.get(MANAGEMENT_MASK);
+    if (termination < 0) {
+      buffer.put(MANAGEMENT_MASK, (byte) (managementMask & 0x7f));
+    } else {
+      buffer.put(MANAGEMENT_MASK, (byte) (managementMask | 0x80));
+      buffer.putInt(TERMINATION, termination);
+    }
+    buffer.putInt(LATITUDE, latitude);
+    SimpleDenmView view = new SimpleDenmView().wrap(buffer, 0, simple.length);
+    assertEquals(SimpleMessageView.VALID, view.validate());
+    return transcoder.transcode(view, SEQUENCE_NUMBER);
+  }
+}
@@ -0,0 +1,142 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.gcdc.camdenm.CoopIts.Termination;
+import net.gcdc.geonetworking.Destination.Geobroadcast;
+import org.junit.Test;
+
+public class DenmRepeaterTest {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /* Offsets in the simple DENM */
+  private static final int MANAGEMENT_MASK = 10;
+  private static final int VALIDITY_DURATION = 55;
+  private static final int TRANSMISSION_INTERVAL = 59;
+  private static final int CAUSE_CODE = 72;
+
+  private final List<byte[]> sent = new ArrayList<>();
+  private final long start = System.nanoTime();
+  private final DenmRepeater repeater =
+      new DenmRepeater(
+          new DenmRepeater.Sender() {
+            @Override
+            public void send(byte[] bytes, Geobroadcast destination, long nowNanos) {
+              sent.add(bytes);
+            }
+          },
+          start,
+          new Metrics());
+
+  @Test
+  public void testRepetition() {
+    SimpleDenmView denm = denm(2, 100, 1, false);
+    byte[] bytes = new byte[1];
+    repeater.update(denm, repeater.sequenceNumber(denm), bytes, null, start);
+    assertEquals(1, repeater.active());
+
+    repeater.advance(start + 99 * MILLIS);
+    assertEquals(0, sent.size());
+    repeater.advance(start + 100 * MILLIS);
+    assertEquals(1, sent.size());
+    assertSame(bytes, sent.get(0));
+    repeater.advance(start + 950 * MILLIS);
+    assertEquals(9, sent.size());
+
+    /* The validity of 1s has passed */
+    repeater.advance(start + 1500 * MILLIS);
+    assertEquals(9, sent.size());
+    assertEquals(0, repeater.active());
+  }
+
+  @Test
+  public void testLongInterval() {
+    SimpleDenmView denm = denm(2, 7000, 60, false);
+    repeater.update(denm, repeater.sequenceNumber(denm), new byte[1], null, start);
+    repeater.advance(start + 6990 * MILLIS);
+    assertEquals(0, sent.size());
+    repeater.advance(start + 7000 * MILLIS);
+    assertEquals(1, sent.size());
+    repeater.advance(start + 20000 * MILLIS);
+    assertEquals(2, sent.size());
+  }
+
+  @Test
+  public void testUpdateAndCancel() {
+    SimpleDenmView denm = denm(2, 100, 10, false);
+    int sequenceNumber = repeater.sequenceNumber(denm);
+    repeater.update(denm, sequenceNumber, new byte[1], null, start);
+
+    /* Another cause is another event */
+    SimpleDenmView other = denm(3, 100, 10, false);
+    assertFalse(sequenceNumber == repeater.sequenceNumber(other));
+
+    /* An update keeps the sequence number and replaces the cached DENM */
+    denm = denm(2, 100, 10, false);
+    assertEquals(sequenceNumber, repeater.sequenceNumber(denm));
+    byte[] updated = new byte[2];
+    repeater.update(denm, sequenceNumber, updated, null, start + 50 * MILLIS);
+    repeater.advance(start + 149 * MILLIS);
+    assertEquals(0, sent.size());
+    repeater.advance(start + 150 * MILLIS);
+    assertSame(updated, sent.get(0));
+
+    /* A termination cancels the event */
+    denm = denm(2, 100, 10, true);
+    repeater.update(denm, repeater.sequenceNumber(denm), new byte[1], null, start + 200 * MILLIS);
+    assertEquals(0, repeater.active());
+    repeater.advance(start + 1000 * MILLIS);
+    assertEquals(1, sent.size());
+  }
+
+  @Test
+  public void testNegation() {
+    SimpleDenm simpleDenm = SampleMessages.getSampleDenm();
+    byte[] simple = simpleDenm.asByteArray();
+    ByteBuffer buffer = ByteBuffer.wrap(simple);
+    buffer.put(MANAGEMENT_MASK, (byte) 0x18);
+    buffer.putInt(TRANSMISSION_INTERVAL, 100);
+    buffer.putInt(VALIDITY_DURATION, 10);
+    SimpleDenmView denm = new SimpleDenmView().wrap(buffer, 0, simple.length);
+    assertEquals(SimpleMessageView.VALID, denm.validate());
+
+    int sequenceNumber = repeater.sequenceNumber(denm);
+    byte[] bytes = new SimpleTranscoder().transcode(denm, sequenceNumber);
+    repeater.update(denm, sequenceNumber, bytes, null, start);
+    long actionId = ProperTranscoder.denmActionId(bytes);
+    assertEquals(DenmRepeater.actionId(simpleDenm.stationId, sequenceNumber % 65535), actionId);
+    assertEquals(-1, ProperTranscoder.denmTermination(bytes));
+
+    /* A negation of the event by another station */
+    buffer.put(MANAGEMENT_MASK, (byte) 0x80);
+    buffer.putInt(19, Termination.isNegation.ordinal());
+    byte[] negation = new SimpleTranscoder().transcode(denm, sequenceNumber);
+    assertEquals(Termination.isNegation.ordinal(), ProperTranscoder.denmTermination(negation));
+    assertEquals(actionId, ProperTranscoder.denmActionId(negation));
+    assertTrue(repeater.negate(actionId));
+    assertEquals(0, repeater.active());
+    assertFalse(repeater.negate(actionId));
+  }
+
+  /* Return a view of the sample DENM with the given cause, transmission
+   * interval and validity, with or without a termination */
+  private static SimpleDenmView denm(
+      int causeCode, int transmissionInterval, int validity, boolean terminate) {
+    byte[] simple = SampleMessages.getSampleDenm().asByteArray();
+    ByteBuffer buffer = ByteBuffer.wrap(simple);
+    buffer.put(MANAGEMENT_MASK, (byte) (terminate ? 0x98 : 0x18));
+    buffer.putInt(TRANSMISSION_INTERVAL, transmissionInterval);
+    buffer.putInt(VALIDITY_DURATION, validity);
+    buffer.putInt(CAUSE_CODE, causeCode);
+    SimpleDenmView view = new SimpleDenmView().wrap(buffer, 0, simple.length);
+    assertEquals(SimpleMessageView.VALID, view.validate());
+    return view;
+  }
+}
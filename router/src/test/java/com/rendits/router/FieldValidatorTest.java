@@ -0,0 +1,57 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import net.gcdc.camdenm.CoopIts.Latitude;
+import net.gcdc.camdenm.CoopIts.VehicleRole;
+import net.gcdc.camdenm.CoopIts.YawRateConfidence;
+import org.junit.Test;
+
+public class FieldValidatorTest {
+
+  @Test
+  public void testRange() {
+    FieldValidator latitude = SimpleCam.LATITUDE;
+    assertTrue(latitude.check(Latitude.unavailable));
+    assertTrue(latitude.check(-900000000));
+    assertFalse(latitude.check(-900000001));
+    assertFalse(latitude.check(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testEnum() {
+    FieldValidator vehicleRole = SimpleCam.VEHICLE_ROLE;
+    for (VehicleRole role : VehicleRole.values()) {
+      assertTrue(vehicleRole.check((int) role.value()));
+    }
+    assertFalse(vehicleRole.check(-1));
+    assertFalse(vehicleRole.check(VehicleRole.values().length));
+  }
+
+  @Test
+  public void testFailuresAreCounted() {
+    FieldValidator yawRateConfidence = SimpleCam.YAW_RATE_CONFIDENCE;
+    long failures = yawRateConfidence.getFailures();
+
+    /* An invalid yaw rate confidence is replaced with the default, the
+     * message is still accepted. */
+    byte[] buffer = SampleMessages.getSampleCam().asByteArray();
+    ByteBuffer.wrap(buffer).putInt(74, YawRateConfidence.values().length);
+    new SimpleCam(buffer);
+    new SimpleCam(buffer);
+
+    assertEquals(failures + 2, yawRateConfidence.getFailures());
+    assertTrue(SimpleCam.validators().contains(yawRateConfidence));
+  }
+
+  @Test
+  public void testRegister() {
+    Metrics metrics = new Metrics();
+    Metrics.Counter counter = SimpleCam.YAW_RATE_CONFIDENCE.register(metrics);
+    assertEquals("tx_invalid_cam_yaw_rate_confidence", counter.getName());
+    assertEquals(SimpleCam.YAW_RATE_CONFIDENCE.getFailures(), counter.getTotal());
+  }
+}
@@ -0,0 +1,60 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class IntIntMapTest {
+
+  @Test
+  public void testPutGetRemove() {
+    IntIntMap map = new IntIntMap(4);
+    map.put(0, 7);
+    map.put(-5, 3);
+    assertEquals(7, map.get(0));
+    assertEquals(3, map.get(-5));
+    assertEquals(IntIntMap.MISSING, map.get(1));
+    map.put(0, 8);
+    assertEquals(8, map.get(0));
+    assertEquals(2, map.size());
+    assertEquals(8, map.remove(0));
+    assertEquals(IntIntMap.MISSING, map.remove(0));
+    assertEquals(IntIntMap.MISSING, map.get(0));
+    assertEquals(1, map.size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFull() {
+    IntIntMap map = new IntIntMap(2);
+    map.put(1, 1);
+    map.put(2, 2);
+    map.put(3, 3);
+  }
+
+  /* Random operations give the same results as a HashMap, which
+   * exercises the backward shift of colliding keys on removal. */
+  @Test
+  public void testRandom() {
+    Random random = new Random(2018);
+    IntIntMap map = new IntIntMap(64);
+    Map<Integer, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      int key = random.nextInt(128);
+      if (random.nextBoolean() && (expected.size() < 64 || expected.containsKey(key))) {
+        map.put(key, i);
+        expected.put(key, i);
+      } else {
+        Integer removed = expected.remove(key);
+        assertEquals(removed == null ? IntIntMap.MISSING : removed, map.remove(key));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    for (int key = 0; key < 128; key++) {
+      Integer value = expected.get(key);
+      assertEquals(value == null ? IntIntMap.MISSING : value, map.get(key));
+    }
+  }
+}
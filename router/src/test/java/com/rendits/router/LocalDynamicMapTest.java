@@ -0,0 +1,174 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LocalDynamicMapTest {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /* Position of the vehicle, and 1e-7 degrees of latitude per meter */
+  private static final int LATITUDE = 577000000;
+  private static final int LONGITUDE = 119700000;
+  private static final double UNITS_PER_METER = 1e7 / (6371000 * Math.PI / 180);
+
+  private final long now = System.nanoTime();
+  private final ByteBuffer request = ByteBuffer.allocate(LocalDynamicMap.QUERY_LENGTH);
+  private final ByteBuffer response = ByteBuffer.allocate(8192);
+
+  @Test
+  public void testStationsWithin() {
+    LocalDynamicMap ldm = new LocalDynamicMap(64, 8, 100, 1000, new Metrics());
+    ldm.updateStation(cam(1, 50, 0), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    ldm.updateStation(cam(2, -150, 0), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    ldm.updateStation(cam(3, 0, 300), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    ldm.updateStation(cam(4, 2000, 0), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+
+    /* Nearest first, and limited to the maximum asked for */
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_WITHIN, 400, 0, 10, now), 1, 2, 3);
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_WITHIN, 400, 0, 2, now), 1, 2);
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_WITHIN, 100, 0, 10, now), 1);
+
+    /* A radius covering more cells than the grid has buckets */
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_WITHIN, 100000, 0, 10, now), 1, 2, 3, 4);
+
+    /* Updates move a station between cells */
+    ldm.updateStation(cam(4, 10, 0), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_WITHIN, 100, 0, 10, now), 4, 1);
+    assertEquals(4, ldm.numStations());
+  }
+
+  @Test
+  public void testStationsAhead() {
+    LocalDynamicMap ldm = new LocalDynamicMap(64, 8, 100, 1000, new Metrics());
+    ldm.updateStation(cam(1, 50, -5), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    ldm.updateStation(cam(2, -20, -5), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    ldm.updateStation(cam(3, -5, 30), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+
+    /* Heading north, then east */
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_AHEAD, 400, 0, 10, now), 1);
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_AHEAD, 400, 900, 10, now), 3);
+  }
+
+  @Test
+  public void testExpiryAndEviction() {
+    LocalDynamicMap ldm = new LocalDynamicMap(2, 8, 100, 1000, new Metrics());
+    ldm.updateStation(cam(1, 10, 0), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    ldm.updateStation(cam(2, 20, 0), 0, SimpleCam.SIMPLE_CAM_LENGTH, now + MILLIS);
+
+    /* Station 1 was updated longest ago */
+    ldm.updateStation(cam(3, 30, 0), 0, SimpleCam.SIMPLE_CAM_LENGTH, now + 2 * MILLIS);
+    long then = now + 2 * MILLIS;
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_WITHIN, 100, 0, 10, then), 2, 3);
+
+    /* Expired stations aren't returned, and are removed */
+    long later = now + 1002 * MILLIS;
+    assertStations(query(ldm, LocalDynamicMap.STATIONS_WITHIN, 100, 0, 10, later), 3);
+    ldm.expire(later);
+    assertEquals(1, ldm.numStations());
+  }
+
+  @Test
+  public void testDenms() {
+    LocalDynamicMap ldm = new LocalDynamicMap(8, 2, 100, 1000, new Metrics());
+    ldm.updateDenm(1, denm(1, 50), 0, 10, false, now);
+    ldm.updateDenm(2, denm(2, 5000), 0, 10, false, now);
+    ldm.updateDenm(1, denm(1, 60), 0, 10, false, now);
+    assertEquals(2, ldm.numDenms());
+
+    int length = query(ldm, LocalDynamicMap.DENMS_WITHIN, 400, 0, 10, now);
+    assertEquals(
+        LocalDynamicMap.RESPONSE_HEADER_LENGTH + SimpleDenm.SIMPLE_DENM_LENGTH, length);
+    assertEquals(1, response.getShort(6));
+    assertEquals(1, response.getInt(LocalDynamicMap.RESPONSE_HEADER_LENGTH + 1));
+
+    /* Termination, and eviction of the DENM closest to expiring */
+    ldm.updateDenm(1, denm(1, 60), 0, 10, true, now);
+    assertEquals(1, ldm.numDenms());
+    ldm.updateDenm(3, denm(3, 0), 0, 20, false, now);
+    ldm.updateDenm(4, denm(4, 0), 0, 20, false, now);
+    assertEquals(2, ldm.numDenms());
+    query(ldm, LocalDynamicMap.DENMS_WITHIN, 100000, 0, 10, now);
+    assertEquals(2, response.getShort(6));
+  }
+
+  @Test
+  public void testMalformed() {
+    LocalDynamicMap ldm = new LocalDynamicMap(8, 8, 100, 1000, new Metrics());
+    assertEquals(-1, query(ldm, (byte) 9, 100, 0, 10, now));
+    assertEquals(-1, query(ldm, LocalDynamicMap.STATIONS_AHEAD, 100, 3601, 10, now));
+    int tooFar = LocalDynamicMap.MAX_RADIUS + 1;
+    assertEquals(-1, query(ldm, LocalDynamicMap.STATIONS_WITHIN, tooFar, 0, 10, now));
+    ByteBuffer tooShort = query(LocalDynamicMap.STATIONS_WITHIN, 100, 0, 10);
+    tooShort.limit(10);
+    assertEquals(-1, ldm.query(tooShort, response, now));
+  }
+
+  /* The longitude span of a query next to a pole covers more cells than
+   * the grid has buckets, and scans every station instead */
+  @Test
+  public void testNearPole() {
+    LocalDynamicMap ldm = new LocalDynamicMap(8, 8, 1, 1000, new Metrics());
+    ldm.updateStation(cam(1, 0, 0), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    ByteBuffer polar = query(LocalDynamicMap.STATIONS_WITHIN, LocalDynamicMap.MAX_RADIUS, 0, 10);
+    polar.putInt(6, 899999999);
+    assertEquals(LocalDynamicMap.RESPONSE_HEADER_LENGTH, ldm.query(polar, response, now));
+  }
+
+  private void assertStations(int length, int... stationIds) {
+    assertEquals(
+        LocalDynamicMap.RESPONSE_HEADER_LENGTH + stationIds.length * SimpleCam.SIMPLE_CAM_LENGTH,
+        length);
+    assertEquals(LocalDynamicMap.RESPONSE_MESSAGE_ID, response.get(0));
+    assertEquals(42, response.getInt(2));
+    assertEquals(stationIds.length, response.getShort(6));
+    for (int i = 0; i < stationIds.length; i++) {
+      int record = LocalDynamicMap.RESPONSE_HEADER_LENGTH + i * SimpleCam.SIMPLE_CAM_LENGTH;
+      assertEquals(stationIds[i], response.getInt(record + 1));
+    }
+  }
+
+  private int query(
+      LocalDynamicMap ldm, byte type, int radius, int heading, int maxRecords, long nowNanos) {
+    return ldm.query(query(type, radius, heading, maxRecords), response, nowNanos);
+  }
+
+  private ByteBuffer query(byte type, int radius, int heading, int maxRecords) {
+    request.clear();
+    request.put(LocalDynamicMap.QUERY_MESSAGE_ID);
+    request.put(type);
+    request.putInt(42);
+    request.putInt(LATITUDE);
+    request.putInt(LONGITUDE);
+    request.putInt(radius);
+    request.putInt(heading);
+    request.putInt(maxRecords);
+    request.putInt(0);
+    request.flip();
+    return request;
+  }
+
+  /* A simple CAM of a station the given number of meters north and east
+   * of the vehicle */
+  private static ByteBuffer cam(int stationId, double north, double east) {
+    ByteBuffer buffer = ByteBuffer.wrap(SampleMessages.getSampleCam().asByteArray());
+    buffer.putInt(1, stationId);
+    buffer.putInt(14, LATITUDE + (int) (north * UNITS_PER_METER));
+    buffer.putInt(
+        18,
+        LONGITUDE + (int) (east * UNITS_PER_METER / Math.cos(Math.toRadians(LATITUDE / 1e7))));
+    return buffer;
+  }
+
+  /* A simple DENM of a station at the given number of meters north of
+   * the vehicle */
+  private static ByteBuffer denm(int stationId, double north) {
+    ByteBuffer buffer = ByteBuffer.wrap(SampleMessages.getSampleDenm().asByteArray());
+    buffer.putInt(1, stationId);
+    buffer.putInt(23, LATITUDE + (int) (north * UNITS_PER_METER));
+    buffer.putInt(27, LONGITUDE);
+    return buffer;
+  }
+}
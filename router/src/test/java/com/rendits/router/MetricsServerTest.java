@@ -0,0 +1,77 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongSupplier;
+import org.junit.Test;
+
+public class MetricsServerTest {
+
+  @Test
+  public void testScrape() throws IOException {
+    Metrics metrics = new Metrics();
+    metrics.counter("tx_cam", "CAMs transmitted").add(7);
+    metrics.gauge(
+        "tx_ingress_depth",
+        "Messages waiting",
+        new LongSupplier() {
+          @Override
+          public long getAsLong() {
+            return 4;
+          }
+        });
+    PipelineStats stats = new PipelineStats("tx", "parse", "total");
+    stats.record(TrafficClass.CAM, 1, 2000000);
+
+    MetricsServer server = new MetricsServer(0, metrics, stats);
+    server.start();
+    try {
+      /* Gauges and latencies are only updated by the statistics logger */
+      String body = get(server.getPort());
+      assertTrue(body, body.contains("# TYPE rendits_router_tx_cam_total counter\n"));
+      assertTrue(body, body.contains("\nrendits_router_tx_cam_total 7\n"));
+      assertTrue(body, body.contains("\nrendits_router_tx_ingress_depth 0\n"));
+
+      metrics.tick(System.nanoTime() + 1000000000L);
+      stats.takeSummary();
+      body = get(server.getPort());
+      assertTrue(body, body.contains("\nrendits_router_tx_ingress_depth 4\n"));
+      assertTrue(
+          body,
+          body.contains(
+              "\nrendits_router_latency_seconds_count"
+                  + "{direction=\"tx\",class=\"cam\",stage=\"total\"} 1\n"));
+      assertTrue(
+          body,
+          body.contains(
+              "\nrendits_router_latency_max_seconds"
+                  + "{direction=\"tx\",class=\"cam\",stage=\"total\"} 0.002000000\n"));
+      assertTrue(body, body.contains("# TYPE jvm_gc_collections_total counter\n"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static String get(int port) throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/metrics").openConnection();
+    assertEquals(200, connection.getResponseCode());
+    assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (InputStream in = connection.getInputStream()) {
+      byte[] buffer = new byte[4096];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        body.write(buffer, 0, n);
+      }
+    }
+    return new String(body.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,48 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class MetricsTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testRates() {
+    Metrics metrics = new Metrics();
+    Metrics.Counter sent = metrics.counter("tx_cam", "CAMs transmitted");
+    Metrics.Counter dropped = metrics.counter("tx_queue_dropped", "Packets dropped");
+
+    /* The first tick starts the moving averages */
+    long now = System.nanoTime() + SECOND;
+    metrics.tick(now);
+    assertEquals("", metrics.getSummary());
+
+    sent.add(20);
+    dropped.increment();
+    metrics.tick(now + 2 * SECOND);
+    assertEquals(20, sent.getTotal());
+    assertEquals(20, sent.getLastInterval());
+    assertEquals(10.0, sent.getRate(), 1e-9);
+    assertEquals(10.0 * (1 - Math.exp(-2.0 / 60)), sent.getEwma(), 1e-9);
+    assertEquals(
+        "tx_cam=20 (10.0/s, avg 0.3/s) tx_queue_dropped=1 (0.5/s, avg 0.0/s)",
+        metrics.getSummary());
+
+    /* Counters are never reset, only the interval counts are */
+    metrics.tick(now + 3 * SECOND);
+    assertEquals(20, sent.getTotal());
+    assertEquals(0, sent.getLastInterval());
+    assertEquals(0.0, sent.getRate(), 1e-9);
+    assertEquals(2, metrics.counters().size());
+    assertEquals("tx_queue_dropped", metrics.counters().get(1).getName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateName() {
+    Metrics metrics = new Metrics();
+    metrics.counter("rx_cam", "CAMs sent to the vehicle");
+    metrics.counter("rx_cam", "CAMs sent to the vehicle");
+  }
+}
@@ -0,0 +1,82 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class NeighbourSnapshotTest {
+  private static final int RECORD_LENGTH = 2 + SimpleCam.SIMPLE_CAM_LENGTH;
+
+  private final long now = System.nanoTime();
+
+  @Test
+  public void testBatches() {
+    NeighbourSnapshot snapshot = new NeighbourSnapshot(16, new Metrics());
+    ByteBuffer out = ByteBuffer.allocate(8192);
+    snapshot.update(cam(1, 10), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    snapshot.update(cam(2, 20), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    snapshot.update(cam(1, 11), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+
+    /* The latest CAM of every neighbour, once */
+    assertEquals(2, snapshot.drain(out));
+    assertEquals(NeighbourSnapshot.HEADER_LENGTH + 2 * RECORD_LENGTH, out.limit());
+    assertEquals(NeighbourSnapshot.MESSAGE_ID, out.get(0));
+    assertEquals(0, out.getInt(1));
+    assertEquals(2, out.getShort(5));
+    assertRecord(out, 0, 1, 11);
+    assertRecord(out, 1, 2, 20);
+    assertEquals(0, snapshot.drain(out));
+    snapshot.endBatch();
+
+    /* Only the neighbours that changed */
+    snapshot.update(cam(2, 21), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    assertEquals(1, snapshot.drain(out));
+    assertEquals(1, out.getInt(1));
+    assertRecord(out, 0, 2, 21);
+    assertEquals(0, snapshot.drain(out));
+    snapshot.endBatch();
+    assertEquals(0, snapshot.drain(out));
+  }
+
+  @Test
+  public void testSplit() {
+    NeighbourSnapshot snapshot = new NeighbourSnapshot(16, new Metrics());
+    ByteBuffer out = ByteBuffer.allocate(NeighbourSnapshot.HEADER_LENGTH + 3 * RECORD_LENGTH);
+    for (int i = 0; i < 7; i++) {
+      snapshot.update(cam(i, i), 0, SimpleCam.SIMPLE_CAM_LENGTH, now);
+    }
+    assertEquals(3, snapshot.drain(out));
+    assertEquals(3, snapshot.drain(out));
+    assertRecord(out, 0, 3, 3);
+    assertEquals(1, snapshot.drain(out));
+    assertEquals(0, snapshot.drain(out));
+  }
+
+  @Test
+  public void testEviction() {
+    NeighbourSnapshot snapshot = new NeighbourSnapshot(2, new Metrics());
+    ByteBuffer out = ByteBuffer.allocate(8192);
+    snapshot.update(cam(1, 1), 0, SimpleCam.SIMPLE_CAM_LENGTH, now + 2);
+    snapshot.update(cam(2, 2), 0, SimpleCam.SIMPLE_CAM_LENGTH, now + 1);
+    snapshot.update(cam(3, 3), 0, SimpleCam.SIMPLE_CAM_LENGTH, now + 3);
+    assertEquals(2, snapshot.size());
+    assertEquals(2, snapshot.drain(out));
+    assertRecord(out, 0, 1, 1);
+    assertRecord(out, 1, 3, 3);
+  }
+
+  private static void assertRecord(ByteBuffer out, int index, int stationId, int latitude) {
+    int record = NeighbourSnapshot.HEADER_LENGTH + index * RECORD_LENGTH;
+    assertEquals(SimpleCam.SIMPLE_CAM_LENGTH, out.getShort(record));
+    assertEquals(stationId, out.getInt(record + 2 + 1));
+    assertEquals(latitude, out.getInt(record + 2 + 14));
+  }
+
+  private static ByteBuffer cam(int stationId, int latitude) {
+    ByteBuffer buffer = ByteBuffer.wrap(SampleMessages.getSampleCam().asByteArray());
+    buffer.putInt(1, stationId);
+    buffer.putInt(14, latitude);
+    return buffer;
+  }
+}
@@ -0,0 +1,180 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import net.gcdc.asn1.uper.UperEncoder;
+import net.gcdc.camdenm.CoopIts.Cam;
+import net.gcdc.camdenm.CoopIts.Denm;
+import net.gcdc.camdenm.CoopIts.ItsPduHeader.MessageId;
+import net.gcdc.camdenm.Iclcm;
+import net.gcdc.camdenm.Iclcm.IgameCooperativeLaneChangeMessage;
+import org.junit.Test;
+
+/* Differential test of the transcoder against decoding the proper message
+ * and creating a simple message from it. */
+public class ProperTranscoderTest {
+  private static final int RANDOM_MESSAGES = 1000;
+
+  private final RandomMessages random = new RandomMessages(2018);
+  private final ProperTranscoder transcoder = new ProperTranscoder();
+
+  @Test
+  public void testSampleMessages() {
+    byte[] cam = UperEncoder.encode(SampleMessages.getSampleCam().asCam());
+    assertArrayEquals(
+        SampleMessages.getSampleCam().asByteArray(), transcoded(transcoder.transcodeCam(cam)));
+
+    byte[] denm = UperEncoder.encode(SampleMessages.getSampleDenm().asDenm());
+    assertArrayEquals(
+        new SimpleDenm(UperEncoder.decode(denm, Denm.class)).asByteArray(),
+        transcoded(transcoder.transcodeDenm(denm)));
+
+    byte[] iclcm = UperEncoder.encode(SampleMessages.getSampleIclcm().asIclcm());
+    assertArrayEquals(
+        SampleMessages.getSampleIclcm().asByteArray(),
+        transcoded(transcoder.transcodeIclcm(iclcm)));
+  }
+
+  @Test
+  public void testStationId() {
+    byte[] cam = UperEncoder.encode(SampleMessages.getSampleCam().asCam());
+    assertEquals(SampleMessages.getSampleCam().stationId, ProperTranscoder.stationId(cam));
+    byte[] denm = UperEncoder.encode(SampleMessages.getSampleDenm().asDenm());
+    assertEquals(SampleMessages.getSampleDenm().stationId, ProperTranscoder.stationId(denm));
+    byte[] iclcm = UperEncoder.encode(SampleMessages.getSampleIclcm().asIclcm());
+    assertEquals(SampleMessages.getSampleIclcm().stationId, ProperTranscoder.stationId(iclcm));
+    assertEquals(0, ProperTranscoder.stationId(new byte[5]));
+  }
+
+  /* Most random messages are given the right message ID, the others
+   * should be rejected. Random CAMs with an RSU container are rejected as
+   * well. */
+  @Test
+  public void testRandomCams() throws Exception {
+    int valid = 0;
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      Cam cam = random.randomValue(Cam.class);
+      if (i % 4 != 0) {
+        cam.getHeader().getMessageID().value = MessageId.cam;
+      }
+      byte[] payload = UperEncoder.encode(cam);
+      byte[] expected;
+      try {
+        expected = new SimpleCam(MessageCodec.decodeCam(payload)).asByteArray();
+        valid++;
+      } catch (RuntimeException e) {
+        expected = null;
+      }
+      byte[] actual;
+      try {
+        actual = transcoded(transcoder.transcodeCam(payload));
+      } catch (IllegalArgumentException e) {
+        actual = null;
+      }
+      assertArrayEquals(expected, actual);
+    }
+    assertTrue(valid > RANDOM_MESSAGES / 4);
+  }
+
+  @Test
+  public void testRandomDenms() throws Exception {
+    int valid = 0;
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      Denm denm = random.randomValue(Denm.class);
+      if (i % 4 != 0) {
+        denm.getHeader().getMessageID().value = MessageId.denm;
+      }
+      byte[] payload = UperEncoder.encode(denm);
+      byte[] expected;
+      try {
+        expected = new SimpleDenm(MessageCodec.decodeDenm(payload)).asByteArray();
+        valid++;
+      } catch (IllegalArgumentException e) {
+        expected = null;
+      }
+      byte[] actual;
+      try {
+        actual = transcoded(transcoder.transcodeDenm(payload));
+      } catch (IllegalArgumentException e) {
+        actual = null;
+      }
+      assertArrayEquals(expected, actual);
+    }
+    assertTrue(valid > RANDOM_MESSAGES / 2);
+  }
+
+  @Test
+  public void testRandomIclcms() throws Exception {
+    int valid = 0;
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      IgameCooperativeLaneChangeMessage iclcm =
+          random.randomValue(IgameCooperativeLaneChangeMessage.class);
+      if (i % 4 != 0) {
+        iclcm.getHeader().getMessageID().value = Iclcm.MessageID_iCLCM;
+      }
+      byte[] payload = UperEncoder.encode(iclcm);
+      byte[] expected;
+      try {
+        expected = new SimpleIclcm(MessageCodec.decodeIclcm(payload)).asByteArray();
+        valid++;
+      } catch (IllegalArgumentException e) {
+        expected = null;
+      }
+      byte[] actual;
+      try {
+        actual = transcoded(transcoder.transcodeIclcm(payload));
+      } catch (IllegalArgumentException e) {
+        actual = null;
+      }
+      assertArrayEquals(expected, actual);
+    }
+    assertTrue(valid > RANDOM_MESSAGES / 2);
+  }
+
+  @Test
+  public void testTrailingBits() {
+    byte[] cam = UperEncoder.encode(SampleMessages.getSampleCam().asCam());
+    try {
+      transcoder.transcodeCam(Arrays.copyOf(cam, cam.length + 1));
+      fail("Transcoded a CAM with trailing bytes");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTruncated() {
+    byte[] denm = UperEncoder.encode(SampleMessages.getSampleDenm().asDenm());
+    try {
+      transcoder.transcodeDenm(Arrays.copyOf(denm, denm.length - 2));
+      fail("Transcoded a truncated DENM");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /* Transcoding into a caller-owned direct buffer writes the same bytes,
+   * starting at the offset. */
+  @Test
+  public void testDirectBuffer() {
+    byte[] expected = SampleMessages.getSampleIclcm().asByteArray();
+    byte[] iclcm = UperEncoder.encode(SampleMessages.getSampleIclcm().asIclcm());
+    ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 10);
+    assertEquals(expected.length, transcoder.transcodeIclcm(iclcm, buffer, 7));
+    assertEquals(expected.length + 7, buffer.position());
+
+    byte[] actual = new byte[expected.length];
+    buffer.position(7);
+    buffer.get(actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  private byte[] transcoded(int length) {
+    return Arrays.copyOf(transcoder.buffer(), length);
+  }
+}
@@ -0,0 +1,174 @@
+/* Generates random proper messages for use in tests. */
+
+package com.rendits.router;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import net.gcdc.asn1.datatypes.Asn1Integer;
+import net.gcdc.asn1.datatypes.Asn1Optional;
+import net.gcdc.asn1.datatypes.Asn1SequenceOf;
+import net.gcdc.asn1.datatypes.Asn1String;
+import net.gcdc.asn1.datatypes.Asn1VarSizeBitstring;
+import net.gcdc.asn1.datatypes.Bitstring;
+import net.gcdc.asn1.datatypes.Choice;
+import net.gcdc.asn1.datatypes.FixedSize;
+import net.gcdc.asn1.datatypes.IntRange;
+import net.gcdc.asn1.datatypes.Sequence;
+import net.gcdc.asn1.datatypes.SizeRange;
+
+public class RandomMessages {
+  private final Random random;
+  private final Map<Class<?>, Boolean> containsString = new HashMap<>();
+
+  public RandomMessages(long seed) {
+    random = new Random(seed);
+  }
+
+  /* Create a random value of an ASN.1 type. Optional fields are left out
+   * at random, and always when they would contain a string, which the
+   * generated codecs do not support. */
+  @SuppressWarnings("unchecked")
+  public <T> T randomValue(Class<T> type) throws Exception {
+    if (type == boolean.class || type == Boolean.class) {
+      return (T) Boolean.valueOf(random.nextBoolean());
+    }
+    if (type == Byte.class) {
+      return (T) Byte.valueOf((byte) random.nextInt());
+    }
+    if (Asn1Integer.class.isAssignableFrom(type)) {
+      IntRange range = type.getAnnotation(IntRange.class);
+      T value = newInstance(type);
+      long span = range.maxValue() - range.minValue() + 1;
+      ((Asn1Integer) value).value = range.minValue() + (long) (random.nextDouble() * span);
+      return value;
+    }
+    if (type.isEnum()) {
+      T[] constants = type.getEnumConstants();
+      return constants[random.nextInt(constants.length)];
+    }
+    if (type.isAnnotationPresent(Sequence.class)) {
+      T value = newInstance(type);
+      for (Field field : instanceFields(type)) {
+        boolean optional = field.isAnnotationPresent(Asn1Optional.class);
+        if (optional && (random.nextBoolean() || containsString(field.getType()))) {
+          field.set(value, null);
+        } else {
+          field.set(value, randomValue(field.getType()));
+        }
+      }
+      return value;
+    }
+    if (type.isAnnotationPresent(Choice.class)) {
+      T value = newInstance(type);
+      List<Field> alternatives = new ArrayList<>();
+      for (Field field : instanceFields(type)) {
+        field.set(value, null);
+        if (!containsString(field.getType())) {
+          alternatives.add(field);
+        }
+      }
+      Field chosen = alternatives.get(random.nextInt(alternatives.size()));
+      chosen.set(value, randomValue(chosen.getType()));
+      return value;
+    }
+    if (type.isAnnotationPresent(Bitstring.class)
+        && Asn1VarSizeBitstring.class.isAssignableFrom(type)) {
+      /* The size of a bit string is given by its last set bit */
+      List<Boolean> bits = randomList(Boolean.class, sizeRangeOf(type));
+      if (!bits.isEmpty()) {
+        bits.set(bits.size() - 1, true);
+      }
+      return newCollection(type, bits);
+    }
+    if (type.isAnnotationPresent(Bitstring.class)) {
+      T value = newInstance(type);
+      for (Field field : instanceFields(type)) {
+        field.setBoolean(value, random.nextBoolean());
+      }
+      return value;
+    }
+    if (Asn1SequenceOf.class.isAssignableFrom(type)) {
+      Class<?> elementType =
+          (Class<?>)
+              ((ParameterizedType) type.getGenericSuperclass()).getActualTypeArguments()[0];
+      return newCollection(type, randomList(elementType, sizeRangeOf(type)));
+    }
+    throw new IllegalArgumentException("Can't create a random " + type);
+  }
+
+  private <T> List<T> randomList(Class<T> elementType, int[] sizeRange) throws Exception {
+    /* Keep lists short to keep the messages small */
+    int max = Math.min(sizeRange[1], sizeRange[0] + 3);
+    int size = sizeRange[0] + random.nextInt(max - sizeRange[0] + 1);
+    List<T> items = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      items.add(randomValue(elementType));
+    }
+    return items;
+  }
+
+  private static int[] sizeRangeOf(Class<?> type) {
+    SizeRange sizeRange = type.getAnnotation(SizeRange.class);
+    if (sizeRange != null) {
+      return new int[] {sizeRange.minValue(), sizeRange.maxValue()};
+    }
+    FixedSize fixedSize = type.getAnnotation(FixedSize.class);
+    return new int[] {fixedSize.value(), fixedSize.value()};
+  }
+
+  private boolean containsString(Class<?> type) {
+    Boolean cached = containsString.get(type);
+    if (cached != null) {
+      return cached;
+    }
+    /* Guard against recursive types */
+    containsString.put(type, false);
+    boolean result = Asn1String.class.isAssignableFrom(type);
+    if (!result && Asn1SequenceOf.class.isAssignableFrom(type)) {
+      result =
+          containsString(
+              (Class<?>)
+                  ((ParameterizedType) type.getGenericSuperclass()).getActualTypeArguments()[0]);
+    }
+    if (!result && type.getName().startsWith("net.gcdc.camdenm") && !type.isEnum()) {
+      for (Field field : instanceFields(type)) {
+        if (!field.isAnnotationPresent(Asn1Optional.class) && containsString(field.getType())) {
+          result = true;
+        }
+      }
+    }
+    containsString.put(type, result);
+    return result;
+  }
+
+  static List<Field> instanceFields(Class<?> type) {
+    List<Field> fields = new ArrayList<>();
+    for (Field field : type.getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers())) {
+        field.setAccessible(true);
+        fields.add(field);
+      }
+    }
+    return fields;
+  }
+
+  private static <T> T newInstance(Class<T> type) throws Exception {
+    Constructor<T> constructor = type.getDeclaredConstructor();
+    constructor.setAccessible(true);
+    return constructor.newInstance();
+  }
+
+  private static <T> T newCollection(Class<T> type, List<?> items) throws Exception {
+    Constructor<T> constructor = type.getDeclaredConstructor(Collection.class);
+    constructor.setAccessible(true);
+    return constructor.newInstance(items);
+  }
+}
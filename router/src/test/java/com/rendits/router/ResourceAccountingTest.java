@@ -0,0 +1,60 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import org.junit.Test;
+
+public class ResourceAccountingTest {
+  private static final int ALLOCATION = 1 << 20;
+
+  @Test
+  public void testMessages() {
+    if (!ResourceAccounting.isSupported()) {
+      return;
+    }
+    Metrics metrics = new Metrics();
+    ResourceAccounting accounting = new ResourceAccounting(metrics);
+    Metrics.Counter bytes = null;
+    Metrics.Counter messages = null;
+    for (Metrics.Counter counter : metrics.counters()) {
+      if (counter.getName().equals("tx_cam_allocated_bytes")) {
+        bytes = counter;
+      } else if (counter.getName().equals("tx_cam_accounted")) {
+        messages = counter;
+      }
+    }
+
+    metrics.tick(System.nanoTime() + 1000000000L);
+    for (int i = 0; i < 2; i++) {
+      long startBytes = accounting.threadBytes();
+      long startCpu = accounting.threadCpu();
+      byte[] allocation = new byte[ALLOCATION];
+      allocation[i] = 1;
+      accounting.record(ResourceAccounting.TX, TrafficClass.CAM, startBytes, startCpu);
+    }
+    assertEquals(2, messages.getTotal());
+    assertTrue(bytes.getTotal() >= 2 * ALLOCATION);
+
+    metrics.tick(System.nanoTime() + 2000000000L);
+    String summary = accounting.getMessageSummary(ResourceAccounting.TX);
+    assertTrue(summary, summary.startsWith("tx per message: DENM - | ICLCM - | CAM 10"));
+    assertTrue(summary, summary.endsWith("us | CUSTOM -"));
+  }
+
+  @Test
+  public void testThreads() {
+    if (!ResourceAccounting.isSupported()) {
+      return;
+    }
+    ResourceAccounting accounting = new ResourceAccounting(new Metrics());
+    accounting.register("stats");
+    byte[] allocation = new byte[ALLOCATION];
+    allocation[0] = 1;
+    String summary = accounting.takeThreadSummary();
+    assertTrue(summary, summary.startsWith("stats "));
+    assertTrue(summary, summary.contains("MB/s"));
+    assertTrue(summary, summary.contains(" | GC "));
+  }
+}
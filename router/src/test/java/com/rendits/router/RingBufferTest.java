@@ -0,0 +1,124 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class RingBufferTest {
+  private static final int MESSAGES = 100000;
+
+  private static final Supplier<long[]> FACTORY =
+      new Supplier<long[]>() {
+        @Override
+        public long[] get() {
+          return new long[1];
+        }
+      };
+
+  @Test
+  public void testPublishAndConsume() throws Exception {
+    RingBuffer<long[]> ring = new RingBuffer<>(4, 1, FACTORY, WaitStrategy.forName("blocking"));
+    for (int i = 0; i < 3; i++) {
+      long sequence = ring.tryNext();
+      assertEquals(i, sequence);
+      ring.get(sequence)[0] = 10 + i;
+      ring.publish(sequence);
+    }
+    assertEquals(3, ring.depth());
+
+    RingBuffer<long[]>.Consumer consumer = ring.consumer(0);
+    assertEquals(2, consumer.waitForNext());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(10 + i, ring.get(i)[0]);
+    }
+    consumer.release(2);
+    assertEquals(0, ring.depth());
+  }
+
+  /* The size is rounded up to a power of 2, and entries are only reused
+   * once every consumer has released them. */
+  @Test
+  public void testFull() {
+    RingBuffer<long[]> ring = new RingBuffer<>(3, 2, FACTORY, WaitStrategy.forName("blocking"));
+    assertEquals(4, ring.capacity());
+    for (int i = 0; i < 4; i++) {
+      ring.publish(ring.tryNext());
+    }
+    assertEquals(-1, ring.tryNext());
+
+    ring.consumer(0).release(3);
+    assertEquals(-1, ring.tryNext());
+
+    ring.consumer(1).release(0);
+    assertEquals(4, ring.tryNext());
+    assertEquals(-1, ring.tryNext());
+  }
+
+  /* Every consumer sees every entry in order, with all wait strategies. */
+  @Test
+  public void testWaitStrategies() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      for (String name : new String[] {"blocking", "sleeping", "yielding", "busySpin"}) {
+        final RingBuffer<long[]> ring =
+            new RingBuffer<>(64, 2, FACTORY, WaitStrategy.forName(name));
+        Future<?> first = executor.submit(new Verifier(ring.consumer(0), ring));
+        Future<?> second = executor.submit(new Verifier(ring.consumer(1), ring));
+        for (long i = 0; i < MESSAGES; i++) {
+          long sequence;
+          while ((sequence = ring.tryNext()) < 0) {
+            Thread.yield();
+          }
+          ring.get(sequence)[0] = i;
+          ring.publish(sequence);
+        }
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testUnknownWaitStrategy() {
+    try {
+      WaitStrategy.forName("spinning");
+      fail("Created an unknown wait strategy");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static class Verifier implements Runnable {
+    private final RingBuffer<long[]>.Consumer consumer;
+    private final RingBuffer<long[]> ring;
+
+    Verifier(RingBuffer<long[]>.Consumer consumer, RingBuffer<long[]> ring) {
+      this.consumer = consumer;
+      this.ring = ring;
+    }
+
+    @Override
+    public void run() {
+      long next = 0;
+      try {
+        while (next < MESSAGES) {
+          long available = consumer.waitForNext();
+          for (; next <= available; next++) {
+            assertEquals(next, ring.get(next)[0]);
+          }
+          consumer.release(available);
+        }
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
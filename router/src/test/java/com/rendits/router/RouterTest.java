@@ -4,11 +4,14 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.Random;
 import net.gcdc.UdpDuplicator;
@@ -73,12 +76,35 @@ public class RouterTest {
     return;
   }
 
-  @Test
-  public void testIntegrity() throws IOException {
-    int portRcvFromVehicle = 5000;
-    int portSendIts = 5001;
-    int localPortForUdpLinkLayer = 4000;
-    int remotePortForUdpLinkLayer = 4001;
+  private void testIntegrity(String ingressMode, int receiveThreads, int basePort)
+      throws IOException {
+    Properties props = properties(ingressMode, receiveThreads, basePort);
+
+    /* Start the router */
+    Router router = new Router(props);
+
+    /* Setup sockets */
+    DatagramSocket socket = new DatagramSocket(basePort + 1);
+    socket.setSoTimeout(10000);
+    InetAddress routerAddress = InetAddress.getByName("127.0.0.1");
+
+    /* Send some messages and make sure we get the same
+     * thing back. */
+    sendMessages(socket, routerAddress, basePort);
+
+    /* Stop the router */
+    router.close();
+    socket.close();
+  }
+
+  /* Return the properties of a router whose link layer is looped back
+   * to itself, so that it receives every message it transmits. */
+  private Properties properties(String ingressMode, int receiveThreads, int basePort)
+      throws IOException {
+    int portRcvFromVehicle = basePort;
+    int portSendIts = basePort + 1;
+    int localPortForUdpLinkLayer = basePort - 1000;
+    int remotePortForUdpLinkLayer = basePort - 999;
     String remoteAddressForUdpLinkLayer = "127.0.0.1";
     String vehicleAddress = "127.0.0.1";
 
@@ -89,7 +115,7 @@ public class RouterTest {
     props.setProperty("portSendDenm", "" + portSendIts);
     props.setProperty("portSendIclcm", "" + portSendIts);
     props.setProperty("portSendCustom", "" + portSendIts);
-    props.setProperty("receiveThreads", "1");
+    props.setProperty("receiveThreads", "" + receiveThreads);
     props.setProperty("sendThreads", "3");
     props.setProperty("vehicleAddress", vehicleAddress);
     props.setProperty("localPortForUdpLinkLayer", "" + localPortForUdpLinkLayer);
@@ -98,25 +124,118 @@ public class RouterTest {
         remoteAddressForUdpLinkLayer + ":" + remotePortForUdpLinkLayer);
     props.setProperty("macAddress", "00:00:00:00:00:00");
     props.setProperty("countryCode", "46");
+    props.setProperty("ingressMode", ingressMode);
 
     /* Setup the UDP duplicator */
     UdpDuplicator udpDuplicator = new UdpDuplicator();
     SocketAddress remoteAddress = new InetSocketAddress(vehicleAddress, localPortForUdpLinkLayer);
     udpDuplicator.add(remotePortForUdpLinkLayer, remoteAddress);
+    return props;
+  }
 
-    /* Start the router */
-    Router router = new Router(props);
+  @Test
+  public void testIntegrity() throws IOException {
+    testIntegrity("socket", 1, 5000);
+  }
 
-    /* Setup sockets */
-    DatagramSocket socket = new DatagramSocket(portSendIts);
+  @Test
+  public void testIntegrityNio() throws IOException {
+    testIntegrity("nio", 1, 5010);
+  }
+
+  @Test
+  public void testIntegrityReceiveWorkers() throws IOException {
+    testIntegrity("socket", 4, 5020);
+  }
+
+  @Test
+  public void testIntegrityNioReceiveWorkers() throws IOException {
+    testIntegrity("nio", 4, 5030);
+  }
+
+  /* A malformed port is rejected before any thread or socket is started */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMetricsPort() throws IOException {
+    Properties props = properties("socket", 1, 5050);
+    props.setProperty("metricsPort", "metrics");
+    new Router(props);
+  }
+
+  @Test
+  public void testMessageHandler() throws IOException {
+    Properties props = properties("socket", 1, 5040);
+    props.setProperty("messageHandlers", EchoHandler.class.getName());
+    Router router = new Router(props);
+    DatagramSocket socket = new DatagramSocket(5041);
     socket.setSoTimeout(10000);
-    InetAddress routerAddress = InetAddress.getByName("127.0.0.1");
 
-    /* Send some messages and make sure we get the same
-     * thing back. */
-    sendMessages(socket, routerAddress, portRcvFromVehicle);
+    /* A handler that throws doesn't stop the worker calling it */
+    DatagramPacket failing = new DatagramPacket(new byte[] {EchoHandler.MESSAGE_ID}, 1);
+    failing.setSocketAddress(new InetSocketAddress("127.0.0.1", 5040));
+    socket.send(failing);
+
+    /* The handler transmits the message and sends it back to the
+     * vehicle when it is received on its port */
+    byte[] buffer = new byte[40];
+    new Random().nextBytes(buffer);
+    buffer[0] = EchoHandler.MESSAGE_ID;
+    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+    packet.setSocketAddress(new InetSocketAddress("127.0.0.1", 5040));
+    socket.send(packet);
+    DatagramPacket rcvPacket = new DatagramPacket(new byte[MAX_UDP_LENGTH], MAX_UDP_LENGTH);
+    socket.receive(rcvPacket);
+    assertEquals(buffer.length, rcvPacket.getLength());
+    assertArrayEquals(buffer, Arrays.copyOf(rcvPacket.getData(), rcvPacket.getLength()));
 
-    /* Stop the router */
     router.close();
+    socket.close();
+  }
+
+  /** Handler of a made up message type, loaded through the messageHandlers property. */
+  public static class EchoHandler implements MessageHandler {
+    static final byte MESSAGE_ID = 42;
+    static final int PORT = 2042;
+
+    private MessageHandler.Output output;
+    private InetSocketAddress vehicle;
+
+    @Override
+    public int simpleMessageId() {
+      return MESSAGE_ID;
+    }
+
+    @Override
+    public int btpPort() {
+      return PORT;
+    }
+
+    @Override
+    public void start(Properties props, MessageHandler.Output output) {
+      this.output = output;
+      this.vehicle = output.vehicleAddress(Integer.parseInt(props.getProperty("portSendCustom")));
+    }
+
+    @Override
+    public void fromVehicle(ByteBuffer buffer, int offset, int length, long arrivalNanos) {
+      if (length == 1) {
+        throw new IllegalStateException("Message without payload");
+      }
+      byte[] payload = new byte[length];
+      for (int i = 0; i < length; i++) {
+        payload[i] = buffer.get(offset + i);
+      }
+      output.sendToRadio(payload, PORT, arrivalNanos);
+    }
+
+    @Override
+    public void fromRadio(byte[] payload, ByteBuffer buffer) {
+      buffer.put(payload);
+      buffer.flip();
+      try {
+        output.sendToVehicle(buffer, vehicle);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
   }
 }
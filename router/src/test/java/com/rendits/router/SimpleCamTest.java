@@ -1,7 +1,10 @@
 package com.rendits.router;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import net.gcdc.camdenm.CoopIts.Cam;
 import org.junit.Test;
 
@@ -17,4 +20,14 @@ public class SimpleCamTest {
     SimpleCam simpleCamFromCam = new SimpleCam(cam);
     assertEquals(simpleCam, simpleCamFromCam);
   }
+
+  @Test
+  public void testWriteTo() {
+    SimpleCam simpleCam = SampleMessages.getSampleCam();
+    byte[] expected = simpleCam.asByteArray();
+    ByteBuffer buffer = ByteBuffer.allocate(expected.length + 3);
+    assertEquals(expected.length, simpleCam.writeTo(buffer, 3));
+    assertEquals(buffer.capacity(), buffer.position());
+    assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 3, buffer.capacity()));
+  }
 }
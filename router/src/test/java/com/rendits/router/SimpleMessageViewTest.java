@@ -0,0 +1,154 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+public class SimpleMessageViewTest {
+  private static final int RANDOM_MESSAGES = 2000;
+
+  private final Random random = new Random(2018);
+
+  @Test
+  public void testSampleMessages() {
+    byte[] cam = SampleMessages.getSampleCam().asByteArray();
+    SimpleCamView camView = new SimpleCamView().wrap(ByteBuffer.wrap(cam), 0, cam.length);
+    assertEquals(SimpleMessageView.VALID, camView.validate());
+    assertCamEquals(new SimpleCam(cam), camView);
+
+    byte[] denm = SampleMessages.getSampleDenm().asByteArray();
+    SimpleDenmView denmView = new SimpleDenmView().wrap(ByteBuffer.wrap(denm), 0, denm.length);
+    assertEquals(SimpleMessageView.VALID, denmView.validate());
+    SimpleDenm simpleDenm = new SimpleDenm(denm);
+    assertEquals(simpleDenm.stationId, denmView.getStationId());
+    assertEquals(simpleDenm.detectionTime, denmView.getDetectionTime());
+    assertEquals(simpleDenm.latitude, denmView.getLatitude());
+    assertEquals(simpleDenm.causeCode, denmView.getCauseCode());
+    assertEquals(simpleDenm.positioningSolutionType, denmView.getPositioningSolutionType());
+
+    byte[] iclcm = SampleMessages.getSampleIclcm().asByteArray();
+    SimpleIclcmView iclcmView =
+        new SimpleIclcmView().wrap(ByteBuffer.wrap(iclcm), 0, iclcm.length);
+    assertEquals(SimpleMessageView.VALID, iclcmView.validate());
+    SimpleIclcm simpleIclcm = new SimpleIclcm(iclcm);
+    assertEquals(simpleIclcm.stationId, iclcmView.getStationId());
+    assertEquals(simpleIclcm.mioId, iclcmView.getMioId());
+    assertEquals(simpleIclcm.counter, iclcmView.getCounter());
+  }
+
+  @Test
+  public void testStatus() {
+    byte[] cam = SampleMessages.getSampleCam().asByteArray();
+    ByteBuffer buffer = ByteBuffer.wrap(cam);
+    SimpleCamView view = new SimpleCamView();
+
+    assertEquals(SimpleMessageView.TOO_SHORT, view.wrap(buffer, 0, cam.length - 1).validate());
+
+    byte[] denm = SampleMessages.getSampleDenm().asByteArray();
+    assertEquals(
+        SimpleMessageView.WRONG_MESSAGE_ID,
+        view.wrap(ByteBuffer.wrap(denm), 0, denm.length).validate());
+
+    buffer.putInt(1, -1);
+    assertEquals(SimpleMessageView.INVALID_FIELD, view.wrap(buffer, 0, cam.length).validate());
+    assertEquals("StationID", view.getInvalidField());
+
+    /* Validating doesn't touch the position of the buffer */
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void testOffset() {
+    byte[] cam = SampleMessages.getSampleCam().asByteArray();
+    byte[] padded = new byte[cam.length + 7];
+    System.arraycopy(cam, 0, padded, 3, cam.length);
+    SimpleCamView view = new SimpleCamView().wrap(ByteBuffer.wrap(padded), 3, cam.length);
+    assertEquals(SimpleMessageView.VALID, view.validate());
+    assertNull(view.getInvalidField());
+    assertCamEquals(new SimpleCam(cam), view);
+  }
+
+  /* A view accepts exactly the CAMs the SimpleCam constructor accepts, and
+   * replaces invalid values the same way. */
+  @Test
+  public void testRandomCams() {
+    byte[] sample = SampleMessages.getSampleCam().asByteArray();
+    SimpleCamView view = new SimpleCamView();
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      byte[] message = mutate(sample);
+      SimpleCam expected;
+      try {
+        expected = new SimpleCam(message);
+      } catch (IllegalArgumentException e) {
+        expected = null;
+      }
+      int status = view.wrap(ByteBuffer.wrap(message), 0, message.length).validate();
+      if (expected == null) {
+        assertEquals(SimpleMessageView.INVALID_FIELD, status);
+      } else {
+        assertEquals(SimpleMessageView.VALID, status);
+        assertCamEquals(expected, view);
+      }
+    }
+  }
+
+  @Test
+  public void testRandomIclcms() {
+    byte[] sample = SampleMessages.getSampleIclcm().asByteArray();
+    SimpleIclcmView view = new SimpleIclcmView();
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      byte[] message = mutate(sample);
+      boolean valid;
+      try {
+        new SimpleIclcm(message);
+        valid = true;
+      } catch (IllegalArgumentException e) {
+        valid = false;
+      }
+      int status = view.wrap(ByteBuffer.wrap(message), 0, message.length).validate();
+      assertEquals(valid ? SimpleMessageView.VALID : SimpleMessageView.INVALID_FIELD, status);
+    }
+  }
+
+  private static void assertCamEquals(SimpleCam expected, SimpleCamView actual) {
+    assertEquals(expected.stationId, actual.getStationId());
+    assertEquals(expected.genDeltaTimeMillis, actual.getGenerationDeltaTime());
+    assertEquals(expected.containerMask, actual.getContainerMask());
+    assertEquals(expected.stationType, actual.getStationType());
+    assertEquals(expected.latitude, actual.getLatitude());
+    assertEquals(expected.longitude, actual.getLongitude());
+    assertEquals(expected.semiMajorAxisConfidence, actual.getSemiMajorConfidence());
+    assertEquals(expected.semiMinorAxisConfidence, actual.getSemiMinorConfidence());
+    assertEquals(expected.semiMajorOrientation, actual.getSemiMajorOrientation());
+    assertEquals(expected.altitude, actual.getAltitude());
+    assertEquals(expected.heading, actual.getHeading());
+    assertEquals(expected.headingConfidence, actual.getHeadingConfidence());
+    assertEquals(expected.speed, actual.getSpeed());
+    assertEquals(expected.speedConfidence, actual.getSpeedConfidence());
+    assertEquals(expected.vehicleLength, actual.getVehicleLength());
+    assertEquals(expected.vehicleWidth, actual.getVehicleWidth());
+    assertEquals(expected.longitudinalAcceleration, actual.getLongitudinalAcceleration());
+    assertEquals(
+        expected.longitudinalAccelerationConfidence,
+        actual.getLongitudinalAccelerationConfidence());
+    assertEquals(expected.yawRate, actual.getYawRate());
+    assertEquals(expected.yawRateConfidence, actual.getYawRateConfidence());
+    assertEquals(expected.vehicleRole, actual.getVehicleRole());
+  }
+
+  /* Copy a simple message and overwrite a few 4 byte words after the
+   * message ID with small random values, so that many messages stay valid.
+   * Mask bytes may be overwritten as well. */
+  private byte[] mutate(byte[] sample) {
+    byte[] message = sample.clone();
+    ByteBuffer buffer = ByteBuffer.wrap(message);
+    for (int i = random.nextInt(4); i >= 0; i--) {
+      int offset = 1 + random.nextInt(message.length - 4);
+      buffer.putInt(offset, random.nextInt(256) - 128);
+    }
+    return message;
+  }
+}
@@ -0,0 +1,168 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.gcdc.asn1.uper.UperEncoder;
+import net.gcdc.camdenm.CoopIts.Denm;
+import org.junit.Test;
+
+/* Differential test of the transcoder against the simple message classes
+ * followed by UperEncoder. */
+public class SimpleTranscoderTest {
+  private static final int RANDOM_MESSAGES = 2000;
+  private static final int DENM_SEQUENCE_NUMBER = 1234;
+
+  private final Random random = new Random(2018);
+  private final SimpleTranscoder transcoder = new SimpleTranscoder();
+
+  @Test
+  public void testSampleMessages() {
+    SimpleCam simpleCam = SampleMessages.getSampleCam();
+    byte[] cam = simpleCam.asByteArray();
+    assertArrayEquals(
+        UperEncoder.encode(simpleCam.asCam()),
+        transcoder.transcodeCam(ByteBuffer.wrap(cam), 0, cam.length));
+    assertEquals(simpleCam.getLatitude(), transcoder.getCamView().getLatitude());
+    assertEquals(simpleCam.getLongitude(), transcoder.getCamView().getLongitude());
+
+    byte[] iclcm = SampleMessages.getSampleIclcm().asByteArray();
+    assertArrayEquals(
+        UperEncoder.encode(SampleMessages.getSampleIclcm().asIclcm()),
+        transcoder.transcodeIclcm(ByteBuffer.wrap(iclcm), 0, iclcm.length));
+  }
+
+  @Test
+  public void testRandomCams() {
+    byte[] sample = SampleMessages.getSampleCam().asByteArray();
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      byte[] message = mutate(sample, 9);
+      byte[] expected;
+      try {
+        expected = UperEncoder.encode(new SimpleCam(message).asCam());
+      } catch (IllegalArgumentException | UnsupportedOperationException e) {
+        expected = null;
+      }
+      assertTranscodes(expected, message, 0);
+    }
+  }
+
+  @Test
+  public void testRandomDenms() {
+    byte[] sample = SampleMessages.getSampleDenm().asByteArray();
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      byte[] message = mutate(sample, 9, 10, 67, 88);
+
+      /* Both encodings get the same sequence number */
+      byte[] actual;
+      try {
+        actual =
+            transcoder.transcodeDenm(
+                ByteBuffer.wrap(message), 0, message.length, DENM_SEQUENCE_NUMBER);
+      } catch (IllegalArgumentException e) {
+        actual = null;
+      }
+      byte[] expected;
+      try {
+        Denm denm = new SimpleDenm(message).asDenm();
+        denm.getDenm().getManagement().getActionID().getSequenceNumber().value =
+            DENM_SEQUENCE_NUMBER;
+        expected = UperEncoder.encode(denm);
+      } catch (IllegalArgumentException | UnsupportedOperationException e) {
+        expected = null;
+      }
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testRandomIclcms() {
+    byte[] sample = SampleMessages.getSampleIclcm().asByteArray();
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      byte[] message = mutate(sample, 5, 34);
+      byte[] expected;
+      try {
+        expected = UperEncoder.encode(new SimpleIclcm(message).asIclcm());
+      } catch (IllegalArgumentException | UnsupportedOperationException e) {
+        expected = null;
+      }
+      assertTranscodes(expected, message, 1);
+    }
+  }
+
+  @Test
+  public void testOffset() {
+    byte[] cam = SampleMessages.getSampleCam().asByteArray();
+    byte[] padded = new byte[cam.length + 7];
+    System.arraycopy(cam, 0, padded, 3, cam.length);
+    assertArrayEquals(
+        UperEncoder.encode(SampleMessages.getSampleCam().asCam()),
+        transcoder.transcodeCam(ByteBuffer.wrap(padded), 3, cam.length));
+  }
+
+  @Test
+  public void testTooShort() {
+    byte[] cam = SampleMessages.getSampleCam().asByteArray();
+    try {
+      transcoder.transcodeCam(ByteBuffer.wrap(cam), 0, cam.length - 1);
+      fail("Transcoded a truncated CAM");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private void assertTranscodes(byte[] expected, byte[] message, int type) {
+    byte[] actual;
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(message);
+      actual =
+          type == 0
+              ? transcoder.transcodeCam(buffer, 0, message.length)
+              : transcoder.transcodeIclcm(buffer, 0, message.length);
+    } catch (IllegalArgumentException e) {
+      actual = null;
+    }
+    assertArrayEquals(expected, actual);
+  }
+
+  /* Copy a simple message, replacing the mask bytes at the given offsets
+   * with random bytes and a few of the int fields in between with random
+   * values. Most values are small, so that many messages are valid. */
+  private byte[] mutate(byte[] sample, int... maskOffsets) {
+    byte[] message = sample.clone();
+    ByteBuffer buffer = ByteBuffer.wrap(message);
+    List<Integer> intOffsets = new ArrayList<>();
+    int offset = 1;
+    while (offset < message.length) {
+      boolean isMask = false;
+      for (int maskOffset : maskOffsets) {
+        isMask |= maskOffset == offset;
+      }
+      if (isMask) {
+        message[offset] = (byte) random.nextInt();
+        offset += 1;
+      } else {
+        intOffsets.add(offset);
+        offset += 4;
+      }
+    }
+    int mutations = random.nextInt(4);
+    for (int i = 0; i < mutations; i++) {
+      int intOffset = intOffsets.get(random.nextInt(intOffsets.size()));
+      int choice = random.nextInt(4);
+      if (choice == 0) {
+        buffer.putInt(intOffset, random.nextInt());
+      } else if (choice == 1) {
+        buffer.putInt(intOffset, random.nextInt(100000));
+      } else {
+        buffer.putInt(intOffset, random.nextInt(20) - 2);
+      }
+    }
+    return message;
+  }
+}
@@ -0,0 +1,61 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import org.junit.Test;
+
+public class StageStatsTest {
+
+  /* Every latency is counted in a bucket whose upper bound is at most
+   * about 3% above it, and the buckets are in order. */
+  @Test
+  public void testBuckets() {
+    int previous = -1;
+    for (long nanos = 0; nanos < (1L << 36); nanos = nanos * 9 / 8 + 1) {
+      int bucket = StageStats.bucketOf(nanos);
+      assertTrue(bucket >= previous);
+      previous = bucket;
+      long upperBound = StageStats.upperBound(bucket);
+      assertTrue(nanos + " " + upperBound, upperBound >= nanos);
+      assertTrue(nanos + " " + upperBound, upperBound - nanos <= nanos / 32);
+      assertTrue(bucket == 0 || StageStats.upperBound(bucket - 1) < nanos);
+    }
+    assertEquals(StageStats.bucketOf((1L << 36) - 1), StageStats.bucketOf(Long.MAX_VALUE));
+    assertEquals(0, StageStats.bucketOf(-5));
+  }
+
+  @Test
+  public void testSummary() {
+    StageStats stats = new StageStats("encode");
+    for (int i = 1; i <= 1000; i++) {
+      stats.record(i * 1000L);
+    }
+    stats.record(50000000L);
+    String summary = stats.takeSummary();
+    assertTrue(summary, summary.startsWith("encode n=1001 p50=50"));
+    assertTrue(summary, summary.contains(" p99=99"));
+    assertTrue(summary, summary.contains(" max=50000.0us"));
+    assertEquals(50000000L, stats.getSnapshot()[StageStats.PERCENTILES.length]);
+    assertEquals(1001, stats.getTotalCount());
+    assertEquals(500500000L + 50000000L, stats.getTotalNanos());
+
+    /* Taking the summary starts over, except for the totals */
+    assertEquals("encode n=0 p50=0.0us p99=0.0us p99.9=0.0us max=0.0us", stats.takeSummary());
+    assertEquals(0, stats.getSnapshot()[0]);
+    assertEquals(1001, stats.getTotalCount());
+  }
+
+  /* Only the stages with latencies are summarized */
+  @Test
+  public void testPipelineSummary() {
+    PipelineStats stats = new PipelineStats("rx", "queued", "total");
+    assertEquals("", stats.takeSummary());
+    stats.record(TrafficClass.DENM, 1, 2000);
+    String summary = stats.takeSummary();
+    assertTrue(summary, summary.startsWith("rx: DENM total n=1 "));
+    assertEquals(1, summary.split("\\|").length);
+    assertEquals("", stats.takeSummary());
+  }
+}
@@ -0,0 +1,69 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class StaleMessageFilterTest {
+
+  @Test
+  public void testArrivalTime() {
+    Properties props = new Properties();
+    props.setProperty("maxAgeCam", "100");
+    props.setProperty("maxAgeCustom", "0");
+    Metrics metrics = new Metrics();
+    StaleMessageFilter filter = new StaleMessageFilter("tx", props, metrics);
+    long now = System.nanoTime();
+    long millis = TimeUnit.MILLISECONDS.toNanos(1);
+
+    assertFalse(filter.isStale(TrafficClass.CAM, now - 100 * millis, now));
+    assertTrue(filter.isStale(TrafficClass.CAM, now - 101 * millis, now));
+    assertEquals(1, filter.getStale(TrafficClass.CAM));
+
+    /* Default budget of DENM */
+    assertFalse(filter.isStale(TrafficClass.DENM, now - 1000 * millis, now));
+    assertTrue(filter.isStale(TrafficClass.DENM, now - 1001 * millis, now));
+
+    /* A budget of 0 disables the check */
+    assertFalse(filter.isStale(TrafficClass.CUSTOM, now - 60000 * millis, now));
+    assertEquals(0, filter.getStale(TrafficClass.CUSTOM));
+
+    /* The summary holds the counts of the last metrics interval */
+    assertEquals("", filter.takeSummary());
+    metrics.tick(now + TimeUnit.SECONDS.toNanos(1));
+    assertEquals("tx stale: DENM=1 CAM=1", filter.takeSummary());
+  }
+
+  @Test
+  public void testGenerationTime() {
+    int now = StaleMessageFilter.generationDeltaTimeNow();
+    int old = Math.floorMod(now - 5000, 65536);
+    Properties props = new Properties();
+    StaleMessageFilter unchecked = new StaleMessageFilter("rx", props, new Metrics());
+    assertFalse(unchecked.isStaleGenerationTime(TrafficClass.CAM, old));
+
+    props.setProperty("checkGenerationTime", "true");
+    StaleMessageFilter filter = new StaleMessageFilter("rx", props, new Metrics());
+    assertTrue(filter.isStaleGenerationTime(TrafficClass.CAM, old));
+    assertFalse(filter.isStaleGenerationTime(TrafficClass.CAM, now));
+    assertFalse(filter.isStaleGenerationTime(TrafficClass.CAM, -1));
+
+    /* Messages from stations with a clock that is slightly ahead */
+    assertFalse(filter.isStaleGenerationTime(TrafficClass.CAM, Math.floorMod(now + 500, 65536)));
+    assertEquals(1, filter.getStale(TrafficClass.CAM));
+  }
+
+  @Test
+  public void testCamGenerationDeltaTime() {
+    SimpleCam simpleCam = SampleMessages.getSampleCam();
+    byte[] cam = MessageCodec.encode(simpleCam.asCam());
+    assertEquals(
+        simpleCam.getGenerationDeltaTime(), ProperTranscoder.camGenerationDeltaTime(cam));
+    assertEquals(-1, ProperTranscoder.camGenerationDeltaTime(new byte[7]));
+  }
+}
@@ -0,0 +1,105 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.rendits.router.TransmitScheduler.TrafficClass;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import net.gcdc.geonetworking.BtpPacket;
+import org.junit.Test;
+
+public class TransmitSchedulerTest {
+
+  private static TransmitScheduler scheduler(Properties props) {
+    Metrics metrics = new Metrics();
+    return new TransmitScheduler(props, new StaleMessageFilter("tx", props, metrics), metrics);
+  }
+
+  private static BtpPacket packet(int port) {
+    return BtpPacket.singleHop(new byte[] {1, 2, 3}, (short) port, 0.9);
+  }
+
+  /* DENM and iCLCM are taken before the CAM and custom messages queued
+   * before them. */
+  @Test
+  public void testPriority() throws InterruptedException {
+    TransmitScheduler scheduler = scheduler(new Properties());
+    BtpPacket cam = packet(2001);
+    BtpPacket custom = packet(2003);
+    BtpPacket denm = packet(2002);
+    BtpPacket iclcm = packet(2010);
+    BtpPacket secondCam = packet(2001);
+    assertTrue(scheduler.offer(TrafficClass.CAM, cam, System.nanoTime()));
+    assertTrue(scheduler.offer(TrafficClass.CUSTOM, custom, System.nanoTime()));
+    assertTrue(scheduler.offer(TrafficClass.CAM, secondCam, System.nanoTime()));
+    assertTrue(scheduler.offer(TrafficClass.ICLCM, iclcm, System.nanoTime()));
+    assertTrue(scheduler.offer(TrafficClass.DENM, denm, System.nanoTime()));
+    assertEquals(2, scheduler.depth(TrafficClass.CAM));
+
+    assertSame(denm, scheduler.take());
+    assertSame(iclcm, scheduler.take());
+    assertSame(cam, scheduler.take());
+    assertSame(secondCam, scheduler.take());
+    assertSame(custom, scheduler.take());
+    assertEquals(0, scheduler.depth(TrafficClass.CAM));
+  }
+
+  @Test
+  public void testDropPolicies() throws InterruptedException {
+    Properties props = new Properties();
+    props.setProperty("transmitQueueDenm", "2");
+    props.setProperty("transmitQueueCam", "2");
+    TransmitScheduler scheduler = scheduler(props);
+
+    /* DENM drops the newest packet by default */
+    BtpPacket[] denms = {packet(2002), packet(2002), packet(2002)};
+    for (BtpPacket denm : denms) {
+      scheduler.offer(TrafficClass.DENM, denm, System.nanoTime());
+    }
+    assertEquals(1, scheduler.getDropped(TrafficClass.DENM));
+    assertSame(denms[0], scheduler.take());
+    assertSame(denms[1], scheduler.take());
+
+    /* CAM drops the oldest packet by default */
+    BtpPacket[] cams = {packet(2001), packet(2001), packet(2001)};
+    assertTrue(scheduler.offer(TrafficClass.CAM, cams[0], System.nanoTime()));
+    assertTrue(scheduler.offer(TrafficClass.CAM, cams[1], System.nanoTime()));
+    assertFalse(scheduler.offer(TrafficClass.CAM, cams[2], System.nanoTime()));
+    assertEquals(1, scheduler.getDropped(TrafficClass.CAM));
+    assertSame(cams[1], scheduler.take());
+    assertSame(cams[2], scheduler.take());
+  }
+
+  /* Packets whose age budget is spent are dropped instead of taken */
+  @Test
+  public void testStale() throws InterruptedException {
+    Properties props = new Properties();
+    Metrics metrics = new Metrics();
+    StaleMessageFilter staleFilter = new StaleMessageFilter("tx", props, metrics);
+    TransmitScheduler scheduler = new TransmitScheduler(props, staleFilter, metrics);
+    BtpPacket stale = packet(2002);
+    BtpPacket fresh = packet(2001);
+    long now = System.nanoTime();
+    scheduler.offer(TrafficClass.DENM, stale, now - TimeUnit.SECONDS.toNanos(2));
+    scheduler.offer(TrafficClass.CAM, fresh, now);
+    assertSame(fresh, scheduler.take());
+    assertEquals(1, staleFilter.getStale(TrafficClass.DENM));
+    assertEquals(0, scheduler.depth(TrafficClass.DENM));
+  }
+
+  @Test
+  public void testInvalidProperties() {
+    Properties props = new Properties();
+    props.setProperty("transmitDropIclcm", "random");
+    try {
+      scheduler(props);
+      fail("Created a scheduler with an unknown drop policy");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
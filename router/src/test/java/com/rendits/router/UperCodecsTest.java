@@ -0,0 +1,136 @@
+package com.rendits.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import net.gcdc.asn1.uper.UperEncoder;
+import net.gcdc.camdenm.CoopIts.Cam;
+import net.gcdc.camdenm.CoopIts.Denm;
+import net.gcdc.camdenm.Iclcm.IgameCooperativeLaneChangeMessage;
+import net.gcdc.camdenm.UperCodecs;
+import org.junit.Test;
+
+/* Differential test of the generated UPER codecs against UperEncoder. */
+public class UperCodecsTest {
+  private static final int RANDOM_MESSAGES = 500;
+
+  private final RandomMessages random = new RandomMessages(2018);
+
+  @Test
+  public void testSampleMessages() {
+    Cam cam = SampleMessages.getSampleCam().asCam();
+    byte[] camBytes = UperEncoder.encode(cam);
+    assertArrayEquals(camBytes, UperCodecs.encode(cam));
+    assertEquals(SampleMessages.getSampleCam(), new SimpleCam(UperCodecs.decodeCam(camBytes)));
+
+    Denm denm = SampleMessages.getSampleDenm().asDenm();
+    byte[] denmBytes = UperEncoder.encode(denm);
+    assertArrayEquals(denmBytes, UperCodecs.encode(denm));
+    assertArrayEquals(denmBytes, UperEncoder.encode(UperCodecs.decodeDenm(denmBytes)));
+
+    IgameCooperativeLaneChangeMessage iclcm = SampleMessages.getSampleIclcm().asIclcm();
+    byte[] iclcmBytes = UperEncoder.encode(iclcm);
+    assertArrayEquals(iclcmBytes, UperCodecs.encode(iclcm));
+    assertEquals(
+        SampleMessages.getSampleIclcm(),
+        new SimpleIclcm(UperCodecs.decodeIgameCooperativeLaneChangeMessage(iclcmBytes)));
+  }
+
+  /* Decoding fills absent optional fields with their defaults, just like
+   * UperEncoder does, so decoded messages are compared with the messages
+   * UperEncoder decodes rather than with the originals. */
+  @Test
+  public void testRandomCams() throws Exception {
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      Cam cam = random.randomValue(Cam.class);
+      byte[] expected = UperEncoder.encode(cam);
+      assertArrayEquals(expected, UperCodecs.encode(cam));
+      assertSameFields(UperEncoder.decode(expected, Cam.class), UperCodecs.decodeCam(expected));
+    }
+  }
+
+  @Test
+  public void testRandomDenms() throws Exception {
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      Denm denm = random.randomValue(Denm.class);
+      byte[] expected = UperEncoder.encode(denm);
+      assertArrayEquals(expected, UperCodecs.encode(denm));
+      assertSameFields(UperEncoder.decode(expected, Denm.class), UperCodecs.decodeDenm(expected));
+    }
+  }
+
+  @Test
+  public void testRandomIclcms() throws Exception {
+    for (int i = 0; i < RANDOM_MESSAGES; i++) {
+      IgameCooperativeLaneChangeMessage iclcm =
+          random.randomValue(IgameCooperativeLaneChangeMessage.class);
+      byte[] expected = UperEncoder.encode(iclcm);
+      assertArrayEquals(expected, UperCodecs.encode(iclcm));
+      assertSameFields(
+          UperEncoder.decode(expected, IgameCooperativeLaneChangeMessage.class),
+          UperCodecs.decodeIgameCooperativeLaneChangeMessage(expected));
+    }
+  }
+
+  @Test
+  public void testOutOfRange() {
+    Cam cam = SampleMessages.getSampleCam().asCam();
+    cam.getHeader().getStationID().value = -1;
+    try {
+      UperEncoder.encode(cam);
+      fail("UperEncoder accepted an out of range station ID");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      UperCodecs.encode(cam);
+      fail("The generated codec accepted an out of range station ID");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTrailingBits() {
+    byte[] camBytes = UperEncoder.encode(SampleMessages.getSampleCam().asCam());
+    byte[] padded = new byte[camBytes.length + 1];
+    System.arraycopy(camBytes, 0, padded, 0, camBytes.length);
+    try {
+      UperCodecs.decodeCam(padded);
+      fail("The generated codec accepted trailing bytes");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /* The ASN.1 classes don't implement equals, so compare them field by field */
+  private static void assertSameFields(Object expected, Object actual) throws Exception {
+    if (expected == null || actual == null) {
+      assertEquals(expected, actual);
+      return;
+    }
+    assertEquals(expected.getClass(), actual.getClass());
+    if (expected instanceof List) {
+      List<?> expectedItems = (List<?>) expected;
+      List<?> actualItems = (List<?>) actual;
+      assertEquals(expectedItems.size(), actualItems.size());
+      for (int i = 0; i < expectedItems.size(); i++) {
+        assertSameFields(expectedItems.get(i), actualItems.get(i));
+      }
+      return;
+    }
+    Class<?> type = expected.getClass();
+    if (!type.getName().startsWith("net.gcdc.camdenm") || type.isEnum()) {
+      assertEquals(expected, actual);
+      return;
+    }
+    for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+      for (Field field : RandomMessages.instanceFields(c)) {
+        assertSameFields(field.get(expected), field.get(actual));
+      }
+    }
+  }
+}
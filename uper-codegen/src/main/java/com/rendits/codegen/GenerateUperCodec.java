@@ -0,0 +1,38 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Request a UPER codec for a set of ASN.1 message types. At compile time {@link
+ * UperCodecProcessor} generates a class with an encoder and a decoder for each type. The class is
+ * placed in the package of the message types, so that it can read and write their fields directly
+ * instead of by reflection.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target({ElementType.PACKAGE, ElementType.TYPE})
+public @interface GenerateUperCodec {
+
+  /** Message types to generate codecs for. They must all be in the same package. */
+  Class<?>[] value();
+
+  /** Simple name of the generated class. */
+  String className() default "UperCodecs";
+}
@@ -0,0 +1,885 @@
+/* Copyright 2018 Rendits
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.rendits.codegen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ *
+ *
+ * <h1>UPER codec generator</h1>
+ *
+ * <p>Annotation processor that generates unaligned packed encoding rules (UPER) codecs for the
+ * message types listed in {@link GenerateUperCodec}. The message types are the ASN.1 classes of
+ * the net.gcdc asn1-datatypes library. The generated code walks the same class graph as the
+ * reflective UperEncoder does at run time, but does so once at compile time. The encoders and
+ * decoders it produces read and write fields directly and produce the same bits as UperEncoder.
+ *
+ * <p>Strings, big integers and extension additions are not covered. The generated methods for
+ * those throw UnsupportedOperationException, so that callers can fall back to UperEncoder.
+ */
+@SupportedAnnotationTypes("com.rendits.codegen.GenerateUperCodec")
+public class UperCodecProcessor extends AbstractProcessor {
+
+  /* Package of the ASN.1 annotations. They are matched by name so that
+   * the processor does not depend on the library.
+   */
+  private static final String ASN1 = "net.gcdc.asn1.datatypes.";
+
+  /* Package of the bit writer and reader used by the generated code */
+  private static final String RUNTIME_PACKAGE = "com.rendits.router";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(GenerateUperCodec.class)) {
+      AnnotationMirror request = findAnnotation(element, GenerateUperCodec.class.getName());
+      List<TypeElement> messageTypes = new ArrayList<>();
+      String className = null;
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+          processingEnv.getElementUtils().getElementValuesWithDefaults(request).entrySet()) {
+        String name = entry.getKey().getSimpleName().toString();
+        if (name.equals("value")) {
+          for (Object item : (List<?>) entry.getValue().getValue()) {
+            TypeMirror type = (TypeMirror) ((AnnotationValue) item).getValue();
+            messageTypes.add((TypeElement) processingEnv.getTypeUtils().asElement(type));
+          }
+        } else if (name.equals("className")) {
+          className = (String) entry.getValue().getValue();
+        }
+      }
+
+      try {
+        new CodecGenerator(className, messageTypes).write(element);
+      } catch (CodecGenerationException e) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), element);
+      } catch (IOException e) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR, "Failed to write UPER codec " + className + ": " + e, element);
+      }
+    }
+    return true;
+  }
+
+  /** Thrown when a message type can not be handled at all. Reported as a compile error. */
+  private static class CodecGenerationException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    CodecGenerationException(String message) {
+      super(message);
+    }
+  }
+
+  /** The kinds of ASN.1 types, checked in the same order UperEncoder picks its coders. */
+  private enum Asn1Kind {
+    INTEGER,
+    SEQUENCE,
+    CHOICE,
+    ENUMERATED,
+    BITSTRING,
+    VAR_SIZE_BITSTRING,
+    SEQUENCE_OF,
+    UNSUPPORTED
+  }
+
+  /** Generates the source of one codec class. */
+  private final class CodecGenerator {
+    private final String className;
+    private final List<TypeElement> messageTypes;
+    private final String packageName;
+
+    /* Types still to generate methods for, and the method name suffix of
+     * every type seen so far. */
+    private final Deque<TypeElement> pending = new ArrayDeque<>();
+    private final Map<String, String> suffixes = new LinkedHashMap<>();
+    private final Set<String> usedSuffixes = new HashSet<>();
+
+    private final StringBuilder constants = new StringBuilder();
+    private final StringBuilder methods = new StringBuilder();
+
+    CodecGenerator(String className, List<TypeElement> messageTypes)
+        throws CodecGenerationException {
+      if (messageTypes.isEmpty()) {
+        throw new CodecGenerationException("No message types to generate a UPER codec for");
+      }
+      this.className = className;
+      this.messageTypes = messageTypes;
+      this.packageName = packageOf(messageTypes.get(0));
+      for (TypeElement type : messageTypes) {
+        if (!packageOf(type).equals(packageName)) {
+          throw new CodecGenerationException(
+              "All message types must be in the same package. "
+                  + type.getQualifiedName()
+                  + " is not in "
+                  + packageName);
+        }
+      }
+    }
+
+    /** Generate the codec and write it as a new source file. */
+    void write(Element origin) throws CodecGenerationException, IOException {
+      StringBuilder api = new StringBuilder();
+      for (TypeElement type : messageTypes) {
+        api.append(publicMethods(type, suffixOf(type)));
+      }
+      while (!pending.isEmpty()) {
+        TypeElement type = pending.pop();
+        generate(type, suffixes.get(type.getQualifiedName().toString()));
+      }
+
+      String qualifiedName = packageName + "." + className;
+      try (Writer writer =
+          processingEnv.getFiler().createSourceFile(qualifiedName, origin).openWriter()) {
+        writer.write(
+            "/* Generated by "
+                + UperCodecProcessor.class.getName()
+                + ". Do not edit. */\n\n"
+                + "package "
+                + packageName
+                + ";\n\n"
+                + "import "
+                + RUNTIME_PACKAGE
+                + ".UperBitReader;\n"
+                + "import "
+                + RUNTIME_PACKAGE
+                + ".UperBitWriter;\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.List;\n\n"
+                + "/**\n"
+                + " * UPER encoders and decoders generated at compile time. They produce the same"
+                + " bits as\n"
+                + " * UperEncoder without using reflection.\n"
+                + " */\n"
+                + "public final class "
+                + className
+                + " {\n\n"
+                + "  private static final ThreadLocal<UperBitWriter> WRITER =\n"
+                + "      new ThreadLocal<UperBitWriter>() {\n"
+                + "        @Override\n"
+                + "        protected UperBitWriter initialValue() {\n"
+                + "          return new UperBitWriter();\n"
+                + "        }\n"
+                + "      };\n"
+                + constants
+                + "\n  private "
+                + className
+                + "() {}\n"
+                + api
+                + "\n  private static <T> T checkPresent(T value, String name) {\n"
+                + "    if (value == null) {\n"
+                + "      throw new IllegalArgumentException(name + \" is mandatory but null\");\n"
+                + "    }\n"
+                + "    return value;\n"
+                + "  }\n"
+                + methods
+                + "}\n");
+      }
+    }
+
+    /** Return the public encode and decode methods of a message type. */
+    private String publicMethods(TypeElement type, String suffix) {
+      String name = type.getQualifiedName().toString();
+      String simpleName = type.getSimpleName().toString();
+      String label = relativeName(type);
+      return "\n  /**\n"
+          + "   * Encode a "
+          + simpleName
+          + ".\n"
+          + "   *\n"
+          + "   * @param value The message to encode.\n"
+          + "   * @return The UPER encoded message.\n"
+          + "   */\n"
+          + "  public static byte[] encode("
+          + name
+          + " value) {\n"
+          + "    UperBitWriter out = WRITER.get();\n"
+          + "    out.reset();\n"
+          + "    encode(out, value);\n"
+          + "    return out.toByteArray();\n"
+          + "  }\n\n"
+          + "  /**\n"
+          + "   * Encode a "
+          + simpleName
+          + " into a bit writer.\n"
+          + "   *\n"
+          + "   * @param out Writer to append the encoded message to.\n"
+          + "   * @param value The message to encode.\n"
+          + "   */\n"
+          + "  public static void encode(UperBitWriter out, "
+          + name
+          + " value) {\n"
+          + "    encode"
+          + suffix
+          + "(out, checkPresent(value, \""
+          + label
+          + "\"));\n"
+          + "  }\n\n"
+          + "  /**\n"
+          + "   * Decode a "
+          + simpleName
+          + ".\n"
+          + "   *\n"
+          + "   * @param data The UPER encoded message.\n"
+          + "   * @return The decoded message.\n"
+          + "   */\n"
+          + "  public static "
+          + name
+          + " decode"
+          + simpleName
+          + "(byte[] data) {\n"
+          + "    UperBitReader in = new UperBitReader(data);\n"
+          + "    "
+          + name
+          + " result = decode"
+          + suffix
+          + "(in);\n"
+          + "    if (in.remaining() > 7) {\n"
+          + "      throw new IllegalArgumentException(\n"
+          + "          \"Can't fully decode "
+          + label
+          + ", \" + in.remaining() + \" bits remaining\");\n"
+          + "    }\n"
+          + "    return result;\n"
+          + "  }\n\n"
+          + "  /**\n"
+          + "   * Decode a "
+          + simpleName
+          + " from a bit reader.\n"
+          + "   *\n"
+          + "   * @param in Reader positioned at the start of the encoded message.\n"
+          + "   * @return The decoded message.\n"
+          + "   */\n"
+          + "  public static "
+          + name
+          + " decode"
+          + simpleName
+          + "(UperBitReader in) {\n"
+          + "    return decode"
+          + suffix
+          + "(in);\n"
+          + "  }\n";
+    }
+
+    /** Generate the private encode and decode methods of a type. */
+    private void generate(TypeElement type, String suffix) throws CodecGenerationException {
+      String name = type.getQualifiedName().toString();
+      StringBuilder encode = new StringBuilder();
+      StringBuilder decode = new StringBuilder();
+      switch (kindOf(type)) {
+        case INTEGER:
+          integer(type, encode, decode);
+          break;
+        case SEQUENCE:
+          sequence(type, encode, decode);
+          break;
+        case CHOICE:
+          choice(type, encode, decode);
+          break;
+        case ENUMERATED:
+          enumerated(type, suffix, encode, decode);
+          break;
+        case BITSTRING:
+          bitstring(type, encode, decode);
+          break;
+        case VAR_SIZE_BITSTRING:
+          varSizeBitstring(type, encode, decode);
+          break;
+        case SEQUENCE_OF:
+          sequenceOf(type, encode, decode);
+          break;
+        default:
+          unsupported(type, encode, decode);
+      }
+      methods
+          .append("\n  private static void encode")
+          .append(suffix)
+          .append("(UperBitWriter out, ")
+          .append(name)
+          .append(" value) {\n")
+          .append(encode)
+          .append("  }\n\n  private static ")
+          .append(name)
+          .append(" decode")
+          .append(suffix)
+          .append("(UperBitReader in) {\n")
+          .append(decode)
+          .append("  }\n");
+    }
+
+    private void integer(TypeElement type, StringBuilder encode, StringBuilder decode)
+        throws CodecGenerationException {
+      AnnotationMirror range = findAnnotation(type, ASN1 + "IntRange");
+      if (range == null) {
+        unsupported(type, encode, decode);
+        return;
+      }
+      String min = longLiteral((Long) annotationValue(range, "minValue"));
+      String max = longLiteral((Long) annotationValue(range, "maxValue"));
+      String extensible =
+          (Boolean) annotationValue(range, "hasExtensionMarker") ? "Extensible" : "";
+      String name = type.getQualifiedName().toString();
+      encode.append(
+          "    out.write" + extensible + "ConstrainedInt(value.value, " + min + ", " + max + ");\n");
+      decode
+          .append("    " + name + " result = new " + name + "();\n")
+          .append(
+              "    result.value = in.read"
+                  + extensible
+                  + "ConstrainedInt("
+                  + min
+                  + ", "
+                  + max
+                  + ");\n")
+          .append("    return result;\n");
+    }
+
+    private void sequence(TypeElement type, StringBuilder encode, StringBuilder decode)
+        throws CodecGenerationException {
+      String name = type.getQualifiedName().toString();
+      String label = relativeName(type);
+      List<VariableElement> fields = new ArrayList<>();
+      List<VariableElement> extensions = new ArrayList<>();
+      for (VariableElement field : fieldsOf(type)) {
+        (hasAnnotation(field, ASN1 + "IsExtension") ? extensions : fields).add(field);
+      }
+
+      if (!extensions.isEmpty()) {
+        encode.append("    if (");
+        for (int i = 0; i < extensions.size(); i++) {
+          encode.append(i > 0 ? " || " : "").append("value.").append(extensions.get(i)).append(
+              " != null");
+        }
+        encode.append(
+            ") {\n      throw new UnsupportedOperationException(\"Extension additions of "
+                + label
+                + " are not supported\");\n    }\n");
+      }
+      decode.append("    " + name + " result = new " + name + "();\n");
+      if (hasAnnotation(type, ASN1 + "HasExtensionMarker")) {
+        encode.append("    out.writeBit(false);\n");
+        decode.append(extensionCheck(label));
+      }
+
+      /* Presence bitmap of the optional fields, in declaration order */
+      int optionals = 0;
+      for (VariableElement field : fields) {
+        if (isOptional(field)) {
+          encode.append("    out.writeBit(value." + field + " != null);\n");
+          decode.append("    boolean present" + optionals + " = in.readBit();\n");
+          optionals++;
+        }
+      }
+
+      optionals = 0;
+      for (VariableElement field : fields) {
+        String access = "value." + field;
+        if (isOptional(field)) {
+          encode
+              .append("    if (" + access + " != null) {\n")
+              .append("  " + encodeStatement(field.asType(), access))
+              .append("    }\n");
+          decode
+              .append("    if (present" + optionals + ") {\n")
+              .append("      result." + field + " = " + decodeExpression(field.asType()) + ";\n")
+              .append("    }\n");
+          optionals++;
+        } else {
+          encode.append(
+              encodeStatement(field.asType(), checkPresent(field, access, label + "." + field)));
+          decode.append(
+              "    result." + field + " = " + decodeExpression(field.asType()) + ";\n");
+        }
+      }
+      decode.append("    return result;\n");
+    }
+
+    private void choice(TypeElement type, StringBuilder encode, StringBuilder decode)
+        throws CodecGenerationException {
+      String name = type.getQualifiedName().toString();
+      String label = relativeName(type);
+      boolean extensible = hasAnnotation(type, ASN1 + "HasExtensionMarker");
+      List<VariableElement> alternatives = new ArrayList<>();
+      List<VariableElement> extensions = new ArrayList<>();
+      for (VariableElement field : fieldsOf(type)) {
+        (hasAnnotation(field, ASN1 + "IsExtension") ? extensions : alternatives).add(field);
+      }
+      int bits = bitsFor(alternatives.size() - 1);
+
+      /* Like UperEncoder, clear any alternative set by the constructor */
+      decode.append("    " + name + " result = new " + name + "();\n");
+      for (VariableElement field : alternatives) {
+        decode.append("    result." + field + " = null;\n");
+      }
+      for (VariableElement field : extensions) {
+        decode.append("    result." + field + " = null;\n");
+      }
+      if (extensible) {
+        decode.append(extensionCheck(label));
+      }
+      decode.append("    int index = (int) in.readBits(" + bits + ");\n");
+      decode.append("    switch (index) {\n");
+      for (int i = 0; i < alternatives.size(); i++) {
+        VariableElement field = alternatives.get(i);
+        String access = "value." + field;
+        encode.append("    if (" + access + " != null) {\n");
+        if (extensible) {
+          encode.append("      out.writeBit(false);\n");
+        }
+        if (bits > 0) {
+          encode.append("      out.writeBits(" + i + ", " + bits + ");\n");
+        }
+        encode
+            .append("  " + encodeStatement(field.asType(), access))
+            .append("      return;\n")
+            .append("    }\n");
+        decode
+            .append("      case " + i + ":\n")
+            .append(
+                "        result." + field + " = " + decodeExpression(field.asType()) + ";\n")
+            .append("        break;\n");
+      }
+      for (VariableElement field : extensions) {
+        encode
+            .append("    if (value." + field + " != null) {\n")
+            .append(
+                "      throw new UnsupportedOperationException(\"Extension additions of "
+                    + label
+                    + " are not supported\");\n")
+            .append("    }\n");
+      }
+      encode.append(
+          "    throw new IllegalArgumentException(\"No alternative of " + label + " is set\");\n");
+      decode
+          .append("      default:\n")
+          .append(
+              "        throw new IllegalArgumentException(\"Invalid alternative \" + index + \" of "
+                  + label
+                  + "\");\n")
+          .append("    }\n")
+          .append("    return result;\n");
+    }
+
+    private void enumerated(
+        TypeElement type, String suffix, StringBuilder encode, StringBuilder decode)
+        throws CodecGenerationException {
+      String name = type.getQualifiedName().toString();
+      int count = 0;
+      for (Element member : type.getEnclosedElements()) {
+        if (member.getKind() == ElementKind.ENUM_CONSTANT) {
+          if (hasAnnotation(member, ASN1 + "IsExtension")) {
+            unsupported(type, encode, decode);
+            return;
+          }
+          count++;
+        }
+      }
+      int bits = bitsFor(count - 1);
+      String values = constantName(suffix) + "_VALUES";
+      constants.append(
+          "\n  private static final " + name + "[] " + values + " =\n      " + name + ".values();\n");
+
+      if (hasAnnotation(type, ASN1 + "HasExtensionMarker")) {
+        encode.append("    out.writeBit(false);\n");
+        decode.append(extensionCheck(relativeName(type)));
+      }
+      encode.append("    out.writeBits(value.ordinal(), " + bits + ");\n");
+      decode
+          .append("    int index = (int) in.readBits(" + bits + ");\n")
+          .append("    if (index >= " + values + ".length) {\n")
+          .append(
+              "      throw new IllegalArgumentException(\"Invalid value \" + index + \" of "
+                  + relativeName(type)
+                  + "\");\n")
+          .append("    }\n")
+          .append("    return " + values + "[index];\n");
+    }
+
+    private void bitstring(TypeElement type, StringBuilder encode, StringBuilder decode)
+        throws CodecGenerationException {
+      if (hasAnnotation(type, ASN1 + "HasExtensionMarker")
+          || findAnnotation(type, ASN1 + "FixedSize") == null) {
+        unsupported(type, encode, decode);
+        return;
+      }
+      String name = type.getQualifiedName().toString();
+      decode.append("    " + name + " result = new " + name + "();\n");
+      for (VariableElement field : fieldsOf(type)) {
+        if (field.asType().getKind() != TypeKind.BOOLEAN) {
+          throw new CodecGenerationException(
+              "Bit string " + name + " has a field that is not a boolean: " + field);
+        }
+        encode.append("    out.writeBit(value." + field + ");\n");
+        decode.append("    result." + field + " = in.readBit();\n");
+      }
+      decode.append("    return result;\n");
+    }
+
+    private void varSizeBitstring(TypeElement type, StringBuilder encode, StringBuilder decode)
+        throws CodecGenerationException {
+      AnnotationMirror fixedSize = findAnnotation(type, ASN1 + "FixedSize");
+      AnnotationMirror sizeRange = findAnnotation(type, ASN1 + "SizeRange");
+      String name = type.getQualifiedName().toString();
+      if (hasAnnotation(type, ASN1 + "HasExtensionMarker")
+          || (fixedSize == null && sizeRange == null)) {
+        unsupported(type, encode, decode);
+        return;
+      }
+      if (fixedSize != null) {
+        String size = String.valueOf(annotationValue(fixedSize, "value"));
+        encode
+            .append("    for (int i = 0; i < " + size + "; i++) {\n")
+            .append("      out.writeBit(value.getBit(i));\n")
+            .append("    }\n");
+        decode.append("    int size = " + size + ";\n");
+      } else {
+        String min = String.valueOf(annotationValue(sizeRange, "minValue"));
+        String max = String.valueOf(annotationValue(sizeRange, "maxValue"));
+        encode
+            .append("    int size = value.size();\n")
+            .append("    out.writeConstrainedInt(size, " + min + ", " + max + ");\n")
+            .append("    for (int i = 0; i < size; i++) {\n")
+            .append("      out.writeBit(value.getBit(i));\n")
+            .append("    }\n");
+        decode.append("    int size = (int) in.readConstrainedInt(" + min + ", " + max + ");\n");
+      }
+      requireCollectionConstructor(type);
+      decode
+          .append("    List<Boolean> bits = new ArrayList<>(size);\n")
+          .append("    for (int i = 0; i < size; i++) {\n")
+          .append("      bits.add(in.readBit());\n")
+          .append("    }\n")
+          .append("    return new " + name + "(bits);\n");
+    }
+
+    private void sequenceOf(TypeElement type, StringBuilder encode, StringBuilder decode)
+        throws CodecGenerationException {
+      String name = type.getQualifiedName().toString();
+      TypeMirror elementType = sequenceOfElementType(type);
+      AnnotationMirror fixedSize = findAnnotation(type, ASN1 + "FixedSize");
+      AnnotationMirror sizeRange = findAnnotation(type, ASN1 + "SizeRange");
+      if (elementType == null || (fixedSize == null && sizeRange == null)) {
+        unsupported(type, encode, decode);
+        return;
+      }
+
+      String min;
+      String max;
+      String extensible = "";
+      if (fixedSize != null) {
+        min = String.valueOf(annotationValue(fixedSize, "value"));
+        max = min;
+      } else {
+        min = String.valueOf(annotationValue(sizeRange, "minValue"));
+        max = String.valueOf(annotationValue(sizeRange, "maxValue"));
+        if ((Boolean) annotationValue(sizeRange, "hasExtensionMarker")) {
+          extensible = "Extensible";
+        }
+      }
+      String label = relativeName(type);
+      String element = typeName(elementType);
+      requireCollectionConstructor(type);
+      encode
+          .append("    int size = value.size();\n")
+          .append("    out.write" + extensible + "ConstrainedInt(size, " + min + ", " + max + ");\n")
+          .append("    for (int i = 0; i < size; i++) {\n")
+          .append(
+              "  "
+                  + encodeStatement(
+                      elementType, checkPresent(elementType, "value.get(i)", label + " item")))
+          .append("    }\n");
+      decode
+          .append(
+              "    int size = (int) in.read"
+                  + extensible
+                  + "ConstrainedInt("
+                  + min
+                  + ", "
+                  + max
+                  + ");\n")
+          .append("    List<" + element + "> items = new ArrayList<>(size);\n")
+          .append("    for (int i = 0; i < size; i++) {\n")
+          .append("      items.add(" + decodeExpression(elementType) + ");\n")
+          .append("    }\n")
+          .append("    return new " + name + "(items);\n");
+    }
+
+    private void unsupported(TypeElement type, StringBuilder encode, StringBuilder decode) {
+      String message =
+          "throw new UnsupportedOperationException(\"No generated UPER codec for "
+              + relativeName(type)
+              + "\");\n";
+      encode.setLength(0);
+      decode.setLength(0);
+      encode.append("    ").append(message);
+      decode.append("    ").append(message);
+    }
+
+    /** Return the statement that encodes an expression of the given type. */
+    private String encodeStatement(TypeMirror type, String expression)
+        throws CodecGenerationException {
+      if (type.getKind() == TypeKind.BOOLEAN) {
+        return "    out.writeBit(" + expression + ");\n";
+      }
+      if (isByte(type)) {
+        return "    out.writeBits(" + expression + " & 0xff, 8);\n";
+      }
+      return "    encode" + suffixOf(declaredElement(type)) + "(out, " + expression + ");\n";
+    }
+
+    /** Return the expression that decodes a value of the given type. */
+    private String decodeExpression(TypeMirror type) throws CodecGenerationException {
+      if (type.getKind() == TypeKind.BOOLEAN) {
+        return "in.readBit()";
+      }
+      if (isByte(type)) {
+        return "Byte.valueOf((byte) in.readBits(8))";
+      }
+      return "decode" + suffixOf(declaredElement(type)) + "(in)";
+    }
+
+    /** Wrap a mandatory reference in a null check. Primitives are returned as is. */
+    private String checkPresent(VariableElement field, String access, String label) {
+      return checkPresent(field.asType(), access, label);
+    }
+
+    private String checkPresent(TypeMirror type, String access, String label) {
+      if (type.getKind().isPrimitive()) {
+        return access;
+      }
+      return "checkPresent(" + access + ", \"" + label + "\")";
+    }
+
+    private String extensionCheck(String label) {
+      return "    if (in.readBit()) {\n"
+          + "      throw new UnsupportedOperationException(\"Extensions of "
+          + label
+          + " are not supported\");\n"
+          + "    }\n";
+    }
+
+    /**
+     * Return the method name suffix of a type, scheduling generation of its methods the first time
+     * the type is seen.
+     */
+    private String suffixOf(TypeElement type) {
+      String name = type.getQualifiedName().toString();
+      String suffix = suffixes.get(name);
+      if (suffix == null) {
+        String base = relativeName(type).replace(".", "");
+        suffix = base;
+        for (int i = 2; !usedSuffixes.add(suffix); i++) {
+          suffix = base + i;
+        }
+        suffixes.put(name, suffix);
+        pending.add(type);
+      }
+      return suffix;
+    }
+
+    private Asn1Kind kindOf(TypeElement type) {
+      if (isSubtypeOf(type, ASN1 + "Asn1Integer")) {
+        return Asn1Kind.INTEGER;
+      } else if (hasAnnotation(type, ASN1 + "Sequence")) {
+        return Asn1Kind.SEQUENCE;
+      } else if (hasAnnotation(type, ASN1 + "Choice")) {
+        return Asn1Kind.CHOICE;
+      } else if (type.getKind() == ElementKind.ENUM) {
+        return Asn1Kind.ENUMERATED;
+      } else if (hasAnnotation(type, ASN1 + "Bitstring")) {
+        return isSubtypeOf(type, ASN1 + "Asn1VarSizeBitstring")
+            ? Asn1Kind.VAR_SIZE_BITSTRING
+            : Asn1Kind.BITSTRING;
+      } else if (isSubtypeOf(type, ASN1 + "Asn1SequenceOf")) {
+        return Asn1Kind.SEQUENCE_OF;
+      }
+      return Asn1Kind.UNSUPPORTED;
+    }
+
+    /** Return the instance fields of a type in declaration order, checking that they are usable. */
+    private List<VariableElement> fieldsOf(TypeElement type) throws CodecGenerationException {
+      List<VariableElement> fields = new ArrayList<>();
+      for (Element member : type.getEnclosedElements()) {
+        if (member.getKind() != ElementKind.FIELD || member.getModifiers().contains(Modifier.STATIC)) {
+          continue;
+        }
+        if (member.getModifiers().contains(Modifier.PRIVATE)
+            || member.getModifiers().contains(Modifier.FINAL)) {
+          throw new CodecGenerationException(
+              "Field " + member + " of " + type.getQualifiedName() + " is private or final");
+        }
+        fields.add((VariableElement) member);
+      }
+      return fields;
+    }
+
+    private TypeMirror sequenceOfElementType(TypeElement type) {
+      TypeMirror superclass = type.getSuperclass();
+      if (superclass.getKind() != TypeKind.DECLARED) {
+        return null;
+      }
+      DeclaredType declared = (DeclaredType) superclass;
+      if (!((TypeElement) declared.asElement())
+              .getQualifiedName()
+              .contentEquals(ASN1 + "Asn1SequenceOf")
+          || declared.getTypeArguments().size() != 1) {
+        return null;
+      }
+      return declared.getTypeArguments().get(0);
+    }
+
+    private void requireCollectionConstructor(TypeElement type) throws CodecGenerationException {
+      for (Element member : type.getEnclosedElements()) {
+        if (member.getKind() == ElementKind.CONSTRUCTOR
+            && !member.getModifiers().contains(Modifier.PRIVATE)) {
+          List<? extends VariableElement> parameters =
+              ((ExecutableElement) member).getParameters();
+          if (parameters.size() == 1
+              && processingEnv
+                  .getTypeUtils()
+                  .erasure(parameters.get(0).asType())
+                  .toString()
+                  .equals("java.util.Collection")) {
+            return;
+          }
+        }
+      }
+      throw new CodecGenerationException(
+          type.getQualifiedName() + " has no constructor taking a collection");
+    }
+
+    private TypeElement declaredElement(TypeMirror type) throws CodecGenerationException {
+      if (type.getKind() != TypeKind.DECLARED) {
+        throw new CodecGenerationException("Unsupported field type " + type);
+      }
+      return (TypeElement) ((DeclaredType) type).asElement();
+    }
+
+    private String typeName(TypeMirror type) throws CodecGenerationException {
+      return declaredElement(type).getQualifiedName().toString();
+    }
+
+    private boolean isByte(TypeMirror type) {
+      return type.getKind() == TypeKind.DECLARED
+          && ((TypeElement) ((DeclaredType) type).asElement())
+              .getQualifiedName()
+              .contentEquals("java.lang.Byte");
+    }
+
+    private boolean isOptional(VariableElement field) {
+      return hasAnnotation(field, ASN1 + "Asn1Optional");
+    }
+
+    private boolean isSubtypeOf(TypeElement type, String superclassName) {
+      TypeMirror superclass = type.getSuperclass();
+      while (superclass.getKind() == TypeKind.DECLARED) {
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        if (element.getQualifiedName().contentEquals(superclassName)) {
+          return true;
+        }
+        superclass = element.getSuperclass();
+      }
+      return false;
+    }
+
+    private String packageOf(TypeElement type) {
+      PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+      return pkg.getQualifiedName().toString();
+    }
+
+    /** Return the name of a type relative to its package, e.g., CoopIts.Cam. */
+    private String relativeName(TypeElement type) {
+      return type.getQualifiedName().toString().substring(packageName.length() + 1);
+    }
+  }
+
+  private static boolean hasAnnotation(Element element, String annotationName) {
+    return findAnnotation(element, annotationName) != null;
+  }
+
+  private static AnnotationMirror findAnnotation(Element element, String annotationName) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+        return mirror;
+      }
+    }
+    return null;
+  }
+
+  private Object annotationValue(AnnotationMirror mirror, String name) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals(name)) {
+        return entry.getValue().getValue();
+      }
+    }
+    throw new IllegalStateException("Annotation " + mirror + " has no value " + name);
+  }
+
+  /** Return the number of bits needed for the values 0 to maxValue. */
+  private static int bitsFor(long maxValue) {
+    return 64 - Long.numberOfLeadingZeros(maxValue);
+  }
+
+  private static String longLiteral(long value) {
+    return value == Long.MIN_VALUE ? "Long.MIN_VALUE" : value + "L";
+  }
+
+  /** Turn a method name suffix such as CoopItsStationType into COOP_ITS_STATION_TYPE. */
+  private static String constantName(String suffix) {
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i < suffix.length(); i++) {
+      char c = suffix.charAt(i);
+      if (i > 0 && Character.isUpperCase(c) && !Character.isUpperCase(suffix.charAt(i - 1))) {
+        name.append('_');
+      }
+      name.append(Character.toUpperCase(c));
+    }
+    return name.toString();
+  }
+}